@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of queries processed at the same time by the attribute
+ * service. Queries exceeding the limit wait in a bounded queue for up to a
+ * given time; if the queue is full or they are not admitted in time, they are
+ * shed, so an overloaded directory does not lead to ever growing latencies
+ * for all queries. Queries are admitted in order of arrival.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class AdmissionController implements AdmissionControllerMBean {
+//////////////////////////////////////// Fields
+
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long waitMillis;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+//////////////////////////////////////// Constructors
+    /**
+     * @param maxInFlight Maximum number of queries in flight at the same time
+     * @param maxQueued Maximum number of queries waiting for admission
+     * @param waitMillis Maximum time in milliseconds a query waits for
+     * admission
+     */
+    public AdmissionController(int maxInFlight, int maxQueued, long waitMillis) {
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.waitMillis = waitMillis;
+        permits = new Semaphore(maxInFlight, true);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Admits a query, waiting for up to the configured time if the maximum
+     * number of queries is in flight. Each query admitted must be released
+     * once it has been answered.
+     *
+     * @return true if the query has been admitted, false if it is to be shed
+     */
+    public boolean admit() {
+        try {
+            if (permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return admitted(1);
+            }
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                shed.incrementAndGet();
+                return false;
+            }
+            try {
+                if (permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                    return admitted(1);
+                }
+            } finally {
+                queued.decrementAndGet();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        shed.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Admits further queries of a query admitted before, e.g. the other
+     * queries of a batch, without waiting. Each query admitted must be
+     * released once it has been answered.
+     *
+     * @param queries The number of further queries
+     * @return true if the queries have been admitted, false if they are to be
+     * shed
+     */
+    public boolean admitMore(int queries) {
+        try {
+            if (permits.tryAcquire(queries, 0, TimeUnit.MILLISECONDS)) {
+                return admitted(queries);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        shed.addAndGet(queries);
+        return false;
+    }
+
+    /**
+     * Releases a query admitted before.
+     */
+    public void release() {
+        release(1);
+    }
+
+    /**
+     * Releases queries admitted before.
+     *
+     * @param queries The number of queries
+     */
+    public void release(int queries) {
+        permits.release(queries);
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    @Override
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    @Override
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    @Override
+    public int getQueued() {
+        return queued.get();
+    }
+
+    @Override
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    @Override
+    public long getShed() {
+        return shed.get();
+    }
+
+    @Override
+    public void resetStatistics() {
+        peakInFlight.set(getInFlight());
+        admitted.set(0);
+        shed.set(0);
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Records the admission of queries.
+     *
+     * @return true
+     */
+    private boolean admitted(int queries) {
+        admitted.addAndGet(queries);
+        final int current = getInFlight();
+        int peak = peakInFlight.get();
+        while (current > peak && !peakInFlight.compareAndSet(peak, current)) {
+            peak = peakInFlight.get();
+        }
+        return true;
+    }
+}
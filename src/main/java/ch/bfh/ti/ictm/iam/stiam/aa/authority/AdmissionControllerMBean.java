@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+/**
+ * Management interface of the AdmissionController, exposed via JMX.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public interface AdmissionControllerMBean {
+
+    /**
+     * @return Maximum number of queries in flight at the same time
+     */
+    public int getMaxInFlight();
+
+    /**
+     * @return Maximum number of queries waiting for admission
+     */
+    public int getMaxQueued();
+
+    /**
+     * @return Number of queries currently in flight
+     */
+    public int getInFlight();
+
+    /**
+     * @return Highest number of queries in flight at the same time
+     */
+    public int getPeakInFlight();
+
+    /**
+     * @return Number of queries currently waiting for admission
+     */
+    public int getQueued();
+
+    /**
+     * @return Number of queries admitted
+     */
+    public long getAdmitted();
+
+    /**
+     * @return Number of queries shed, because the wait queue was full or they
+     * were not admitted in time
+     */
+    public long getShed();
+
+    /**
+     * Resets all counters.
+     */
+    public void resetStatistics();
+}
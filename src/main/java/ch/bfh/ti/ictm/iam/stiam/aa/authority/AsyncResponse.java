@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The response of a query processed asynchronously. Either the workers
+ * processing the query or the container (if the query times out) answer it,
+ * whichever comes first: As soon as the workers start writing the response, a
+ * timeout waits for them to complete it. Once the query has timed out, all
+ * output of the workers is discarded, as the container might already reuse
+ * the response for another request.
+ *
+ * An optional hook is run exactly once, as soon as the workers complete the
+ * request: Also if the query has timed out or failed before, the workers may
+ * still be busy with it until then, e.g. waiting for the directory.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+class AsyncResponse extends HttpServletResponseWrapper implements AsyncListener {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncResponse.class);
+
+    private static final int OPEN = 0;
+    private static final int RESPONDING = 1;
+    private static final int COMPLETED = 2;
+    private static final int ABANDONED = 3;
+
+    // Time a timeout waits for workers writing the response to complete it
+    private static final long COMPLETION_WAIT_MILLIS = 5000;
+
+    private final AsyncContext context;
+    private final AtomicInteger state = new AtomicInteger(OPEN);
+    private final CountDownLatch completion = new CountDownLatch(1);
+    private final Runnable onDone;
+    private final AtomicBoolean done = new AtomicBoolean();
+
+//////////////////////////////////////// Constructors
+    /**
+     * @param context The context of the asynchronous request
+     * @param timeoutMillis Time after which the query is answered with HTTP
+     * 503, 0 for no timeout
+     * @param onDone Run once the workers have completed the request, null
+     * for none
+     */
+    AsyncResponse(AsyncContext context, long timeoutMillis, Runnable onDone) {
+        super((HttpServletResponse) context.getResponse());
+        this.context = context;
+        this.onDone = onDone;
+        context.setTimeout(timeoutMillis);
+        context.addListener(this);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Completes the asynchronous request, unless it has timed out. Must be
+     * called by the workers after having written the response.
+     */
+    void complete() {
+        if (state.compareAndSet(OPEN, COMPLETED) || state.compareAndSet(RESPONDING, COMPLETED)) {
+            context.complete();
+        }
+        completion.countDown();
+        done();
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        if (claim()) {
+            super.setStatus(sc);
+        }
+    }
+
+    @Override
+    public void setContentType(String type) {
+        if (claim()) {
+            super.setContentType(type);
+        }
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        if (claim()) {
+            super.setContentLength(len);
+        }
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        if (claim()) {
+            super.setContentLengthLong(len);
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (claim()) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (claim()) {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        return claim() ? super.getOutputStream() : new DiscardingOutputStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        return claim() ? super.getWriter()
+                : new PrintWriter(new OutputStreamWriter(new DiscardingOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+        if (state.compareAndSet(OPEN, ABANDONED)) {
+            logger.error("Query timed out, rejecting it!");
+            final HttpServletResponse res = (HttpServletResponse) getResponse();
+            res.setStatus(503);
+            res.setContentType("text/plain");
+            res.getWriter().println("Query timed out");
+            context.complete();
+        } else {
+            try {
+                completion.await(COMPLETION_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        logger.error("Error while processing query asynchronously: {}", event.getThrowable());
+        state.set(ABANDONED);   // the container takes care of the response
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Runs the hook, if not run before.
+     */
+    private void done() {
+        if (onDone != null && done.compareAndSet(false, true)) {
+            onDone.run();
+        }
+    }
+
+    /**
+     * @return true if the workers may write the response, i.e. the query has
+     * not timed out
+     */
+    private boolean claim() {
+        return state.compareAndSet(OPEN, RESPONDING) || state.get() == RESPONDING;
+    }
+
+//////////////////////////////////////// Inner classes
+    /**
+     * Swallows the output of workers after the query has timed out.
+     */
+    private static final class DiscardingOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
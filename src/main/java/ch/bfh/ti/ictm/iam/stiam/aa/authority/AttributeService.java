@@ -8,23 +8,46 @@ package ch.bfh.ti.ictm.iam.stiam.aa.authority;
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.Directory;
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryException;
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryFactory;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryTimeoutException;
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.ldap.NameIDNotFoundException;
 import ch.bfh.ti.ictm.iam.stiam.aa.eligibility.EligibilityChecker;
 import ch.bfh.ti.ictm.iam.stiam.aa.eligibility.EligibilityCheckerFactory;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.Monitoring;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RateLimitedLogger;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingPartyConfiguration;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.Attribute;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.AttributeResponseBuilder;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.ExtendedAttributeQueryBuilder;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.MessageBuilder;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.PostBindingEncoder;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.ResponseBuilder;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.SerializationEngine;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.SigningProfile;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.TemplateAttributeResponseBuilder;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -32,29 +55,30 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.TransformerException;
 import org.joda.time.DateTime;
+import org.opensaml.Configuration;
 import org.opensaml.DefaultBootstrap;
 import org.opensaml.common.binding.BasicSAMLMessageContext;
-import org.opensaml.common.binding.decoding.BaseSAMLMessageDecoder;
 import org.opensaml.saml2.binding.decoding.HTTPPostDecoder;
-import org.opensaml.saml2.binding.decoding.HTTPSOAP11Decoder;
 import org.opensaml.saml2.core.Assertion;
 import org.opensaml.saml2.core.AttributeQuery;
 import org.opensaml.saml2.core.AuthnStatement;
 import org.opensaml.ws.message.MessageContext;
 import org.opensaml.ws.message.decoder.MessageDecodingException;
-import org.opensaml.ws.soap.soap11.Envelope;
 import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
 import org.opensaml.xml.ConfigurationException;
-import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.io.UnmarshallingException;
 import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.x509.X509Credential;
 import org.opensaml.xml.signature.Signature;
 import org.opensaml.xml.signature.SignatureException;
 import org.opensaml.xml.signature.SignatureValidator;
 import org.opensaml.xml.validation.ValidationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 
 /**
  * AttributeService-servlet of the STIAM attribute authority. Receives extended
@@ -63,7 +87,7 @@ import org.slf4j.LoggerFactory;
  * @author Pascal Mainini
  * @author Marc Kunz
  */
-@WebServlet(urlPatterns = {"/"})
+@WebServlet(urlPatterns = {"/"}, asyncSupported = true, loadOnStartup = 1)
 @SuppressWarnings("serial")
 public class AttributeService extends HttpServlet {
 
@@ -72,10 +96,62 @@ public class AttributeService extends HttpServlet {
     private static final StiamConfiguration config = StiamConfiguration.getInstance();
     private static EligibilityChecker eligibilityChecker;
     private static Directory directory;
+    private static VerifiedAssertionCache assertionCache;
+    private static SigningStage signingStage;
+    private static EnvelopeScanner envelopeScanner;
+    private static HTTPPostDecoder postDecoder;
+    private static ProcessingStage verificationStage;
+    private static ProcessingStage directoryStage;
+    private static AdmissionController admissionController;
+    private static Thread warmupThread;
+    private static volatile boolean ready;
+
+    // Errors of queries rejected before the relying party has been authenticated are logged rate-limited
+    private static final RateLimitedLogger rejectionLogger = new RateLimitedLogger(logger,
+            config.getPreAuthErrorLogsPerMinute());
+
+    // Request attribute holding the verified TLS client certificate chain (Servlet specification)
+    private static final String CLIENT_CERTIFICATE_ATTRIBUTE = "javax.servlet.request.X509Certificate";
+
+    // Pre-serialized SOAP fault used for rejecting unauthenticated queries in PreAuthErrorMode.STATIC
+    private static final byte[] STATIC_FAULT = SerializationEngine.getInstance().encodeSOAPEnvelope(
+            "<soap11:Fault><faultcode>soap11:Client</faultcode><faultstring>Request rejected</faultstring></soap11:Fault>");
+
+    // Static parts of the HTML-form sent with the HTTP-POST binding, around destination and message
+    private static final String POST_FORM_START = "<!DOCTYPE html>\n<html><head>\n<meta charset=\"utf-8\"/>\n"
+            + "<title>SAMLResponse</title>\n</head>\n"
+            + "<body onload=\"function () { document.forms[0].submit(); }\">\n<form method=\"post\" action=\"";
+    private static final String POST_FORM_INPUT = "\">\n<input type=\"hidden\" name=\"SAMLResponse\" value=\"";
+    private static final byte[] POST_FORM_END = "\"/>\n</form>\n</body>\n</html>\n".getBytes(
+            Charset.forName(SerializationEngine.ENCODING));
+
+    // The directory used instead of the configured one, null for the configured one
+    private final transient Directory customDirectory;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Creates the service with the configured directory.
+     */
+    public AttributeService() {
+        this(null);
+    }
+
+    /**
+     * Creates the service with the given directory, used instead of the
+     * configured one once initialized.
+     *
+     * @param directory The directory to fetch attributes from, null for the
+     * configured one
+     */
+    AttributeService(Directory directory) {
+        customDirectory = directory;
+    }
 
 //////////////////////////////////////// Methods
     /**
      * Inherited from HttpServlet, some basic initialization is performed here.
+     * If configured, the warm-up is started afterwards (see warmUp()), the
+     * authority reports to be ready once it has finished.
      *
      * @throws ServletException If initialisation fails for some reason.
      */
@@ -83,19 +159,196 @@ public class AttributeService extends HttpServlet {
     public void init() throws ServletException {
         try {
             DefaultBootstrap.bootstrap();   // initialise OpenSAML
-            directory = DirectoryFactory.getInstance().createDirectory();
+            directory = customDirectory != null ? customDirectory : DirectoryFactory.getInstance().createDirectory();
             eligibilityChecker = EligibilityCheckerFactory.getInstance().createEligibilityChecker();
+            assertionCache = new VerifiedAssertionCache(config.getAssertionCacheSize());
+            Monitoring.register("VerifiedAssertionCache", assertionCache);
+            if (signingStage != null) {
+                signingStage.shutdown();
+            }
+            signingStage = new SigningStage(config.getSigningStageThreads(), config.getSigningStageQueueDepth());
+            envelopeScanner = new EnvelopeScanner(config.getMaxRequestSize(), config.getMaxElementDepth(),
+                    config.getMaxAttributesPerElement());
+            shutdownProcessingStages();
+            if (config.useAsyncProcessing()) {
+                final boolean virtualThreads = config.useVirtualThreads() && ProcessingStage.isVirtualThreadSupported();
+                if (config.useVirtualThreads() && !virtualThreads) {
+                    logger.warn("Virtual threads are not supported by this JVM, using worker threads.");
+                }
+                if (virtualThreads) {
+                    verificationStage = ProcessingStage.withVirtualThreads("verification",
+                            config.getVirtualThreadLimit());
+                    directoryStage = ProcessingStage.withVirtualThreads("directory", config.getVirtualThreadLimit());
+                } else {
+                    verificationStage = new ProcessingStage("verification", config.getVerificationThreads(),
+                            config.getProcessingQueueDepth());
+                    directoryStage = new ProcessingStage("directory", config.getDirectoryThreads(),
+                            config.getProcessingQueueDepth());
+                }
+                Monitoring.register("VerificationStage", verificationStage);
+                Monitoring.register("DirectoryStage", directoryStage);
+            }
+            if (config.getMaxInFlightQueries() > 0) {
+                admissionController = new AdmissionController(config.getMaxInFlightQueries(),
+                        config.getAdmissionQueueSize(), config.getAdmissionWaitMillis());
+                Monitoring.register("AdmissionController", admissionController);
+            } else {
+                admissionController = null;
+            }
+            // Decoders hold no state of a message, they are shared by all requests
+            postDecoder = new HTTPPostDecoder(SerializationEngine.getInstance().getParserPool());
+            Monitoring.register("ParserPool", SerializationEngine.getInstance().getParserPool());
+            Monitoring.register("SigningStage", signingStage);
         } catch (ConfigurationException ex) {
             logger.error("Error initializing attribute service: {}", ex.getMessage());
             throw new ServletException(ex);
         }
         logger.info("Sucessfully initialized Attribute Service (AS)!");
+        startWarmup(config.getWarmupQueries());
+    }
+
+    /**
+     * Inherited from HttpServlet, stops the warm-up and the signing and
+     * processing stages.
+     */
+    @Override
+    public void destroy() {
+        startWarmup(0);
+        if (signingStage != null) {
+            signingStage.shutdown();
+        }
+        shutdownProcessingStages();
+        super.destroy();
+    }
+
+    /**
+     * Stops the stages of asynchronous processing, if started.
+     */
+    private static void shutdownProcessingStages() {
+        if (verificationStage != null) {
+            verificationStage.shutdown();
+            verificationStage = null;
+        }
+        if (directoryStage != null) {
+            directoryStage.shutdown();
+            directoryStage = null;
+        }
+    }
+
+    /**
+     * Stops a warm-up in progress and starts a new one in the background,
+     * marking the authority as ready once it has finished.
+     *
+     * @param queries Number of warm-up queries, 0 for none (the authority is
+     * ready at once)
+     */
+    private void startWarmup(final int queries) {
+        synchronized (AttributeService.class) {
+            if (warmupThread != null) {
+                warmupThread.interrupt();
+                warmupThread = null;
+            }
+            ready = queries <= 0;
+            if (ready) {
+                return;
+            }
+
+            warmupThread = new Thread("stiam-aa-warmup") {
+                @Override
+                public void run() {
+                    try {
+                        warmUp(queries);
+                    } finally {
+                        synchronized (AttributeService.class) {
+                            if (warmupThread == this) {
+                                ready = true;
+                                warmupThread = null;
+                            }
+                        }
+                    }
+                }
+            };
+            warmupThread.setDaemon(true);
+            warmupThread.start();
+        }
+    }
+
+    /**
+     * Warms up the processing of queries: Builds synthetic queries for the
+     * configured subject and attributes and processes them exactly like
+     * received queries (see processSync()), from decoding to signing the
+     * response. They are posted over an in-memory connection of an embedded
+     * Jetty, see WarmupServer. This loads and compiles the classes involved
+     * and establishes the connection to the directory, before real queries are
+     * slowed down by it. Stops early if the thread is interrupted or a query
+     * cannot be built.
+     *
+     * @param queries Number of warm-up queries
+     * @return Number of queries answered successfully
+     */
+    int warmUp(int queries) {
+        final long start = System.nanoTime();
+        final List<String[]> attributes = new ArrayList<>();
+        for (String name : config.getWarmupAttributes()) {
+            attributes.add(new String[]{name.trim()});
+        }
+        final ExtendedAttributeQueryBuilder builder = new ExtendedAttributeQueryBuilder(attributes,
+                config.getWarmupNameID());
+
+        logger.info("Warming up with {} queries...", queries);
+        int answered = 0;
+        int processed = 0;
+        @SuppressWarnings("serial")
+        final HttpServlet servlet = new HttpServlet() {
+            @Override
+            protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+                processSync(req, res, DateTime.now(), null);
+            }
+        };
+        WarmupServer server = null;
+        try {
+            server = new WarmupServer(servlet);
+            for (; processed < queries && !Thread.currentThread().isInterrupted(); processed++) {
+                if (server.post(builder.build()) == 200) {
+                    answered++;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            logger.error("Error during warm-up, stopping it: {}", ex.toString());
+        } finally {
+            if (server != null) {
+                try {
+                    server.stop();
+                } catch (Exception ex) {
+                    logger.warn("Unable to stop warm-up server: {}", ex.toString());
+                }
+            }
+        }
+
+        if (answered < processed) {
+            logger.warn("Only {} of {} warm-up queries have been answered successfully, "
+                    + "check the subject and attributes configured for the warm-up!", answered, processed);
+        }
+        logger.info("Warm-up with {} queries finished in {}ms", processed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return answered;
+    }
+
+    /**
+     * @return true if the authority is ready to take traffic, i.e. the
+     * warm-up has finished
+     */
+    static boolean isReady() {
+        return ready;
     }
 
     /**
      * Method inherited from HttpServlet. As all SAML-requests are received with
      * the POST-method, we show a short information page on GET-requests to
-     * inform the user/operator that the AA is up and running.
+     * inform the user/operator that the AA is up and running. GET-requests to
+     * the readiness path are answered by sendReadiness().
      *
      * @param req The request-instance obtained from the container
      * @param res The response-instance obtained from the container
@@ -104,6 +357,13 @@ public class AttributeService extends HttpServlet {
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+        final String path = (req.getServletPath() == null ? "" : req.getServletPath())
+                + (req.getPathInfo() == null ? "" : req.getPathInfo());
+        if (path.equals(config.getReadinessPath())) {
+            sendReadiness(res);
+            return;
+        }
+
         res.setStatus(200);
         res.setContentType("text/html");
         try {
@@ -122,10 +382,32 @@ public class AttributeService extends HttpServlet {
         }
     }
 
+    /**
+     * Answers a readiness check, with HTTP 200 if the authority is ready to
+     * take traffic, HTTP 503 while it is still warming up.
+     *
+     * @param res The response-instance obtained from the container
+     */
+    private void sendReadiness(HttpServletResponse res) {
+        res.setStatus(ready ? 200 : 503);
+        res.setContentType("text/plain");
+        res.setHeader("Cache-Control", "no-store");
+        try {
+            res.getWriter().println(ready ? "READY" : "WARMING UP");
+        } catch (IOException ex) {
+            logger.error("Cannot send readiness, unable to write to response: {}", ex.getMessage());
+        }
+    }
+
     /**
      * Method inherited from HttpServlet. Handles POST-requests, tries to
      * extract extended SAML attribute queries from the request and return
-     * appropriate responses.
+     * appropriate responses. If enabled, queries are admitted by the
+     * admission controller first and shed if the authority is overloaded (see
+     * shed()), the further queries of a batch once it has been decoded (see
+     * admitBatch()). If supported by the container and enabled in the
+     * configuration, queries are processed asynchronously (see
+     * processAsync()), otherwise on the thread of the container.
      *
      * @param req The request-instance obtained from the container
      * @param res The response-instance obtained from the container
@@ -137,269 +419,1098 @@ public class AttributeService extends HttpServlet {
         logger.info("Request received!");
         final DateTime receptionTime = DateTime.now();
 
-        //////////////////// Decode raw request
-        logger.debug("Trying to decode raw request...");
-        final MessageContext messageContext = new BasicSAMLMessageContext();
-        messageContext.setInboundMessageTransport(new HttpServletRequestAdapter(req));
-        final BaseSAMLMessageDecoder messageDecoder;
-        if (config.getBinding() == StiamConfiguration.Binding.HTTP_POST) {
-            logger.debug("Using HTTPPostDecoder for decoding...");
-            messageDecoder = new HTTPPostDecoder();
-        } else {
-            logger.debug("Using HTTPSOAP11Decoder for decoding...");
-            messageDecoder = new HTTPSOAP11Decoder();
+        final AdmissionController controller = admissionController;
+        if (controller != null && !controller.admit()) {
+            shed(res);
+            return;
         }
+        final Admission admission = controller == null ? null : new Admission(controller);
 
-        try {
-            messageDecoder.decode(messageContext);
-        } catch (MessageDecodingException | SecurityException | IllegalArgumentException ex) {
-            sendSAMLError(res, 400, "Decoding failed: " + ex.getMessage(), "", "",
-                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+        if (verificationStage != null && req.isAsyncSupported()) {
+            processAsync(req, new AsyncResponse(req.startAsync(), config.getAsyncTimeoutMillis(), admission),
+                    receptionTime, admission);
             return;
         }
-        logger.debug("Decoding succeeded!");
 
-        //////////////////// Read out attribute-query
-        logger.debug("Trying to read AttributeQuery...");
-        AttributeQuery attributeQuery = null;
         try {
-            if (config.getBinding() == StiamConfiguration.Binding.HTTP_POST) {
-                attributeQuery = (AttributeQuery) messageContext.getInboundMessage();
-            } else {
-                final Envelope soapEnvelope = (Envelope) messageContext.getInboundMessage();
-                final List<XMLObject> bodyElements = soapEnvelope.getBody().getUnknownXMLObjects();
+            processSync(req, res, receptionTime, admission);
+        } finally {
+            if (admission != null) {
+                admission.run();
+            }
+        }
+    }
 
-                for (XMLObject element : bodyElements) {
-                    if (element instanceof AttributeQuery) {
-                        attributeQuery = (AttributeQuery) element;
-                    }
+    /**
+     * Processes a query (or a batch of them, see completeBatch()) on the
+     * thread of the container.
+     *
+     * @param req The request-instance obtained from the container
+     * @param res The response-instance obtained from the container
+     * @param receptionTime The time the query has been received
+     * @param admission The admission of the request, null without admission
+     * control
+     */
+    private void processSync(HttpServletRequest req, HttpServletResponse res, DateTime receptionTime,
+            Admission admission) throws IOException {
+        final List<AttributeQuery> attributeQueries = decodeQueries(req, null, res);
+        if (attributeQueries == null) {
+            return;
+        }
+        if (attributeQueries.size() > 1) {
+            if (admitBatch(admission, attributeQueries.size(), res)) {
+                final List<Outcome> batch = verifyBatch(req, attributeQueries, res, receptionTime);
+                if (batch != null) {
+                    completeBatch(res, batch);
                 }
             }
-        } catch (ClassCastException ex) {
-            sendSAMLError(res, 400, "AttributeQuery could not be read!", "", "",
-                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
             return;
         }
 
-        if (attributeQuery == null) {
-            sendSAMLError(res, 400, "No AttributeQuery found!", "", "",
-                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+        final Outcome outcome = verifyQuery(req, attributeQueries.get(0), receptionTime);
+        if (outcome.query == null) {
+            sendRejection(res, outcome);
             return;
         }
-
-        logger.debug("Sucessfully read AttributeQuery!");
-
-        //////////////////// Try to read out QueryID, Issuer and NameID of the query
-        logger.debug("Reading QueryID, Issuer and NameID of the query...");
-        final String queryID;
-        final String queryIssuer;
-        final String nameID;
-        try {
-            queryID = attributeQuery.getID();
-            queryIssuer = attributeQuery.getIssuer().getValue();
-            nameID = attributeQuery.getSubject().getNameID().getValue();
-        } catch (Exception ex) {
-            sendSAMLError(res, 400, "Unable to read essential attributes of the query!", "", "",
-                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+        final Query query = outcome.query;
+        if (!fetchAttributes(res, query)) {
             return;
         }
-        logger.debug("Query with ID '{}' received from issuer '{}' for subject '{}'.", queryID, queryIssuer, nameID);
 
-        //////////////////// Verify signature of the attribute query
-        if (config.verifyQuerySignature()) {
-            logger.debug("Trying to verify signature of the attribute query...");
-            if (!verifySignature(attributeQuery.getSignature(), attributeQuery.getIssuer().getValue().toString())) {
-                sendSAMLError(res, 400, "Signature validation failed!", queryIssuer, queryID,
-                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+        //////////////////// Return attribute assertion
+        logger.debug("Sending response...");
+        try {
+            final String message;
+            try {
+                message = signingStage.build(createResponseBuilder(query));
+            } catch (RejectedExecutionException ex) {
+                sendSAMLError(res, 503, "Signing queue full, rejecting query!", query.issuer, query.id,
+                        new String[]{ResponseBuilder.STATUS_CODE_RESPONDER}, SigningProfile.NONE);
                 return;
             }
-            logger.debug("Signature verified successfully!");
-        }
-
-        //////////////////// Check if subject is eligible...
-        logger.debug("Checking subject eligibility...");
-        if (!eligibilityChecker.isEligible(nameID)) {
-            sendSAMLError(res, 400, "Subject not eligible!", queryIssuer, queryID,
-                    new String[]{ResponseBuilder.STATUS_CODE_RESPONDER,
-                        ResponseBuilder.STATUS_CODE_UNKNOWN_PRINCIPAL});
-            return;
+            sendResponse(res, query, message);
+        } catch (ExecutionException ex) {
+            sendError(res, 500, "Error while building attribute response: " + ex.getCause().getMessage());
+        } catch (ConfigurationException | NoSuchAlgorithmException | InterruptedException ex) {
+            sendError(res, 500, "Error while building attribute response: " + ex.getMessage());
         }
-        logger.debug("Subject is eligible, continueing");
-
-        //////////////////// Verify if we have extensions and if they contain an authentication statement
-        if (config.verifyAuthnStatement()) {
-            logger.debug("Trying to verify embedded Authn-Assertion...");
+    }
 
-            logger.debug("Reading out assertion...");
-            final AuthnStatement authnStatement;
-            final Assertion assertion;
-            final String assertionNameID;
+    /**
+     * Sheds a query not admitted by the admission controller, without
+     * decoding it: It is answered with HTTP 503, a Retry-After header and an
+     * unsigned SAML Responder status (or the static SOAP fault, if configured
+     * for rejecting unauthenticated queries).
+     *
+     * @param res The response-instance obtained from the container
+     */
+    private void shed(HttpServletResponse res) {
+        rejectionLogger.error("Overloaded, shedding query!");
+        res.setHeader("Retry-After", Integer.toString(config.getRetryAfterSeconds()));
+        if (config.getPreAuthErrorMode() == StiamConfiguration.PreAuthErrorMode.STATIC) {
             try {
-                // Note: this code only works for the very limited assumption that we only have one
-                // extension in the query (which is to be assumed to be an Assertion) and that this
-                // in turn contains exactly one AuthnStatement. For other than PoC-code, this must be
-                // implemented properly...
-                assertion = (Assertion) attributeQuery.getExtensions().getUnknownXMLObjects().get(0);
-                assertionNameID = assertion.getSubject().getNameID().getValue();
-                authnStatement = (AuthnStatement) assertion.getStatements().get(0);
-                if (authnStatement == null) {
-                    sendSAMLError(res, 400, "Unable to read embedded authentication statement!", queryIssuer, queryID,
-                            new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                                ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT});
-                    return;
-                }
-            } catch (Exception ex) {
-                sendSAMLError(res, 400, "Unable to read embedded authentication statement!", queryIssuer, queryID,
-                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                            ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT});
-                return;
+                sendSOAPEnvelope(res, 503, STATIC_FAULT);
+            } catch (IOException ex) {
+                logger.debug("Cannot send error, unable to write to response: {}", ex.getMessage());
             }
-            logger.debug("Successfully read assertion!");
+        } else {
+            sendSAMLStatus(res, 503, "", "", new String[]{ResponseBuilder.STATUS_CODE_RESPONDER},
+                    SigningProfile.NONE);
+        }
+    }
 
-            //////////////////// Compare NameID of authentication assertion to attribute query
-            logger.debug("Ensuring that NameIDs match...");
-            if (!assertionNameID.equals(nameID)) {
-                sendSAMLError(res, 400, "NameID of assertion does not match NameID of attribute query!", queryIssuer, queryID,
-                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                            ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT});
-                return;
-            }
-            logger.debug("NameIDs are equal!");
+    /**
+     * Processes a query asynchronously, without blocking the thread of the
+     * container: If enabled, the body of the request is first read without
+     * blocking (see BodyReader). The query is then decoded and verified by the
+     * verification stage, its attributes are fetched by the directory stage
+     * and the response is built and signed by the signing stage, which finally
+     * sends the response and completes the request. If a stage is overloaded,
+     * the query is rejected with HTTP 503.
+     *
+     * @param req The request-instance obtained from the container
+     * @param res The response of the asynchronous request
+     * @param receptionTime The time the query has been received
+     * @param admission The admission of the request, null without admission
+     * control
+     */
+    private void processAsync(final HttpServletRequest req, final AsyncResponse res, final DateTime receptionTime,
+            final Admission admission) {
+        if (!config.useNonBlockingRead()) {
+            verifyQueryAsync(req, res, receptionTime, null, admission);
+            return;
+        }
 
-            //////////////////// Verify signature of the assertion
-            if (config.verifyAuthnSignature()) {
-                logger.debug("Trying to validate signature of authentication statement...");
-                if (!verifySignature(assertion.getSignature(), assertion.getIssuer().getValue().toString())) {
-                    sendSAMLError(res, 400, "Signature validation failed!", queryIssuer, queryID,
-                            new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                                ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT});
-                    return;
+        logger.debug("Reading request body...");
+        try {
+            new BodyReader(req.getInputStream(), config.getMaxRequestSize(), new BodyReader.Callback() {
+                @Override
+                public void completed(BodyReader.Body body) {
+                    logger.debug("Read request body of {} bytes.", body.size());
+                    verifyQueryAsync(req, res, receptionTime, body, admission);
                 }
-                logger.debug("Signature verified successfully!");
-            }
 
-            //////////////////// Verify NotBefore / NotOnOrAfter in the Conditions of the authentication statement
-            if (config.verifyAuthnTimespan()) {
-                logger.debug("Trying to validate authentication-timespan...");
-                if (receptionTime.isBefore(assertion.getConditions().getNotBefore())
-                        || receptionTime.isEqual(assertion.getConditions().getNotOnOrAfter())
-                        || receptionTime.isAfter(assertion.getConditions().getNotOnOrAfter())) {
-                    sendSAMLError(res, 400, "Received statement is not in authentication-timespan!", queryIssuer, queryID,
-                            new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                                ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT});
-                    return;
+                @Override
+                public void failed(int httpStatusCode, String message) {
+                    rejectUnread(res, httpStatusCode, message);
+                    res.complete();
                 }
-                logger.debug("Authentication-timespan verifed!");
-            }
-
-            logger.debug("Authn-Assertion found and validated!");
+            }).start(req.getContentLengthLong(), config.getReadTimeoutMillis());
+        } catch (IOException | IllegalStateException ex) {
+            sendError(res, 400, "Unable to read request: " + ex.getMessage());
+            res.complete();
         }
+    }
 
-        //////////////////// Read out attributes
-        logger.debug("Reading Attributes...");
-        final HashMap<String, Attribute> attributes = new HashMap<>(10);
-        for (org.opensaml.saml2.core.Attribute attr : attributeQuery.getAttributes()) {
-            attributes.put(attr.getName(), new Attribute(attr));
-        }
-        if (attributes.isEmpty()) {
-            sendSAMLError(res, 400, "No attributes found in query!", queryIssuer, queryID,
-                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
-                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
-            return;
-        }
-        logger.debug("Found {} attributes in query", attributes.size());
+    /**
+     * First step of processAsync(), decodes and verifies a query on the
+     * verification stage and passes it to the directory stage. The queries of
+     * a batch are passed to the directory stage together, see
+     * completeBatchAsync().
+     *
+     * @param req The request-instance obtained from the container
+     * @param res The response of the asynchronous request
+     * @param receptionTime The time the query has been received
+     * @param body The body of the request if already read, null to read it
+     * from the request; released once the query has been decoded
+     * @param admission The admission of the request, null without admission
+     * control
+     */
+    private void verifyQueryAsync(final HttpServletRequest req, final AsyncResponse res,
+            final DateTime receptionTime, final BodyReader.Body body, final Admission admission) {
+        try {
+            verificationStage.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final List<AttributeQuery> attributeQueries;
+                        try {
+                            attributeQueries = decodeQueries(req, body == null ? null : body.getInputStream(), res);
+                        } finally {
+                            if (body != null) {
+                                body.release();
+                            }
+                        }
+                        if (attributeQueries == null) {
+                            res.complete();
+                            return;
+                        }
+                        if (attributeQueries.size() > 1) {
+                            final List<Outcome> batch = admitBatch(admission, attributeQueries.size(), res)
+                                    ? verifyBatch(req, attributeQueries, res, receptionTime) : null;
+                            if (batch == null) {
+                                res.complete();
+                            } else {
+                                completeBatchAsync(res, batch);
+                            }
+                            return;
+                        }
 
-        for (Attribute attr : attributes.values()) {
-            logger.debug("Attribute: {}", attr);
+                        final Outcome outcome = verifyQuery(req, attributeQueries.get(0), receptionTime);
+                        if (outcome.query == null) {
+                            sendRejection(res, outcome);
+                            res.complete();
+                        } else {
+                            fetchAttributesAsync(res, outcome.query);
+                        }
+                    } catch (RuntimeException ex) {
+                        sendError(res, 500, "Error while verifying query: " + ex);
+                        res.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            if (body != null) {
+                body.release();
+            }
+            sendError(res, 503, "Verification queue full, rejecting query!");
+            res.complete();
         }
+    }
 
-        //////////////////// Query attributes in directory
-        logger.debug("Retrieving attributes from directory...");
-        try {
-            final String[] attributeNames = new String[attributes.size()];
-            int i = 0;
-            for (String name : attributes.keySet()) {
-                attributeNames[i] = name;
-                i++;
+    /**
+     * Second step of processAsync(), starts fetching the attributes of a
+     * verified query on the directory stage and passes the query to the
+     * signing stage once they have been received. With a directory supporting
+     * it, the directory stage is not held while waiting for the directory. As
+     * the result is then received on a thread of the directory, an error is
+     * sent from the directory stage, see sendDirectoryError().
+     *
+     * @param res The response of the asynchronous request
+     * @param query The verified query
+     */
+    private void fetchAttributesAsync(final AsyncResponse res, final Query query) {
+        final Directory.Callback callback = new Directory.Callback() {
+            @Override
+            public void completed(Map<String, String> attributes) {
+                try {
+                    setAttributes(query, attributes);
+                    sendResponseAsync(res, query);
+                } catch (RuntimeException ex) {
+                    sendError(res, 500, "Error while fetching attributes: " + ex);
+                    res.complete();
+                }
             }
-            final Map<String, String> fetchedAttributes = directory.fetchAttributes(nameID, attributeNames);
 
-            for (String name : attributeNames) {
-                attributes.get(name).setValue(fetchedAttributes.get(name));
-                logger.debug("Got value: {}", attributes.get(name));
+            @Override
+            public void failed(final DirectoryException cause) {
+                // Called on a thread of the directory, which must not be held by signing the status
+                try {
+                    directoryStage.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendDirectoryError(res, query.issuer, query.id, cause);
+                            res.complete();
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    sendSAMLError(res, 503, "Directory queue full, rejecting query!", query.issuer, query.id,
+                            new String[]{ResponseBuilder.STATUS_CODE_RESPONDER}, SigningProfile.NONE);
+                    res.complete();
+                }
             }
-        } catch (NameIDNotFoundException ex) {
-            sendSAMLError(res, 400, "Subject not found!", queryIssuer, queryID,
-                    new String[]{ResponseBuilder.STATUS_CODE_RESPONDER,
-                        ResponseBuilder.STATUS_CODE_UNKNOWN_PRINCIPAL});
-            return;
-        } catch (DirectoryException ex) {
-            sendError(res, 500, "Error while fetching Attributes in directory: " + ex.getMessage());
-            return;
+        };
+        try {
+            directoryStage.execute(new Runnable() {
+                @Override
+                public void run() {
+                    logger.debug("Retrieving attributes from directory asynchronously...");
+                    try {
+                        directory.fetchAttributes(query.nameID,
+                                query.attributes.keySet().toArray(new String[query.attributes.size()]), callback);
+                    } catch (RuntimeException ex) {
+                        sendError(res, 500, "Error while fetching attributes: " + ex);
+                        res.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            sendSAMLError(res, 503, "Directory queue full, rejecting query!", query.issuer, query.id,
+                    new String[]{ResponseBuilder.STATUS_CODE_RESPONDER}, SigningProfile.NONE);
+            res.complete();
         }
-        logger.debug("Attributes retrieved!");
+    }
 
-        //////////////////// Return attribute assertion
+    /**
+     * Last step of processAsync(), builds and signs the response on the
+     * signing stage, sends it and completes the request.
+     *
+     * @param res The response of the asynchronous request
+     * @param query The verified query including the attributes fetched
+     */
+    private void sendResponseAsync(final AsyncResponse res, final Query query) {
         logger.debug("Sending response...");
         try {
-            logger.debug("Building attribute response...");
-            final AttributeResponseBuilder builder = new AttributeResponseBuilder(queryIssuer, queryID, nameID, attributes.values());
-            if (config.getBinding() == StiamConfiguration.Binding.HTTP_POST) {
-                res.setStatus(200);
-                res.setContentType("text/html");
-
-                final PrintWriter pw = res.getWriter();
-                pw.println("<!DOCTYPE html>");
-                pw.println("<html><head>\n<meta charset=\"utf-8\"/>\n<title>SAMLResponse</title>\n</head>");
-                pw.println("<body onload=\"function () { document.forms[0].submit(); }\">");
-                pw.println("<form method=\"post\" action=\"" + queryIssuer + "\">");
-                pw.println("<input type=\"hidden\" name=\"SAMLResponse\" value=\""
-                        + URLEncoder.encode(builder.buildBase64(), "UTF-8") + "\"/>");
-                pw.println("</form>");
-                pw.println("</body>\n</html>");
-            } else {
-                res.setStatus(200);
-                res.setContentType("text/xml;charset=UTF-8");
+            signingStage.submit(createResponseBuilder(query), new SigningStage.Callback() {
+                @Override
+                public void completed(String message) {
+                    try {
+                        sendResponse(res, query, message);
+                    } catch (IOException ex) {
+                        logger.error("Cannot send response: {}", ex.getMessage());
+                    } finally {
+                        res.complete();
+                    }
+                }
 
-                final PrintWriter pw = res.getWriter();
-                pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-                pw.print("<soap11:Envelope xmlns:soap11=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap11:Body>");
-                pw.print(builder.build().substring(38));    // FIXME ugly substring-hack
-                pw.print("</soap11:Body></soap11:Envelope>");
-            }
-        } catch (ConfigurationException | NoSuchAlgorithmException | KeyStoreException | CertificateException |
-                UnrecoverableEntryException | SecurityException | MarshallingException | SignatureException |
-                XMLParserException | TransformerException ex) {
+                @Override
+                public void failed(Exception cause) {
+                    sendError(res, 500, "Error while building attribute response: " + cause.getMessage());
+                    res.complete();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            sendSAMLError(res, 503, "Signing queue full, rejecting query!", query.issuer, query.id,
+                    new String[]{ResponseBuilder.STATUS_CODE_RESPONDER}, SigningProfile.NONE);
+            res.complete();
+        } catch (ConfigurationException | NoSuchAlgorithmException ex) {
             sendError(res, 500, "Error while building attribute response: " + ex.getMessage());
-            return;
+            res.complete();
         }
-
-        logger.info("Request handled!");
     }
 
     /**
-     * Helper method to verify a SAML signature
+     * Second step of processAsync() for a batch of queries, fetches the
+     * attributes of the batch on the directory stage (see fetchAttributes())
+     * and passes the batch to the signing stage, see signBatchAsync().
      *
-     * @param signature the signature to verify
-     * @return true if verification was successful, false if not
+     * @param res The response of the asynchronous request
+     * @param batch The outcomes of verifying the queries of the batch
      */
-    private boolean verifySignature(Signature signature, String alias) {
+    private void completeBatchAsync(final AsyncResponse res, final List<Outcome> batch) {
         try {
-            final SignatureValidator signatureValidator = new SignatureValidator(config.getVerificationCredential(alias));
-            signatureValidator.validate(signature);
-        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | UnrecoverableEntryException | IOException ex) {
-            logger.error("Error while obtaining verification credential: {}", ex.getMessage());
-            return false;
-        } catch (ValidationException ex) {
-            logger.error("Error while validating signature: {}", ex.getMessage());
-            return false;
+            directoryStage.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetchAttributes(batch);
+                        signBatchAsync(res, batch);
+                    } catch (RuntimeException ex) {
+                        sendError(res, 500, "Error while processing batch: " + ex);
+                        res.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            sendError(res, 503, "Directory queue full, rejecting batch!");
+            res.complete();
         }
+    }
 
+    /**
+     * Last step of processAsync() for a batch of queries, builds and signs
+     * the responses in parallel on the signing stage without waiting for
+     * them: The worker finishing the last response sends the batch and
+     * completes the request.
+     *
+     * @param res The response of the asynchronous request
+     * @param batch The outcomes of the queries of the batch, their attributes
+     * fetched
+     */
+    private void signBatchAsync(final AsyncResponse res, final List<Outcome> batch) {
+        logger.debug("Sending responses...");
+        // One more than the responses, so the batch is not sent before all of them have been submitted
+        final AtomicInteger remaining = new AtomicInteger(batch.size() + 1);
+        for (final Outcome outcome : batch) {
+            final MessageBuilder builder = responseBuilder(outcome);
+            if (builder != null) {
+                try {
+                    signingStage.submit(builder, new SigningStage.Callback() {
+                        @Override
+                        public void completed(String message) {
+                            outcome.message = message;
+                            sendBatchIfBuilt(res, batch, remaining);
+                        }
+
+                        @Override
+                        public void failed(Exception cause) {
+                            fail(outcome, 500, "Error while building attribute response: " + cause.getMessage());
+                            sendBatchIfBuilt(res, batch, remaining);
+                        }
+                    });
+                    continue;
+                } catch (RejectedExecutionException ex) {
+                    fail(outcome, 503, "Signing queue full, rejecting query!");
+                }
+            }
+            sendBatchIfBuilt(res, batch, remaining);
+        }
+        sendBatchIfBuilt(res, batch, remaining);
+    }
+
+    /**
+     * Counts down the responses of a batch processed asynchronously which
+     * remain to be built, sends the batch and completes the request once none
+     * remains.
+     *
+     * @param res The response of the asynchronous request
+     * @param batch The outcomes of the queries of the batch
+     * @param remaining The number of responses remaining to be built
+     */
+    private void sendBatchIfBuilt(AsyncResponse res, List<Outcome> batch, AtomicInteger remaining) {
+        if (remaining.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            sendBatch(res, batch);
+        } catch (IOException ex) {
+            logger.error("Cannot send response: {}", ex.getMessage());
+        } catch (RuntimeException ex) {
+            sendError(res, 500, "Error while processing batch: " + ex);
+        } finally {
+            res.complete();
+        }
+    }
+
+    /**
+     * Admits the further queries of a batch, so each query of the batch
+     * counts against the admission control. If they are not admitted, the
+     * batch is shed.
+     *
+     * @param admission The admission of the request, null without admission
+     * control
+     * @param size The number of queries of the batch
+     * @param res The response-instance obtained from the container
+     * @return true if the batch has been admitted, false if it has been shed
+     */
+    private boolean admitBatch(Admission admission, int size, HttpServletResponse res) {
+        if (admission == null || admission.admitMore(size - 1)) {
+            return true;
+        }
+        shed(res);
+        return false;
+    }
+
+    /**
+     * Verifies the queries of a batch one by one. A query rejected after its
+     * relying party has been authenticated is answered by a status response
+     * of its own within the batch, the other queries are still processed. If
+     * a query is rejected before, the whole envelope is rejected at once (see
+     * sendRejection()), so an unauthenticated batch never causes more than
+     * one rejection to be sent.
+     *
+     * @param req The request-instance obtained from the container
+     * @param attributeQueries The decoded queries
+     * @param res The response-instance obtained from the container
+     * @param receptionTime The time the batch has been received
+     * @return The outcomes of the queries, in the order of the queries; null
+     * if the batch has been rejected
+     */
+    private List<Outcome> verifyBatch(HttpServletRequest req, List<AttributeQuery> attributeQueries,
+            HttpServletResponse res, DateTime receptionTime) {
+        logger.debug("Verifying batch of {} queries...", attributeQueries.size());
+        final List<Outcome> batch = new ArrayList<>(attributeQueries.size());
+        for (AttributeQuery attributeQuery : attributeQueries) {
+            final Outcome outcome = verifyQuery(req, attributeQuery, receptionTime);
+            if (outcome.query == null) {
+                if (!outcome.authenticated) {
+                    sendRejection(res, outcome);
+                    return null;
+                }
+                logger.error(outcome.reason);
+            }
+            batch.add(outcome);
+        }
+        return batch;
+    }
+
+    /**
+     * Completes a verified batch of queries on the thread of the container:
+     * The attributes are fetched from the directory once per subject, the
+     * responses built and signed in parallel by the signing stage and sent,
+     * together with the responses to queries rejected, in one SOAP envelope.
+     *
+     * @param res The response-instance obtained from the container
+     * @param batch The outcomes of verifying the queries of the batch
+     * @throws IOException if the response cannot be sent
+     */
+    private void completeBatch(HttpServletResponse res, List<Outcome> batch) throws IOException {
+        fetchAttributes(batch);
+
+        //////////////////// Build and sign responses in parallel
+        logger.debug("Sending responses...");
+        final List<Outcome> pending = new ArrayList<>(batch.size());
+        final List<MessageBuilder> builders = new ArrayList<>(batch.size());
+        for (Outcome outcome : batch) {
+            final MessageBuilder builder = responseBuilder(outcome);
+            if (builder != null) {
+                builders.add(builder);
+                pending.add(outcome);
+            }
+        }
+
+        try {
+            final List<Future<String>> results = signingStage.buildAll(builders);
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    pending.get(i).message = results.get(i).get();
+                } catch (ExecutionException ex) {
+                    fail(pending.get(i), 500, "Error while building attribute response: "
+                            + ex.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            sendError(res, 500, "Interrupted while building attribute responses!");
+            return;
+        }
+        sendBatch(res, batch);
+    }
+
+    /**
+     * Fetches the values of the attributes of the verified queries of a batch
+     * from the directory. The directory is asked once for all subjects of the
+     * batch and the union of the attributes requested, so a backend supporting
+     * it (see Directory) can retrieve them with few requests. If this fails,
+     * the queries affected are rejected.
+     *
+     * @param batch The outcomes of the queries of the batch, the verified
+     * queries receiving the values
+     */
+    private void fetchAttributes(List<Outcome> batch) {
+        final Map<String, List<Outcome>> subjects = new LinkedHashMap<>();
+        final Set<String> names = new LinkedHashSet<>();
+        for (Outcome outcome : batch) {
+            if (outcome.query != null) {
+                List<Outcome> outcomes = subjects.get(outcome.query.nameID);
+                if (outcomes == null) {
+                    outcomes = new ArrayList<>(1);
+                    subjects.put(outcome.query.nameID, outcomes);
+                }
+                outcomes.add(outcome);
+                names.addAll(outcome.query.attributes.keySet());
+            }
+        }
+        if (subjects.isEmpty()) {
+            return;
+        }
+
+        //////////////////// Query attributes in directory
+        logger.debug("Retrieving attributes of {} subjects from directory...", subjects.size());
+        final Map<String, Map<String, String>> fetched;
+        try {
+            fetched = directory.fetchAttributes(subjects.keySet(), names.toArray(new String[names.size()]));
+        } catch (DirectoryException ex) {
+            for (List<Outcome> outcomes : subjects.values()) {
+                for (Outcome outcome : outcomes) {
+                    rejectDirectoryError(outcome, ex);
+                }
+            }
+            return;
+        }
+
+        for (Map.Entry<String, List<Outcome>> subject : subjects.entrySet()) {
+            final Map<String, String> fetchedAttributes = fetched.get(subject.getKey());
+            for (Outcome outcome : subject.getValue()) {
+                if (fetchedAttributes == null) {
+                    reject(outcome, 400, "Subject not found!", new String[]{ResponseBuilder.STATUS_CODE_RESPONDER,
+                        ResponseBuilder.STATUS_CODE_UNKNOWN_PRINCIPAL});
+                } else {
+                    for (Attribute attribute : outcome.query.attributes.values()) {
+                        attribute.setValue(fetchedAttributes.get(attribute.getName()));
+                    }
+                }
+            }
+        }
+        logger.debug("Attributes retrieved!");
+    }
+
+    /**
+     * @return The builder of the response to a query of a batch: The
+     * attribute response to a verified query or the status response to a
+     * query rejected, signed as configured for the relying party; null if
+     * the query is answered by an unsigned status response, see sendBatch()
+     */
+    private MessageBuilder responseBuilder(Outcome outcome) {
+        try {
+            if (outcome.query != null) {
+                return createResponseBuilder(outcome.query);
+            }
+            if (!outcome.unsigned) {
+                return new ResponseBuilder(outcome.issuer, outcome.queryID, outcome.statusCodes,
+                        RelyingPartyConfiguration.getInstance().getRelyingParty(outcome.issuer).getSigningProfile());
+            }
+        } catch (ConfigurationException | NoSuchAlgorithmException ex) {
+            fail(outcome, 500, "Error while building attribute response: " + ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Sends the responses to the queries of a batch in one SOAP envelope.
+     * Queries whose response has not been built are answered by an unsigned
+     * status response.
+     *
+     * @param res The response-instance obtained from the container
+     * @param batch The outcomes of the queries of the batch
+     * @throws IOException if the response cannot be sent
+     */
+    private void sendBatch(HttpServletResponse res, List<Outcome> batch) throws IOException {
+        final List<String> messages = new ArrayList<>(batch.size());
+        try {
+            for (Outcome outcome : batch) {
+                messages.add(outcome.message != null ? outcome.message
+                        : new ResponseBuilder(outcome.issuer, outcome.queryID, outcome.statusCodes,
+                                SigningProfile.NONE).build());
+            }
+        } catch (ConfigurationException | NoSuchAlgorithmException | IOException | KeyStoreException |
+                CertificateException | UnrecoverableEntryException | SecurityException | MarshallingException |
+                SignatureException | XMLParserException | TransformerException ex) {
+            sendError(res, 500, "Error while building status response: " + ex.getMessage());
+            return;
+        }
+        sendSOAPEnvelope(res, 200, SerializationEngine.getInstance().encodeSOAPEnvelope(messages));
+        logger.info("Batch of {} queries handled!", batch.size());
+    }
+
+    /**
+     * Rejects a query of a batch after the relying party has been
+     * authenticated, with a status response signed as configured for the
+     * relying party.
+     *
+     * @param outcome The outcome of the query
+     * @param httpStatusCode The HTTP-statuscode the query would have been
+     * answered with on its own
+     * @param reason A message used for logging the error on the AA
+     * @param statusCodes An array of statuscodes to include in the response
+     */
+    private void reject(Outcome outcome, int httpStatusCode, String reason, String[] statusCodes) {
+        logger.error(reason);
+        outcome.query = null;
+        outcome.httpStatusCode = httpStatusCode;
+        outcome.reason = reason;
+        outcome.statusCodes = statusCodes;
+        outcome.authenticated = true;
+    }
+
+    /**
+     * Fails a query of a batch because of an error of the AA, it is answered
+     * by an unsigned Responder status response.
+     *
+     * @param outcome The outcome of the query
+     * @param httpStatusCode The HTTP-statuscode the query would have been
+     * answered with on its own
+     * @param reason A message used for logging the error on the AA
+     */
+    private void fail(Outcome outcome, int httpStatusCode, String reason) {
+        reject(outcome, httpStatusCode, reason, new String[]{ResponseBuilder.STATUS_CODE_RESPONDER});
+        outcome.unsigned = true;
+    }
+
+    /**
+     * Rejects a query of a batch whose attributes could not be fetched from
+     * the directory, see sendDirectoryError().
+     *
+     * @param outcome The outcome of the query
+     * @param cause The error reported by the directory
+     */
+    private void rejectDirectoryError(Outcome outcome, DirectoryException cause) {
+        if (cause instanceof NameIDNotFoundException) {
+            reject(outcome, 400, "Subject not found!", new String[]{ResponseBuilder.STATUS_CODE_RESPONDER,
+                ResponseBuilder.STATUS_CODE_UNKNOWN_PRINCIPAL});
+        } else if (cause instanceof DirectoryTimeoutException) {
+            reject(outcome, 504, "Directory timed out: " + cause.getMessage(),
+                    new String[]{ResponseBuilder.STATUS_CODE_RESPONDER});
+        } else {
+            fail(outcome, 500, "Error while fetching Attributes in directory: " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Decodes the queries of a request. With the SOAP binding, the envelope
+     * may contain a batch of up to MaxBatchSize queries, with the HTTP-POST
+     * binding there is always one. If the request is rejected, the response
+     * is sent.
+     *
+     * @param req The request-instance obtained from the container
+     * @param body The body of the request if already read, null to read it
+     * from the request
+     * @param res The response-instance obtained from the container
+     * @return The queries in the order of the request, null if the request
+     * has been rejected
+     */
+    private List<AttributeQuery> decodeQueries(HttpServletRequest req, InputStream body, HttpServletResponse res) {
+        //////////////////// Decode raw request and read out attribute-queries
+        logger.debug("Trying to decode raw request...");
+        final List<AttributeQuery> attributeQueries = new ArrayList<>(1);
+        if (config.getBinding() == StiamConfiguration.Binding.HTTP_POST) {
+            logger.debug("Using HTTPPostDecoder for decoding...");
+            // The form is read here instead of by the container, to limit its size.
+            final FormRequest formRequest;
+            try {
+                formRequest = FormRequest.read(req, body, config.getMaxRequestSize());
+            } catch (EnvelopeScanException ex) {
+                rejectUnauthenticated(res, ex.getHttpStatusCode(), "Decoding failed: " + ex.getMessage(), "", "",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+                return null;
+            }
+            final MessageContext messageContext = new BasicSAMLMessageContext();
+            messageContext.setInboundMessageTransport(new HttpServletRequestAdapter(formRequest));
+            try {
+                postDecoder.decode(messageContext);
+            } catch (MessageDecodingException | SecurityException | IllegalArgumentException ex) {
+                rejectUnauthenticated(res, 400, "Decoding failed: " + ex.getMessage(), "", "",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+                return null;
+            }
+            logger.debug("Decoding succeeded!");
+
+            logger.debug("Trying to read AttributeQuery...");
+            if (!(messageContext.getInboundMessage() instanceof AttributeQuery)) {
+                rejectUnauthenticated(res, 400, "AttributeQuery could not be read!", "", "",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+                return null;
+            }
+            attributeQueries.add((AttributeQuery) messageContext.getInboundMessage());
+        } else {
+            // The envelope is scanned and limited before any DOM is built, only the queries are unmarshalled.
+            logger.debug("Scanning SOAP envelope...");
+            try {
+                final List<Element> queryElements = envelopeScanner.scanAll(body == null ? req.getInputStream() : body,
+                        req.getContentLengthLong(), config.getMaxBatchSize());
+                logger.debug("Scanning succeeded!");
+
+                for (Element queryElement : queryElements) {
+                    logger.debug("Trying to read AttributeQuery...");
+                    attributeQueries.add((AttributeQuery) Configuration.getUnmarshallerFactory()
+                            .getUnmarshaller(queryElement).unmarshall(queryElement));
+                }
+            } catch (EnvelopeScanException ex) {
+                rejectUnauthenticated(res, ex.getHttpStatusCode(), "Decoding failed: " + ex.getMessage(), "", "",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+                return null;
+            } catch (IOException ex) {
+                rejectUnauthenticated(res, 400, "Unable to read request: " + ex.getMessage(), "", "",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+                return null;
+            } catch (UnmarshallingException | ClassCastException ex) {
+                rejectUnauthenticated(res, 400, "AttributeQuery could not be read!", "", "",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+                return null;
+            }
+        }
+
+        if (attributeQueries.isEmpty()) {
+            rejectUnauthenticated(res, 400, "No AttributeQuery found!", "", "",
+                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED});
+            return null;
+        }
+        return attributeQueries;
+    }
+
+    /**
+     * Reads a decoded query and verifies it and its embedded authentication
+     * statement. The response to a query rejected is not sent, but left to
+     * the caller, see sendRejection().
+     *
+     * @param req The request-instance obtained from the container
+     * @param attributeQuery The decoded query
+     * @param receptionTime The time the query has been received
+     * @return The outcome holding the verified query or the rejection
+     */
+    private Outcome verifyQuery(HttpServletRequest req, AttributeQuery attributeQuery, DateTime receptionTime) {
+        logger.debug("Sucessfully read AttributeQuery!");
+
+        //////////////////// Try to read out QueryID, Issuer and NameID of the query
+        logger.debug("Reading QueryID, Issuer and NameID of the query...");
+        final String queryID;
+        final String queryIssuer;
+        final String nameID;
+        try {
+            queryID = attributeQuery.getID();
+            queryIssuer = attributeQuery.getIssuer().getValue();
+            nameID = attributeQuery.getSubject().getNameID().getValue();
+        } catch (Exception ex) {
+            return Outcome.rejected("", "", 400, "Unable to read essential attributes of the query!",
+                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED}, false);
+        }
+        logger.debug("Query with ID '{}' received from issuer '{}' for subject '{}'.", queryID, queryIssuer, nameID);
+
+        // Cheap checks of the content of the query come first, the relying
+        // party is authenticated (involving public key operations) afterwards.
+        //////////////////// Read out attributes
+        logger.debug("Reading Attributes...");
+        final HashMap<String, Attribute> attributes = new HashMap<>(10);
+        for (org.opensaml.saml2.core.Attribute attr : attributeQuery.getAttributes()) {
+            attributes.put(attr.getName(), new Attribute(attr));
+        }
+        if (attributes.isEmpty()) {
+            return Outcome.rejected(queryIssuer, queryID, 400, "No attributes found in query!",
+                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED}, false);
+        }
+        logger.debug("Found {} attributes in query", attributes.size());
+
+        for (Attribute attr : attributes.values()) {
+            logger.debug("Attribute: {}", attr);
+        }
+
+        //////////////////// Verify if we have extensions and if they contain an authentication statement
+        Assertion assertion = null;
+        if (config.verifyAuthnStatement()) {
+            logger.debug("Trying to read embedded Authn-Assertion...");
+
+            final AuthnStatement authnStatement;
+            final String assertionNameID;
+            try {
+                // Note: this code only works for the very limited assumption that we only have one
+                // extension in the query (which is to be assumed to be an Assertion) and that this
+                // in turn contains exactly one AuthnStatement. For other than PoC-code, this must be
+                // implemented properly...
+                assertion = (Assertion) attributeQuery.getExtensions().getUnknownXMLObjects().get(0);
+                assertionNameID = assertion.getSubject().getNameID().getValue();
+                authnStatement = (AuthnStatement) assertion.getStatements().get(0);
+            } catch (Exception ex) {
+                return Outcome.rejected(queryIssuer, queryID, 400, "Unable to read embedded authentication statement!",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT}, false);
+            }
+            if (authnStatement == null) {
+                return Outcome.rejected(queryIssuer, queryID, 400, "Unable to read embedded authentication statement!",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT}, false);
+            }
+            logger.debug("Successfully read assertion!");
+
+            //////////////////// Compare NameID of authentication assertion to attribute query
+            logger.debug("Ensuring that NameIDs match...");
+            if (assertionNameID == null || !assertionNameID.equals(nameID)) {
+                return Outcome.rejected(queryIssuer, queryID, 400, "NameID of assertion does not match NameID of attribute query!",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT}, false);
+            }
+            logger.debug("NameIDs are equal!");
+
+            //////////////////// Verify NotBefore / NotOnOrAfter in the Conditions of the authentication statement
+            if (config.verifyAuthnTimespan()) {
+                logger.debug("Trying to validate authentication-timespan...");
+                if (assertion.getConditions() == null
+                        || receptionTime.isBefore(assertion.getConditions().getNotBefore())
+                        || receptionTime.isEqual(assertion.getConditions().getNotOnOrAfter())
+                        || receptionTime.isAfter(assertion.getConditions().getNotOnOrAfter())) {
+                    return Outcome.rejected(queryIssuer, queryID, 400, "Received statement is not in authentication-timespan!",
+                            new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                                ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT}, false);
+                }
+                logger.debug("Authentication-timespan verifed!");
+            }
+        }
+
+        //////////////////// Check if subject is eligible...
+        // The relying party is not authenticated yet, thus the generic status
+        // is sent, not disclosing which subjects are known.
+        logger.debug("Checking subject eligibility...");
+        if (!eligibilityChecker.isEligible(nameID)) {
+            return Outcome.rejected(queryIssuer, queryID, 400, "Subject not eligible!",
+                    new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                        ResponseBuilder.STATUS_CODE_REQUEST_DENIED}, false);
+        }
+        logger.debug("Subject is eligible, continueing");
+
+        //////////////////// Authenticate relying parties trusted by their TLS client certificate
+        final RelyingParty relyingParty = RelyingPartyConfiguration.getInstance().getRelyingParty(queryIssuer);
+        if (relyingParty.getTrustMode() == RelyingParty.TrustMode.TLS) {
+            logger.debug("Trying to verify TLS client certificate of the relying party...");
+            if (!verifyClientCertificate(req, relyingParty.getTLSCertificateAlias())) {
+                return Outcome.rejected(queryIssuer, queryID, 400, "Client certificate validation failed!",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED}, false);
+            }
+            logger.debug("Client certificate verified successfully, skipping verification of query signature!");
+        } //////////////////// Verify signature of the attribute query
+        else if (config.verifyQuerySignature()) {
+            logger.debug("Trying to verify signature of the attribute query...");
+            if (!verifySignature(attributeQuery.getSignature(), queryIssuer)) {
+                return Outcome.rejected(queryIssuer, queryID, 400, "Signature validation failed!",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_REQUEST_DENIED}, false);
+            }
+            logger.debug("Signature verified successfully!");
+        }
+
+        //////////////////// Verify signature of the embedded authentication assertion
+        if (assertion != null && config.verifyAuthnSignature()) {
+            logger.debug("Trying to validate signature of authentication statement...");
+            if (!verifyAssertionSignature(assertion, receptionTime)) {
+                return Outcome.rejected(queryIssuer, queryID, 400, "Signature validation failed!",
+                        new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                            ResponseBuilder.STATUS_CODE_NO_AUTHN_CONTEXT}, true);
+            }
+            logger.debug("Signature verified successfully!");
+            logger.debug("Authn-Assertion found and validated!");
+        }
+
+        return Outcome.verified(new Query(queryID, queryIssuer, nameID, attributes));
+    }
+
+    /**
+     * Fetches the values of the attributes of a verified query from the
+     * directory. If this fails, the error is sent, see sendDirectoryError().
+     *
+     * @param res The response-instance obtained from the container
+     * @param query The verified query, receiving the values
+     * @return true if the attributes have been fetched, false if an error has
+     * been sent
+     */
+    private boolean fetchAttributes(HttpServletResponse res, Query query) {
+        //////////////////// Query attributes in directory
+        logger.debug("Retrieving attributes from directory...");
+        try {
+            final String[] attributeNames = query.attributes.keySet().toArray(new String[query.attributes.size()]);
+            setAttributes(query, directory.fetchAttributes(query.nameID, attributeNames));
+        } catch (DirectoryException ex) {
+            sendDirectoryError(res, query.issuer, query.id, ex);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the values of the attributes of a query to the ones fetched from
+     * the directory.
+     *
+     * @param query The verified query, receiving the values
+     * @param fetchedAttributes The attributes fetched and their values
+     */
+    private void setAttributes(Query query, Map<String, String> fetchedAttributes) {
+        for (Attribute attribute : query.attributes.values()) {
+            attribute.setValue(fetchedAttributes.get(attribute.getName()));
+            logger.debug("Got value: {}", attribute);
+        }
+        logger.debug("Attributes retrieved!");
+    }
+
+    /**
+     * Sends the response to a single query rejected while verifying it:
+     * According to the configured PreAuthErrorMode if it has been rejected
+     * before the relying party has been authenticated (see
+     * rejectUnauthenticated()), otherwise a status response signed as
+     * configured for the relying party.
+     *
+     * @param res The response-instance obtained from the container
+     * @param outcome The outcome of verifying the query
+     */
+    private void sendRejection(HttpServletResponse res, Outcome outcome) {
+        if (outcome.authenticated) {
+            sendSAMLError(res, outcome.httpStatusCode, outcome.reason, outcome.issuer, outcome.queryID,
+                    outcome.statusCodes);
+        } else {
+            rejectUnauthenticated(res, outcome.httpStatusCode, outcome.reason, outcome.issuer, outcome.queryID,
+                    outcome.statusCodes);
+        }
+    }
+
+    /**
+     * Sends the response to a query whose attributes could not be fetched
+     * from the directory: A SAML status for a subject not found or a directory
+     * not answering in time, an HTTP error for other errors.
+     *
+     * @param res The HttpServletResponse used for sending the message
+     * @param destination SAML-destination of the message
+     * @param queryID ID of the SAML-query
+     * @param cause The error reported by the directory
+     */
+    private void sendDirectoryError(HttpServletResponse res, String destination, String queryID,
+            DirectoryException cause) {
+        if (cause instanceof NameIDNotFoundException) {
+            sendSAMLError(res, 400, "Subject not found!", destination, queryID,
+                    new String[]{ResponseBuilder.STATUS_CODE_RESPONDER,
+                        ResponseBuilder.STATUS_CODE_UNKNOWN_PRINCIPAL});
+        } else if (cause instanceof DirectoryTimeoutException) {
+            sendSAMLError(res, 504, "Directory timed out: " + cause.getMessage(), destination, queryID,
+                    new String[]{ResponseBuilder.STATUS_CODE_RESPONDER});
+        } else {
+            sendError(res, 500, "Error while fetching Attributes in directory: " + cause.getMessage());
+        }
+    }
+
+    /**
+     * @return The builder of the response to a verified query
+     */
+    private MessageBuilder createResponseBuilder(Query query) throws ConfigurationException, NoSuchAlgorithmException {
+        logger.debug("Building attribute response...");
+        return config.getResponseEngine() == StiamConfiguration.ResponseEngine.TEMPLATE
+                ? new TemplateAttributeResponseBuilder(query.issuer, query.id, query.nameID, query.attributes.values())
+                : new AttributeResponseBuilder(query.issuer, query.id, query.nameID, query.attributes.values());
+    }
+
+    /**
+     * Sends the response to a query with the configured binding.
+     *
+     * @param res The response-instance obtained from the container
+     * @param query The query
+     * @param message The serialized response
+     * @throws IOException
+     */
+    private void sendResponse(HttpServletResponse res, Query query, String message) throws IOException {
+        if (config.getBinding() == StiamConfiguration.Binding.HTTP_POST) {
+            sendPOSTForm(res, query.issuer, message);
+        } else {
+            sendSOAPMessage(res, 200, message);
+        }
+        logger.info("Request handled!");
+    }
+
+    /**
+     * Helper method to verify a SAML signature
+     *
+     * @param signature the signature to verify
+     * @return true if verification was successful, false if not
+     */
+    private boolean verifySignature(Signature signature, String alias) {
+        try {
+            return verifySignature(signature, config.getVerificationCredential(alias));
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | UnrecoverableEntryException | IOException ex) {
+            rejectionLogger.error("Error while obtaining verification credential: {}", ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Helper method to verify a SAML signature with a given credential
+     *
+     * @param signature the signature to verify
+     * @param credential the credential to verify the signature with
+     * @return true if verification was successful, false if not
+     */
+    private boolean verifySignature(Signature signature, Credential credential) {
+        try {
+            final SignatureValidator signatureValidator = new SignatureValidator(credential);
+            signatureValidator.validate(signature);
+        } catch (ValidationException ex) {
+            rejectionLogger.error("Error while validating signature: {}", ex.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Helper method to verify that a request has been received over TLS with
+     * a client certificate matching the one registered in the keystore.
+     *
+     * @param req The request to verify
+     * @param alias The name of the registered certificate in the keystore
+     * @return true if the client certificate matches, false if not
+     */
+    boolean verifyClientCertificate(HttpServletRequest req, String alias) {
+        final Object certificates = req.getAttribute(CLIENT_CERTIFICATE_ATTRIBUTE);
+        if (!req.isSecure() || !(certificates instanceof X509Certificate[])
+                || ((X509Certificate[]) certificates).length == 0) {
+            rejectionLogger.error("No TLS client certificate presented!");
+            return false;
+        }
+
+        final X509Certificate registeredCertificate;
+        try {
+            registeredCertificate = ((X509Credential) config.getCertificate(alias)).getEntityCertificate();
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException ex) {
+            rejectionLogger.error("Error while obtaining registered client certificate: {}", ex.getMessage());
+            return false;
+        }
+
+        if (!registeredCertificate.equals(((X509Certificate[]) certificates)[0])) {
+            rejectionLogger.error("TLS client certificate does not match the registered certificate '{}'!", alias);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to verify the signature of an embedded assertion. Makes
+     * use of the cache of already verified assertions and only validates the
+     * signature if it has not been seen before.
+     *
+     * @param assertion The assertion whose signature is to be verified
+     * @param receptionTime Time of reception of the query
+     * @return true if verification was successful, false if not
+     */
+    private boolean verifyAssertionSignature(Assertion assertion, DateTime receptionTime) {
+        final Credential credential;
+        try {
+            credential = config.getVerificationCredential(assertion.getIssuer().getValue());
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | UnrecoverableEntryException | IOException ex) {
+            logger.error("Error while obtaining verification credential: {}", ex.getMessage());
+            return false;
+        }
+
+        if (assertionCache.isVerified(assertion, credential, receptionTime)) {
+            logger.debug("Signature of assertion '{}' already verified, skipping verification", assertion.getID());
+            return true;
+        }
+
+        if (!verifySignature(assertion.getSignature(), credential)) {
+            return false;
+        }
+        assertionCache.put(assertion, credential, receptionTime);
         return true;
     }
 
@@ -416,27 +1527,186 @@ public class AttributeService extends HttpServlet {
      */
     private void sendSAMLError(HttpServletResponse res, int httpStatusCode, String message,
             String destination, String queryID, String[] statusCodes) {
+        sendSAMLError(res, httpStatusCode, message, destination, queryID, statusCodes,
+                RelyingPartyConfiguration.getInstance().getRelyingParty(destination).getSigningProfile());
+    }
+
+    /**
+     * Helper method for sending a SAML status-messages with the given
+     * statuscodes and signing profile, see sendSAMLStatus().
+     *
+     * @param res The HttpServletResponse used for sending the message
+     * @param httpStatusCode The HTTP-statuscode to set on the returned message
+     * @param message A message used for logging the error on the AA
+     * @param destination SAML-destination of the message
+     * @param queryID ID of the SAML-query causing the message
+     * @param statusCodes An array of statuscodes to include in the message
+     * @param signingProfile Defines whether the message gets signed
+     */
+    private void sendSAMLError(HttpServletResponse res, int httpStatusCode, String message,
+            String destination, String queryID, String[] statusCodes, SigningProfile signingProfile) {
         logger.error(message);
-        logger.debug("Sending error as SAML status response with the following status code(s): {}", (Object[]) statusCodes);
+        sendSAMLStatus(res, httpStatusCode, destination, queryID, statusCodes, signingProfile);
+    }
 
-        res.setStatus(httpStatusCode);
-        res.setContentType("text/plain");
-        try {
-            final ResponseBuilder builder = new ResponseBuilder(destination, queryID, statusCodes);
+    /**
+     * Helper method for rejecting a query before the relying party has been
+     * authenticated. Depending on the configured PreAuthErrorMode, a SAML
+     * status message (signed according to the relying party or unsigned) or a
+     * static SOAP fault is sent. The message is logged rate-limited.
+     *
+     * @param res The HttpServletResponse used for sending the message
+     * @param httpStatusCode The HTTP-statuscode to set on the returned message
+     * @param message A message used for logging the error on the AA
+     * @param destination SAML-destination of the message
+     * @param queryID ID of the SAML-query causing the message
+     * @param statusCodes An array of statuscodes to include in the message
+     */
+    private void rejectUnauthenticated(HttpServletResponse res, int httpStatusCode, String message,
+            String destination, String queryID, String[] statusCodes) {
+        rejectionLogger.error(message);
 
-            final PrintWriter pw = res.getWriter();
-            pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            pw.print("<soap11:Envelope xmlns:soap11=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap11:Body>");
-            pw.print(builder.build().substring(38));    // FIXME ugly substring-hack
-            pw.print("</soap11:Body></soap11:Envelope>");
+        switch (config.getPreAuthErrorMode()) {
+            case STATIC:
+                try {
+                    sendSOAPEnvelope(res, httpStatusCode, STATIC_FAULT);
+                } catch (IOException ex) {
+                    logger.debug("Cannot send error, unable to write to response: {}", ex.getMessage());
+                }
+                break;
+            case UNSIGNED:
+                sendSAMLStatus(res, httpStatusCode, destination, queryID, statusCodes, SigningProfile.NONE);
+                break;
+            default:
+                sendSAMLStatus(res, httpStatusCode, destination, queryID, statusCodes,
+                        RelyingPartyConfiguration.getInstance().getRelyingParty(destination).getSigningProfile());
+        }
+    }
 
+    /**
+     * Helper method for rejecting a request whose body could not be read
+     * (too large, not received in time). This happens on a thread of the
+     * container or on the timer of the read timeout, where no message must be
+     * signed: Depending on the configured PreAuthErrorMode, the static SOAP
+     * fault or an unsigned SAML status message is sent. The message is logged
+     * rate-limited.
+     *
+     * @param res The HttpServletResponse used for sending the message
+     * @param httpStatusCode The HTTP-statuscode to set on the returned message
+     * @param message A message used for logging the error on the AA
+     */
+    private void rejectUnread(HttpServletResponse res, int httpStatusCode, String message) {
+        rejectionLogger.error(message);
+
+        if (config.getPreAuthErrorMode() == StiamConfiguration.PreAuthErrorMode.STATIC) {
+            try {
+                sendSOAPEnvelope(res, httpStatusCode, STATIC_FAULT);
+            } catch (IOException ex) {
+                logger.debug("Cannot send error, unable to write to response: {}", ex.getMessage());
+            }
+        } else {
+            sendSAMLStatus(res, httpStatusCode, "", "", new String[]{ResponseBuilder.STATUS_CODE_REQUESTER,
+                ResponseBuilder.STATUS_CODE_REQUEST_DENIED}, SigningProfile.NONE);
+        }
+    }
+
+    /**
+     * Helper method for sending a SAML status-message with the given
+     * statuscodes and signing profile. Signed messages are built by the
+     * signing stage, if its queue is full, the message is sent unsigned.
+     *
+     * @param res The HttpServletResponse used for sending the message
+     * @param httpStatusCode The HTTP-statuscode to set on the returned message
+     * @param destination SAML-destination of the message
+     * @param queryID ID of the SAML-query causing the message
+     * @param statusCodes An array of statuscodes to include in the message
+     * @param signingProfile Defines whether the message gets signed
+     */
+    private void sendSAMLStatus(HttpServletResponse res, int httpStatusCode, String destination,
+            String queryID, String[] statusCodes, SigningProfile signingProfile) {
+        logger.debug("Sending error as SAML status response with the following status code(s): {}", (Object[]) statusCodes);
+        try {
+            String statusResponse;
+            if (signingProfile.signsResponse()) {
+                try {
+                    statusResponse = signingStage.build(new ResponseBuilder(destination, queryID, statusCodes, signingProfile));
+                } catch (RejectedExecutionException ex) {
+                    logger.warn("Signing queue full, sending status response unsigned!");
+                    statusResponse = new ResponseBuilder(destination, queryID, statusCodes, SigningProfile.NONE).build();
+                }
+            } else {
+                statusResponse = new ResponseBuilder(destination, queryID, statusCodes, signingProfile).build();
+            }
+
+            sendSOAPMessage(res, httpStatusCode, statusResponse);
+        } catch (ExecutionException ex) {
+            sendError(res, 500, "Error while sending error, cause: " + ex.getCause().getMessage());
         } catch (ConfigurationException | NoSuchAlgorithmException | KeyStoreException | CertificateException |
                 UnrecoverableEntryException | SecurityException | MarshallingException | SignatureException |
-                XMLParserException | TransformerException | IOException ex) {
+                XMLParserException | TransformerException | IOException | InterruptedException ex) {
             sendError(res, 500, "Error while sending error, cause: {}" + ex.getMessage());
         }
     }
 
+    /**
+     * Helper method for sending a serialized SAML-message in a SOAP envelope.
+     * The envelope is encoded as UTF-8 at once and written to the output
+     * stream of the response with the according Content-Length.
+     *
+     * @param res The HttpServletResponse used for sending the message
+     * @param httpStatusCode The HTTP-statuscode to set on the returned message
+     * @param message The serialized SAML-message
+     * @throws IOException
+     */
+    private void sendSOAPMessage(HttpServletResponse res, int httpStatusCode, String message) throws IOException {
+        sendSOAPEnvelope(res, httpStatusCode, SerializationEngine.getInstance().encodeSOAPEnvelope(message));
+    }
+
+    /**
+     * Helper method for sending a serialized SAML-message with the HTTP-POST
+     * binding, as an HTML-form which is submitted to the destination. The
+     * message is Base64-encoded while streaming it into the form. Note that it
+     * must not be URL-encoded, this is done by the browser when submitting the
+     * form.
+     *
+     * @param res The HttpServletResponse used for sending the form
+     * @param destination The URL the form is submitted to
+     * @param message The serialized SAML-message
+     * @throws IOException
+     */
+    private void sendPOSTForm(HttpServletResponse res, String destination, String message) throws IOException {
+        final Charset charset = Charset.forName(config.getAttributeQueryEncoding());
+        final byte[] formStart = (POST_FORM_START + PostBindingEncoder.escapeHTMLAttribute(destination)
+                + POST_FORM_INPUT).getBytes(SerializationEngine.ENCODING);
+        final long messageLength = PostBindingEncoder.encodedLength(message, charset,
+                PostBindingEncoder.Escaping.HTML_ATTRIBUTE);
+
+        res.setStatus(200);
+        res.setContentType("text/html;charset=UTF-8");
+        if (messageLength >= 0) {
+            res.setContentLength((int) (formStart.length + messageLength + POST_FORM_END.length));
+        }
+        final OutputStream out = res.getOutputStream();
+        out.write(formStart);
+        PostBindingEncoder.encode(message, charset, PostBindingEncoder.Escaping.HTML_ATTRIBUTE, out);
+        out.write(POST_FORM_END);
+    }
+
+    /**
+     * Helper method for sending an already encoded SOAP envelope.
+     *
+     * @param res The HttpServletResponse used for sending the envelope
+     * @param httpStatusCode The HTTP-statuscode to set on the response
+     * @param envelope The UTF-8 encoded envelope, including XML-declaration
+     * @throws IOException
+     */
+    private void sendSOAPEnvelope(HttpServletResponse res, int httpStatusCode, byte[] envelope) throws IOException {
+        res.setStatus(httpStatusCode);
+        res.setContentType("text/xml;charset=UTF-8");
+        res.setContentLength(envelope.length);
+        res.getOutputStream().write(envelope);
+    }
+
     /**
      * Helper method for sending a textual error message.
      *
@@ -455,4 +1725,121 @@ public class AttributeService extends HttpServlet {
             logger.error("Cannot send error, unable to write to response: {}", ex1.getMessage());
         }
     }
+
+//////////////////////////////////////// Inner classes
+    /**
+     * The admission of a request by the admission controller: Counts the
+     * queries of the request admitted and releases all of them once the
+     * request has been processed.
+     */
+    private static final class Admission implements Runnable {
+
+        private final AdmissionController controller;
+        private final AtomicInteger queries = new AtomicInteger(1);
+
+        /**
+         * @param controller The controller having admitted the request
+         */
+        Admission(AdmissionController controller) {
+            this.controller = controller;
+        }
+
+        /**
+         * Admits further queries of the request, see
+         * AdmissionController.admitMore().
+         *
+         * @param further The number of further queries
+         * @return true if they have been admitted
+         */
+        boolean admitMore(int further) {
+            if (further < 1) {
+                return true;
+            }
+            if (!controller.admitMore(further)) {
+                return false;
+            }
+            queries.addAndGet(further);
+            return true;
+        }
+
+        /**
+         * Releases the queries admitted.
+         */
+        @Override
+        public void run() {
+            controller.release(queries.getAndSet(0));
+        }
+    }
+
+    /**
+     * The outcome of verifying and processing a query, passed from one step
+     * of processing to the next: Either the verified query or the status it
+     * has been rejected with, and for a query of a batch its serialized
+     * response once built.
+     */
+    private static final class Outcome {
+
+        private final String issuer;
+        private final String queryID;
+        private Query query;
+        private int httpStatusCode;
+        private String reason;
+        private String[] statusCodes;
+        private boolean authenticated;
+        private boolean unsigned;
+        private String message;
+
+        private Outcome(String issuer, String queryID) {
+            this.issuer = issuer;
+            this.queryID = queryID;
+        }
+
+        /**
+         * @param query The verified query
+         * @return The outcome of a verified query
+         */
+        static Outcome verified(Query query) {
+            final Outcome outcome = new Outcome(query.issuer, query.id);
+            outcome.query = query;
+            return outcome;
+        }
+
+        /**
+         * @param issuer The issuer of the query, "" if unknown
+         * @param queryID The ID of the query, "" if unknown
+         * @param httpStatusCode The HTTP-statuscode to reject the query with
+         * @param reason A message used for logging the rejection on the AA
+         * @param statusCodes An array of statuscodes to reject the query with
+         * @param authenticated true if the relying party has been
+         * authenticated before the query has been rejected
+         * @return The outcome of a query rejected
+         */
+        static Outcome rejected(String issuer, String queryID, int httpStatusCode, String reason,
+                String[] statusCodes, boolean authenticated) {
+            final Outcome outcome = new Outcome(issuer, queryID);
+            outcome.httpStatusCode = httpStatusCode;
+            outcome.reason = reason;
+            outcome.statusCodes = statusCodes;
+            outcome.authenticated = authenticated;
+            return outcome;
+        }
+    }
+
+    /**
+     * A verified query, passed from one step of processing to the next.
+     */
+    private static final class Query {
+
+        private final String id;
+        private final String issuer;
+        private final String nameID;
+        private final HashMap<String, Attribute> attributes;
+
+        Query(String id, String issuer, String nameID, HashMap<String, Attribute> attributes) {
+            this.id = id;
+            this.issuer = issuer;
+            this.nameID = nameID;
+            this.attributes = attributes;
+        }
+    }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.BufferPool;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+/**
+ * Reads the body of an asynchronous request without blocking, using the
+ * ReadListener of Servlet 3.1: Data is only read while available, into
+ * buffers taken from a shared pool, so slow clients do not occupy any thread
+ * while their request is transmitted. Once the body is complete, the callback
+ * is notified with the body read. Bodies larger than a given size and bodies
+ * not completely received within a given time are rejected.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+class BodyReader implements ReadListener {
+//////////////////////////////////////// Fields
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    // Checks the read timeouts of all bodies being read
+    private static final ScheduledThreadPoolExecutor timer;
+
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "stiam-read-timeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final ServletInputStream in;
+    private final int maxSize;
+    private final Callback callback;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private final Body body = new Body();
+    private ScheduledFuture<?> timeout;
+
+//////////////////////////////////////// Constructors
+    /**
+     * @param in The stream of the asynchronous request
+     * @param maxSize Maximum size of the body in bytes
+     * @param callback The callback notified once the body is read or rejected
+     */
+    BodyReader(ServletInputStream in, int maxSize, Callback callback) {
+        this.in = in;
+        this.maxSize = maxSize;
+        this.callback = callback;
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Starts reading the body. The callback may be notified before this
+     * method returns.
+     *
+     * @param contentLength The length of the body as announced by the client,
+     * -1 if unknown
+     * @param timeoutMillis Time in milliseconds after which the body is
+     * rejected if not yet read completely, 0 for no timeout
+     */
+    void start(long contentLength, final long timeoutMillis) {
+        if (contentLength > maxSize) {
+            fail(413, "Request too large: " + contentLength + " bytes");
+            return;
+        }
+        if (timeoutMillis > 0) {
+            timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fail(408, "Request not received within " + timeoutMillis + "ms");
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        in.setReadListener(this);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        while (!done.get() && in.isReady()) {
+            if (body.readFrom(in) < 0) {
+                return;     // onAllDataRead() follows
+            }
+            if (body.size() > maxSize) {
+                fail(413, "Request too large: more than " + maxSize + " bytes");
+            }
+        }
+    }
+
+    @Override
+    public void onAllDataRead() {
+        if (done.compareAndSet(false, true)) {
+            cancelTimeout();
+            callback.completed(body);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(400, "Unable to read request: " + t.getMessage());
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Rejects the body, unless it has been read or rejected before.
+     */
+    private void fail(int httpStatusCode, String message) {
+        if (done.compareAndSet(false, true)) {
+            cancelTimeout();
+            body.release();
+            callback.failed(httpStatusCode, message);
+        }
+    }
+
+    private void cancelTimeout() {
+        final ScheduledFuture<?> t = timeout;
+        if (t != null) {
+            t.cancel(false);
+        }
+    }
+
+//////////////////////////////////////// Inner classes
+    /**
+     * Notified once the body has been read completely or rejected.
+     */
+    interface Callback {
+
+        /**
+         * @param body The complete body, which must be released once it has
+         * been processed
+         */
+        void completed(Body body);
+
+        /**
+         * @param httpStatusCode The HTTP status to reject the request with
+         * @param message The reason for the rejection
+         */
+        void failed(int httpStatusCode, String message);
+    }
+
+    /**
+     * The body of a request, stored in buffers of the pool. Reading and
+     * releasing are synchronized, as a timeout may release the body while the
+     * container is still reading into it.
+     */
+    static final class Body {
+
+        private final ArrayList<byte[]> buffers = new ArrayList<>(4);
+        private int size;
+        private boolean released;
+
+        /**
+         * Reads once from the given stream into the last buffer, taking a new
+         * one from the pool if it is full.
+         *
+         * @return The number of bytes read, -1 at the end of the stream or if
+         * the body has been released
+         */
+        synchronized int readFrom(InputStream in) throws IOException {
+            if (released) {
+                return -1;
+            }
+            if (size == buffers.size() * BUFFER_SIZE) {
+                buffers.add(bufferPool.acquire());
+            }
+            final int offset = size % BUFFER_SIZE;
+            final int n = in.read(buffers.get(buffers.size() - 1), offset, BUFFER_SIZE - offset);
+            if (n > 0) {
+                size += n;
+            }
+            return n;
+        }
+
+        /**
+         * @return The number of bytes read
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return A stream over the bytes read, valid until release() is
+         * called
+         */
+        InputStream getInputStream() {
+            return new InputStream() {
+                private int position;
+
+                @Override
+                public int read() {
+                    if (position >= size) {
+                        return -1;
+                    }
+                    final int b = buffers.get(position / BUFFER_SIZE)[position % BUFFER_SIZE] & 0xff;
+                    position++;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (position >= size) {
+                        return -1;
+                    }
+                    final int offset = position % BUFFER_SIZE;
+                    final int n = Math.min(len, Math.min(BUFFER_SIZE - offset, size - position));
+                    System.arraycopy(buffers.get(position / BUFFER_SIZE), offset, b, off, n);
+                    position += n;
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return size - position;
+                }
+            };
+        }
+
+        /**
+         * Returns the buffers to the pool.
+         */
+        synchronized void release() {
+            released = true;
+            for (byte[] buffer : buffers) {
+                bufferPool.release(buffer);
+            }
+            buffers.clear();
+            size = 0;
+        }
+    }
+}
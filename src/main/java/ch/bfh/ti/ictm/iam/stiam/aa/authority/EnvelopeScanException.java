@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+/**
+ * Thrown by the EnvelopeScanner and the FormRequest if a request is rejected,
+ * carrying the HTTP-statuscode to reject it with.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+@SuppressWarnings("serial")
+public class EnvelopeScanException extends Exception {
+
+    private final int httpStatusCode;
+
+    /**
+     * Initializes the exception with an error message and an HTTP-statuscode.
+     *
+     * @param httpStatusCode The HTTP-statuscode to reject the request with
+     * @param message A message describing the cause of this exception
+     */
+    public EnvelopeScanException(int httpStatusCode, String message) {
+        super(message);
+        this.httpStatusCode = httpStatusCode;
+    }
+
+    /**
+     * Initializes the exception with an error message, an HTTP-statuscode and
+     * another Throwable as cause.
+     *
+     * @param httpStatusCode The HTTP-statuscode to reject the request with
+     * @param message A message describing the cause of this exception
+     * @param cause Originating Throwable causing this exception
+     */
+    public EnvelopeScanException(int httpStatusCode, String message, Throwable cause) {
+        super(message, cause);
+        this.httpStatusCode = httpStatusCode;
+    }
+
+    /**
+     * @return The HTTP-statuscode to reject the request with
+     */
+    public int getHttpStatusCode() {
+        return httpStatusCode;
+    }
+}
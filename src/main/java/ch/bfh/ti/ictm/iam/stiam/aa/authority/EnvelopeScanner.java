@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.SerializationEngine;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.core.AttributeQuery;
+import org.opensaml.ws.soap.soap11.Body;
+import org.opensaml.ws.soap.soap11.Envelope;
+import org.opensaml.ws.soap.util.SOAPConstants;
+import org.opensaml.xml.parse.XMLParserException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Scans SOAP 1.1 envelopes of incoming requests with a StAX-reader before
+ * any DOM is built. While scanning, the size of the request, the nesting depth
+ * of elements and the number of attributes per element are limited, DTDs are
+ * rejected, and the AttributeQueries in the body of the envelope are located.
+ * Only these queries are built as DOM, each in a document of its own, for
+ * unmarshalling them with OpenSAML. The envelope is scanned completely, so it
+ * must be well-formed as a whole.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class EnvelopeScanner {
+//////////////////////////////////////// Fields
+
+    private final int maxSize;
+    private final int maxDepth;
+    private final int maxAttributes;
+
+    // XMLInputFactory is not guaranteed to be thread-safe
+    private final ThreadLocal<XMLInputFactory> inputFactories = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return factory;
+        }
+    };
+
+//////////////////////////////////////// Constructors
+    /**
+     * @param maxSize Maximum size of a request in bytes
+     * @param maxDepth Maximum nesting depth of elements, including the
+     * envelope
+     * @param maxAttributes Maximum number of attributes, including namespace
+     * declarations, per element
+     */
+    public EnvelopeScanner(int maxSize, int maxDepth, int maxAttributes) {
+        this.maxSize = maxSize;
+        this.maxDepth = maxDepth;
+        this.maxAttributes = maxAttributes;
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Scans a SOAP envelope and builds the first AttributeQuery found in its
+     * body as DOM. All namespaces in scope of the query are declared on its
+     * element, so it can be unmarshalled and its signatures verified on its
+     * own.
+     *
+     * @param in The stream to read the envelope from
+     * @param contentLength The length of the request as announced by the
+     * client, -1 if unknown
+     * @return The element of the AttributeQuery, being the document element of
+     * a new document, null if the body contains no AttributeQuery
+     * @throws EnvelopeScanException if the request is rejected
+     */
+    public Element scan(InputStream in, long contentLength) throws EnvelopeScanException {
+        final List<Element> queries = scan(in, contentLength, 1, false);
+        return queries.isEmpty() ? null : queries.get(0);
+    }
+
+    /**
+     * Scans a SOAP envelope containing a batch of queries and builds all
+     * AttributeQueries found in its body as DOM, see scan().
+     *
+     * @param in The stream to read the envelope from
+     * @param contentLength The length of the request as announced by the
+     * client, -1 if unknown
+     * @param maxQueries Maximum number of queries in the envelope
+     * @return The elements of the AttributeQueries in the order of the
+     * envelope, each being the document element of a new document; empty if
+     * the body contains no AttributeQuery
+     * @throws EnvelopeScanException if the request is rejected, also if it
+     * contains more than maxQueries queries
+     */
+    public List<Element> scanAll(InputStream in, long contentLength, int maxQueries) throws EnvelopeScanException {
+        return scan(in, contentLength, maxQueries, true);
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Scans the envelope from the given stream.
+     *
+     * @param strict If true, envelopes with more than maxQueries queries are
+     * rejected, otherwise further queries are ignored
+     * @return The elements of the AttributeQueries
+     */
+    private List<Element> scan(InputStream in, long contentLength, int maxQueries, boolean strict)
+            throws EnvelopeScanException {
+        if (in == null) {
+            throw new EnvelopeScanException(400, "Empty request");
+        }
+        if (contentLength > maxSize) {
+            throw new EnvelopeScanException(413, "Request too large: " + contentLength + " bytes");
+        }
+
+        final LimitedInputStream limitedIn = new LimitedInputStream(in, maxSize);
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactories.get().createXMLStreamReader(limitedIn);
+            return scan(reader, maxQueries, strict);
+        } catch (XMLStreamException ex) {
+            if (limitedIn.isExceeded()) {
+                throw new EnvelopeScanException(413, "Request too large: more than " + maxSize + " bytes", ex);
+            }
+            throw new EnvelopeScanException(400, "Malformed request: " + ex.getMessage(), ex);
+        } catch (XMLParserException ex) {
+            throw new EnvelopeScanException(500, "Unable to create document: " + ex.getMessage(), ex);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans the envelope from the given reader.
+     *
+     * @return The elements of the AttributeQueries
+     */
+    private List<Element> scan(XMLStreamReader reader, int maxQueries, boolean strict)
+            throws XMLStreamException, XMLParserException, EnvelopeScanException {
+        final ArrayList<Element> queries = new ArrayList<>(strict ? 8 : 1);
+        final ArrayList<String[]> namespaces = new ArrayList<>(16);  // in scope, as pairs of prefix and URI
+        final int[] namespaceCounts = new int[maxDepth + 1];        // number of namespaces in scope per depth
+        int depth = 0;
+        boolean inBody = false;
+        Document document = null;
+        Node current = null;                                        // parent of the next node of the query
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (++depth > maxDepth) {
+                        throw new EnvelopeScanException(400, "Elements nested deeper than " + maxDepth + " levels");
+                    }
+                    if (reader.getAttributeCount() + reader.getNamespaceCount() > maxAttributes) {
+                        throw new EnvelopeScanException(400, "Element <" + reader.getLocalName()
+                                + "> has more than " + maxAttributes + " attributes");
+                    }
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        namespaces.add(new String[]{reader.getNamespacePrefix(i), reader.getNamespaceURI(i)});
+                    }
+                    namespaceCounts[depth] = namespaces.size();
+
+                    if (depth == 1) {
+                        if (!isElement(reader, SOAPConstants.SOAP11_NS, Envelope.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                            throw new EnvelopeScanException(400, "Request is not a SOAP 1.1 envelope");
+                        }
+                    } else if (depth == 2) {
+                        inBody = isElement(reader, SOAPConstants.SOAP11_NS, Body.DEFAULT_ELEMENT_LOCAL_NAME);
+                    } else if (current != null) {
+                        current = current.appendChild(createElement(document, reader, null));
+                    } else if (depth == 3 && inBody
+                            && isElement(reader, SAMLConstants.SAML20P_NS, AttributeQuery.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                        if (queries.size() < maxQueries) {
+                            document = SerializationEngine.getInstance().newDocument();
+                            current = document.appendChild(createElement(document, reader, namespaces));
+                            queries.add(document.getDocumentElement());
+                        } else if (strict) {
+                            throw new EnvelopeScanException(413, "More than " + maxQueries + " queries in request");
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (current != null) {
+                        current = current.getParentNode() == document ? null : current.getParentNode();
+                    }
+                    depth--;
+                    namespaces.subList(namespaceCounts[depth], namespaces.size()).clear();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (current != null) {
+                        current.appendChild(document.createTextNode(reader.getText()));
+                    }
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    if (current != null) {
+                        current.appendChild(document.createComment(reader.getText()));
+                    }
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (current != null) {
+                        current.appendChild(document.createProcessingInstruction(reader.getPITarget(),
+                                reader.getPIData()));
+                    }
+                    break;
+                case XMLStreamConstants.DTD:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    throw new EnvelopeScanException(400, "DTDs and entity references are not allowed");
+                default:
+                    break;
+            }
+        }
+
+        return queries;
+    }
+
+    /**
+     * @return true if the current element of the reader has the given
+     * namespace and local name
+     */
+    private static boolean isElement(XMLStreamReader reader, String namespace, String localName) {
+        return namespace.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+    }
+
+    /**
+     * Creates a DOM-element from the current element of the reader, including
+     * its attributes and namespace declarations.
+     *
+     * @param inScope If not null, all namespaces given are declared on the
+     * element instead of the ones declared on the current element
+     * @return The element created
+     */
+    private static Element createElement(Document document, XMLStreamReader reader, ArrayList<String[]> inScope) {
+        final Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                qualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        if (inScope == null) {
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                declareNamespace(element, reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+            }
+        } else {
+            final Map<String, String> declarations = new LinkedHashMap<>();
+            for (String[] namespace : inScope) {
+                declarations.put(namespace[0] == null ? "" : namespace[0], namespace[1]);
+            }
+            for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+                declareNamespace(element, declaration.getKey(), declaration.getValue());
+            }
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                    qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    /**
+     * Declares a namespace on an element, the default namespace if prefix is
+     * null or empty.
+     */
+    private static void declareNamespace(Element element, String prefix, String uri) {
+        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                qualifiedName(prefix == null || prefix.isEmpty() ? null : XMLConstants.XMLNS_ATTRIBUTE,
+                        prefix == null || prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : prefix),
+                uri == null ? "" : uri);
+    }
+
+    /**
+     * @return The qualified name built of prefix and local name
+     */
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    /**
+     * @return null if the given String is empty, the String otherwise
+     */
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+//////////////////////////////////////// Inner classes
+    /**
+     * An InputStream failing as soon as more than a given number of bytes
+     * have been read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+        private boolean exceeded;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        boolean isExceeded() {
+            return exceeded;
+        }
+
+        private void count(long n) throws IOException {
+            count += n;
+            if (count > limit) {
+                exceeded = true;
+                throw new IOException("Size limit of " + limit + " bytes exceeded");
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * A request of the HTTP-POST binding whose parameters are read by the
+ * authority instead of the container: The form body is read up to a maximum
+ * size, so forms too large are rejected with HTTP 413 by any container, and
+ * may have been read without blocking before (see BodyReader). Parameters of
+ * the query string precede those of the body, as with the servlet API.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+final class FormRequest extends HttpServletRequestWrapper {
+//////////////////////////////////////// Fields
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private static final String DEFAULT_CHARACTER_ENCODING = "UTF-8";
+
+    private final Map<String, String[]> parameters;
+
+//////////////////////////////////////// Constructors
+    private FormRequest(HttpServletRequest req, Map<String, String[]> parameters) {
+        super(req);
+        this.parameters = Collections.unmodifiableMap(parameters);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Reads the parameters of a request.
+     *
+     * @param req The request-instance obtained from the container
+     * @param body The body of the request if already read, null to read it
+     * from the request
+     * @param maxSize Maximum size of the form body in bytes
+     * @return The request with the parameters read
+     * @throws EnvelopeScanException with HTTP 413 if the form is too large,
+     * with HTTP 400 if it cannot be read or decoded
+     */
+    static FormRequest read(HttpServletRequest req, InputStream body, int maxSize) throws EnvelopeScanException {
+        final String encoding = req.getCharacterEncoding() == null
+                ? DEFAULT_CHARACTER_ENCODING : req.getCharacterEncoding();
+        final LinkedHashMap<String, List<String>> values = new LinkedHashMap<>();
+        try {
+            if (req.getQueryString() != null) {
+                decode(req.getQueryString(), encoding, values);
+            }
+            final String contentType = req.getContentType();
+            if ("POST".equals(req.getMethod()) && contentType != null
+                    && contentType.toLowerCase(Locale.ROOT).startsWith(FORM_CONTENT_TYPE)) {
+                if (req.getContentLengthLong() > maxSize) {
+                    throw new EnvelopeScanException(413, "Request too large: " + req.getContentLengthLong()
+                            + " bytes");
+                }
+                decode(readForm(body == null ? req.getInputStream() : body, maxSize), encoding, values);
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new EnvelopeScanException(400, "Unable to read form: " + ex.getMessage(), ex);
+        }
+
+        final LinkedHashMap<String, String[]> parameters = new LinkedHashMap<>(values.size() * 2);
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            parameters.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+        }
+        return new FormRequest(req, parameters);
+    }
+
+    @Override
+    public String getParameter(String name) {
+        final String[] values = parameters.get(name);
+        return values == null ? null : values[0];
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        final String[] values = parameters.get(name);
+        return values == null ? null : values.clone();
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return parameters;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Reads the form body as ASCII, as its content is URL-encoded.
+     */
+    private static String readForm(InputStream in, int maxSize) throws IOException, EnvelopeScanException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxSize, 8192));
+        final byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            if (out.size() + n > maxSize) {
+                throw new EnvelopeScanException(413, "Request too large: more than " + maxSize + " bytes");
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toString("ISO-8859-1");
+    }
+
+    private static void decode(String form, String encoding, Map<String, List<String>> values)
+            throws UnsupportedEncodingException {
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            final int separator = pair.indexOf('=');
+            final String name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), encoding);
+            final String value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), encoding);
+            List<String> list = values.get(name);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                values.put(name, list);
+            }
+            list.add(value);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stage of the asynchronous processing of queries: A fixed number of
+ * workers fed through a bounded queue, executing one step of handling a query
+ * (e.g. decoding and verification, or fetching attributes from the directory)
+ * and handing the query over to the next stage. Like with the SigningStage,
+ * tasks are rejected immediately with a RejectedExecutionException if the
+ * queue is full.
+ *
+ * On a JVM supporting virtual threads (Java 21 and later), a stage can
+ * instead run each task on a virtual thread of its own (see
+ * withVirtualThreads()). Tasks blocking on the directory then do not occupy a
+ * platform thread, and the number of tasks in flight is limited instead of
+ * the number of waiting tasks. The source level of this class stays at Java 7,
+ * virtual threads are therefore created via reflection.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class ProcessingStage implements ProcessingStageMBean {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessingStage.class);
+
+    private final String name;
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor pool;     // null for virtual threads
+    private final Semaphore slots;             // limits tasks in flight on virtual threads, null otherwise
+    private final int queueCapacity;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong totalExecutionNanos = new AtomicLong();
+
+//////////////////////////////////////// Constructors
+    /**
+     * Starts a processing stage.
+     *
+     * @param name Name of the stage, used for naming its threads
+     * @param threads Number of worker threads, values &lt; 1 use one worker
+     * per available processor
+     * @param queueCapacity Maximum number of tasks waiting for a worker
+     */
+    public ProcessingStage(final String name, int threads, int queueCapacity) {
+        final int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        slots = null;
+        executor = pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "stiam-aa-" + name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        logger.info("Started {} stage with {} workers and a queue capacity of {}", name, workers, queueCapacity);
+    }
+
+    /**
+     * Stage running each task on a virtual thread, see withVirtualThreads().
+     */
+    private ProcessingStage(String name, ExecutorService executor, int maxTasks) {
+        this.name = name;
+        this.executor = executor;
+        this.queueCapacity = maxTasks;
+        pool = null;
+        slots = new Semaphore(maxTasks);
+        logger.info("Started {} stage on virtual threads with at most {} tasks in flight", name, maxTasks);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Starts a processing stage running each task on a new virtual thread.
+     *
+     * @param name Name of the stage
+     * @param maxTasks Maximum number of tasks in flight, further tasks are
+     * rejected
+     * @return The stage started
+     * @throws UnsupportedOperationException if the JVM does not support
+     * virtual threads
+     */
+    public static ProcessingStage withVirtualThreads(String name, int maxTasks) {
+        try {
+            final ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new ProcessingStage(name, executor, maxTasks);
+        } catch (ReflectiveOperationException ex) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", ex);
+        }
+    }
+
+    /**
+     * @return true if the JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Executes a task on a worker, without waiting for it.
+     *
+     * @param task The task to execute
+     * @throws RejectedExecutionException if the queue is full (the maximum
+     * number of tasks is in flight on virtual threads) or the stage has been
+     * shut down
+     */
+    public void execute(final Runnable task) {
+        if (slots != null && !slots.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many tasks in flight on " + name + " stage");
+        }
+        final long submitted = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final long started = System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        completed.incrementAndGet();
+                        totalQueueWaitNanos.addAndGet(started - submitted);
+                        totalExecutionNanos.addAndGet(System.nanoTime() - started);
+                        if (slots != null) {
+                            slots.release();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            if (slots != null) {
+                slots.release();
+            }
+            rejected.incrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Stops all workers, tasks still waiting in the queue are discarded.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        logger.info("{} stage shut down.", name);
+    }
+
+    @Override
+    public int getThreads() {
+        return pool != null ? pool.getCorePoolSize() : queueCapacity - slots.availablePermits();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public int getQueueLength() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    @Override
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getAverageQueueWaitMicros() {
+        final long count = completed.get();
+        return count > 0 ? totalQueueWaitNanos.get() / count / 1000 : 0;
+    }
+
+    @Override
+    public long getAverageExecutionMicros() {
+        final long count = completed.get();
+        return count > 0 ? totalExecutionNanos.get() / count / 1000 : 0;
+    }
+
+    @Override
+    public void resetStatistics() {
+        completed.set(0);
+        rejected.set(0);
+        totalQueueWaitNanos.set(0);
+        totalExecutionNanos.set(0);
+    }
+}
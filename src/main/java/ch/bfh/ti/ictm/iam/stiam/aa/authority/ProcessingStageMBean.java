@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+/**
+ * Management interface of a ProcessingStage, exposed via JMX.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public interface ProcessingStageMBean {
+
+    /**
+     * @return Number of worker threads of the stage, or the number of tasks
+     * currently in flight if running on virtual threads
+     */
+    public int getThreads();
+
+    /**
+     * @return Maximum number of tasks waiting for a worker, or the maximum
+     * number of tasks in flight if running on virtual threads
+     */
+    public int getQueueCapacity();
+
+    /**
+     * @return Number of tasks currently waiting for a worker
+     */
+    public int getQueueLength();
+
+    /**
+     * @return Number of tasks executed (successfully or not) by the workers
+     */
+    public long getCompleted();
+
+    /**
+     * @return Number of tasks rejected because the queue was full
+     */
+    public long getRejected();
+
+    /**
+     * @return Average time in microseconds a task waited for a worker
+     */
+    public long getAverageQueueWaitMicros();
+
+    /**
+     * @return Average time in microseconds spent executing a task
+     */
+    public long getAverageExecutionMicros();
+
+    /**
+     * Resets all counters and timings.
+     */
+    public void resetStatistics();
+}
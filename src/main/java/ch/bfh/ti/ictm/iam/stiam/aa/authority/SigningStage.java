@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.MessageBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The stage building and signing responses. Marshalling and signing are the
+ * most CPU-intensive parts of handling a query, thus they are not performed
+ * on the threads of the servlet container but by a fixed number of workers
+ * (usually one per core) fed through a bounded queue.
+ *
+ * If the queue is full, responses are rejected immediately with a
+ * RejectedExecutionException instead of piling up work, so the caller can
+ * answer the query right away.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class SigningStage implements SigningStageMBean {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(SigningStage.class);
+
+    /**
+     * Receives the result of a message built asynchronously, called on the
+     * worker having built the message.
+     */
+    public interface Callback {
+
+        /**
+         * @param message The message as returned by builder.build()
+         */
+        public void completed(String message);
+
+        /**
+         * @param cause The exception thrown by the builder
+         */
+        public void failed(Exception cause);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final AtomicLong totalSignNanos = new AtomicLong();
+    private final AtomicLong maxSignNanos = new AtomicLong();
+
+//////////////////////////////////////// Constructors
+    /**
+     * Starts a signing stage.
+     *
+     * @param threads Number of worker threads, values &lt; 1 use one worker
+     * per available processor
+     * @param queueCapacity Maximum number of responses waiting for a worker
+     */
+    public SigningStage(int threads, int queueCapacity) {
+        final int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.queueCapacity = queueCapacity;
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "stiam-aa-signing-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        logger.info("Started signing stage with {} workers and a queue capacity of {}", workers, queueCapacity);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Builds the message of the given builder on a worker and waits for the
+     * result.
+     *
+     * @param builder The builder of the message
+     * @return The message as returned by builder.build()
+     * @throws RejectedExecutionException if the queue is full or the stage
+     * has been shut down
+     * @throws ExecutionException if building fails, the cause is the
+     * exception thrown by the builder
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public String build(final MessageBuilder builder) throws ExecutionException, InterruptedException {
+        return execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return builder.build();
+            }
+        });
+    }
+
+    /**
+     * Builds the messages of the given builders in parallel on the workers,
+     * e.g. the responses to a batch of queries, and waits for all of them.
+     * Messages not accepted by the queue are built on the calling thread
+     * instead of rejecting the batch, which also throttles the caller.
+     *
+     * @param builders The builders of the messages
+     * @return The completed results of builder.build(), in the order of the
+     * builders; get() throws an ExecutionException if building has failed
+     * @throws InterruptedException if interrupted while waiting, messages not
+     * yet built are cancelled
+     */
+    public List<Future<String>> buildAll(List<? extends MessageBuilder> builders) throws InterruptedException {
+        final List<Future<String>> results = new ArrayList<>(builders.size());
+        final List<FutureTask<String>> rejectedTasks = new ArrayList<>(0);
+        final long submitted = System.nanoTime();
+        for (final MessageBuilder builder : builders) {
+            final FutureTask<String> task = new FutureTask<>(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    final long started = System.nanoTime();
+                    try {
+                        return builder.build();
+                    } finally {
+                        record(started - submitted, System.nanoTime() - started);
+                    }
+                }
+            });
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                rejectedTasks.add(task);
+            }
+            results.add(task);
+        }
+
+        for (FutureTask<String> task : rejectedTasks) {
+            task.run();
+        }
+        try {
+            for (Future<String> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException ex) {
+                    // passed to the caller by the result
+                }
+            }
+        } catch (InterruptedException ex) {
+            for (Future<String> result : results) {
+                result.cancel(true);
+            }
+            throw ex;
+        }
+        return results;
+    }
+
+    /**
+     * Builds the message of the given builder on a worker without waiting for
+     * it, the result is passed to the callback.
+     *
+     * @param builder The builder of the message
+     * @param callback The callback receiving the message
+     * @throws RejectedExecutionException if the queue is full or the stage
+     * has been shut down
+     */
+    public void submit(final MessageBuilder builder, final Callback callback) {
+        final long submitted = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final long started = System.nanoTime();
+                    String message = null;
+                    Exception failure = null;
+                    try {
+                        message = builder.build();
+                    } catch (Exception ex) {
+                        failure = ex;
+                    }
+                    record(started - submitted, System.nanoTime() - started);
+
+                    if (failure == null) {
+                        callback.completed(message);
+                    } else {
+                        callback.failed(failure);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            rejected.incrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Stops all workers, messages still waiting in the queue are discarded.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        logger.info("Signing stage shut down.");
+    }
+
+    @Override
+    public int getThreads() {
+        return executor.getCorePoolSize();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getAverageQueueWaitMicros() {
+        final long count = completed.get();
+        return count > 0 ? totalQueueWaitNanos.get() / count / 1000 : 0;
+    }
+
+    @Override
+    public long getMaxQueueWaitMicros() {
+        return maxQueueWaitNanos.get() / 1000;
+    }
+
+    @Override
+    public long getAverageSignMicros() {
+        final long count = completed.get();
+        return count > 0 ? totalSignNanos.get() / count / 1000 : 0;
+    }
+
+    @Override
+    public long getMaxSignMicros() {
+        return maxSignNanos.get() / 1000;
+    }
+
+    @Override
+    public void resetStatistics() {
+        completed.set(0);
+        rejected.set(0);
+        totalQueueWaitNanos.set(0);
+        maxQueueWaitNanos.set(0);
+        totalSignNanos.set(0);
+        maxSignNanos.set(0);
+    }
+
+    /**
+     * Submits a task to the workers, records its timings and waits for its
+     * result.
+     */
+    private String execute(final Callable<String> task) throws ExecutionException, InterruptedException {
+        final long submitted = System.nanoTime();
+        final Future<String> future;
+        try {
+            future = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    final long started = System.nanoTime();
+                    try {
+                        return task.call();
+                    } finally {
+                        final long finished = System.nanoTime();
+                        record(started - submitted, finished - started);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            rejected.incrementAndGet();
+            throw ex;
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        }
+    }
+
+    /**
+     * Records the timings of a completed task.
+     */
+    private void record(long queueWaitNanos, long signNanos) {
+        completed.incrementAndGet();
+        totalQueueWaitNanos.addAndGet(queueWaitNanos);
+        totalSignNanos.addAndGet(signNanos);
+        updateMax(maxQueueWaitNanos, queueWaitNanos);
+        updateMax(maxSignNanos, signNanos);
+    }
+
+    /**
+     * Atomically raises the given maximum to value if it is larger.
+     */
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+/**
+ * Management interface of the SigningStage, exposed via JMX.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public interface SigningStageMBean {
+
+    /**
+     * @return Number of worker threads building and signing responses
+     */
+    public int getThreads();
+
+    /**
+     * @return Maximum number of responses waiting for a worker
+     */
+    public int getQueueCapacity();
+
+    /**
+     * @return Number of responses currently waiting for a worker
+     */
+    public int getQueueLength();
+
+    /**
+     * @return Number of responses built (successfully or not) by the workers
+     */
+    public long getCompleted();
+
+    /**
+     * @return Number of responses rejected because the queue was full
+     */
+    public long getRejected();
+
+    /**
+     * @return Average time in microseconds a response waited for a worker
+     */
+    public long getAverageQueueWaitMicros();
+
+    /**
+     * @return Longest time in microseconds a response waited for a worker
+     */
+    public long getMaxQueueWaitMicros();
+
+    /**
+     * @return Average time in microseconds spent building and signing a
+     * response
+     */
+    public long getAverageSignMicros();
+
+    /**
+     * @return Longest time in microseconds spent building and signing a
+     * response
+     */
+    public long getMaxSignMicros();
+
+    /**
+     * Resets all counters and timings.
+     */
+    public void resetStatistics();
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTime;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.util.Base64;
+import org.opensaml.xml.util.XMLConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * A bounded cache of embedded authentication assertions whose signature has
+ * already been verified successfully. SPs embed the same assertion of the IdP
+ * in many consecutive queries, a hit in this cache allows to skip the
+ * expensive XML-signature validation for all but the first of them.
+ *
+ * Entries are keyed by issuer, assertion ID and a digest of the
+ * SignatureValue. As the key does not cover the signed content itself, an
+ * entry additionally records the NameID and the Conditions of the assertion
+ * (which is everything AttributeService relies on) and a hit requires the
+ * presented assertion to match them. Furthermore, an entry is only valid for
+ * the very credential it has been verified with, thus replacing keys in the
+ * keystore invalidates all entries.
+ *
+ * Entries expire at the NotOnOrAfter of the assertion's Conditions;
+ * assertions without such a limit are never cached.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class VerifiedAssertionCache implements VerifiedAssertionCacheMBean {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifiedAssertionCache.class);
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+//////////////////////////////////////// Inner classes
+    /**
+     * A verified assertion, holding all data which has to match on a hit.
+     */
+    private static class Entry {
+
+        private final Credential credential;
+        private final String nameID;
+        private final long notBefore;
+        private final long notOnOrAfter;
+
+        Entry(Credential credential, String nameID, long notBefore, long notOnOrAfter) {
+            this.credential = credential;
+            this.nameID = nameID;
+            this.notBefore = notBefore;
+            this.notOnOrAfter = notOnOrAfter;
+        }
+    }
+
+//////////////////////////////////////// Constructors
+    /**
+     * Initializes an empty cache.
+     *
+     * @param maxSize Maximum number of assertions to hold, 0 disables caching
+     */
+    public VerifiedAssertionCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new ConcurrentHashMap<>(maxSize > 0 ? maxSize : 1);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Checks if the given assertion has already been verified with the given
+     * credential and is still valid at the given time.
+     *
+     * @param assertion The assertion to look up
+     * @param credential The credential the signature has to be verified with
+     * @param now The time of the lookup, used for expiration
+     * @return true if the signature of the assertion does not have to be
+     * verified again
+     */
+    public boolean isVerified(Assertion assertion, Credential credential, DateTime now) {
+        if (maxSize <= 0) {
+            return false;
+        }
+
+        final String key = buildKey(assertion);
+        final Entry entry = key != null ? entries.get(key) : null;
+        if (entry == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        if (now.getMillis() >= entry.notOnOrAfter) {
+            entries.remove(key);
+            misses.incrementAndGet();
+            return false;
+        }
+
+        if (entry.credential != credential || !matches(entry, assertion)) {
+            logger.debug("Cached assertion '{}' does not match presented one, verifying again", assertion.getID());
+            misses.incrementAndGet();
+            return false;
+        }
+
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Adds an assertion whose signature has been verified successfully.
+     *
+     * @param assertion The verified assertion
+     * @param credential The credential used for the verification
+     * @param now The current time, used for purging expired entries
+     */
+    public void put(Assertion assertion, Credential credential, DateTime now) {
+        if (maxSize <= 0 || assertion.getConditions() == null
+                || assertion.getConditions().getNotOnOrAfter() == null) {
+            return;
+        }
+
+        final String key = buildKey(assertion);
+        if (key == null) {
+            return;
+        }
+
+        if (entries.size() >= maxSize) {
+            purgeExpired(now);
+            if (entries.size() >= maxSize) {
+                logger.debug("Cache full, not caching assertion '{}'", assertion.getID());
+                return;
+            }
+        }
+
+        final DateTime notBefore = assertion.getConditions().getNotBefore();
+        entries.put(key, new Entry(credential, getNameID(assertion),
+                notBefore != null ? notBefore.getMillis() : Long.MIN_VALUE,
+                assertion.getConditions().getNotOnOrAfter().getMillis()));
+    }
+
+    /**
+     * Removes all entries expired at the given time.
+     *
+     * @param now The reference time
+     */
+    public void purgeExpired(DateTime now) {
+        final long millis = now.getMillis();
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (millis >= iterator.next().notOnOrAfter) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+//////////////////////////////////////// Private Methods
+    /**
+     * Checks if the security-relevant content of the given assertion matches
+     * the one recorded in the given entry.
+     */
+    private boolean matches(Entry entry, Assertion assertion) {
+        if (assertion.getConditions() == null || assertion.getConditions().getNotOnOrAfter() == null
+                || assertion.getConditions().getNotOnOrAfter().getMillis() != entry.notOnOrAfter) {
+            return false;
+        }
+
+        final DateTime notBefore = assertion.getConditions().getNotBefore();
+        if ((notBefore != null ? notBefore.getMillis() : Long.MIN_VALUE) != entry.notBefore) {
+            return false;
+        }
+
+        final String nameID = getNameID(assertion);
+        return nameID != null && nameID.equals(entry.nameID);
+    }
+
+    /**
+     * @return The value of the NameID of the subject of the assertion or null
+     */
+    private String getNameID(Assertion assertion) {
+        if (assertion.getSubject() == null || assertion.getSubject().getNameID() == null) {
+            return null;
+        }
+        return assertion.getSubject().getNameID().getValue();
+    }
+
+    /**
+     * Builds the key of an assertion from its issuer, ID and a digest of the
+     * SignatureValue.
+     *
+     * @return The key or null if the assertion lacks one of these elements
+     */
+    private String buildKey(Assertion assertion) {
+        final Signature signature = assertion.getSignature();
+        if (assertion.getIssuer() == null || assertion.getID() == null
+                || signature == null || signature.getDOM() == null) {
+            return null;
+        }
+
+        final NodeList values = signature.getDOM().getElementsByTagNameNS(XMLConstants.XMLSIG_NS, "SignatureValue");
+        if (values.getLength() == 0) {
+            return null;
+        }
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            final byte[] signatureDigest = digest.digest(((Element) values.item(0)).getTextContent().getBytes("UTF-8"));
+            return assertion.getIssuer().getValue() + '\n' + assertion.getID() + '\n'
+                    + Base64.encodeBytes(signatureDigest, Base64.DONT_BREAK_LINES);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException ex) {
+            logger.error("Unable to digest SignatureValue: {}", ex.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+/**
+ * Management interface of the VerifiedAssertionCache, exposed via JMX.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public interface VerifiedAssertionCacheMBean {
+
+    /**
+     * @return Number of lookups which allowed to skip a signature verification
+     */
+    public long getHits();
+
+    /**
+     * @return Number of lookups which required a full signature verification
+     */
+    public long getMisses();
+
+    /**
+     * @return Number of assertions currently held in the cache
+     */
+    public int getSize();
+
+    /**
+     * @return Maximum number of assertions held in the cache
+     */
+    public int getMaxSize();
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear();
+}
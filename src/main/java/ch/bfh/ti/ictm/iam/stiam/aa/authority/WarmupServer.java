@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.SerializationEngine;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServlet;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.opensaml.xml.util.Base64;
+
+/**
+ * An embedded Jetty used for warming up the AttributeService: Serialized
+ * attribute queries are posted to the given servlet over an in-memory
+ * connector, as if they had been sent with the configured binding to the
+ * configured destination (as SOAP envelope or as form with the SAMLRequest
+ * parameter). The responses are discarded, only their status is returned.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+final class WarmupServer {
+//////////////////////////////////////// Fields
+
+    private static final StiamConfiguration config = StiamConfiguration.getInstance();
+
+    // Threads of the server: The acceptor of the connector and the one handling the query
+    private static final int THREADS = 2;
+
+    // Time in seconds to wait for a response
+    private static final int RESPONSE_TIMEOUT_SECONDS = 60;
+
+    private final Server server;
+    private final LocalConnector connector;
+    private final URI destination;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Creates and starts the server.
+     *
+     * @param servlet The servlet processing the queries
+     * @throws Exception if the server cannot be started
+     */
+    WarmupServer(HttpServlet servlet) throws Exception {
+        destination = URI.create(config.getSAMLDestination());
+        final QueuedThreadPool threadPool = new QueuedThreadPool(THREADS, THREADS);
+        threadPool.setName("stiam-aa-warmup");
+        threadPool.setDaemon(true);
+        server = new Server(threadPool);
+
+        // Requests are received in memory, present them with the scheme of the destination
+        final HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.addCustomizer(new HttpConfiguration.Customizer() {
+            @Override
+            public void customize(Connector connector, HttpConfiguration channelConfig, Request request) {
+                request.setScheme(destination.getScheme());
+                request.setSecure("https".equalsIgnoreCase(destination.getScheme()));
+            }
+        });
+        connector = new LocalConnector(server, new HttpConnectionFactory(httpConfig));
+        server.addConnector(connector);
+
+        final ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(servlet), "/*");
+        server.setHandler(context);
+        server.start();
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Posts a query to the servlet and waits for the response.
+     *
+     * @param query The serialized attribute query
+     * @return The HTTP status of the response, -1 if none has been received
+     * @throws Exception if the query cannot be sent
+     */
+    int post(String query) throws Exception {
+        final String contentType;
+        final byte[] body;
+        if (config.getBinding() == StiamConfiguration.Binding.HTTP_POST) {
+            contentType = "application/x-www-form-urlencoded";
+            body = encodeForm(query);
+        } else {
+            contentType = "text/xml;charset=UTF-8";
+            body = SerializationEngine.getInstance().encodeSOAPEnvelope(query);
+        }
+
+        final String path = destination.getRawPath() == null || destination.getRawPath().isEmpty()
+                ? "/" : destination.getRawPath();
+        final byte[] head = ("POST " + path + (destination.getRawQuery() == null ? "" : "?" + destination.getRawQuery())
+                + " HTTP/1.1\r\nHost: " + destination.getHost()
+                + (destination.getPort() < 0 ? "" : ":" + destination.getPort())
+                + "\r\nContent-Type: " + contentType + "\r\nContent-Length: " + body.length
+                + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        final ByteBuffer request = ByteBuffer.allocate(head.length + body.length);
+        request.put(head).put(body).flip();
+        final ByteBuffer response = connector.getResponse(request, RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return response == null ? -1 : parseStatus(response);
+    }
+
+    /**
+     * Stops the server.
+     *
+     * @throws Exception if the server cannot be stopped
+     */
+    void stop() throws Exception {
+        server.stop();
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * @return The form with the query in the SAMLRequest parameter
+     */
+    private static byte[] encodeForm(String query) throws UnsupportedEncodingException {
+        final Charset charset = Charset.forName(config.getAttributeQueryEncoding());
+        final String samlRequest = Base64.encodeBytes(query.getBytes(charset));
+        return ("SAMLRequest=" + URLEncoder.encode(samlRequest, StandardCharsets.US_ASCII.name()))
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return The status of the given HTTP response, -1 if it has none
+     */
+    private static int parseStatus(ByteBuffer response) {
+        // Status line: HTTP/1.1 200 OK
+        final byte[] statusLine = new byte[Math.min(response.remaining(), 12)];
+        response.get(statusLine);
+        final String[] parts = new String(statusLine, StandardCharsets.US_ASCII).split(" ");
+        try {
+            return parts.length < 2 ? -1 : Integer.parseInt(parts[1]);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.directory;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.ldap.NameIDNotFoundException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base class of directories whose backend cannot retrieve the attributes of
+ * several subjects at once or asynchronously: The attributes are fetched
+ * subject by subject, on the calling thread.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public abstract class AbstractDirectory implements Directory {
+
+    /**
+     * Fetches the attributes of several subjects by calling
+     * fetchAttributes(String, String[]) once per subject. Subjects not found
+     * are left out of the result.
+     *
+     * @param nameIds The NameIDs to retrieve attributes for
+     * @param attributeNames A list containing names of attributes to be
+     * retrieved
+     * @return A map from the NameIDs found to maps containing attributes and
+     * their values
+     * @throws DirectoryException in case of errors in the retrieval, except
+     * for subjects not found
+     */
+    @Override
+    public Map<String, Map<String, String>> fetchAttributes(Collection<String> nameIds, String[] attributeNames)
+            throws DirectoryException {
+        final Map<String, Map<String, String>> results = new HashMap<>(nameIds.size() * 2);
+        for (String nameId : nameIds) {
+            try {
+                results.put(nameId, fetchAttributes(nameId, attributeNames));
+            } catch (NameIDNotFoundException ex) {
+                // left out of the result
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Fetches the attributes by calling fetchAttributes(String, String[]),
+     * passing the result to the callback on the calling thread.
+     *
+     * @param nameId The NameID to retrieve attributes for
+     * @param attributeNames A list containing names of attributes to be
+     * retrieved
+     * @param callback Receives the attributes or the error in the retrieval
+     */
+    @Override
+    public void fetchAttributes(String nameId, String[] attributeNames, Callback callback) {
+        final Map<String, String> attributes;
+        try {
+            attributes = fetchAttributes(nameId, attributeNames);
+        } catch (DirectoryException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(attributes);
+    }
+}
@@ -5,6 +5,7 @@
  */
 package ch.bfh.ti.ictm.iam.stiam.aa.directory;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -16,6 +17,23 @@ import java.util.Map;
  */
 public interface Directory {
 
+    /**
+     * Receives the result of attributes fetched asynchronously.
+     */
+    public interface Callback {
+
+        /**
+         * @param attributes A map containing attributes and their values
+         */
+        public void completed(Map<String, String> attributes);
+
+        /**
+         * @param cause The exception describing the error in the retrieval,
+         * a DirectoryTimeoutException if the backend did not answer in time
+         */
+        public void failed(DirectoryException cause);
+    }
+
     /**
      * Retrieves a given list of attributes for a given NameID from the backend.
      *
@@ -27,4 +45,42 @@ public interface Directory {
      * retrieval
      */
     public Map<String, String> fetchAttributes(String nameId, String[] attributeNames) throws DirectoryException;
+
+    /**
+     * Retrieves a given list of attributes for a given NameID from the backend
+     * asynchronously: The result is passed to the callback once received,
+     * possibly on a thread of the backend, so the calling thread is not held
+     * while waiting for the backend. Implementations without support for this
+     * by their backend may extend AbstractDirectory, fetching the attributes
+     * on the calling thread.
+     *
+     * @param nameId The NameID to retrieve attributes for
+     * @param attributeNames A list containing names of attributes to be
+     * retrieved
+     * @param callback Receives the attributes or the error in the retrieval
+     */
+    public void fetchAttributes(String nameId, String[] attributeNames, Callback callback);
+
+    /**
+     * Retrieves a given list of attributes for several NameIDs at once from
+     * the backend, with as few requests to it as possible. Implementations
+     * without support for this by their backend may extend AbstractDirectory,
+     * fetching the attributes subject by subject.
+     *
+     * @param nameIds The NameIDs to retrieve attributes for
+     * @param attributeNames A list containing names of attributes to be
+     * retrieved
+     * @return A map from the NameIDs to maps containing attributes and their
+     * values; NameIDs not found in the backend are missing
+     * @throws DirectoryException or subclasses of it in case of errors in the
+     * retrieval
+     */
+    public Map<String, Map<String, String>> fetchAttributes(Collection<String> nameIds, String[] attributeNames)
+            throws DirectoryException;
+
+    /**
+     * Releases the resources held by the directory, e.g. connections to the
+     * backend. Called once when the authority shuts down.
+     */
+    public void close();
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.directory;
+
+/**
+ * Exception thrown if the backend directory did not answer within the
+ * configured time limits.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+@SuppressWarnings("serial")
+public class DirectoryTimeoutException extends DirectoryException {
+
+    /**
+     * Accepts another Throwable as cause as well as a descriptive message and
+     * calls the appropriate super-constructor
+     *
+     * @param message A message describing the cause of this exception
+     * @param cause Originating Throwable causing this exception, may be null
+     */
+    public DirectoryTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -6,9 +6,11 @@
 package ch.bfh.ti.ictm.iam.stiam.aa.directory.ldap;
 
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.AttributeNameMapper;
-import ch.bfh.ti.ictm.iam.stiam.aa.directory.Directory;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.AbstractDirectory;
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -23,7 +25,7 @@ import org.slf4j.LoggerFactory;
  * @author Pascal Mainini
  * @author Marc Kunz
  */
-public class DirectoryImpl implements Directory {
+public class DirectoryImpl extends AbstractDirectory {
 //////////////////////////////////////// Fields
 
     private static final Logger logger = LoggerFactory.getLogger(DirectoryImpl.class);
@@ -69,7 +71,6 @@ public class DirectoryImpl implements Directory {
     public Map<String, String> fetchAttributes(String nameId,
             String[] attributeNames) throws DirectoryException {
         logger.info("Request for attributes: {}", (Object[]) attributeNames);
-        final Map<String, String> resultMap = new HashMap<>(attributeNames.length);
 
         if (attributeMapper == null) {
             logger.error("Could not map attributes, because AttributeMapper is not available!");
@@ -85,13 +86,111 @@ public class DirectoryImpl implements Directory {
         }
         final String[] resultAttributes = ldapClient.getAttributes(nameId, mappedAttributes);
 
-        logger.debug("Build Map for attributes...");
-        for (int i = 0; i < attributeNames.length; i++) {
-            logger.debug("Value of '{}' is '{}'", attributeNames[i], resultAttributes[i]);
-            resultMap.put(attributeNames[i], resultAttributes[i]);
+        logger.info("Request done, returning attribute values!");
+        return toMap(attributeNames, resultAttributes);
+    }
+
+    /**
+     * Fetches the given attributes for the given nameID asynchronously by
+     * applying attribute-name-mapping before. The callback is called on the
+     * thread of the LDAP connection having received the result.
+     *
+     * @param nameId NameID to search
+     * @param attributeNames List of attributes to retrieve
+     * @param callback Receives an unmodifiable map of attributes and their
+     * values or a DirectoryException, also if AttributeMapper or LdapClient
+     * don't exist
+     */
+    @Override
+    public void fetchAttributes(String nameId, final String[] attributeNames, final Callback callback) {
+        logger.info("Asynchronous request for attributes: {}", (Object[]) attributeNames);
+
+        if (attributeMapper == null) {
+            logger.error("Could not map attributes, because AttributeMapper is not available!");
+            callback.failed(new DirectoryException("AttributeMapper not available!"));
+            return;
+        }
+
+        logger.debug("Mapping attributes...");
+        final String[] mappedAttributes = attributeMapper.mapAttributeNames(attributeNames);
+
+        if (ldapClient == null) {
+            logger.error("LDAP directory is not available!");
+            callback.failed(new LDAPException("LDAP directory not available!"));
+            return;
+        }
+        ldapClient.getAttributes(nameId, mappedAttributes, new LdapClient.SearchCallback() {
+            @Override
+            public void completed(String[] values) {
+                callback.completed(toMap(attributeNames, values));
+            }
+
+            @Override
+            public void failed(DirectoryException cause) {
+                callback.failed(cause);
+            }
+        });
+    }
+
+    /**
+     * Fetches the given attributes for several NameIDs, applying
+     * attribute-name-mapping before. If the LdapClient supports it, the NameIDs
+     * are searched in chunks with one search each, otherwise one by one.
+     *
+     * @param nameIds NameIDs to search
+     * @param attributeNames List of attributes to retrieve
+     * @return a map from the NameIDs found to unmodifiable maps of attributes
+     * and their values
+     * @throws DirectoryException if AttributeMapper or LdapClient don't exist
+     */
+    @Override
+    public Map<String, Map<String, String>> fetchAttributes(Collection<String> nameIds,
+            String[] attributeNames) throws DirectoryException {
+        if (ldapClient == null || !ldapClient.supportsBulkSearch()) {
+            return super.fetchAttributes(nameIds, attributeNames);
+        }
+        logger.info("Request for attributes of {} users: {}", nameIds.size(), Arrays.asList(attributeNames));
+
+        if (attributeMapper == null) {
+            logger.error("Could not map attributes, because AttributeMapper is not available!");
+            throw new DirectoryException("AttributeMapper not available!");
+        }
+
+        logger.debug("Mapping attributes...");
+        final String[] mappedAttributes = attributeMapper.mapAttributeNames(attributeNames);
+        final Map<String, String[]> resultAttributes = ldapClient.getAttributes(nameIds, mappedAttributes);
+
+        final Map<String, Map<String, String>> results = new HashMap<>(resultAttributes.size() * 2);
+        for (Map.Entry<String, String[]> entry : resultAttributes.entrySet()) {
+            results.put(entry.getKey(), toMap(attributeNames, entry.getValue()));
         }
 
         logger.info("Request done, returning attribute values!");
+        return results;
+    }
+
+    /**
+     * Closes the connection of the LdapClient, if available.
+     */
+    @Override
+    public void close() {
+        if (ldapClient != null) {
+            ldapClient.close();
+        }
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * @return An unmodifiable map of the attribute names and the values
+     * fetched for their mapped names, in the same order
+     */
+    private static Map<String, String> toMap(String[] attributeNames, String[] values) {
+        final Map<String, String> resultMap = new HashMap<>(attributeNames.length);
+        logger.debug("Build Map for attributes...");
+        for (int i = 0; i < attributeNames.length; i++) {
+            logger.debug("Value of '{}' is '{}'", attributeNames[i], values[i]);
+            resultMap.put(attributeNames[i], values[i]);
+        }
         return Collections.unmodifiableMap(resultMap);
     }
 }
@@ -6,39 +6,105 @@
 package ch.bfh.ti.ictm.iam.stiam.aa.directory.ldap;
 
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryException;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryTimeoutException;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.Monitoring;
+import com.unboundid.ldap.sdk.AsyncRequestID;
+import com.unboundid.ldap.sdk.AsyncSearchResultListener;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.GetEntryLDAPConnectionPoolHealthCheck;
 import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPConnectionPoolStatistics;
+import com.unboundid.ldap.sdk.ResultCode;
 import com.unboundid.ldap.sdk.LDAPSearchException;
 import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchRequest;
 import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchResultListener;
+import com.unboundid.ldap.sdk.SearchResultReference;
 import com.unboundid.ldap.sdk.SearchScope;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Handles the connection with the LDAP-backend-directory and allows to query
- * it.
+ * Handles the connections with the LDAP-backend-directory and allows to query
+ * it. Searches are performed on a pool of bound connections shared by all
+ * threads, configured in aa.properties (see StiamConfiguration): Its initial
+ * connections are opened at startup, it grows on demand up to its maximum
+ * size and requests wait for a connection when all are in use. Connections are
+ * checked in the background by reading the root DSE and replaced when
+ * defunct or older than the maximum age; searches failing on a defunct
+ * connection are retried once on another one. Statistics of the pool
+ * are exposed via JMX, see LdapClientMBean.
+ *
+ * All searches are limited in time, on the server (time limit of the search
+ * request) and on the client (response timeout), failing with a
+ * DirectoryTimeoutException when exceeded. Single subjects may also be
+ * searched asynchronously, without holding the calling thread.
  *
  * @author Pascal Mainini
  * @author Marc Kunz
  */
-class LdapClient {
+class LdapClient implements LdapClientMBean {
 //////////////////////////////////////// Fields
 
     private static final Logger logger = LoggerFactory.getLogger(LdapClient.class);
+
+    // Stands in for the NameID when analyzing the configured filter
+    private static final String NAMEID_MARKER = "stiam-aa-nameid";
+
+    // Maximum time in milliseconds the health check waits for the root DSE
+    private static final long HEALTH_CHECK_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Receives the result of an asynchronous search, called on the thread
+     * reading the responses of the connection used.
+     */
+    interface SearchCallback {
+
+        /**
+         * @param values The attribute-values in the same order as the names
+         * requested
+         */
+        void completed(String[] values);
+
+        /**
+         * @param cause NameIDNotFoundException if the NameID could not have
+         * been found, DirectoryTimeoutException if the search timed out,
+         * LDAPException for other errors
+         */
+        void failed(DirectoryException cause);
+    }
+
     private final StiamConfiguration stiamSettings;
-    private LDAPConnection ldapConnection;
+    private final String subjectAttribute;
+    private volatile LDAPConnectionPool pool;
 
 //////////////////////////////////////// Constructors
     /**
-     * Initialize the LdapClient and try to open the connection.
+     * Initialize the LdapClient and try to open the connection pool.
      *
      * @throws LDAPException If something fails...
      */
     LdapClient() throws LDAPException {
         logger.info("Initializing LDAP-Client...");
         stiamSettings = StiamConfiguration.getInstance();
+        subjectAttribute = subjectAttribute(stiamSettings.getLdapFilter(NAMEID_MARKER));
+        if (subjectAttribute == null) {
+            logger.info("Subjects of the configured filter cannot be identified, searching them one by one.");
+        }
         connect();
+        Monitoring.register("LdapConnectionPool", this);
         logger.info("Initialization done!");
     }
 
@@ -59,21 +125,13 @@ class LdapClient {
             return new String[0];
         }
 
-        if (ldapConnection == null || !ldapConnection.isConnected()) {
-            logger.info("LDAP-Connection down, trying to reconnect...");
-            connect();
-            if (ldapConnection == null || !ldapConnection.isConnected()) {
-                logger.error("Could not reconnect - cannot search attributes!");
-                return new String[0];
-            }
-        }
+        final LDAPConnectionPool connectionPool = connectedPool();
 
         logger.info("Fetching attributes from LDAP for user '{}'...", nameId);
 
         final String[] resultArray = new String[attr.length];
         try {
-            final SearchResult searchResults = ldapConnection.search(stiamSettings.getLdapBaseDN(),
-                    SearchScope.SUB, stiamSettings.getLdapFilter(nameId), attr);
+            final SearchResult searchResults = search(connectionPool, searchRequest(null, filter(nameId), attr));
             final SearchResultEntry entry;
             if (!searchResults.getSearchEntries().isEmpty()) {
                 logger.debug("Found entry for user '{}'", nameId);
@@ -83,18 +141,10 @@ class LdapClient {
                 throw new NameIDNotFoundException("User '" + nameId + "' not found!");
             }
 
-            for (int i = 0; i < attr.length; i++) {
-                if (entry.hasAttribute(attr[i])) {
-                    resultArray[i] = entry.getAttribute(attr[i]).getValue();
-                } else {
-                    resultArray[i] = "";
-                }
-                logger.debug("Value for attribute '{}': {}", attr[i], resultArray[i]);
-            }
+            values(entry, attr, resultArray);
         }
-        catch (LDAPSearchException e) {
-            logger.error("Couldn't perform an LDAP-Search query! Error was: '{}'", e.getMessage());
-            throw new LDAPException(e.getMessage(), e);
+        catch (com.unboundid.ldap.sdk.LDAPException e) {
+            throw searchFailed(e.getResultCode(), e.getMessage(), e);
         }
 
         logger.info("Done!");
@@ -102,28 +152,527 @@ class LdapClient {
     }
 
     /**
-     * Closes the connection to the LDAP-directory
+     * Returns requested attributes for a specified NameID asynchronously: The
+     * search is sent on a connection of the pool without waiting for its
+     * result, which is passed to the callback once received. Only checking
+     * out the connection may wait, for at most the configured maximum waiting
+     * time of the pool.
+     *
+     * @param nameId NameID to query for
+     * @param attr An array containing attribute names requested
+     * @param callback Receives the attribute-values in the same order as the
+     * names in attr or the error
+     */
+    public void getAttributes(String nameId, String[] attr, SearchCallback callback) {
+        if (attr.length == 0) {
+            logger.info("Received empty query for user '{}', returning nothing.", nameId);
+            callback.completed(new String[0]);
+            return;
+        }
+
+        final LDAPConnectionPool connectionPool;
+        final Filter filter;
+        final LDAPConnection connection;
+        try {
+            connectionPool = connectedPool();
+            filter = filter(nameId);
+            connection = connectionPool.getConnection();
+        }
+        catch (LDAPException e) {
+            callback.failed(e);
+            return;
+        }
+        catch (com.unboundid.ldap.sdk.LDAPException e) {
+            callback.failed(searchFailed(e.getResultCode(), e.getMessage(), e));
+            return;
+        }
+
+        logger.info("Fetching attributes from LDAP asynchronously for user '{}'...", nameId);
+        try {
+            connection.asyncSearch(searchRequest(new AsyncSearch(connectionPool, connection, nameId, attr, callback),
+                    filter, attr));
+        }
+        catch (com.unboundid.ldap.sdk.LDAPException e) {
+            connectionPool.releaseDefunctConnection(connection);
+            callback.failed(searchFailed(e.getResultCode(), e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Returns requested attributes for several NameIDs. The NameIDs are
+     * searched in chunks of the configured bulk search size, with one search
+     * per chunk, combining the filters of its NameIDs with OR. Entries found
+     * are assigned to the NameIDs by the attribute the configured filter
+     * compares the NameID with.
+     *
+     * @param nameIds NameIDs to query for
+     * @param attr An array containing attribute names requested
+     * @return A map from the NameIDs found to String-arrays with
+     * attribute-values in the same order as the names in attr; NameIDs not
+     * found in the directory are missing
+     * @throws LDAPException if a search fails or bulk searches are not
+     * supported, see supportsBulkSearch()
+     */
+    public Map<String, String[]> getAttributes(Collection<String> nameIds, String[] attr) throws DirectoryException {
+        if (!supportsBulkSearch()) {
+            throw new LDAPException("Bulk searches are not supported with the configured filter!");
+        }
+        final Map<String, String[]> results = new HashMap<>(nameIds.size() * 2);
+        if (nameIds.isEmpty()) {
+            return results;
+        }
+        final LDAPConnectionPool connectionPool = connectedPool();
+
+        logger.info("Fetching attributes from LDAP for {} users...", nameIds.size());
+
+        final String[] requested = Arrays.copyOf(attr, attr.length + 1);
+        requested[attr.length] = subjectAttribute;
+        final int chunkSize = stiamSettings.getLdapBulkSearchSize();
+        final List<String> chunk = new ArrayList<>(chunkSize);
+        for (String nameId : nameIds) {
+            chunk.add(nameId);
+            if (chunk.size() == chunkSize) {
+                search(connectionPool, chunk, attr, requested, results);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            search(connectionPool, chunk, attr, requested, results);
+        }
+
+        logger.info("Done, found {} of {} users!", results.size(), nameIds.size());
+        return results;
+    }
+
+    /**
+     * @return true if getAttributes() can search several NameIDs at once,
+     * which requires the configured filter to compare the NameID with exactly
+     * one attribute and a bulk search size of more than 1
+     */
+    public boolean supportsBulkSearch() {
+        return subjectAttribute != null && stiamSettings.getLdapBulkSearchSize() > 1;
+    }
+
+    /**
+     * Closes the connection pool of the LDAP-directory
      */
-    public void close() {
-        ldapConnection.close();
-        logger.debug("LDAP-directory: connection closed");
+    public synchronized void close() {
+        if (pool != null && !pool.isClosed()) {
+            logger.info("LDAP-directory: closing connection pool, {}", pool.getConnectionPoolStatistics());
+            pool.close();
+            logger.debug("LDAP-directory: connection pool closed");
+        }
     }
 
     /**
-     * Opens the connection to the LDAP-directory
+     * Opens the connection pool of the LDAP-directory, unless it is open
+     * already. The initial connections of the pool are established right
+     * away.
      *
      * @throws LDAPException if something goes wrong
      */
-    public void connect() throws LDAPException {
+    public synchronized void connect() throws LDAPException {
+        if (pool != null && !pool.isClosed()) {
+            return;
+        }
+        final int initialSize = Math.min(stiamSettings.getLdapPoolInitialSize(), stiamSettings.getLdapPoolMaxSize());
         try {
             logger.debug("Trying to connect to LDAP-directory");
-            ldapConnection = new LDAPConnection(stiamSettings.getLdapHost(), stiamSettings.getLdapPort(),
-                    stiamSettings.getLdapUser(), stiamSettings.getLdapPassphrase());
-            logger.debug("LDAP-directory: connection established");
+            final LDAPConnection connection = new LDAPConnection(stiamSettings.getLdapHost(),
+                    stiamSettings.getLdapPort(), stiamSettings.getLdapUser(), stiamSettings.getLdapPassphrase());
+            final LDAPConnectionPool connectionPool = createPool(connection, initialSize,
+                    stiamSettings.getLdapPoolMaxSize());
+            connectionPool.setMaxWaitTimeMillis(stiamSettings.getLdapPoolMaxWaitMillis());
+            connectionPool.setMaxConnectionAgeMillis(stiamSettings.getLdapPoolMaxConnectionAgeSeconds() * 1000L);
+            connectionPool.setHealthCheckIntervalMillis(stiamSettings.getLdapPoolHealthCheckIntervalSeconds() * 1000L);
+            pool = connectionPool;
+            logger.debug("LDAP-directory: connection pool established with {} connections",
+                    connectionPool.getCurrentAvailableConnections());
         }
         catch (com.unboundid.ldap.sdk.LDAPException ex) {
             logger.error("LDAP-directory: connection failed");
             throw new LDAPException(ex.getMessage(), ex);
         }
     }
+
+    /**
+     * Creates a pool of connections like the given one, its initial
+     * connections established right away. The pool grows on demand up to
+     * maxSize connections, which is a hard limit.
+     *
+     * @param connection An established connection, the first one of the pool
+     * @param initialSize Number of connections established right away
+     * @param maxSize Maximum number of connections
+     * @return The pool, named "stiam-aa"
+     * @throws com.unboundid.ldap.sdk.LDAPException if a connection cannot be
+     * established
+     */
+    static LDAPConnectionPool createPool(LDAPConnection connection, int initialSize, int maxSize)
+            throws com.unboundid.ldap.sdk.LDAPException {
+        final GetEntryLDAPConnectionPoolHealthCheck healthCheck = new GetEntryLDAPConnectionPoolHealthCheck(
+                "", HEALTH_CHECK_TIMEOUT_MILLIS, true, false, false, true, false);
+        final LDAPConnectionPool connectionPool = new LDAPConnectionPool(connection, Math.max(initialSize, 1),
+                maxSize, 1, null, true, healthCheck);
+        connectionPool.setConnectionPoolName("stiam-aa");
+        // The pool counts the connections missing to maxSize as ones to be
+        // replaced and opens one of them whenever none is available, thus it
+        // grows without createIfNecessary. Disabling it only prevents opening
+        // connections beyond maxSize, which would be closed after one use.
+        connectionPool.setCreateIfNecessary(false);
+        return connectionPool;
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        final LDAPConnectionPool current = pool;
+        return current == null || current.isClosed() ? 0 : current.getCurrentAvailableConnections();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return stiamSettings.getLdapPoolMaxSize();
+    }
+
+    @Override
+    public long getSuccessfulConnectionAttempts() {
+        final LDAPConnectionPoolStatistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getNumSuccessfulConnectionAttempts();
+    }
+
+    @Override
+    public long getFailedConnectionAttempts() {
+        final LDAPConnectionPoolStatistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getNumFailedConnectionAttempts();
+    }
+
+    @Override
+    public long getConnectionsClosedDefunct() {
+        final LDAPConnectionPoolStatistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getNumConnectionsClosedDefunct();
+    }
+
+    @Override
+    public long getConnectionsClosedExpired() {
+        final LDAPConnectionPoolStatistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getNumConnectionsClosedExpired();
+    }
+
+    @Override
+    public long getSuccessfulCheckouts() {
+        final LDAPConnectionPoolStatistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getNumSuccessfulCheckouts();
+    }
+
+    @Override
+    public long getCheckoutsAfterWaiting() {
+        final LDAPConnectionPoolStatistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getNumSuccessfulCheckoutsAfterWaiting();
+    }
+
+    @Override
+    public long getFailedCheckouts() {
+        final LDAPConnectionPoolStatistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getNumFailedCheckouts();
+    }
+
+    @Override
+    public void resetStatistics() {
+        final LDAPConnectionPoolStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.reset();
+        }
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Determines the attribute an LDAP filter compares the NameID with, for
+     * assigning the entries of a bulk search to the NameIDs. Only equality
+     * comparisons, possibly within AND filters, identify a subject.
+     *
+     * @param filter The configured filter for NAMEID_MARKER as NameID
+     * @return The attribute or null if the filter does not identify a subject
+     * by exactly one attribute
+     */
+    static String subjectAttribute(String filter) {
+        try {
+            return subjectAttribute(Filter.create(filter));
+        }
+        catch (com.unboundid.ldap.sdk.LDAPException ex) {
+            logger.warn("Could not parse LDAP filter '{}': {}", filter, ex.getMessage());
+            return null;
+        }
+    }
+
+    private static String subjectAttribute(Filter filter) {
+        if (filter.getFilterType() == Filter.FILTER_TYPE_EQUALITY) {
+            return NAMEID_MARKER.equals(filter.getAssertionValue()) ? filter.getAttributeName() : null;
+        }
+        if (filter.getFilterType() == Filter.FILTER_TYPE_AND) {
+            String attribute = null;
+            for (Filter component : filter.getComponents()) {
+                final String found = subjectAttribute(component);
+                if (found != null) {
+                    if (attribute != null && !attribute.equalsIgnoreCase(found)) {
+                        return null;
+                    }
+                    attribute = found;
+                }
+            }
+            return attribute;
+        }
+        return null;
+    }
+
+    /**
+     * Assigns the entries of a bulk search to the NameIDs searched, by the
+     * values of the attribute identifying the subject. These are compared
+     * ignoring case, so all NameIDs differing only in case are assigned the
+     * same entry. If several entries match a NameID, the first one is used.
+     *
+     * @param entries The entries found
+     * @param subjectAttribute The attribute identifying the subject
+     * @param nameIds The NameIDs searched
+     * @param attr The names of the attributes requested
+     * @param results The values of the attributes by NameID, to which the
+     * NameIDs found are added
+     */
+    static void assignEntries(List<SearchResultEntry> entries, String subjectAttribute, List<String> nameIds,
+            String[] attr, Map<String, String[]> results) {
+        final Map<String, List<String>> subjects = new HashMap<>(nameIds.size() * 2);
+        for (String nameId : nameIds) {
+            final String subject = nameId.toLowerCase(Locale.ROOT);
+            List<String> variants = subjects.get(subject);
+            if (variants == null) {
+                variants = new ArrayList<>(1);
+                subjects.put(subject, variants);
+            }
+            variants.add(nameId);
+        }
+
+        for (SearchResultEntry entry : entries) {
+            final String[] values = entry.getAttributeValues(subjectAttribute);
+            if (values == null) {
+                continue;
+            }
+            for (String value : values) {
+                final List<String> variants = subjects.get(value.toLowerCase(Locale.ROOT));
+                if (variants == null) {
+                    continue;
+                }
+                for (String nameId : variants) {
+                    if (!results.containsKey(nameId)) {
+                        logger.debug("Found entry for user '{}'", nameId);
+                        final String[] resultArray = new String[attr.length];
+                        values(entry, attr, resultArray);
+                        results.put(nameId, resultArray);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches one chunk of NameIDs, adding the values of the entries found to
+     * results, see assignEntries(). NameIDs differing only in case are
+     * searched once.
+     */
+    private void search(LDAPConnectionPool connectionPool, List<String> nameIds, String[] attr, String[] requested,
+            Map<String, String[]> results) throws DirectoryException {
+        final Set<String> subjects = new HashSet<>(nameIds.size() * 2);
+        final List<Filter> filters = new ArrayList<>(nameIds.size());
+        try {
+            for (String nameId : nameIds) {
+                if (subjects.add(nameId.toLowerCase(Locale.ROOT))) {
+                    filters.add(filter(nameId));
+                }
+            }
+            final SearchResult searchResults = search(connectionPool, searchRequest(null,
+                    Filter.createORFilter(filters), requested));
+            assignEntries(searchResults.getSearchEntries(), subjectAttribute, nameIds, attr, results);
+        }
+        catch (com.unboundid.ldap.sdk.LDAPException e) {
+            throw searchFailed(e.getResultCode(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Performs a search on a connection of the pool. A search failing because
+     * the connection is defunct is retried once on another connection, except
+     * after a timeout, which is reported right away. The connection is always
+     * returned to the pool, as defunct if the search failed otherwise.
+     *
+     * @return The result of the search
+     * @throws LDAPSearchException if the search fails
+     * @throws com.unboundid.ldap.sdk.LDAPException if no connection is
+     * available
+     */
+    static SearchResult search(LDAPConnectionPool connectionPool, SearchRequest request)
+            throws com.unboundid.ldap.sdk.LDAPException {
+        for (int attempt = 1;; attempt++) {
+            final LDAPConnection connection = connectionPool.getConnection();
+            boolean released = false;
+            try {
+                final SearchResult result = connection.search(request);
+                connectionPool.releaseConnection(connection);
+                released = true;
+                return result;
+            }
+            catch (LDAPSearchException e) {
+                release(connectionPool, connection, e.getResultCode());
+                released = true;
+                if (attempt > 1 || ResultCode.TIMEOUT.equals(e.getResultCode())
+                        || ResultCode.isConnectionUsable(e.getResultCode())) {
+                    throw e;
+                }
+                logger.info("LDAP-Connection defunct, retrying search on another one...");
+            }
+            finally {
+                // Any other failure (e.g. LDAPSDKUsageException) leaves the connection in an unknown state
+                if (!released) {
+                    connectionPool.releaseDefunctConnection(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a connection to the pool after a search. After a timeout on the
+     * client, the server may still be busy with the search on the connection,
+     * thus it is replaced like defunct connections.
+     */
+    private static void release(LDAPConnectionPool connectionPool, LDAPConnection connection, ResultCode resultCode) {
+        if (ResultCode.TIMEOUT.equals(resultCode) || !ResultCode.isConnectionUsable(resultCode)) {
+            connectionPool.releaseDefunctConnection(connection);
+        } else {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * @return The configured filter for the given NameID, which is escaped so
+     * that it only matches as a value and cannot alter the filter
+     */
+    private Filter filter(String nameId) throws com.unboundid.ldap.sdk.LDAPException {
+        return Filter.create(stiamSettings.getLdapFilter(Filter.encodeValue(nameId)));
+    }
+
+    /**
+     * @return A search of the subtree below the configured base DN, limited
+     * to the configured time on the server and the client
+     */
+    private SearchRequest searchRequest(SearchResultListener listener, Filter filter, String[] attributes) {
+        final SearchRequest request = new SearchRequest(listener, stiamSettings.getLdapBaseDN(), SearchScope.SUB,
+                filter, attributes);
+        request.setTimeLimitSeconds(stiamSettings.getLdapSearchTimeLimitSeconds());
+        request.setResponseTimeoutMillis(stiamSettings.getLdapResponseTimeoutMillis());
+        return request;
+    }
+
+    /**
+     * @return The exception reporting a failed search, a
+     * DirectoryTimeoutException if a time limit was exceeded
+     */
+    private static DirectoryException searchFailed(ResultCode resultCode, String message, Throwable cause) {
+        if (ResultCode.TIMEOUT.equals(resultCode) || ResultCode.TIME_LIMIT_EXCEEDED.equals(resultCode)) {
+            logger.error("LDAP-Search timed out! Error was: '{}'", message);
+            return new DirectoryTimeoutException(message, cause);
+        }
+        logger.error("Couldn't perform an LDAP-Search query! Error was: '{}'", message);
+        return new LDAPException(message, cause);
+    }
+
+    /**
+     * Copies the values of the given attributes of an entry into resultArray,
+     * "" for attributes the entry does not have.
+     */
+    private static void values(SearchResultEntry entry, String[] attr, String[] resultArray) {
+        for (int i = 0; i < attr.length; i++) {
+            if (entry.hasAttribute(attr[i])) {
+                resultArray[i] = entry.getAttribute(attr[i]).getValue();
+            } else {
+                resultArray[i] = "";
+            }
+            logger.debug("Value for attribute '{}': {}", attr[i], resultArray[i]);
+        }
+    }
+
+    /**
+     * Reopens the connection pool if it has been closed.
+     *
+     * @return The open connection pool
+     * @throws LDAPException if the pool cannot be opened
+     */
+    private LDAPConnectionPool connectedPool() throws LDAPException {
+        LDAPConnectionPool current = pool;
+        if (current == null || current.isClosed()) {
+            logger.info("LDAP-Connection pool closed, trying to reconnect...");
+            connect();
+            current = pool;
+        }
+        return current;
+    }
+
+    /**
+     * @return The statistics of the connection pool, null if there is none
+     */
+    private LDAPConnectionPoolStatistics statistics() {
+        final LDAPConnectionPool current = pool;
+        return current == null ? null : current.getConnectionPoolStatistics();
+    }
+
+//////////////////////////////////////// Inner classes
+    /**
+     * Collects the result of an asynchronous search, returns its connection to
+     * the pool and passes the result to the callback.
+     */
+    @SuppressWarnings("serial")
+    private static final class AsyncSearch implements AsyncSearchResultListener {
+
+        private final transient LDAPConnectionPool connectionPool;
+        private final transient LDAPConnection connection;
+        private final String nameId;
+        private final String[] attr;
+        private final transient SearchCallback callback;
+        private SearchResultEntry entry;
+
+        AsyncSearch(LDAPConnectionPool connectionPool, LDAPConnection connection, String nameId, String[] attr,
+                SearchCallback callback) {
+            this.connectionPool = connectionPool;
+            this.connection = connection;
+            this.nameId = nameId;
+            this.attr = attr;
+            this.callback = callback;
+        }
+
+        @Override
+        public void searchEntryReturned(SearchResultEntry searchEntry) {
+            if (entry == null) {
+                entry = searchEntry;
+            }
+        }
+
+        @Override
+        public void searchReferenceReturned(SearchResultReference searchReference) {
+        }
+
+        @Override
+        public void searchResultReceived(AsyncRequestID requestID, SearchResult searchResult) {
+            final ResultCode resultCode = searchResult.getResultCode();
+            release(connectionPool, connection, resultCode);
+
+            if (!ResultCode.SUCCESS.equals(resultCode)) {
+                callback.failed(searchFailed(resultCode, searchResult.getDiagnosticMessage() == null
+                        ? resultCode.toString() : searchResult.getDiagnosticMessage(), null));
+            } else if (entry == null) {
+                logger.debug("User '{}' not found!", nameId);
+                callback.failed(new NameIDNotFoundException("User '" + nameId + "' not found!"));
+            } else {
+                logger.debug("Found entry for user '{}'", nameId);
+                final String[] resultArray = new String[attr.length];
+                values(entry, attr, resultArray);
+                logger.info("Done!");
+                callback.completed(resultArray);
+            }
+        }
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.directory.ldap;
+
+/**
+ * Management interface of the LdapClient, exposing its connection pool via
+ * JMX for sizing the pool against the directory servers.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public interface LdapClientMBean {
+
+    /**
+     * @return Number of connections currently idle in the pool
+     */
+    public int getAvailableConnections();
+
+    /**
+     * @return Maximum number of connections of the pool
+     */
+    public int getMaxConnections();
+
+    /**
+     * @return Number of connections established
+     */
+    public long getSuccessfulConnectionAttempts();
+
+    /**
+     * @return Number of connections which could not be established
+     */
+    public long getFailedConnectionAttempts();
+
+    /**
+     * @return Number of connections closed because they were found defunct
+     */
+    public long getConnectionsClosedDefunct();
+
+    /**
+     * @return Number of connections closed because they reached the maximum
+     * connection age
+     */
+    public long getConnectionsClosedExpired();
+
+    /**
+     * @return Number of connections checked out of the pool for requests
+     */
+    public long getSuccessfulCheckouts();
+
+    /**
+     * @return Number of checkouts which had to wait for a connection,
+     * indicating the pool is too small
+     */
+    public long getCheckoutsAfterWaiting();
+
+    /**
+     * @return Number of requests which did not get a connection in time
+     */
+    public long getFailedCheckouts();
+
+    /**
+     * Resets all counters.
+     */
+    public void resetStatistics();
+}
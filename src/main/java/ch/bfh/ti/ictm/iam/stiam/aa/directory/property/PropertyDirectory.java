@@ -6,7 +6,7 @@
 package ch.bfh.ti.ictm.iam.stiam.aa.directory.property;
 
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.AttributeNameMapper;
-import ch.bfh.ti.ictm.iam.stiam.aa.directory.Directory;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.AbstractDirectory;
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryException;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
 import java.io.BufferedInputStream;
@@ -20,16 +20,19 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Minimalist implementation of a directory using a properties-file as backend.
+ * The attributes are copied from the file into an unsynchronized map once
+ * loaded, so concurrent lookups (e.g. on virtual threads) do not contend on
+ * the locks of Properties.
  *
  * @author Pascal Mainini
  * @author Marc Kunz
  */
-@SuppressWarnings("serial")
-public class PropertyDirectory extends Properties implements Directory {
+public class PropertyDirectory extends AbstractDirectory {
 //////////////////////////////////////// Fields
 
     private static final Logger logger = LoggerFactory.getLogger(PropertyDirectory.class);
     private static final String filePath = StiamConfiguration.getInstance().getPropertyDirectoryFilePath();
+    private final Map<String, String> attributes;
     private AttributeNameMapper attributeNameMapper;
 
 //////////////////////////////////////// Constructors
@@ -37,16 +40,20 @@ public class PropertyDirectory extends Properties implements Directory {
      * Overrides default constructor, tries to load test-configuration.
      */
     public PropertyDirectory() {
-        super();
         logger.info("Initialising directory...");
 
         logger.info("Loading attributes from properties-file {}", filePath);
+        final Properties properties = new Properties();
         try (BufferedInputStream stream = new BufferedInputStream(new FileInputStream(filePath))) {
-            this.load(stream);
+            properties.load(stream);
         }
         catch (IOException ex) {
             logger.error("Error while reading attributes from file: {}", ex.getMessage());
         }
+        attributes = new HashMap<>(properties.size() * 2);
+        for (String name : properties.stringPropertyNames()) {
+            attributes.put(name, properties.getProperty(name));
+        }
 
         logger.info("Initialising AttributeNameMapper...");
         try {
@@ -88,7 +95,8 @@ public class PropertyDirectory extends Properties implements Directory {
         logger.debug("Fetching attributes...");
         String[] resultAttributes = new String[attributeNames.length];
         for (int i = 0; i < attributeNames.length; i++) {
-            resultAttributes[i] = getProperty(nameId + "." + mappedAttributeNames[i], "");
+            final String value = attributes.get(nameId + "." + mappedAttributeNames[i]);
+            resultAttributes[i] = value == null ? "" : value;
         }
 
         Map<String, String> resultMap = new HashMap<>(attributeNames.length);
@@ -100,4 +108,11 @@ public class PropertyDirectory extends Properties implements Directory {
         logger.info("Returning results!");
         return resultMap;
     }
+
+    /**
+     * Implementation of close from Directory, nothing to release.
+     */
+    @Override
+    public void close() {
+    }
 }
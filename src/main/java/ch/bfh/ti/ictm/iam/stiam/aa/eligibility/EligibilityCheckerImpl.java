@@ -9,6 +9,8 @@ import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
 import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +24,10 @@ import org.slf4j.LoggerFactory;
  * returns the default value, which can also be defined in the global setting
  * 'DefaultEligibilityPolicy'
  *
+ * The policies and the default are read once at construction into an
+ * unsynchronized map, so concurrent checks do not contend on the locks of
+ * Properties.
+ *
  * @author Pascal Mainini
  * @author Marc Kunz
  */
@@ -29,7 +35,8 @@ public class EligibilityCheckerImpl implements EligibilityChecker {
 //////////////////////////////////////// Fields
 
     private final StiamConfiguration stiamSettings = StiamConfiguration.getInstance();
-    private final Properties eligibilityProperties;
+    private final Map<String, String> policies;
+    private final boolean defaultPolicy;
     private static final Logger logger = LoggerFactory.getLogger(EligibilityCheckerImpl.class);
 
 //////////////////////////////////////// Constructors
@@ -41,11 +48,16 @@ public class EligibilityCheckerImpl implements EligibilityChecker {
     public EligibilityCheckerImpl() throws IOException {
         final String eligibilityCheckerFilePath = stiamSettings.getEligibilityCheckerFilePath();
         logger.info("Trying to load EligibilityChecker-properties from file '{}'...", eligibilityCheckerFilePath);
+        final Properties eligibilityProperties = new Properties();
         try (BufferedInputStream stream = new BufferedInputStream(new FileInputStream(eligibilityCheckerFilePath))) {
-            eligibilityProperties = new Properties();
             eligibilityProperties.load(stream);
             logger.info("Sucessfully loaded EligibilityChecker-properties!");
         }
+        policies = new HashMap<>(eligibilityProperties.size() * 2);
+        for (String nameId : eligibilityProperties.stringPropertyNames()) {
+            policies.put(nameId, eligibilityProperties.getProperty(nameId));
+        }
+        defaultPolicy = stiamSettings.getDefaultEligibilityPolicy();
     }
 
 //////////////////////////////////////// Public methods
@@ -58,9 +70,8 @@ public class EligibilityCheckerImpl implements EligibilityChecker {
      */
     @Override
     public boolean isEligible(String nameId) {
-        if (eligibilityProperties.containsKey(nameId) && !eligibilityProperties.getProperty(nameId).isEmpty()) {
-            String policy = eligibilityProperties.getProperty(nameId);
-
+        final String policy = policies.get(nameId);
+        if (policy != null && !policy.isEmpty()) {
             if (policy.equalsIgnoreCase("accept")) {
                 logger.debug("Is {} eligible? true", nameId);
                 return true;
@@ -70,7 +81,7 @@ public class EligibilityCheckerImpl implements EligibilityChecker {
             }
         }
 
-        logger.debug("NameID '{}' not found, returning default: {}", nameId, stiamSettings.getDefaultEligibilityPolicy());
-        return stiamSettings.getDefaultEligibilityPolicy();
+        logger.debug("NameID '{}' not found, returning default: {}", nameId, defaultPolicy);
+        return defaultPolicy;
     }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.standalone;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.authority.AttributeService;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.Directory;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryFactory;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Headless standalone server of the authority, serving the AttributeService
+ * at "/" on an embedded Jetty. The servlet supports asynchronous requests, so
+ * queries are processed on the stages of the AttributeService if configured.
+ * Address, acceptor and worker threads, accept queue, idle timeout,
+ * connection limit and output buffer are configured in aa.properties (see
+ * StiamConfiguration). On shutdown of the JVM, the server is stopped and the
+ * directory (e.g. the connection to the LDAP server) is closed.
+ *
+ * Start with: mvn exec:java
+ * -Dexec.mainClass="ch.bfh.ti.ictm.iam.stiam.aa.standalone.StandaloneServer"
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class StandaloneServer {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(StandaloneServer.class);
+
+    // Time in seconds given to requests in progress when stopping
+    private static final int STOP_DELAY_SECONDS = 1;
+
+    private final Server server;
+    private final ServerConnector connector;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Creates a server for the given servlet, configured by the
+     * StiamConfiguration, without starting it.
+     *
+     * @param servlet The servlet handling all requests
+     * @param host Host name or address to listen on, empty for all addresses
+     * @param port Port to listen on, 0 for any free port
+     */
+    public StandaloneServer(final HttpServlet servlet, String host, int port) {
+        final StiamConfiguration config = StiamConfiguration.getInstance();
+        final QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setName("stiam-aa-http");
+        server = new Server(threadPool);
+        server.setStopTimeout(TimeUnit.SECONDS.toMillis(STOP_DELAY_SECONDS));
+
+        final HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setOutputBufferSize(config.getStandaloneOutputBufferSize());
+        httpConfig.setSendServerVersion(false);
+        final HttpConnectionFactory connectionFactory = new HttpConnectionFactory(httpConfig);
+        final int acceptors = config.getStandaloneAcceptors();
+        final int maxConnections = config.getStandaloneMaxConnections();
+        connector = maxConnections > 0
+                ? new LimitedConnector(server, acceptors, connectionFactory, maxConnections)
+                : new ServerConnector(server, acceptors, -1, connectionFactory);
+        connector.setHost(host == null || host.isEmpty() ? null : host);
+        connector.setPort(port);
+        connector.setAcceptQueueSize(config.getStandaloneAcceptQueueSize());
+        connector.setIdleTimeout(TimeUnit.SECONDS.toMillis(config.getStandaloneIdleTimeoutSeconds()));
+        server.addConnector(connector);
+
+        // Acceptors and selectors each occupy a thread of the pool for good
+        final int threads = acceptors + connector.getSelectorManager().getSelectorCount()
+                + config.getStandaloneWorkerThreads();
+        threadPool.setMaxThreads(threads);
+        threadPool.setMinThreads(threads);
+
+        final ServletHolder holder = new ServletHolder(servlet);
+        holder.setAsyncSupported(true);
+        holder.setInitOrder(0);
+        final ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath("/");
+        context.addServlet(holder, "/*");
+        server.setHandler(context);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Main-method of this class, starts the standalone server with the
+     * AttributeService and stops it on shutdown of the JVM.
+     *
+     * @param args Arguments given to the main call, ignored
+     */
+    public static void main(String[] args) {
+        final long start = System.nanoTime();
+        final StiamConfiguration config = StiamConfiguration.getInstance();
+        final StandaloneServer server;
+        try {
+            server = new StandaloneServer(new AttributeService(), config.getStandaloneHost(),
+                    config.getStandalonePort());
+            server.start();
+        } catch (ServletException ex) {
+            logger.error("Unable to start standalone server: {}", ex.getMessage());
+            System.exit(10);
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread("stiam-aa-shutdown") {
+            @Override
+            public void run() {
+                server.stop();
+                final Directory directory = DirectoryFactory.getInstance().createDirectory();
+                if (directory != null) {
+                    directory.close();
+                }
+                logger.info("Standalone server shut down.");
+            }
+        });
+
+        logger.info("Standalone server listening on port {}, started in {}ms", server.getPort(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Initializes the servlet and starts accepting requests.
+     *
+     * @throws ServletException if the servlet cannot be initialized or the
+     * server cannot be bound
+     */
+    public void start() throws ServletException {
+        try {
+            server.start();
+        } catch (Exception ex) {
+            stop();
+            throw new ServletException("Unable to start server: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Stops accepting requests, waits shortly for requests in progress and
+     * destroys the servlet.
+     */
+    public void stop() {
+        try {
+            server.stop();
+        } catch (Exception ex) {
+            logger.warn("Unable to stop server cleanly: {}", ex.toString());
+        }
+    }
+
+    /**
+     * @return The port the server listens on
+     */
+    public int getPort() {
+        return connector.getLocalPort();
+    }
+
+//////////////////////////////////////// Inner classes
+    /**
+     * Connector accepting at most a given number of connections at the same
+     * time: Acceptors wait for a connection to be closed before accepting the
+     * next one, so further clients wait in the accept queue.
+     */
+    private static final class LimitedConnector extends ServerConnector {
+
+        private final Semaphore connections;
+
+        LimitedConnector(Server server, int acceptors, HttpConnectionFactory connectionFactory,
+                int maxConnections) {
+            super(server, acceptors, -1, connectionFactory);
+            connections = new Semaphore(maxConnections);
+        }
+
+        @Override
+        public void accept(int acceptorID) throws IOException {
+            try {
+                connections.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection to close");
+            }
+            boolean accepted = false;
+            try {
+                super.accept(acceptorID);
+                accepted = true;
+            } finally {
+                if (!accepted) {
+                    connections.release();
+                }
+            }
+        }
+
+        @Override
+        protected void onEndPointClosed(EndPoint endpoint) {
+            connections.release();
+            super.onEndPointClosed(endpoint);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of byte arrays of a fixed size, which are handed out and returned
+ * by arbitrary threads. At most a given number of arrays is kept for reuse,
+ * further ones returned are left to the garbage collector.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class BufferPool {
+//////////////////////////////////////// Fields
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+//////////////////////////////////////// Constructors
+    /**
+     * @param bufferSize Size of the buffers in bytes
+     * @param maxPooled Maximum number of buffers kept for reuse
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * @return A buffer from the pool, or a new one if the pool is empty
+     */
+    public byte[] acquire() {
+        final byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool, if it is not full yet. Buffers of another
+     * size are left to the garbage collector.
+     *
+     * @param buffer A buffer obtained from acquire()
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The size of the buffers in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return The number of buffers currently kept for reuse
+     */
+    public int getPooledCount() {
+        return pooled.get();
+    }
+}
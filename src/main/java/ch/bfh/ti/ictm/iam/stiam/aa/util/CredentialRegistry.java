@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable snapshot of all credentials contained in the keystore. The
+ * keystore is read and parsed exactly once when a registry is created, all
+ * subsequent lookups are served from memory.
+ *
+ * Private key entries are made available as signing credentials, all
+ * certificates (including the ones belonging to private key entries) are made
+ * available as verification credentials, both indexed by their alias in the
+ * keystore.
+ *
+ * Instances are obtained through StiamConfiguration, which replaces the
+ * current registry as a whole when the keystore-file changes on disk.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class CredentialRegistry {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(CredentialRegistry.class);
+
+    private final String filePath;
+    private final long lastModified;
+    private final String signatureAlias;
+    private final Map<String, BasicX509Credential> privateCredentials;
+    private final Map<String, BasicX509Credential> certificates;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Private constructor, instances are created by load().
+     */
+    private CredentialRegistry(String filePath, long lastModified, String signatureAlias,
+            Map<String, BasicX509Credential> privateCredentials,
+            Map<String, BasicX509Credential> certificates) {
+        this.filePath = filePath;
+        this.lastModified = lastModified;
+        this.signatureAlias = signatureAlias;
+        this.privateCredentials = Collections.unmodifiableMap(privateCredentials);
+        this.certificates = Collections.unmodifiableMap(certificates);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Reads the given keystore-file and builds a new registry containing all
+     * of its entries.
+     *
+     * @param filePath Path to the keystore-file
+     * @param storePassword Password for the keystore-file
+     * @param entryPassword Password for the private key entries
+     * @param signatureAlias Alias of the entry used for signing, this entry
+     * must be present and readable
+     * @return The newly created registry
+     * @throws IOException
+     * @throws KeyStoreException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableEntryException
+     */
+    public static CredentialRegistry load(String filePath, String storePassword, String entryPassword,
+            String signatureAlias) throws IOException, KeyStoreException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableEntryException {
+        logger.info("Loading credentials from keystore '{}'...", filePath);
+
+        // take the timestamp before reading, a concurrent modification is thus detected next time
+        final long lastModified = new File(filePath).lastModified();
+
+        final KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (FileInputStream fis = new FileInputStream(filePath)) {
+            ks.load(fis, storePassword.toCharArray());
+        }
+
+        final KeyStore.PasswordProtection protection = new KeyStore.PasswordProtection(entryPassword.toCharArray());
+        final Map<String, BasicX509Credential> privateCredentials = new HashMap<>();
+        final Map<String, BasicX509Credential> certificates = new HashMap<>();
+
+        final Enumeration<String> aliases = ks.aliases();
+        while (aliases.hasMoreElements()) {
+            final String alias = aliases.nextElement();
+
+            final Certificate certificate = ks.getCertificate(alias);
+            if (certificate instanceof X509Certificate) {
+                final BasicX509Credential credential = new BasicX509Credential();
+                credential.setEntityCertificate((X509Certificate) certificate);
+                certificates.put(alias, credential);
+            }
+
+            if (ks.isKeyEntry(alias)) {
+                try {
+                    final KeyStore.Entry entry = ks.getEntry(alias, protection);
+                    if (entry instanceof KeyStore.PrivateKeyEntry) {
+                        final KeyStore.PrivateKeyEntry pkEntry = (KeyStore.PrivateKeyEntry) entry;
+                        final X509Certificate entryCertificate = (X509Certificate) pkEntry.getCertificate();
+                        final BasicX509Credential credential = new BasicX509Credential();
+                        credential.setEntityCertificate(entryCertificate);
+                        credential.setPublicKey(entryCertificate.getPublicKey());
+                        credential.setPrivateKey(pkEntry.getPrivateKey());
+                        privateCredentials.put(alias, credential);
+                    }
+                } catch (UnrecoverableEntryException ex) {
+                    if (alias.equals(signatureAlias)) {
+                        throw ex;
+                    }
+                    logger.warn("Unable to recover private key of entry '{}', skipping it: {}", alias, ex.getMessage());
+                }
+            }
+        }
+
+        if (!privateCredentials.containsKey(signatureAlias)) {
+            throw new KeyStoreException("No private key entry found for signature alias '" + signatureAlias + "'!");
+        }
+
+        logger.info("Loaded {} private key(s) and {} certificate(s) from keystore!",
+                privateCredentials.size(), certificates.size());
+        return new CredentialRegistry(filePath, lastModified, signatureAlias, privateCredentials, certificates);
+    }
+
+    /**
+     * @return The credential used for signing, including its private key
+     */
+    public Credential getSignatureCredential() {
+        return privateCredentials.get(signatureAlias);
+    }
+
+    /**
+     * @param alias Name of the private key entry in the keystore
+     * @return The credential including its private key or null if there is no
+     * such entry
+     */
+    public Credential getCredential(String alias) {
+        return privateCredentials.get(alias);
+    }
+
+    /**
+     * @param alias Name of the entry in the keystore, normally the name of the
+     * issuer whose signatures are verified with it
+     * @return A credential containing only the certificate or null if there is
+     * no such entry
+     */
+    public Credential getCertificate(String alias) {
+        return certificates.get(alias);
+    }
+
+    /**
+     * @return Path of the keystore-file this registry has been loaded from
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Checks whether the keystore-file has been modified since this registry
+     * was loaded. Note that this performs a (cheap) stat of the file.
+     *
+     * @return true if the registry does not reflect the keystore-file anymore
+     */
+    public boolean isStale() {
+        return new File(filePath).lastModified() != lastModified;
+    }
+}
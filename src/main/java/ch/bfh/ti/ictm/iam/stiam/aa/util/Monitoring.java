@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper for exposing runtime statistics of the AA via JMX. All MBeans are
+ * registered in the domain DOMAIN of the platform MBeanServer and can thus be
+ * inspected with any JMX-client (jconsole, jvisualvm, ...).
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class Monitoring {
+//////////////////////////////////////// Fields
+
+    /**
+     * JMX-domain used for all MBeans of the AA
+     */
+    public static final String DOMAIN = "ch.bfh.ti.ictm.iam.stiam.aa";
+
+    private static final Logger logger = LoggerFactory.getLogger(Monitoring.class);
+
+//////////////////////////////////////// Constructors
+    /**
+     * Not to be instantiated.
+     */
+    private Monitoring() {
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Registers the given MBean under DOMAIN:type=[type]. An MBean previously
+     * registered with the same type (e.g. by a former instance of the servlet)
+     * is replaced. Failures are logged only, monitoring is never essential.
+     *
+     * @param type Value of the type-key of the ObjectName
+     * @param mbean The MBean to register
+     */
+    public static void register(String type, Object mbean) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(DOMAIN + ":type=" + type);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+            logger.debug("Registered MBean {}", name);
+        } catch (JMException ex) {
+            logger.warn("Could not register MBean for {}: {}", type, ex.getMessage());
+        }
+    }
+}
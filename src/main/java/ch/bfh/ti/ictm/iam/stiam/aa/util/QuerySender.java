@@ -6,15 +6,17 @@
 package ch.bfh.ti.ictm.iam.stiam.aa.util;
 
 import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.ExtendedAttributeQueryBuilder;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.PostBindingEncoder;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
@@ -82,16 +84,18 @@ class QuerySender {
             connection.setRequestMethod("POST");
             connection.setRequestProperty("Accept", "*/*");
 
-            final String bodyData;
             if (config.getProperty(CONFIG_Binding, DEFAULT_BINDING).equalsIgnoreCase(DEFAULT_BINDING)) {
                 connection.setRequestProperty("Content-Type", "text/xml");
-                bodyData = createSOAPBindingData();
+                final String bodyData = createSOAPBindingData();
+                try (PrintStream ps = new PrintStream(connection.getOutputStream())) {
+                    ps.print(bodyData);
+                }
             } else {
-                bodyData = createPOSTBindingData();
-            }
-
-            try (PrintStream ps = new PrintStream(connection.getOutputStream())) {
-                ps.print(bodyData);
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                final String message = new ExtendedAttributeQueryBuilder(buildAttributes()).build();
+                try (OutputStream out = connection.getOutputStream()) {
+                    createPOSTBindingData(message, out);
+                }
             }
             connection.connect();
 
@@ -153,16 +157,12 @@ class QuerySender {
         return attributes;
     }
 
-    private static String createPOSTBindingData() throws ConfigurationException, UnsupportedEncodingException,
-            NoSuchAlgorithmException, IOException, KeyStoreException, CertificateException,
-            UnrecoverableEntryException, SecurityException, MarshallingException, SignatureException,
-            XMLParserException, TransformerException {
-        // Generation and encoding of the request. Note: UTF-8 is taken for URL-encoding independently
-        // of the encoding specified in configuration which applies to the SAML-messages only.
-        // Refer to http://docs.oracle.com/javase/7/docs/api/java/net/URLEncoder.html#encode(java.lang.String,%20java.lang.String)
-        // for more information.
-        final ExtendedAttributeQueryBuilder builder = new ExtendedAttributeQueryBuilder(buildAttributes());
-        return "SAMLRequest=" + URLEncoder.encode(builder.buildBase64(), "UTF-8");
+    private static void createPOSTBindingData(String message, OutputStream out) throws IOException {
+        // The request is Base64-encoded and URL-encoded in one pass directly into the body. Note: the charset
+        // specified in configuration applies to the SAML-message only, the URL-encoding is plain ASCII.
+        out.write("SAMLRequest=".getBytes("US-ASCII"));
+        final Charset charset = Charset.forName(StiamConfiguration.getInstance().getAttributeQueryEncoding());
+        PostBindingEncoder.encode(message, charset, PostBindingEncoder.Escaping.FORM_URLENCODED, out);
     }
 
     // FIXME ugly substring-hack
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+
+/**
+ * Logs error messages to a given logger, but at most a given number of them
+ * per minute. Further messages within the same minute are only counted and
+ * their number is logged as a warning at the beginning of the next minute in
+ * which a message is logged. This prevents clients from flooding the logs,
+ * e.g. by sending lots of invalid queries.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class RateLimitedLogger {
+//////////////////////////////////////// Fields
+
+    private final Logger logger;
+    private final int limit;
+    private final long intervalMillis;
+    private final AtomicLong intervalStart = new AtomicLong();
+    private final AtomicInteger logged = new AtomicInteger();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong totalSuppressed = new AtomicLong();
+
+//////////////////////////////////////// Constructors
+    /**
+     * @param logger The logger to log to
+     * @param limitPerMinute Maximum number of messages logged per minute, 0
+     * for logging all messages
+     */
+    public RateLimitedLogger(Logger logger, int limitPerMinute) {
+        this(logger, limitPerMinute, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * @param logger The logger to log to
+     * @param limit Maximum number of messages logged per interval, 0 for
+     * logging all messages
+     * @param intervalMillis Length of the interval in milliseconds
+     */
+    RateLimitedLogger(Logger logger, int limit, long intervalMillis) {
+        this.logger = logger;
+        this.limit = limit;
+        this.intervalMillis = intervalMillis;
+        intervalStart.set(System.currentTimeMillis());
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Logs an error message, unless the limit for the current interval has
+     * been reached.
+     *
+     * @param format The format string of the message (see SLF4J)
+     * @param arguments The arguments of the message
+     */
+    public void error(String format, Object... arguments) {
+        if (limit <= 0) {
+            logger.error(format, arguments);
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long start = intervalStart.get();
+        if (now - start >= intervalMillis && intervalStart.compareAndSet(start, now)) {
+            logged.set(0);
+            final long count = suppressed.getAndSet(0);
+            if (count > 0) {
+                logger.warn("{} further error message(s) have been suppressed", count);
+            }
+        }
+
+        if (logged.incrementAndGet() <= limit) {
+            logger.error(format, arguments);
+        } else {
+            suppressed.incrementAndGet();
+            totalSuppressed.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of messages suppressed since the creation of this
+     * logger
+     */
+    public long getSuppressedCount() {
+        return totalSuppressed.get();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.SigningProfile;
+
+/**
+ * Settings applying to the messages exchanged with one specific relying party
+ * (the issuer of attribute queries). Instances are obtained from
+ * RelyingPartyConfiguration.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class RelyingParty {
+//////////////////////////////////////// Fields
+
+    /**
+     * Defines how queries of a relying party are authenticated.
+     */
+    public enum TrustMode {
+
+        /**
+         * Queries have to be signed (if enabled in the main configuration).
+         */
+        SIGNATURE,
+        /**
+         * Queries have to be received over TLS with a client certificate
+         * matching the one registered for the relying party, the signature of
+         * the query is not verified.
+         */
+        TLS;
+
+        /**
+         * Parses a trust mode from its (case-insensitive) name.
+         *
+         * @param name Name of the trust mode, e.g. "tls"
+         * @param defaultMode Mode returned if name is null or unknown
+         * @return The matching trust mode
+         */
+        public static TrustMode fromString(String name, TrustMode defaultMode) {
+            if (name != null) {
+                for (TrustMode mode : values()) {
+                    if (mode.name().equalsIgnoreCase(name.trim())) {
+                        return mode;
+                    }
+                }
+            }
+            return defaultMode;
+        }
+    };
+
+    private final String issuer;
+    private final SigningProfile signingProfile;
+    private final String signingKeyAlias;
+    private final String signatureAlgorithm;
+    private final String digestAlgorithm;
+    private final TrustMode trustMode;
+    private final String tlsCertificateAlias;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Initializes the settings of a relying party.
+     *
+     * @param issuer Issuer of the relying party or null for the defaults
+     * @param signingProfile Defines which elements of responses get signed
+     * @param signingKeyAlias Alias of the keystore entry used for signing or
+     * null for the default entry
+     * @param signatureAlgorithm URI of the signature algorithm or null to
+     * derive it from the type of the signing key
+     * @param digestAlgorithm URI of the digest algorithm or null for the
+     * default
+     */
+    public RelyingParty(String issuer, SigningProfile signingProfile, String signingKeyAlias,
+            String signatureAlgorithm, String digestAlgorithm) {
+        this(issuer, signingProfile, signingKeyAlias, signatureAlgorithm, digestAlgorithm, TrustMode.SIGNATURE, null);
+    }
+
+    /**
+     * Initializes the settings of a relying party, including the way its
+     * queries are authenticated.
+     *
+     * @param issuer Issuer of the relying party or null for the defaults
+     * @param signingProfile Defines which elements of responses get signed
+     * @param signingKeyAlias Alias of the keystore entry used for signing or
+     * null for the default entry
+     * @param signatureAlgorithm URI of the signature algorithm or null to
+     * derive it from the type of the signing key
+     * @param digestAlgorithm URI of the digest algorithm or null for the
+     * default
+     * @param trustMode Defines how queries are authenticated
+     * @param tlsCertificateAlias Alias of the keystore entry holding the TLS
+     * client certificate of the relying party or null to use the issuer
+     */
+    public RelyingParty(String issuer, SigningProfile signingProfile, String signingKeyAlias,
+            String signatureAlgorithm, String digestAlgorithm, TrustMode trustMode, String tlsCertificateAlias) {
+        this.issuer = issuer;
+        this.signingProfile = signingProfile;
+        this.signingKeyAlias = signingKeyAlias;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.digestAlgorithm = digestAlgorithm;
+        this.trustMode = trustMode;
+        this.tlsCertificateAlias = tlsCertificateAlias;
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * @return Issuer of the relying party or null if these are the defaults
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * @return Defines which elements of responses get signed
+     */
+    public SigningProfile getSigningProfile() {
+        return signingProfile;
+    }
+
+    /**
+     * @return Alias of the keystore entry used for signing or null for the
+     * default entry
+     */
+    public String getSigningKeyAlias() {
+        return signingKeyAlias;
+    }
+
+    /**
+     * @return URI of the signature algorithm or null to derive it from the
+     * type of the signing key
+     */
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * @return URI of the digest algorithm or null for the default
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * @return Defines how queries of the relying party are authenticated
+     */
+    public TrustMode getTrustMode() {
+        return trustMode;
+    }
+
+    /**
+     * @return Alias of the keystore entry holding the TLS client certificate
+     * of the relying party, defaults to the issuer
+     */
+    public String getTLSCertificateAlias() {
+        return tlsCertificateAlias != null ? tlsCertificateAlias : issuer;
+    }
+
+    @Override
+    public String toString() {
+        return (issuer != null ? issuer : "<default>") + " (signing: " + signingProfile
+                + ", key: " + (signingKeyAlias != null ? signingKeyAlias : "<default>")
+                + ", algorithm: " + (signatureAlgorithm != null ? signatureAlgorithm : "<default>")
+                + ", digest: " + (digestAlgorithm != null ? digestAlgorithm : "<default>")
+                + ", trust: " + trustMode + ")";
+    }
+}
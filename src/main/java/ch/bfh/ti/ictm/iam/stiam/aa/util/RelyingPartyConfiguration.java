@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.SigningProfile;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration of the relying parties known to the AA. Configuration is read
+ * from a properties-file whose location is specified in the main
+ * configuration. The file lists the IDs of all relying parties in the property
+ * "RelyingParties", each of them is then configured by properties prefixed
+ * with its ID, e.g.:
+ *
+ * RelyingParties:sp1
+ * sp1.Issuer:https://sp1.example.org
+ * sp1.SigningProfile:assertion
+ * sp1.SigningKey:stiam-aa-ec
+ *
+ * Relying parties not listed (or if the file is missing) get the defaults
+ * from the main configuration.
+ *
+ * This class is a singleton.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class RelyingPartyConfiguration {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(RelyingPartyConfiguration.class);
+    private static final RelyingPartyConfiguration instance = new RelyingPartyConfiguration();
+
+    private final Map<String, RelyingParty> relyingParties;
+    private final RelyingParty defaultRelyingParty;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Private constructor, tries to load the relying party configuration.
+     */
+    private RelyingPartyConfiguration() {
+        final StiamConfiguration stiamSettings = StiamConfiguration.getInstance();
+        defaultRelyingParty = new RelyingParty(null, stiamSettings.getDefaultSigningProfile(),
+                null, stiamSettings.getSAMLSignatureAlgorithm(), stiamSettings.getSAMLDigestAlgorithm());
+
+        final String filePath = stiamSettings.getRelyingPartiesFilePath();
+        final ListProperties properties = new ListProperties();
+        logger.info("Trying to load relying party configuration from file '{}'...", filePath);
+        try (BufferedInputStream stream = new BufferedInputStream(new FileInputStream(filePath))) {
+            properties.load(stream);
+        } catch (IOException ex) {
+            logger.warn("Could not load relying party configuration, using defaults for all relying parties: {}", ex.getMessage());
+        }
+
+        final Map<String, RelyingParty> parties = new HashMap<>();
+        final String[] ids = properties.getPropertyList("RelyingParties", new String[0]);
+        for (String id : ids) {
+            final String issuer = properties.getProperty(id + ".Issuer");
+            if (issuer == null || issuer.isEmpty()) {
+                logger.error("No issuer configured for relying party '{}', ignoring it!", id);
+                continue;
+            }
+
+            final RelyingParty relyingParty = new RelyingParty(issuer,
+                    SigningProfile.fromString(properties.getProperty(id + ".SigningProfile"),
+                            defaultRelyingParty.getSigningProfile()),
+                    properties.getProperty(id + ".SigningKey"),
+                    properties.getProperty(id + ".SignatureAlgorithm", defaultRelyingParty.getSignatureAlgorithm()),
+                    properties.getProperty(id + ".DigestAlgorithm", defaultRelyingParty.getDigestAlgorithm()),
+                    RelyingParty.TrustMode.fromString(properties.getProperty(id + ".TrustMode"), RelyingParty.TrustMode.SIGNATURE),
+                    properties.getProperty(id + ".TLSCertificate"));
+            parties.put(issuer, relyingParty);
+            logger.info("Configured relying party: {}", relyingParty);
+        }
+        relyingParties = Collections.unmodifiableMap(parties);
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * @return The one and only instance of this class. (Singleton)
+     */
+    public static RelyingPartyConfiguration getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the settings for the relying party with the given issuer.
+     *
+     * @param issuer Issuer of the relying party, may be null or empty
+     * @return The configured relying party or the defaults if the issuer is
+     * not configured
+     */
+    public RelyingParty getRelyingParty(String issuer) {
+        final RelyingParty relyingParty = issuer != null ? relyingParties.get(issuer) : null;
+        return relyingParty != null ? relyingParty : defaultRelyingParty;
+    }
+
+    /**
+     * @return The settings used for all relying parties not configured
+     * explicitly
+     */
+    public RelyingParty getDefaultRelyingParty() {
+        return defaultRelyingParty;
+    }
+}
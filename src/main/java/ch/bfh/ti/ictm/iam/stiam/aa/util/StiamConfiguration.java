@@ -5,19 +5,19 @@
  */
 package ch.bfh.ti.ictm.iam.stiam.aa.util;
 
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.SigningProfile;
 import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import org.opensaml.xml.security.credential.Credential;
-import org.opensaml.xml.security.x509.BasicX509Credential;
 import org.slf4j.Logger;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -48,6 +48,23 @@ public class StiamConfiguration {
         HTTP_POST, SOAP
     };
 
+    /**
+     * enum used for specifying how attribute responses are built: by OpenSAML
+     * or from precompiled templates.
+     */
+    public enum ResponseEngine {
+        OPENSAML, TEMPLATE
+    };
+
+    /**
+     * enum used for specifying how queries are rejected before the relying
+     * party has been authenticated: with a signed or unsigned SAML status
+     * response or with a static, pre-serialized SOAP fault.
+     */
+    public enum PreAuthErrorMode {
+        SIGNED, UNSIGNED, STATIC
+    };
+
     // Main configuration
     /**
      * Default path-fragment with the directory-name of the directory containing
@@ -69,6 +86,7 @@ public class StiamConfiguration {
     protected static final String DEFAULT_PROPERTYDIRECTORY_FILEPATH = DEFAULT_CONFIG_DIR + "/property-directory.properties";
     protected static final String DEFAULT_TESTCONFIGURATION_FILEPATH = DEFAULT_CONFIG_DIR + "/aa-test.properties";
     protected static final String DEFAULT_KEYSTORE_FILEPATH = DEFAULT_CONFIG_DIR + "/aa.jks";
+    protected static final String DEFAULT_RELYINGPARTIES_FILEPATH = DEFAULT_CONFIG_DIR + "/relying-parties.properties";
 
     // SAML default settings
     protected static final String DEFAULT_SAML_ISSUER = "https://aa.example.org";
@@ -79,6 +97,7 @@ public class StiamConfiguration {
     protected static final String DEFAULT_SAML_ASSURANCELEVEL = "http://assurance.example.org/level1";
     protected static final String DEFAULT_SAML_SUBJECTCONFIRMATIONMETHOD = "urn:oasis:names:tc:SAML:2.0:cm:bearer";
     protected static final String DEFAULT_SAML_RETURN_POST_BINDING = "true";
+    protected static final String DEFAULT_SAML_SIGNINGPROFILE = "both";
 
     // LDAP default settings
     protected static final String DEFAULT_LDAP_HOST = "localhost";
@@ -87,6 +106,14 @@ public class StiamConfiguration {
     protected static final String DEFAULT_LDAP_PASSPHARSE = "";
     protected static final String DEFAULT_LDAP_BASEDN = "";
     protected static final String DEFAULT_LDAP_FILTER = "(uid=%s)";
+    protected static final String DEFAULT_LDAP_BULK_SEARCH_SIZE = "50";
+    protected static final String DEFAULT_LDAP_POOL_INITIAL_SIZE = "2";
+    protected static final String DEFAULT_LDAP_POOL_MAX_SIZE = "10";
+    protected static final String DEFAULT_LDAP_POOL_MAX_WAIT_MILLIS = "5000";
+    protected static final String DEFAULT_LDAP_POOL_MAX_CONNECTION_AGE_SECONDS = "1800";
+    protected static final String DEFAULT_LDAP_POOL_HEALTH_CHECK_INTERVAL_SECONDS = "60";
+    protected static final String DEFAULT_LDAP_SEARCH_TIME_LIMIT_SECONDS = "5";
+    protected static final String DEFAULT_LDAP_RESPONSE_TIMEOUT_MILLIS = "7000";
 
     // Attribute-Service configuration
     protected static final String DEFAULT_BINDING = "soap";  // alternative: http_post
@@ -95,11 +122,50 @@ public class StiamConfiguration {
     protected static final String DEFAULT_VERIFY_AUTHN_STATEMENT = "true";
     protected static final String DEFAULT_VERIFY_AUTHN_SIGNATURE = "true";
     protected static final String DEFAULT_VERIFY_AUTHN_TIMESPAN = "true";
+    protected static final String DEFAULT_ASSERTION_CACHE_SIZE = "1000";
+    protected static final String DEFAULT_SIGNING_STAGE_THREADS = "0";
+    protected static final String DEFAULT_SIGNING_STAGE_QUEUE_DEPTH = "100";
+    protected static final String DEFAULT_RESPONSE_ENGINE = "opensaml";  // alternative: template
+    protected static final String DEFAULT_PRE_AUTH_ERRORS = "signed";  // alternatives: unsigned, static
+    protected static final String DEFAULT_PRE_AUTH_ERROR_LOGS_PER_MINUTE = "60";
+    protected static final String DEFAULT_MAX_REQUEST_SIZE = "131072";
+    protected static final String DEFAULT_MAX_ELEMENT_DEPTH = "32";
+    protected static final String DEFAULT_MAX_ATTRIBUTES_PER_ELEMENT = "32";
+    protected static final String DEFAULT_PARSER_POOL_SIZE = "32";
+    protected static final String DEFAULT_PARSER_POOL_WAIT_MILLIS = "1000";
+    protected static final String DEFAULT_ASYNC_PROCESSING = "true";
+    protected static final String DEFAULT_ASYNC_TIMEOUT_MILLIS = "30000";
+    protected static final String DEFAULT_VERIFICATION_THREADS = "0";
+    protected static final String DEFAULT_DIRECTORY_THREADS = "16";
+    protected static final String DEFAULT_PROCESSING_QUEUE_DEPTH = "100";
+    protected static final String DEFAULT_NON_BLOCKING_READ = "true";
+    protected static final String DEFAULT_READ_TIMEOUT_MILLIS = "10000";
+    protected static final String DEFAULT_VIRTUAL_THREADS = "false";
+    protected static final String DEFAULT_VIRTUAL_THREAD_LIMIT = "2000";
+    protected static final String DEFAULT_MAX_IN_FLIGHT_QUERIES = "256";
+    protected static final String DEFAULT_ADMISSION_QUEUE_SIZE = "128";
+    protected static final String DEFAULT_ADMISSION_WAIT_MILLIS = "100";
+    protected static final String DEFAULT_RETRY_AFTER_SECONDS = "1";
+    protected static final String DEFAULT_WARMUP_QUERIES = "0";
+    protected static final String DEFAULT_WARMUP_ATTRIBUTES = "uid";
+    protected static final String DEFAULT_READINESS_PATH = "/ready";
+    protected static final String DEFAULT_MAX_BATCH_SIZE = "100";
+
+    // Standalone server configuration
+    protected static final String DEFAULT_STANDALONE_HOST = "";
+    protected static final String DEFAULT_STANDALONE_PORT = "8080";
+    protected static final String DEFAULT_STANDALONE_ACCEPT_QUEUE_SIZE = "128";
+    protected static final String DEFAULT_STANDALONE_ACCEPTORS = "1";
+    protected static final String DEFAULT_STANDALONE_WORKER_THREADS = "32";
+    protected static final String DEFAULT_STANDALONE_IDLE_TIMEOUT_SECONDS = "30";
+    protected static final String DEFAULT_STANDALONE_MAX_CONNECTIONS = "0";
+    protected static final String DEFAULT_STANDALONE_OUTPUT_BUFFER_SIZE = "32768";
 
     // Keystore configuration
     protected static final String DEFAULT_KEYSTORE_PASSWORD = "secret";
     protected static final String DEFAULT_KEYSTORE_ENTRY_NAME = "stiam-aa";
     protected static final String DEFAULT_KEYSTORE_ENTRY_PASSWORD = "secret";
+    protected static final String DEFAULT_KEYSTORE_RELOAD_INTERVAL_SECONDS = "10";
 
     // Other default settings
     protected static final String DEFAULT_ELEGIBILITY_POLICY = "deny";
@@ -110,6 +176,8 @@ public class StiamConfiguration {
     private static final StiamConfiguration instance = new StiamConfiguration();
     private static Properties stiamSettings;
     private static String userHome;
+    private final AtomicReference<CredentialRegistry> credentialRegistry = new AtomicReference<>();
+    private final AtomicLong nextKeystoreCheck = new AtomicLong();
 
 //////////////////////////////////////// Constructors
     /**
@@ -130,6 +198,14 @@ public class StiamConfiguration {
 
         if (stiamSettings == null) {
             logger.warn("Configuration could not be loaded, running with default values. That will probably lead to strange results...");
+            stiamSettings = new Properties();
+        }
+
+        try {
+            reloadCredentials();
+        } catch (IOException | KeyStoreException | NoSuchAlgorithmException | CertificateException |
+                UnrecoverableEntryException ex) {
+            logger.warn("Credentials could not be loaded at startup, will retry on first use: {}", ex.getMessage());
         }
     }
 
@@ -220,6 +296,19 @@ public class StiamConfiguration {
         return stiamSettings.getProperty("Keystore.FilePath", userHome + "/" + DEFAULT_KEYSTORE_FILEPATH);
     }
 
+    /**
+     * Defines the path to the properties-file with the configuration of the
+     * relying parties.
+     *
+     * Can be configured with property "RelyingParties.FilePath", defaults to
+     * DEFAULT_RELYINGPARTIES_FILEPATH
+     *
+     * @return Path to the properties-file
+     */
+    public String getRelyingPartiesFilePath() {
+        return stiamSettings.getProperty("RelyingParties.FilePath", userHome + "/" + DEFAULT_RELYINGPARTIES_FILEPATH);
+    }
+
 //////////////////// SAML-Methods
     /**
      * Defines the Issuer used when generating SAML-messages.
@@ -306,6 +395,46 @@ public class StiamConfiguration {
         return stiamSettings.getProperty("SAML.SubjectConfirmationMethod", DEFAULT_SAML_SUBJECTCONFIRMATIONMETHOD);
     }
 
+    /**
+     * Defines which elements of generated responses get signed for relying
+     * parties without an explicit configuration.
+     *
+     * Can be configured with property "SAML.DefaultSigningProfile", defaults
+     * to DEFAULT_SAML_SIGNINGPROFILE
+     *
+     * @return Default signing profile
+     */
+    public SigningProfile getDefaultSigningProfile() {
+        return SigningProfile.fromString(stiamSettings.getProperty("SAML.DefaultSigningProfile", DEFAULT_SAML_SIGNINGPROFILE),
+                SigningProfile.BOTH);
+    }
+
+    /**
+     * Defines the URI of the algorithm used for signing generated messages for
+     * relying parties without an explicit configuration.
+     *
+     * Can be configured with property "SAML.SignatureAlgorithm", if not set,
+     * the algorithm is derived from the type of the signing key.
+     *
+     * @return URI of the signature algorithm or null
+     */
+    public String getSAMLSignatureAlgorithm() {
+        return stiamSettings.getProperty("SAML.SignatureAlgorithm");
+    }
+
+    /**
+     * Defines the URI of the digest algorithm used in signatures of generated
+     * messages for relying parties without an explicit configuration.
+     *
+     * Can be configured with property "SAML.DigestAlgorithm", if not set, the
+     * default of OpenSAML is used.
+     *
+     * @return URI of the digest algorithm or null
+     */
+    public String getSAMLDigestAlgorithm() {
+        return stiamSettings.getProperty("SAML.DigestAlgorithm");
+    }
+
 //////////////////// LDAP-Methods
     /**
      * Defines which host is used to access the LDAP directory.
@@ -380,6 +509,116 @@ public class StiamConfiguration {
         return String.format(stiamSettings.getProperty("LdapClient.Filter", DEFAULT_LDAP_FILTER), nameId);
     }
 
+    /**
+     * Defines how many NameIDs the LDAP-Client searches at once when fetching
+     * attributes of several subjects, combining their filters with OR. A value
+     * of 1 or less searches the subjects one by one.
+     *
+     * Can be configured with property "LdapClient.BulkSearchSize", defaults to
+     * DEFAULT_LDAP_BULK_SEARCH_SIZE.
+     *
+     * @return Maximum number of NameIDs per search
+     */
+    public int getLdapBulkSearchSize() {
+        return Integer.parseInt(stiamSettings.getProperty("LdapClient.BulkSearchSize", DEFAULT_LDAP_BULK_SEARCH_SIZE));
+    }
+
+    /**
+     * Defines how many connections of the LDAP-Client's connection pool are
+     * opened at startup, before the first query arrives. At least one is
+     * always opened.
+     *
+     * Can be configured with property "LdapClient.PoolInitialSize", defaults
+     * to DEFAULT_LDAP_POOL_INITIAL_SIZE.
+     *
+     * @return Number of connections opened at startup
+     */
+    public int getLdapPoolInitialSize() {
+        return Integer.parseInt(stiamSettings.getProperty("LdapClient.PoolInitialSize", DEFAULT_LDAP_POOL_INITIAL_SIZE));
+    }
+
+    /**
+     * Defines the maximum number of connections of the LDAP-Client's
+     * connection pool. Requests wait for a connection when all are in use.
+     *
+     * Can be configured with property "LdapClient.PoolMaxSize", defaults to
+     * DEFAULT_LDAP_POOL_MAX_SIZE.
+     *
+     * @return Maximum number of connections
+     */
+    public int getLdapPoolMaxSize() {
+        return Integer.parseInt(stiamSettings.getProperty("LdapClient.PoolMaxSize", DEFAULT_LDAP_POOL_MAX_SIZE));
+    }
+
+    /**
+     * Defines how long a request waits for a connection of the LDAP-Client's
+     * connection pool when all are in use, before failing.
+     *
+     * Can be configured with property "LdapClient.PoolMaxWaitMillis",
+     * defaults to DEFAULT_LDAP_POOL_MAX_WAIT_MILLIS.
+     *
+     * @return Maximum waiting time in milliseconds
+     */
+    public int getLdapPoolMaxWaitMillis() {
+        return Integer.parseInt(stiamSettings.getProperty("LdapClient.PoolMaxWaitMillis", DEFAULT_LDAP_POOL_MAX_WAIT_MILLIS));
+    }
+
+    /**
+     * Defines after how long connections of the LDAP-Client's connection pool
+     * are replaced by new ones, e.g. to spread them over the servers behind a
+     * load balancer. A value of 0 keeps connections as long as they work.
+     *
+     * Can be configured with property "LdapClient.PoolMaxConnectionAgeSeconds",
+     * defaults to DEFAULT_LDAP_POOL_MAX_CONNECTION_AGE_SECONDS.
+     *
+     * @return Maximum age of connections in seconds
+     */
+    public int getLdapPoolMaxConnectionAgeSeconds() {
+        return Integer.parseInt(stiamSettings.getProperty("LdapClient.PoolMaxConnectionAgeSeconds", DEFAULT_LDAP_POOL_MAX_CONNECTION_AGE_SECONDS));
+    }
+
+    /**
+     * Defines the interval of the background health check of the LDAP-Client's
+     * connection pool, which replaces defunct and expired connections.
+     *
+     * Can be configured with property
+     * "LdapClient.PoolHealthCheckIntervalSeconds", defaults to
+     * DEFAULT_LDAP_POOL_HEALTH_CHECK_INTERVAL_SECONDS.
+     *
+     * @return Interval of the health check in seconds
+     */
+    public int getLdapPoolHealthCheckIntervalSeconds() {
+        return Integer.parseInt(stiamSettings.getProperty("LdapClient.PoolHealthCheckIntervalSeconds", DEFAULT_LDAP_POOL_HEALTH_CHECK_INTERVAL_SECONDS));
+    }
+
+    /**
+     * Defines the time limit of searches of the LDAP-Client, enforced by the
+     * LDAP-server, which answers with an error once exceeded. A value of 0
+     * leaves the limit to the server.
+     *
+     * Can be configured with property "LdapClient.SearchTimeLimitSeconds",
+     * defaults to DEFAULT_LDAP_SEARCH_TIME_LIMIT_SECONDS.
+     *
+     * @return Time limit of searches in seconds
+     */
+    public int getLdapSearchTimeLimitSeconds() {
+        return Integer.parseInt(stiamSettings.getProperty("LdapClient.SearchTimeLimitSeconds", DEFAULT_LDAP_SEARCH_TIME_LIMIT_SECONDS));
+    }
+
+    /**
+     * Defines how long the LDAP-Client waits for the result of a search before
+     * giving up, e.g. if the server does not enforce the time limit above or
+     * does not answer at all. A value of 0 waits indefinitely.
+     *
+     * Can be configured with property "LdapClient.ResponseTimeoutMillis",
+     * defaults to DEFAULT_LDAP_RESPONSE_TIMEOUT_MILLIS.
+     *
+     * @return Response timeout of searches in milliseconds
+     */
+    public int getLdapResponseTimeoutMillis() {
+        return Integer.parseInt(stiamSettings.getProperty("LdapClient.ResponseTimeoutMillis", DEFAULT_LDAP_RESPONSE_TIMEOUT_MILLIS));
+    }
+
 //////////////////// Attribute-Service configuration
     /**
      * Defines the SAML-binding the AA can handle.
@@ -463,6 +702,523 @@ public class StiamConfiguration {
         return Boolean.parseBoolean(stiamSettings.getProperty("AttributeService.VerifyAuthnTimespan", DEFAULT_VERIFY_AUTHN_TIMESPAN));
     }
 
+    /**
+     * Defines the maximum number of embedded authentication assertions whose
+     * verified signature is remembered. Repeated queries with the same
+     * assertion then skip the verification of its signature. A value of 0
+     * disables the cache.
+     *
+     * Can be configured with property "AttributeService.AssertionCacheSize",
+     * defaults to DEFAULT_ASSERTION_CACHE_SIZE.
+     *
+     * @return Maximum number of cached assertions
+     */
+    public int getAssertionCacheSize() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.AssertionCacheSize", DEFAULT_ASSERTION_CACHE_SIZE));
+    }
+
+    /**
+     * Defines the number of worker threads building and signing responses. A
+     * value of 0 starts one worker per available processor.
+     *
+     * Can be configured with property "AttributeService.SigningThreads",
+     * defaults to DEFAULT_SIGNING_STAGE_THREADS.
+     *
+     * @return Number of signing workers
+     */
+    public int getSigningStageThreads() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.SigningThreads", DEFAULT_SIGNING_STAGE_THREADS));
+    }
+
+    /**
+     * Defines the maximum number of responses waiting for a signing worker.
+     * Further queries are rejected immediately while the queue is full.
+     *
+     * Can be configured with property "AttributeService.SigningQueueDepth",
+     * defaults to DEFAULT_SIGNING_STAGE_QUEUE_DEPTH.
+     *
+     * @return Capacity of the signing queue
+     */
+    public int getSigningStageQueueDepth() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.SigningQueueDepth", DEFAULT_SIGNING_STAGE_QUEUE_DEPTH));
+    }
+
+    /**
+     * Defines how attribute responses are built: Either by OpenSAML or from
+     * precompiled templates, see TemplateAttributeResponseBuilder.
+     *
+     * Can be configured with property "AttributeService.ResponseEngine",
+     * defaults to DEFAULT_RESPONSE_ENGINE.
+     *
+     * @return Engine used for building attribute responses
+     */
+    public ResponseEngine getResponseEngine() {
+        if (stiamSettings.getProperty("AttributeService.ResponseEngine", DEFAULT_RESPONSE_ENGINE).equalsIgnoreCase("template")) {
+            return ResponseEngine.TEMPLATE;
+        } else {
+            return ResponseEngine.OPENSAML;
+        }
+    }
+
+    /**
+     * Defines how queries are rejected before the relying party has been
+     * authenticated (e.g. if they cannot be decoded or their signature is not
+     * valid): With a SAML status response signed according to the relying
+     * party, unsigned or with a static SOAP fault.
+     *
+     * Can be configured with property "AttributeService.PreAuthErrors",
+     * defaults to DEFAULT_PRE_AUTH_ERRORS.
+     *
+     * @return Mode of rejecting unauthenticated queries
+     */
+    public PreAuthErrorMode getPreAuthErrorMode() {
+        final String mode = stiamSettings.getProperty("AttributeService.PreAuthErrors", DEFAULT_PRE_AUTH_ERRORS);
+        if (mode.equalsIgnoreCase("static")) {
+            return PreAuthErrorMode.STATIC;
+        } else if (mode.equalsIgnoreCase("unsigned")) {
+            return PreAuthErrorMode.UNSIGNED;
+        } else {
+            return PreAuthErrorMode.SIGNED;
+        }
+    }
+
+    /**
+     * Defines the maximum number of rejected unauthenticated queries which are
+     * logged per minute, further ones are only counted. 0 logs all of them.
+     *
+     * Can be configured with property "AttributeService.PreAuthErrorLogsPerMinute",
+     * defaults to DEFAULT_PRE_AUTH_ERROR_LOGS_PER_MINUTE.
+     *
+     * @return Maximum number of log messages per minute
+     */
+    public int getPreAuthErrorLogsPerMinute() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.PreAuthErrorLogsPerMinute",
+                DEFAULT_PRE_AUTH_ERROR_LOGS_PER_MINUTE));
+    }
+
+    /**
+     * Defines the maximum size of the body of a request in bytes, SOAP
+     * envelope or form. Larger requests are rejected before parsing them.
+     *
+     * Can be configured with property "AttributeService.MaxRequestSize",
+     * defaults to DEFAULT_MAX_REQUEST_SIZE.
+     *
+     * @return Maximum size of a request in bytes
+     */
+    public int getMaxRequestSize() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.MaxRequestSize", DEFAULT_MAX_REQUEST_SIZE));
+    }
+
+    /**
+     * Defines the maximum nesting depth of elements in a SOAP envelope,
+     * including the envelope itself.
+     *
+     * Can be configured with property "AttributeService.MaxElementDepth",
+     * defaults to DEFAULT_MAX_ELEMENT_DEPTH.
+     *
+     * @return Maximum depth of elements
+     */
+    public int getMaxElementDepth() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.MaxElementDepth", DEFAULT_MAX_ELEMENT_DEPTH));
+    }
+
+    /**
+     * Defines the maximum number of attributes (including namespace
+     * declarations) of a single element in a SOAP envelope.
+     *
+     * Can be configured with property "AttributeService.MaxAttributesPerElement",
+     * defaults to DEFAULT_MAX_ATTRIBUTES_PER_ELEMENT.
+     *
+     * @return Maximum number of attributes per element
+     */
+    public int getMaxAttributesPerElement() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.MaxAttributesPerElement",
+                DEFAULT_MAX_ATTRIBUTES_PER_ELEMENT));
+    }
+
+    /**
+     * Defines the maximum number of XML-parsers in use at the same time, which
+     * is also the maximum number of parsers kept for reuse.
+     *
+     * Can be configured with property "AttributeService.ParserPoolSize",
+     * defaults to DEFAULT_PARSER_POOL_SIZE.
+     *
+     * @return Maximum number of parsers
+     */
+    public int getParserPoolSize() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.ParserPoolSize", DEFAULT_PARSER_POOL_SIZE));
+    }
+
+    /**
+     * Defines how long to wait for a parser if all of them are in use, before
+     * failing.
+     *
+     * Can be configured with property "AttributeService.ParserPoolWaitMillis",
+     * defaults to DEFAULT_PARSER_POOL_WAIT_MILLIS.
+     *
+     * @return Maximum time to wait for a parser in milliseconds
+     */
+    public long getParserPoolWaitMillis() {
+        return Long.parseLong(stiamSettings.getProperty("AttributeService.ParserPoolWaitMillis",
+                DEFAULT_PARSER_POOL_WAIT_MILLIS));
+    }
+
+    /**
+     * Enables/disables asynchronous processing of queries. If enabled (and
+     * supported by the container), the threads of the container are released
+     * while a query is processed: It is decoded and verified, its attributes
+     * fetched from the directory and the response signed on dedicated workers.
+     *
+     * Can be configured with property "AttributeService.AsyncProcessing",
+     * defaults to DEFAULT_ASYNC_PROCESSING.
+     *
+     * @return if true, queries are processed asynchronously
+     */
+    public boolean useAsyncProcessing() {
+        return Boolean.parseBoolean(stiamSettings.getProperty("AttributeService.AsyncProcessing", DEFAULT_ASYNC_PROCESSING));
+    }
+
+    /**
+     * Defines the time after which a query processed asynchronously is
+     * answered with HTTP 503, if it has not been answered yet. 0 disables the
+     * timeout.
+     *
+     * Can be configured with property "AttributeService.AsyncTimeoutMillis",
+     * defaults to DEFAULT_ASYNC_TIMEOUT_MILLIS.
+     *
+     * @return Timeout of queries in milliseconds
+     */
+    public long getAsyncTimeoutMillis() {
+        return Long.parseLong(stiamSettings.getProperty("AttributeService.AsyncTimeoutMillis", DEFAULT_ASYNC_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * Defines the number of worker threads decoding and verifying queries
+     * processed asynchronously, 0 starts one per available processor.
+     *
+     * Can be configured with property "AttributeService.VerificationThreads",
+     * defaults to DEFAULT_VERIFICATION_THREADS.
+     *
+     * @return Number of verification workers
+     */
+    public int getVerificationThreads() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.VerificationThreads", DEFAULT_VERIFICATION_THREADS));
+    }
+
+    /**
+     * Defines the number of worker threads fetching attributes from the
+     * directory for queries processed asynchronously. As these mostly wait for
+     * the directory, there are usually more of them than processors.
+     *
+     * Can be configured with property "AttributeService.DirectoryThreads",
+     * defaults to DEFAULT_DIRECTORY_THREADS.
+     *
+     * @return Number of directory workers
+     */
+    public int getDirectoryThreads() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.DirectoryThreads", DEFAULT_DIRECTORY_THREADS));
+    }
+
+    /**
+     * Defines the maximum number of queries waiting for a verification or a
+     * directory worker each.
+     *
+     * Can be configured with property "AttributeService.ProcessingQueueDepth",
+     * defaults to DEFAULT_PROCESSING_QUEUE_DEPTH.
+     *
+     * @return Maximum number of queries waiting per stage
+     */
+    public int getProcessingQueueDepth() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.ProcessingQueueDepth", DEFAULT_PROCESSING_QUEUE_DEPTH));
+    }
+
+    /**
+     * Enables/disables non-blocking reading of the body of requests processed
+     * asynchronously. If enabled, the body is read only while data
+     * is available (using a ReadListener), so no thread waits for slow
+     * clients, and the query is processed once the body is complete.
+     *
+     * Can be configured with property "AttributeService.NonBlockingRead",
+     * defaults to DEFAULT_NON_BLOCKING_READ.
+     *
+     * @return if true, bodies of requests are read without blocking
+     */
+    public boolean useNonBlockingRead() {
+        return Boolean.parseBoolean(stiamSettings.getProperty("AttributeService.NonBlockingRead", DEFAULT_NON_BLOCKING_READ));
+    }
+
+    /**
+     * Defines the time within which the body of a request read without
+     * blocking must be received completely, otherwise the request is rejected
+     * with HTTP 408. 0 disables the timeout.
+     *
+     * Can be configured with property "AttributeService.ReadTimeoutMillis",
+     * defaults to DEFAULT_READ_TIMEOUT_MILLIS.
+     *
+     * @return Read timeout in milliseconds
+     */
+    public long getReadTimeoutMillis() {
+        return Long.parseLong(stiamSettings.getProperty("AttributeService.ReadTimeoutMillis", DEFAULT_READ_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * Enables/disables virtual threads for queries processed asynchronously.
+     * If enabled and supported by the JVM (Java 21 and later), each query is
+     * decoded and verified and its attributes fetched on a virtual thread of
+     * its own instead of on a fixed number of workers. Responses are still
+     * signed by the workers of the signing stage.
+     *
+     * Can be configured with property "AttributeService.VirtualThreads",
+     * defaults to DEFAULT_VIRTUAL_THREADS.
+     *
+     * @return if true, queries are processed on virtual threads
+     */
+    public boolean useVirtualThreads() {
+        return Boolean.parseBoolean(stiamSettings.getProperty("AttributeService.VirtualThreads", DEFAULT_VIRTUAL_THREADS));
+    }
+
+    /**
+     * Defines the maximum number of queries in flight on virtual threads per
+     * stage (verification and directory), further queries are rejected with
+     * HTTP 503.
+     *
+     * Can be configured with property "AttributeService.VirtualThreadLimit",
+     * defaults to DEFAULT_VIRTUAL_THREAD_LIMIT.
+     *
+     * @return Maximum number of queries in flight per stage
+     */
+    public int getVirtualThreadLimit() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.VirtualThreadLimit", DEFAULT_VIRTUAL_THREAD_LIMIT));
+    }
+
+    /**
+     * Defines the maximum number of queries processed at the same time. Further
+     * queries wait for admission and are shed if the authority stays
+     * overloaded. 0 disables admission control.
+     *
+     * Can be configured with property "AttributeService.MaxInFlightQueries",
+     * defaults to DEFAULT_MAX_IN_FLIGHT_QUERIES.
+     *
+     * @return Maximum number of queries in flight
+     */
+    public int getMaxInFlightQueries() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.MaxInFlightQueries", DEFAULT_MAX_IN_FLIGHT_QUERIES));
+    }
+
+    /**
+     * Defines the maximum number of queries waiting for admission, further
+     * queries are shed immediately.
+     *
+     * Can be configured with property "AttributeService.AdmissionQueueSize",
+     * defaults to DEFAULT_ADMISSION_QUEUE_SIZE.
+     *
+     * @return Maximum number of queries waiting for admission
+     */
+    public int getAdmissionQueueSize() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.AdmissionQueueSize", DEFAULT_ADMISSION_QUEUE_SIZE));
+    }
+
+    /**
+     * Defines the maximum time a query waits for admission before it is shed.
+     *
+     * Can be configured with property "AttributeService.AdmissionWaitMillis",
+     * defaults to DEFAULT_ADMISSION_WAIT_MILLIS.
+     *
+     * @return Maximum wait for admission in milliseconds
+     */
+    public long getAdmissionWaitMillis() {
+        return Long.parseLong(stiamSettings.getProperty("AttributeService.AdmissionWaitMillis", DEFAULT_ADMISSION_WAIT_MILLIS));
+    }
+
+    /**
+     * Defines the delay announced to clients of shed queries in the
+     * Retry-After header.
+     *
+     * Can be configured with property "AttributeService.RetryAfterSeconds",
+     * defaults to DEFAULT_RETRY_AFTER_SECONDS.
+     *
+     * @return Delay before retrying in seconds
+     */
+    public int getRetryAfterSeconds() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.RetryAfterSeconds", DEFAULT_RETRY_AFTER_SECONDS));
+    }
+
+    /**
+     * Defines the number of synthetic queries processed after initialization,
+     * before the authority reports to be ready (see getReadinessPath()). 0
+     * disables the warm-up.
+     *
+     * Can be configured with property "AttributeService.WarmupQueries",
+     * defaults to DEFAULT_WARMUP_QUERIES.
+     *
+     * @return Number of warm-up queries
+     */
+    public int getWarmupQueries() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.WarmupQueries", DEFAULT_WARMUP_QUERIES));
+    }
+
+    /**
+     * Defines the subject the warm-up queries are issued for. It must exist
+     * in the directory and be eligible for the warm-up to cover the whole
+     * processing of a query.
+     *
+     * Can be configured with property "AttributeService.WarmupNameID",
+     * defaults to getSAMLNameID().
+     *
+     * @return NameID of the subject of the warm-up queries
+     */
+    public String getWarmupNameID() {
+        return stiamSettings.getProperty("AttributeService.WarmupNameID", getSAMLNameID());
+    }
+
+    /**
+     * Defines the names of the attributes requested by the warm-up queries.
+     *
+     * Can be configured with property "AttributeService.WarmupAttributes" as
+     * a comma-separated list, defaults to DEFAULT_WARMUP_ATTRIBUTES.
+     *
+     * @return Names of the attributes of the warm-up queries
+     */
+    public String[] getWarmupAttributes() {
+        return stiamSettings.getProperty("AttributeService.WarmupAttributes", DEFAULT_WARMUP_ATTRIBUTES).split(",");
+    }
+
+    /**
+     * Defines the path answered with HTTP 200 on GET-requests once the
+     * authority is ready (i.e. the warm-up has finished), HTTP 503 before.
+     *
+     * Can be configured with property "AttributeService.ReadinessPath",
+     * defaults to DEFAULT_READINESS_PATH.
+     *
+     * @return Path of the readiness check, relative to the context
+     */
+    public String getReadinessPath() {
+        return stiamSettings.getProperty("AttributeService.ReadinessPath", DEFAULT_READINESS_PATH);
+    }
+
+    /**
+     * Defines the maximum number of AttributeQueries accepted in one SOAP
+     * envelope. The queries of a batch are answered with one Response each,
+     * all in one envelope. Requests with more queries are rejected with HTTP
+     * 413, 1 disables batches (only the first query of an envelope is
+     * processed). Note that the size of the request is still limited by
+     * getMaxRequestSize().
+     *
+     * Can be configured with property "AttributeService.MaxBatchSize",
+     * defaults to DEFAULT_MAX_BATCH_SIZE.
+     *
+     * @return Maximum number of queries per request
+     */
+    public int getMaxBatchSize() {
+        return Integer.parseInt(stiamSettings.getProperty("AttributeService.MaxBatchSize", DEFAULT_MAX_BATCH_SIZE));
+    }
+
+//////////////////// Standalone-Server configuration
+    /**
+     * Defines the address the standalone server listens on, empty for all
+     * addresses.
+     *
+     * Can be configured with property "Standalone.Host", defaults to
+     * DEFAULT_STANDALONE_HOST.
+     *
+     * @return Host name or address to listen on
+     */
+    public String getStandaloneHost() {
+        return stiamSettings.getProperty("Standalone.Host", DEFAULT_STANDALONE_HOST);
+    }
+
+    /**
+     * Defines the port the standalone server listens on.
+     *
+     * Can be configured with property "Standalone.Port", defaults to
+     * DEFAULT_STANDALONE_PORT.
+     *
+     * @return Port to listen on
+     */
+    public int getStandalonePort() {
+        return Integer.parseInt(stiamSettings.getProperty("Standalone.Port", DEFAULT_STANDALONE_PORT));
+    }
+
+    /**
+     * Defines the maximum number of connections waiting to be accepted by the
+     * standalone server (the backlog of its socket).
+     *
+     * Can be configured with property "Standalone.AcceptQueueSize", defaults
+     * to DEFAULT_STANDALONE_ACCEPT_QUEUE_SIZE.
+     *
+     * @return Maximum number of pending connections
+     */
+    public int getStandaloneAcceptQueueSize() {
+        return Integer.parseInt(stiamSettings.getProperty("Standalone.AcceptQueueSize", DEFAULT_STANDALONE_ACCEPT_QUEUE_SIZE));
+    }
+
+    /**
+     * Defines the number of acceptor threads of the standalone server
+     * accepting connections.
+     *
+     * Can be configured with property "Standalone.Acceptors", defaults to
+     * DEFAULT_STANDALONE_ACCEPTORS.
+     *
+     * @return Number of acceptor threads
+     */
+    public int getStandaloneAcceptors() {
+        return Integer.parseInt(stiamSettings.getProperty("Standalone.Acceptors", DEFAULT_STANDALONE_ACCEPTORS));
+    }
+
+    /**
+     * Defines the number of worker threads of the standalone server handling
+     * requests.
+     *
+     * Can be configured with property "Standalone.WorkerThreads", defaults to
+     * DEFAULT_STANDALONE_WORKER_THREADS.
+     *
+     * @return Number of worker threads
+     */
+    public int getStandaloneWorkerThreads() {
+        return Integer.parseInt(stiamSettings.getProperty("Standalone.WorkerThreads", DEFAULT_STANDALONE_WORKER_THREADS));
+    }
+
+    /**
+     * Defines the time after which idle connections of the standalone server
+     * are closed.
+     *
+     * Can be configured with property "Standalone.IdleTimeoutSeconds",
+     * defaults to DEFAULT_STANDALONE_IDLE_TIMEOUT_SECONDS.
+     *
+     * @return Idle timeout in seconds
+     */
+    public int getStandaloneIdleTimeoutSeconds() {
+        return Integer.parseInt(stiamSettings.getProperty("Standalone.IdleTimeoutSeconds", DEFAULT_STANDALONE_IDLE_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Defines the maximum number of connections open at the same time to the
+     * standalone server, 0 for no limit. Further connections are not accepted
+     * until one is closed.
+     *
+     * Can be configured with property "Standalone.MaxConnections", defaults to
+     * DEFAULT_STANDALONE_MAX_CONNECTIONS.
+     *
+     * @return Maximum number of open connections
+     */
+    public int getStandaloneMaxConnections() {
+        return Integer.parseInt(stiamSettings.getProperty("Standalone.MaxConnections", DEFAULT_STANDALONE_MAX_CONNECTIONS));
+    }
+
+    /**
+     * Defines the size of the buffer of responses of the standalone server.
+     * Responses fitting into it are sent with a Content-Length, larger ones
+     * are sent chunked unless their length has been set.
+     *
+     * Can be configured with property "Standalone.OutputBufferSize", defaults
+     * to DEFAULT_STANDALONE_OUTPUT_BUFFER_SIZE.
+     *
+     * @return Size of the output buffer in bytes
+     */
+    public int getStandaloneOutputBufferSize() {
+        return Integer.parseInt(stiamSettings.getProperty("Standalone.OutputBufferSize", DEFAULT_STANDALONE_OUTPUT_BUFFER_SIZE));
+    }
+
 //////////////////// Credential configuration
     /**
      * Returns the password used for locking the keystore-file.
@@ -501,32 +1257,78 @@ public class StiamConfiguration {
     }
 
     /**
-     * Initializes a Credential by loading a certificate from the keystore.
+     * Defines the minimum interval in seconds between two checks whether the
+     * keystore-file has changed on disk. If it has, all credentials are
+     * reloaded. A value of 0 or less disables reloading.
      *
-     * @param alias The name of the entry in the keystore to load
-     * @return The initialized Credential object
+     * Can be configured with property "Keystore.ReloadIntervalSeconds",
+     * defaults to DEFAULT_KEYSTORE_RELOAD_INTERVAL_SECONDS.
+     *
+     * @return Interval in seconds between checks of the keystore-file
+     */
+    public int getKeystoreReloadIntervalSeconds() {
+        return Integer.parseInt(stiamSettings.getProperty("Keystore.ReloadIntervalSeconds", DEFAULT_KEYSTORE_RELOAD_INTERVAL_SECONDS));
+    }
+
+    /**
+     * Returns the registry holding all credentials of the keystore. The
+     * registry is loaded once and replaced atomically if the keystore-file has
+     * been modified (checked at most every getKeystoreReloadIntervalSeconds()).
+     * If reloading fails, the previous registry stays in use.
+     *
+     * @return The current credential registry
      * @throws IOException
      * @throws KeyStoreException
      * @throws NoSuchAlgorithmException
      * @throws CertificateException
      * @throws UnrecoverableEntryException
      */
-    public Credential getCredential(String alias) throws IOException,
+    public CredentialRegistry getCredentialRegistry() throws IOException,
             KeyStoreException, NoSuchAlgorithmException, CertificateException,
             UnrecoverableEntryException {
+        final CredentialRegistry registry = credentialRegistry.get();
+        if (registry == null) {
+            return reloadCredentials();
+        }
 
-        KeyStore ks = getKeystore();
+        final int interval = getKeystoreReloadIntervalSeconds();
+        if (interval > 0) {
+            final long now = System.currentTimeMillis();
+            final long nextCheck = nextKeystoreCheck.get();
+            // only one thread per interval gets to check the file
+            if (now >= nextCheck && nextKeystoreCheck.compareAndSet(nextCheck, now + interval * 1000L)
+                    && registry.isStale()) {
+                logger.info("Keystore-file has changed, reloading credentials...");
+                try {
+                    return reloadCredentials();
+                } catch (IOException | KeyStoreException | NoSuchAlgorithmException | CertificateException |
+                        UnrecoverableEntryException ex) {
+                    logger.error("Reloading credentials failed, keeping previous ones: {}", ex.getMessage());
+                }
+            }
+        }
 
-        KeyStore.PrivateKeyEntry pkEntry = (KeyStore.PrivateKeyEntry) ks
-                .getEntry(alias, new KeyStore.PasswordProtection(
-                                getKeystoreEntryPassword().toCharArray()));
+        return registry;
+    }
 
-        X509Certificate certificate = (X509Certificate) pkEntry
-                .getCertificate();
-        BasicX509Credential credential = new BasicX509Credential();
-        credential.setEntityCertificate(certificate);
-        credential.setPublicKey(certificate.getPublicKey());
-        credential.setPrivateKey(pkEntry.getPrivateKey());
+    /**
+     * Returns a Credential of a private key entry in the keystore.
+     *
+     * @param alias The name of the entry in the keystore to load
+     * @return The initialized Credential object
+     * @throws IOException
+     * @throws KeyStoreException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableEntryException
+     */
+    public Credential getCredential(String alias) throws IOException,
+            KeyStoreException, NoSuchAlgorithmException, CertificateException,
+            UnrecoverableEntryException {
+        final Credential credential = getCredentialRegistry().getCredential(alias);
+        if (credential == null) {
+            throw new KeyStoreException("No private key entry found for alias '" + alias + "'!");
+        }
         return credential;
     }
 
@@ -535,7 +1337,7 @@ public class StiamConfiguration {
      *
      * @param alias the name of the certificate stored in the keystore. It
      * should be the same name like the issuers name.
-     * @return
+     * @return Credential containing the certificate
      * @throws KeyStoreException
      * @throws FileNotFoundException
      * @throws IOException
@@ -545,18 +1347,20 @@ public class StiamConfiguration {
     public Credential getCertificate(String alias) throws KeyStoreException,
             FileNotFoundException, IOException, NoSuchAlgorithmException,
             CertificateException {
-
-        KeyStore ks = getKeystore();
-
-        BasicX509Credential credential = new BasicX509Credential();
-        credential.setEntityCertificate((X509Certificate) ks
-                .getCertificate(alias));
-
+        final Credential credential;
+        try {
+            credential = getCredentialRegistry().getCertificate(alias);
+        } catch (UnrecoverableEntryException ex) {
+            throw new KeyStoreException(ex.getMessage(), ex);
+        }
+        if (credential == null) {
+            throw new KeyStoreException("No certificate found for alias '" + alias + "'!");
+        }
         return credential;
     }
 
     /**
-     * Initializes the Credential used for signing extended attribute requests.
+     * Returns the Credential used for signing extended attribute requests.
      * Currently, this is hardcoded and the same as the verification credential.
      *
      * @return The initialized Credential object which can be used for signing
@@ -569,11 +1373,11 @@ public class StiamConfiguration {
     public Credential getSignatureCredential() throws IOException,
             KeyStoreException, NoSuchAlgorithmException, CertificateException,
             UnrecoverableEntryException {
-        return getCredential(getKeystoreEntryName());
+        return getCredentialRegistry().getSignatureCredential();
     }
 
     /**
-     * Initializes the Credential used for verifying all signatures. Currently,
+     * Returns the Credential used for verifying all signatures. Currently,
      * this is hardcoded and the same as the signature credential.
      *
      * @return The initialized Credential object which can be used for signing
@@ -617,26 +1421,24 @@ public class StiamConfiguration {
 
 //////////////////////////////////////// Private Methods
     /**
-     * Helper to load the keystore.
+     * Helper to (re-)load the keystore into a new CredentialRegistry which
+     * then replaces the current one.
      *
-     * @return Keystore which includes certificates, public key and private key.
-     * @throws KeyStoreException
-     * @throws FileNotFoundException
+     * @return The newly loaded registry
      * @throws IOException
+     * @throws KeyStoreException
      * @throws NoSuchAlgorithmException
      * @throws CertificateException
+     * @throws UnrecoverableEntryException
      */
-    private KeyStore getKeystore() throws KeyStoreException,
-            FileNotFoundException, IOException, NoSuchAlgorithmException,
-            CertificateException {
-        char[] pass = getKeystorePassword().toCharArray();
-
-        KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
-        try (FileInputStream fis = new FileInputStream(getKeystoreFilePath())) {
-            ks.load(fis, pass);
-        }
-
-        return ks;
+    private CredentialRegistry reloadCredentials() throws IOException,
+            KeyStoreException, NoSuchAlgorithmException, CertificateException,
+            UnrecoverableEntryException {
+        final CredentialRegistry registry = CredentialRegistry.load(getKeystoreFilePath(),
+                getKeystorePassword(), getKeystoreEntryPassword(), getKeystoreEntryName());
+        credentialRegistry.set(registry);
+        nextKeystoreCheck.set(System.currentTimeMillis() + getKeystoreReloadIntervalSeconds() * 1000L);
+        return registry;
     }
 
     /**
@@ -5,6 +5,7 @@
  */
 package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
 
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingPartyConfiguration;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
 
 import java.io.IOException;
@@ -35,8 +36,6 @@ import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.schema.XSString;
 import org.opensaml.xml.schema.impl.XSStringBuilder;
 import org.opensaml.xml.security.SecurityException;
-import org.opensaml.xml.security.SecurityHelper;
-import org.opensaml.xml.security.credential.Credential;
 import org.opensaml.xml.signature.Signature;
 import org.opensaml.xml.signature.SignatureException;
 import org.opensaml.xml.signature.Signer;
@@ -61,6 +60,8 @@ public class AttributeResponseBuilder extends ResponseBuilder {
 //////////////////////////////////////// Constructors
     /**
      * Initializes a builder for attribute-responses with the given attributes.
+     * The signing profile, key and algorithms are taken from the configuration
+     * of the relying party given as destination.
      *
      * @param destination The recipient of the response
      * @param inResponseTo ID from the requesting extended responseAttribute
@@ -73,7 +74,27 @@ public class AttributeResponseBuilder extends ResponseBuilder {
      */
     public AttributeResponseBuilder(String destination, String inResponseTo,
             String nameId, Collection<Attribute> attributes) throws ConfigurationException, NoSuchAlgorithmException {
-        super(destination, inResponseTo, new String[]{STATUS_CODE_SUCCESS});
+        this(destination, inResponseTo, nameId, attributes,
+                RelyingPartyConfiguration.getInstance().getRelyingParty(destination).getSigningProfile());
+    }
+
+    /**
+     * Initializes a builder for attribute-responses with the given attributes
+     * and an explicit signing profile.
+     *
+     * @param destination The recipient of the response
+     * @param inResponseTo ID from the requesting extended responseAttribute
+     * query
+     * @param nameId NameID of the subject belonging to the attributes
+     * @param attributes The attributes to include in the response.An
+     * responseAttribute consists of a String[] {name, nameformat, friendlyname}
+     * @param signingProfile Defines which elements of the response get signed
+     * @throws org.opensaml.xml.ConfigurationException
+     * @throws java.security.NoSuchAlgorithmException
+     */
+    public AttributeResponseBuilder(String destination, String inResponseTo, String nameId,
+            Collection<Attribute> attributes, SigningProfile signingProfile) throws ConfigurationException, NoSuchAlgorithmException {
+        super(destination, inResponseTo, new String[]{STATUS_CODE_SUCCESS}, signingProfile);
         this.nameId = nameId;
         this.attributes = attributes;
     }
@@ -162,21 +183,18 @@ public class AttributeResponseBuilder extends ResponseBuilder {
         }
 
         //////////////////// Sign the assertion
-        final Credential signingCredential = StiamConfiguration.getInstance().getSignatureCredential();
-        Signature assertionSignature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
-        assertionSignature.setSigningCredential(signingCredential);
-        SecurityHelper.prepareSignatureParams(assertionSignature, signingCredential, null, null);
-        assertion.setSignature(assertionSignature);
-        Configuration.getMarshallerFactory().getMarshaller(assertion).marshall(assertion);
-        Signer.signObject(assertionSignature);
+        if (signingProfile.signsAssertion()) {
+            final Signature assertionSignature = prepareSignature(assertion, relyingParty);
+            Configuration.getMarshallerFactory().getMarshaller(assertion).marshall(assertion);
+            Signer.signObject(assertionSignature);
+        }
 
         //////////////////// Sign the response
-        final Signature responseSignature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
-        responseSignature.setSigningCredential(signingCredential);
-        SecurityHelper.prepareSignatureParams(responseSignature, signingCredential, null, null);
-        response.setSignature(responseSignature);
-        Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
-        Signer.signObject(responseSignature);
+        if (signingProfile.signsResponse()) {
+            final Signature responseSignature = prepareSignature(response, relyingParty);
+            Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+            Signer.signObject(responseSignature);
+        }
 
         logger.debug("Attribute response generated!");
         return marshallToString(response);
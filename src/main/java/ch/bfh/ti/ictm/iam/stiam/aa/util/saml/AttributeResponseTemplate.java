@@ -0,0 +1,335 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.util.Base64;
+import org.opensaml.xml.util.DatatypeHelper;
+import org.opensaml.xml.util.XMLConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A precompiled attribute response for a given destination and set of
+ * attributes. All parts of the response which do not vary are rendered once
+ * when compiling the template, only IDs, timestamps, the NameID and the values
+ * of the attributes are filled in for every response.
+ *
+ * The template is rendered in the canonical form of exclusive XML
+ * canonicalization (with inclusive namespace prefix "xs", as OpenSAML does),
+ * thus the rendered elements can be digested and signed as they are, without
+ * building a DOM and canonicalizing it.
+ *
+ * Values are normalized as OpenSAML does when they are set (see normalize()),
+ * so the responses are the same as the ones of AttributeResponseBuilder, also
+ * for values which are empty or surrounded by whitespace.
+ *
+ * Templates are immutable and shared by all threads.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+final class AttributeResponseTemplate {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(AttributeResponseTemplate.class);
+
+    // Compiled templates are kept up to this number, then the cache starts over
+    private static final int MAX_TEMPLATES = 256;
+    private static final ConcurrentMap<String, AttributeResponseTemplate> templates = new ConcurrentHashMap<>();
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String RESPONSE_START = "<saml2p:Response xmlns:saml2p=\"" + SAMLConstants.SAML20P_NS
+            + "\" xmlns:xs=\"" + XMLConstants.XSD_NS + "\"";
+    private static final String RESPONSE_END = "</saml2p:Response>";
+    private static final String STATUS = "<saml2p:Status><saml2p:StatusCode Value=\""
+            + ResponseBuilder.STATUS_CODE_SUCCESS + "\"></saml2p:StatusCode></saml2p:Status>";
+    // The assertion on its own declares "xs" (inclusive prefix), within the response it is inherited
+    private static final String ASSERTION_START = "<saml2:Assertion xmlns:saml2=\"" + SAMLConstants.SAML20_NS + "\"";
+    private static final String ASSERTION_START_CANONICAL = ASSERTION_START + " xmlns:xs=\"" + XMLConstants.XSD_NS + "\"";
+    private static final String ASSERTION_END = "</saml2:AttributeStatement></saml2:Assertion>";
+    private static final String ATTRIBUTE_END = "</saml2:Attribute>";
+    private static final String VALUE_START = "<saml2:AttributeValue xmlns:xsi=\"" + XMLConstants.XSI_NS
+            + "\" xsi:type=\"xs:string\">";
+    private static final String VALUE_END = "</saml2:AttributeValue>";
+
+    private static final String SIGNATURE_START = "<ds:Signature xmlns:ds=\"" + XMLConstants.XMLSIG_NS + "\">";
+    private static final String SIGNED_INFO_START = "<ds:SignedInfo>";
+    private static final String SIGNED_INFO_START_CANONICAL = "<ds:SignedInfo xmlns:ds=\"" + XMLConstants.XMLSIG_NS + "\">";
+    private static final String TRANSFORMS = "<ds:Transforms><ds:Transform Algorithm=\""
+            + SignatureConstants.TRANSFORM_ENVELOPED_SIGNATURE + "\"></ds:Transform><ds:Transform Algorithm=\""
+            + SignatureConstants.TRANSFORM_C14N_EXCL_OMIT_COMMENTS + "\"><ec:InclusiveNamespaces xmlns:ec=\""
+            + SignatureConstants.TRANSFORM_C14N_EXCL_OMIT_COMMENTS
+            + "\" PrefixList=\"xs\"></ec:InclusiveNamespaces></ds:Transform></ds:Transforms>";
+
+    private final String destination;
+    private final String responseIssuer;
+    private final String assertionIssuer;
+    private final String subjectStart;
+    private final String subjectEnd;
+    private final String audienceRestriction;
+    private final String[] attributeStarts;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Compiles a template.
+     */
+    private AttributeResponseTemplate(String destination, String issuer, String nameIdFormat,
+            Collection<Attribute> attributes) {
+        this.destination = destination == null ? ""
+                : escapeAttribute(new StringBuilder(" Destination=\""), destination).append('"').toString();
+
+        final String escapedIssuer = escapeText(new StringBuilder(), issuer).toString();
+        responseIssuer = "<saml2:Issuer xmlns:saml2=\"" + SAMLConstants.SAML20_NS + "\">" + escapedIssuer + "</saml2:Issuer>";
+        assertionIssuer = "<saml2:Issuer>" + escapedIssuer + "</saml2:Issuer>";
+
+        final StringBuilder subject = new StringBuilder("<saml2:Subject><saml2:NameID");
+        if (nameIdFormat != null) {
+            escapeAttribute(subject.append(" Format=\""), nameIdFormat).append('"');
+        }
+        subjectStart = subject.append('>').toString();
+        subjectEnd = "</saml2:NameID></saml2:Subject>";
+
+        audienceRestriction = escapeText(new StringBuilder(
+                "\"><saml2:AudienceRestriction><saml2:Audience>"), destination == null ? "" : destination)
+                .append("</saml2:Audience></saml2:AudienceRestriction></saml2:Conditions><saml2:AttributeStatement>")
+                .toString();
+
+        // Attributes of elements are sorted by name in canonical form
+        attributeStarts = new String[attributes.size()];
+        int i = 0;
+        for (Attribute attribute : attributes) {
+            final StringBuilder start = new StringBuilder("<saml2:Attribute");
+            final String friendlyName = normalize(attribute.getFriendlyName());
+            if (friendlyName != null) {
+                escapeAttribute(start.append(" FriendlyName=\""), friendlyName).append('"');
+            }
+            final String name = normalize(attribute.getName());
+            if (name != null) {
+                escapeAttribute(start.append(" Name=\""), name).append('"');
+            }
+            final String nameFormat = normalize(attribute.getNameFormat());
+            if (nameFormat != null) {
+                escapeAttribute(start.append(" NameFormat=\""), nameFormat).append('"');
+            }
+            attributeStarts[i++] = start.append('>').toString();
+        }
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Returns the template for the given destination and attributes (their
+     * names, name formats and friendly names, the values do not matter),
+     * compiling it if necessary.
+     *
+     * @param destination The recipient of the responses
+     * @param issuer The issuer of the responses
+     * @param nameIdFormat Format of the NameID of the subject
+     * @param attributes The attributes included in the responses, in order
+     * @return The compiled template
+     */
+    static AttributeResponseTemplate getInstance(String destination, String issuer, String nameIdFormat,
+            Collection<Attribute> attributes) {
+        destination = normalize(destination);
+        issuer = normalize(issuer);
+        nameIdFormat = normalize(nameIdFormat);
+        final StringBuilder key = new StringBuilder().append(destination).append('\n').append(issuer)
+                .append('\n').append(nameIdFormat);
+        for (Attribute attribute : attributes) {
+            key.append('\n').append(attribute.getName()).append('\t').append(attribute.getNameFormat())
+                    .append('\t').append(attribute.getFriendlyName());
+        }
+
+        AttributeResponseTemplate template = templates.get(key.toString());
+        if (template == null) {
+            if (templates.size() >= MAX_TEMPLATES) {
+                templates.clear();
+            }
+            template = new AttributeResponseTemplate(destination, issuer == null ? "" : issuer, nameIdFormat,
+                    attributes);
+            templates.put(key.toString(), template);
+            logger.debug("Compiled response template for {} with {} attribute(s)", destination, attributes.size());
+        }
+        return template;
+    }
+
+    /**
+     * Renders a response from the template, including an XML-declaration.
+     * Signatures are computed and inserted as the signing profile requires,
+     * the signing context is only used if something gets signed.
+     *
+     * @param responseID ID of the response
+     * @param assertionID ID of the assertion
+     * @param inResponseTo ID of the query, may be null
+     * @param issueInstant Formatted instant of issuing the response
+     * @param notOnOrAfter Formatted end of the validity of the assertion
+     * @param nameId NameID of the subject
+     * @param attributes The attributes the template has been compiled for,
+     * with their values
+     * @param signingProfile Defines which elements get signed
+     * @param context The signing context to use
+     * @return The rendered response
+     * @throws SecurityException if signing fails
+     */
+    String render(String responseID, String assertionID, String inResponseTo, String issueInstant,
+            String notOnOrAfter, String nameId, Collection<Attribute> attributes, SigningProfile signingProfile,
+            SigningContext context) throws SecurityException {
+        //////////////////// Assertion
+        final String assertionAttributes = " ID=\"" + assertionID + "\" IssueInstant=\"" + issueInstant
+                + "\" Version=\"2.0\">";
+
+        final StringBuilder assertionContent = new StringBuilder(512);
+        assertionContent.append(subjectStart);
+        final String normalizedNameId = normalize(nameId);
+        if (normalizedNameId != null) {
+            escapeText(assertionContent, normalizedNameId);
+        }
+        assertionContent.append(subjectEnd);
+        assertionContent.append("<saml2:Conditions NotBefore=\"").append(issueInstant)
+                .append("\" NotOnOrAfter=\"").append(notOnOrAfter).append(audienceRestriction);
+        final Iterator<Attribute> it = attributes.iterator();
+        for (String attributeStart : attributeStarts) {
+            final String value = it.next().getValue();
+            assertionContent.append(attributeStart);
+            if (value != null) {
+                final String normalizedValue = normalize(value);
+                assertionContent.append(VALUE_START);
+                if (normalizedValue != null) {
+                    escapeText(assertionContent, normalizedValue);
+                }
+                assertionContent.append(VALUE_END);
+            }
+            assertionContent.append(ATTRIBUTE_END);
+        }
+        assertionContent.append(ASSERTION_END);
+
+        String assertionSignature = "";
+        if (signingProfile.signsAssertion()) {
+            assertionSignature = renderSignature(assertionID, context, ASSERTION_START_CANONICAL,
+                    assertionAttributes, assertionIssuer, assertionContent);
+        }
+
+        //////////////////// Response
+        final StringBuilder responseStart = new StringBuilder(RESPONSE_START).append(destination)
+                .append(" ID=\"").append(responseID).append('"');
+        final String normalizedInResponseTo = normalize(inResponseTo);
+        if (normalizedInResponseTo != null) {
+            escapeAttribute(responseStart.append(" InResponseTo=\""), normalizedInResponseTo).append('"');
+        }
+        responseStart.append(" IssueInstant=\"").append(issueInstant).append("\" Version=\"2.0\">");
+
+        final String responseContent = STATUS + ASSERTION_START + assertionAttributes + assertionIssuer
+                + assertionSignature + assertionContent + RESPONSE_END;
+
+        String responseSignature = "";
+        if (signingProfile.signsResponse()) {
+            responseSignature = renderSignature(responseID, context, responseStart, responseIssuer, responseContent);
+        }
+
+        return new StringBuilder(XML_DECLARATION.length() + responseStart.length() + responseIssuer.length()
+                + responseSignature.length() + responseContent.length())
+                .append(XML_DECLARATION).append(responseStart).append(responseIssuer)
+                .append(responseSignature).append(responseContent).toString();
+    }
+
+    /**
+     * Renders the enveloped signature of an element, given its canonical form
+     * without the signature in parts.
+     */
+    private static String renderSignature(String id, SigningContext context, CharSequence... canonicalParts)
+            throws SecurityException {
+        final StringBuilder canonical = new StringBuilder(4096);
+        for (CharSequence part : canonicalParts) {
+            canonical.append(part);
+        }
+        final String digestValue = Base64.encodeBytes(context.digest(canonical), Base64.DONT_BREAK_LINES);
+
+        final String signedInfoContent = "<ds:CanonicalizationMethod Algorithm=\""
+                + context.getCanonicalizationAlgorithm() + "\"></ds:CanonicalizationMethod><ds:SignatureMethod Algorithm=\""
+                + context.getSignatureAlgorithm() + "\"></ds:SignatureMethod><ds:Reference URI=\"#" + id + "\">"
+                + TRANSFORMS + "<ds:DigestMethod Algorithm=\"" + context.getDigestAlgorithm()
+                + "\"></ds:DigestMethod><ds:DigestValue>" + digestValue + "</ds:DigestValue></ds:Reference></ds:SignedInfo>";
+        final String signatureValue = Base64.encodeBytes(
+                context.sign(SIGNED_INFO_START_CANONICAL + signedInfoContent), Base64.DONT_BREAK_LINES);
+
+        return SIGNATURE_START + SIGNED_INFO_START + signedInfoContent + "<ds:SignatureValue>" + signatureValue
+                + "</ds:SignatureValue><ds:KeyInfo><ds:X509Data><ds:X509Certificate>" + context.getEncodedCertificate()
+                + "</ds:X509Certificate></ds:X509Data></ds:KeyInfo></ds:Signature>";
+    }
+
+    /**
+     * Appends text content escaped as in canonical XML.
+     */
+    static StringBuilder escapeText(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '\r':
+                    sb.append("&#xD;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Appends an attribute value escaped as in canonical XML.
+     */
+    static StringBuilder escapeAttribute(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '\t':
+                    sb.append("&#x9;");
+                    break;
+                case '\n':
+                    sb.append("&#xA;");
+                    break;
+                case '\r':
+                    sb.append("&#xD;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Normalizes a value as OpenSAML does when setting it: Whitespace is
+     * trimmed and empty values become null, which omits attributes and leaves
+     * elements empty.
+     */
+    static String normalize(String value) {
+        return DatatypeHelper.safeTrimOrNullString(value);
+    }
+}
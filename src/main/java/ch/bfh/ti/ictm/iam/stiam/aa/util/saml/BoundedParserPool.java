@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.validation.Schema;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.parse.XMLParserException;
+import org.w3c.dom.Document;
+
+/**
+ * A parser pool limiting the number of parsers (DocumentBuilders) in use at
+ * the same time, based on a BasicParserPool keeping at most as many parsers
+ * for reuse. If all parsers are in use, callers wait up to a given time for
+ * one to be returned before failing. The parsers are configured for secure
+ * processing: DTDs, external entities and XInclude are not supported.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class BoundedParserPool implements ParserPool, BoundedParserPoolMBean {
+//////////////////////////////////////// Fields
+
+    private final BasicParserPool pool;
+    private final int maxParsers;
+    private final long waitMillis;
+    private final Semaphore permits;
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+//////////////////////////////////////// Constructors
+    /**
+     * @param maxParsers Maximum number of parsers in use at the same time
+     * @param waitMillis Maximum time to wait for a parser in milliseconds
+     */
+    public BoundedParserPool(int maxParsers, long waitMillis) {
+        this.maxParsers = maxParsers;
+        this.waitMillis = waitMillis;
+        permits = new Semaphore(maxParsers, true);
+
+        final Map<String, Boolean> features = new HashMap<>(8);
+        features.put(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        features.put("http://apache.org/xml/features/disallow-doctype-decl", true);
+        features.put("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        features.put("http://xml.org/sax/features/external-general-entities", false);
+        features.put("http://xml.org/sax/features/external-parameter-entities", false);
+
+        pool = new BasicParserPool();
+        pool.setMaxPoolSize(maxParsers);
+        pool.setNamespaceAware(true);
+        pool.setExpandEntityReferences(false);
+        pool.setXincludeAware(false);
+        pool.setBuilderFeatures(features);
+    }
+
+//////////////////////////////////////// Methods
+    @Override
+    public DocumentBuilder getBuilder() throws XMLParserException {
+        acquire();
+        try {
+            return pool.getBuilder();
+        } catch (XMLParserException | RuntimeException ex) {
+            release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void returnBuilder(DocumentBuilder builder) {
+        if (builder != null) {
+            pool.returnBuilder(builder);
+            release();
+        }
+    }
+
+    @Override
+    public Document newDocument() throws XMLParserException {
+        acquire();
+        try {
+            return pool.newDocument();
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public Document parse(InputStream input) throws XMLParserException {
+        acquire();
+        try {
+            return pool.parse(input);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public Document parse(Reader input) throws XMLParserException {
+        acquire();
+        try {
+            return pool.parse(input);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public Schema getSchema() {
+        return pool.getSchema();
+    }
+
+    @Override
+    public void setSchema(Schema schema) {
+        pool.setSchema(schema);
+    }
+
+    @Override
+    public int getMaxParsers() {
+        return maxParsers;
+    }
+
+    @Override
+    public int getParsersInUse() {
+        return inUse.get();
+    }
+
+    @Override
+    public int getPeakParsersInUse() {
+        return peakInUse.get();
+    }
+
+    @Override
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getAverageWaitMicros() {
+        final long count = acquired.get();
+        return count > 0 ? totalWaitNanos.get() / count / 1000 : 0;
+    }
+
+    @Override
+    public long getMaxWaitMicros() {
+        return maxWaitNanos.get() / 1000;
+    }
+
+    @Override
+    public void resetStatistics() {
+        peakInUse.set(inUse.get());
+        acquired.set(0);
+        rejected.set(0);
+        totalWaitNanos.set(0);
+        maxWaitNanos.set(0);
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Waits for a parser to become available and records the time waited.
+     */
+    private void acquire() throws XMLParserException {
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new XMLParserException("No parser available within " + waitMillis + "ms");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            rejected.incrementAndGet();
+            throw new XMLParserException("Interrupted while waiting for a parser", ex);
+        }
+
+        final long waitNanos = System.nanoTime() - start;
+        acquired.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        updateMax(maxWaitNanos, waitNanos);
+        final int current = inUse.incrementAndGet();
+        int peak = peakInUse.get();
+        while (current > peak && !peakInUse.compareAndSet(peak, current)) {
+            peak = peakInUse.get();
+        }
+    }
+
+    /**
+     * Makes a parser available again.
+     */
+    private void release() {
+        inUse.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Atomically raises the given maximum to value if it is larger.
+     */
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+/**
+ * Management interface of the BoundedParserPool, exposed via JMX.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public interface BoundedParserPoolMBean {
+
+    /**
+     * @return Maximum number of parsers in use at the same time
+     */
+    public int getMaxParsers();
+
+    /**
+     * @return Number of parsers currently in use
+     */
+    public int getParsersInUse();
+
+    /**
+     * @return Highest number of parsers in use at the same time
+     */
+    public int getPeakParsersInUse();
+
+    /**
+     * @return Number of times a parser has been acquired (for parsing or
+     * creating a document)
+     */
+    public long getAcquired();
+
+    /**
+     * @return Number of times no parser could be acquired in time
+     */
+    public long getRejected();
+
+    /**
+     * @return Average time in microseconds waited for a parser
+     */
+    public long getAverageWaitMicros();
+
+    /**
+     * @return Longest time in microseconds waited for a parser
+     */
+    public long getMaxWaitMicros();
+
+    /**
+     * Resets all counters and timings.
+     */
+    public void resetStatistics();
+}
@@ -5,6 +5,7 @@
  */
 package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
 
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -17,7 +18,6 @@ import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerException;
 import org.joda.time.DateTime;
 import org.opensaml.Configuration;
-import org.opensaml.DefaultBootstrap;
 import org.opensaml.common.SAMLVersion;
 import org.opensaml.common.impl.SecureRandomIdentifierGenerator;
 import org.opensaml.common.xml.SAMLConstants;
@@ -39,8 +39,6 @@ import org.opensaml.xml.ConfigurationException;
 import org.opensaml.xml.io.MarshallingException;
 import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.security.SecurityException;
-import org.opensaml.xml.security.SecurityHelper;
-import org.opensaml.xml.security.credential.Credential;
 import org.opensaml.xml.signature.Signature;
 import org.opensaml.xml.signature.SignatureException;
 import org.opensaml.xml.signature.Signer;
@@ -59,7 +57,10 @@ public class ExtendedAttributeQueryBuilder extends MessageBuilder {
 
     private static final Logger logger = LoggerFactory.getLogger(ExtendedAttributeQueryBuilder.class);
     private static final StiamConfiguration config = StiamConfiguration.getInstance();
+    // Queries are signed with the default key, algorithms derived from its type
+    private static final RelyingParty QUERY_SIGNER = new RelyingParty(null, SigningProfile.BOTH, null, null, null);
     private final List<String[]> attributes;
+    private final String nameID;
 
 //////////////////////////////////////// Constructors
     /**
@@ -70,7 +71,21 @@ public class ExtendedAttributeQueryBuilder extends MessageBuilder {
      * consists of a String[] {name, nameformat, friendlyname}
      */
     public ExtendedAttributeQueryBuilder(List<String[]> attributes) {
+        this(attributes, config.getSAMLNameID());
+    }
+
+    /**
+     * Initializes a builder for extended attribute queries with the given
+     * attributes of the given subject.
+     *
+     * @param attributes The attributes to include in the query. An attribute
+     * consists of a String[] {name, nameformat, friendlyname}
+     * @param nameID NameID of the subject of the query and the included
+     * authentication statement
+     */
+    public ExtendedAttributeQueryBuilder(List<String[]> attributes, String nameID) {
         this.attributes = attributes;
+        this.nameID = nameID;
     }
 
 //////////////////////////////////////// Methods
@@ -101,7 +116,7 @@ public class ExtendedAttributeQueryBuilder extends MessageBuilder {
         logger.debug("Starting generation of extended attribute query...");
 
         //////////////////// Perform initial setup
-        DefaultBootstrap.bootstrap();
+        bootstrap();
         final SecureRandomIdentifierGenerator idGenerator = new SecureRandomIdentifierGenerator();
 
         final DateTime queryTime = DateTime.now();
@@ -129,7 +144,7 @@ public class ExtendedAttributeQueryBuilder extends MessageBuilder {
         // --> NameID of the Subject
         NameID queryNameID = (NameID) buildXMLObject(NameID.DEFAULT_ELEMENT_NAME);
         queryNameID.setFormat(config.getSAMLNameIDFormat());
-        queryNameID.setValue(config.getSAMLNameID());
+        queryNameID.setValue(nameID);
         querySubject.setNameID(queryNameID);
 
         // Attributes of the AttributeQuery
@@ -163,7 +178,7 @@ public class ExtendedAttributeQueryBuilder extends MessageBuilder {
         // --> -->  NameID for the Subject of the Assertion
         NameID assertionNameID = (NameID) buildXMLObject(NameID.DEFAULT_ELEMENT_NAME);
         assertionNameID.setFormat(config.getSAMLNameIDFormat());
-        assertionNameID.setValue(config.getSAMLNameID());
+        assertionNameID.setValue(nameID);
         assertionSubject.setNameID(assertionNameID);
 
         // --> -->  SubjectConfirmation for the Subject of the Assertion
@@ -205,11 +220,7 @@ public class ExtendedAttributeQueryBuilder extends MessageBuilder {
         authnContext.setAuthnContextClassRef(authnContextClassRef);
 
         //////////////////// Sign the assertion and add it to the query
-        Credential signingCredential = StiamConfiguration.getInstance().getSignatureCredential();
-        Signature assertionSignature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
-        assertionSignature.setSigningCredential(signingCredential);
-        SecurityHelper.prepareSignatureParams(assertionSignature, signingCredential, null, null);
-        assertion.setSignature(assertionSignature);
+        Signature assertionSignature = prepareSignature(assertion, QUERY_SIGNER);
         Configuration.getMarshallerFactory().getMarshaller(assertion).marshall(assertion);
         Signer.signObject(assertionSignature);
 
@@ -224,10 +235,7 @@ public class ExtendedAttributeQueryBuilder extends MessageBuilder {
         query.setExtensions(extensions);
 
         //////////////////// Sign the query
-        Signature querySignature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
-        querySignature.setSigningCredential(signingCredential);
-        SecurityHelper.prepareSignatureParams(querySignature, signingCredential, null, null);
-        query.setSignature(querySignature);
+        Signature querySignature = prepareSignature(query, QUERY_SIGNER);
         Configuration.getMarshallerFactory().getMarshaller(query).marshall(query);
         Signer.signObject(querySignature);
 
@@ -5,34 +5,32 @@
  */
 package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
 
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import javax.xml.namespace.QName;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.SignableSAMLObject;
 import org.opensaml.xml.ConfigurationException;
 import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.XMLObjectBuilder;
-import org.opensaml.xml.io.Marshaller;
 import org.opensaml.xml.io.MarshallingException;
-import org.opensaml.xml.parse.BasicParserPool;
 import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.signature.Signature;
 import org.opensaml.xml.signature.SignatureException;
 import org.opensaml.xml.util.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /**
  * This is the base class for all classes building SAML-messages. It provides
@@ -45,8 +43,23 @@ public abstract class MessageBuilder {
 //////////////////////////////////////// Fields
 
     private static final Logger logger = LoggerFactory.getLogger(MessageBuilder.class);
+    private static boolean bootstrapped = false;
 
 //////////////////////////////////////// Methods    
+    /**
+     * Initialises OpenSAML, unless this has already been done by a previous
+     * call. Bootstrapping takes several milliseconds and is thus done only
+     * once instead of for every message built.
+     *
+     * @throws ConfigurationException if OpenSAML cannot be initialised
+     */
+    protected static synchronized void bootstrap() throws ConfigurationException {
+        if (!bootstrapped) {
+            DefaultBootstrap.bootstrap();
+            bootstrapped = true;
+        }
+    }
+
     /**
      * Helper method for building XMLObjects according to a given
      * QName-instance. This method retrieves the appropriate builder for a given
@@ -68,7 +81,38 @@ public abstract class MessageBuilder {
     }
 
     /**
-     * Marshalls a given XMLObject to String
+     * Prepares the signature of a given object with the signing key and the
+     * algorithms configured for a relying party and attaches it to the
+     * object. If no signature algorithm is configured, it is derived from the
+     * type of the signing key (e.g. RSA or EC). The object has to be
+     * marshalled and signed using Signer.signObject() afterwards.
+     *
+     * The parameters are resolved once per thread and relying party
+     * configuration, see SigningContext.
+     *
+     * @param obj The object to be signed
+     * @param relyingParty The relying party the message is built for
+     * @return The prepared signature
+     * @throws IOException
+     * @throws KeyStoreException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableEntryException
+     * @throws SecurityException if no signature algorithm is known for the
+     * type of the signing key
+     */
+    protected Signature prepareSignature(SignableSAMLObject obj, RelyingParty relyingParty) throws IOException,
+            KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException,
+            SecurityException {
+        return SigningContext.getInstance(relyingParty).prepareSignature(obj);
+    }
+
+    /**
+     * Marshalls a given XMLObject to String. If the object has already been
+     * marshalled (e.g. for signing it), the existing DOM is serialized as it
+     * is instead of marshalling the object again, thus the serialized
+     * message is exactly the one which has been signed. Serialization is done
+     * by the SerializationEngine.
      *
      * @param obj The XMLObject to marshall
      * @return The marshalled String representation of obj
@@ -79,16 +123,20 @@ public abstract class MessageBuilder {
      */
     protected String marshallToString(XMLObject obj) throws MarshallingException, XMLParserException,
             TransformerConfigurationException, TransformerException {
-        logger.debug("Starting marshalling of extended attribute query...");
+        logger.debug("Starting marshalling of {}...", obj.getElementQName().getLocalPart());
 
-        final Marshaller marshaller = Configuration.getMarshallerFactory().getMarshaller(obj);
-        final Document doc = new BasicParserPool().newDocument();
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        final Element element = obj.getDOM() != null ? obj.getDOM()
+                : Configuration.getMarshallerFactory().getMarshaller(obj).marshall(obj);
+        final Document doc;
+        if (element.getOwnerDocument().getDocumentElement() == element) {
+            doc = element.getOwnerDocument();
+        } else {
+            // Not the root of its document, thus move it to a new one
+            doc = SerializationEngine.getInstance().newDocument();
+            Configuration.getMarshallerFactory().getMarshaller(obj).marshall(obj, doc);
+        }
 
-        marshaller.marshall(obj, doc);
-        transformer.transform(new DOMSource(doc), new StreamResult(outputStream));
-        final String xmlString = new String(outputStream.toByteArray());
+        final String xmlString = SerializationEngine.getInstance().serialize(doc);
 
         logger.debug("Done! Marshalled XML data: {} ", xmlString);
         return xmlString;
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes serialized SAML-messages for the HTTP-POST binding. The message is
+ * encoded with the given charset, Base64-encoded and escaped for the context
+ * it is embedded in, in a single pass through small buffers directly into an
+ * output stream. Unlike MessageBuilder.buildBase64(), no intermediate copies
+ * of the whole message are created.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class PostBindingEncoder {
+//////////////////////////////////////// Fields
+
+    /**
+     * The context the Base64-encoded message is embedded in
+     */
+    public enum Escaping {
+
+        /**
+         * The value of a double-quoted HTML-attribute, e.g. of the hidden
+         * input field of an auto-submitting form
+         */
+        HTML_ATTRIBUTE,
+        /**
+         * A value in a body of type application/x-www-form-urlencoded
+         */
+        FORM_URLENCODED
+    }
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=";
+    private static final int PADDING = 64;
+    private static final int CHUNK_SIZE = 3 * 1024;         // multiple of 3, chunks are encoded without padding
+    private static final int MAX_ESCAPED_LENGTH = 3;
+
+    private static final byte[][] HTML_ATTRIBUTE_TABLE = createTable(Escaping.HTML_ATTRIBUTE);
+    private static final byte[][] FORM_URLENCODED_TABLE = createTable(Escaping.FORM_URLENCODED);
+
+//////////////////////////////////////// Constructors
+    private PostBindingEncoder() {
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Encodes a message and writes it to the given output stream. The output
+     * stream is neither flushed nor closed.
+     *
+     * @param message The serialized message
+     * @param charset The charset for encoding the message before Base64
+     * @param escaping The context the result is embedded in
+     * @param out The stream to write the result to
+     * @throws IOException if writing to the stream fails
+     */
+    public static void encode(CharSequence message, Charset charset, Escaping escaping, OutputStream out)
+            throws IOException {
+        final byte[][] table = escaping == Escaping.FORM_URLENCODED ? FORM_URLENCODED_TABLE : HTML_ATTRIBUTE_TABLE;
+        final CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer in = CharBuffer.wrap(message);
+        final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+        final byte[] buffer = new byte[CHUNK_SIZE / 3 * 4 * MAX_ESCAPED_LENGTH];
+
+        boolean encoding = true;
+        boolean done;
+        do {
+            CoderResult result = null;
+            if (encoding) {
+                result = encoder.encode(in, bytes, true);
+                encoding = result.isOverflow();
+            }
+            if (!encoding) {
+                result = encoder.flush(bytes);
+            }
+            if (result.isError()) {
+                throw new CharacterCodingException();       // never happens, errors are replaced
+            }
+            done = !encoding && result.isUnderflow();
+
+            bytes.flip();
+            final int length = done ? bytes.remaining() : bytes.remaining() - bytes.remaining() % 3;
+            out.write(buffer, 0, encodeBlock(bytes.array(), bytes.position(), length, buffer, table));
+            bytes.position(bytes.position() + length);
+            bytes.compact();
+        } while (!done);
+    }
+
+    /**
+     * Calculates the length of the result of encode() in advance. This is
+     * only possible for UTF-8, where the length of the encoded message can be
+     * computed from the message itself, and for HTML-attributes, where no
+     * characters of the Base64-alphabet have to be escaped.
+     *
+     * @param message The serialized message
+     * @param charset The charset for encoding the message before Base64
+     * @param escaping The context the result is embedded in
+     * @return The number of bytes written by encode(), -1 if unknown
+     */
+    public static long encodedLength(CharSequence message, Charset charset, Escaping escaping) {
+        if (escaping != Escaping.HTML_ATTRIBUTE || !charset.name().equals(SerializationEngine.ENCODING)) {
+            return -1;
+        }
+        return (SerializationEngine.encodedLength(message, 0) + 2L) / 3 * 4;
+    }
+
+    /**
+     * Escapes a String for use as value of a double-quoted HTML-attribute.
+     *
+     * @param value The value to escape
+     * @return The escaped value
+     */
+    public static String escapeHTMLAttribute(String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '\'':
+                    sb.append("&#39;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Base64-encodes a block of bytes, padding the last group if the length
+     * is not a multiple of 3.
+     *
+     * @return The number of bytes written to dst
+     */
+    private static int encodeBlock(byte[] src, int offset, int length, byte[] dst, byte[][] table) {
+        final int end = offset + length;
+        int pos = 0;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            final int group = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            pos = put(dst, pos, table[group >>> 18]);
+            pos = put(dst, pos, table[(group >>> 12) & 0x3f]);
+            pos = put(dst, pos, table[(group >>> 6) & 0x3f]);
+            pos = put(dst, pos, table[group & 0x3f]);
+        }
+        if (i < end) {
+            final boolean two = i + 1 < end;
+            final int group = (src[i] & 0xff) << 16 | (two ? (src[i + 1] & 0xff) << 8 : 0);
+            pos = put(dst, pos, table[group >>> 18]);
+            pos = put(dst, pos, table[(group >>> 12) & 0x3f]);
+            pos = put(dst, pos, table[two ? (group >>> 6) & 0x3f : PADDING]);
+            pos = put(dst, pos, table[PADDING]);
+        }
+        return pos;
+    }
+
+    /**
+     * @return The position in dst after the given (escaped) character
+     */
+    private static int put(byte[] dst, int pos, byte[] character) {
+        if (character.length == 1) {
+            dst[pos] = character[0];
+            return pos + 1;
+        }
+        System.arraycopy(character, 0, dst, pos, character.length);
+        return pos + character.length;
+    }
+
+    /**
+     * @return A table with the escaped representation of every character of
+     * the Base64-alphabet, indexed by its value (padding at index 64)
+     */
+    private static byte[][] createTable(Escaping escaping) {
+        final byte[][] table = new byte[ALPHABET.length()][];
+        for (int i = 0; i < table.length; i++) {
+            final char c = ALPHABET.charAt(i);
+            if (escaping == Escaping.FORM_URLENCODED && (c == '+' || c == '/' || c == '=')) {
+                table[i] = new byte[]{'%', (byte) Character.toUpperCase(Character.forDigit(c >> 4, 16)),
+                    (byte) Character.toUpperCase(Character.forDigit(c & 0xf, 16))};
+            } else {
+                // no character of the Base64-alphabet needs escaping in HTML-attributes
+                table[i] = new byte[]{(byte) c};
+            }
+        }
+        return table;
+    }
+}
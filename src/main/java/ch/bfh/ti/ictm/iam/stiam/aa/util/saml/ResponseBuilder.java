@@ -5,6 +5,8 @@
  */
 package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
 
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingPartyConfiguration;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
 import java.io.IOException;
 import java.security.KeyStoreException;
@@ -15,7 +17,6 @@ import java.util.LinkedList;
 import javax.xml.transform.TransformerException;
 import org.joda.time.DateTime;
 import org.opensaml.Configuration;
-import org.opensaml.DefaultBootstrap;
 import org.opensaml.common.SAMLVersion;
 import org.opensaml.common.impl.SecureRandomIdentifierGenerator;
 import org.opensaml.saml2.core.Issuer;
@@ -26,8 +27,6 @@ import org.opensaml.xml.ConfigurationException;
 import org.opensaml.xml.io.MarshallingException;
 import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.security.SecurityException;
-import org.opensaml.xml.security.SecurityHelper;
-import org.opensaml.xml.security.credential.Credential;
 import org.opensaml.xml.signature.Signature;
 import org.opensaml.xml.signature.SignatureException;
 import org.opensaml.xml.signature.Signer;
@@ -50,6 +49,8 @@ public class ResponseBuilder extends MessageBuilder {
     protected final String inResponseTo;
     protected final String[] statusCodes;
     protected final DateTime issueInstant;
+    protected final RelyingParty relyingParty;
+    protected final SigningProfile signingProfile;
 
     /**
      * A status-code defined by SAML 2.0
@@ -90,11 +91,15 @@ public class ResponseBuilder extends MessageBuilder {
         this.destination = "";
         this.inResponseTo = "";
         this.statusCodes = new String[]{STATUS_CODE_SUCCESS};
+        this.relyingParty = RelyingPartyConfiguration.getInstance().getDefaultRelyingParty();
+        this.signingProfile = SigningProfile.BOTH;
         issueInstant = DateTime.now();
     }
 
     /**
      * Initialises a builder for status responses with the given status codes.
+     * The signing profile, key and algorithms are taken from the configuration
+     * of the relying party given as destination.
      *
      * @param destination The recipient of the response
      * @param inResponseTo ID from the requesting extended responseAttribute
@@ -104,11 +109,33 @@ public class ResponseBuilder extends MessageBuilder {
      * @throws java.security.NoSuchAlgorithmException
      */
     public ResponseBuilder(String destination, String inResponseTo, String[] statusCodes) throws ConfigurationException, NoSuchAlgorithmException {
+        this(destination, inResponseTo, statusCodes,
+                RelyingPartyConfiguration.getInstance().getRelyingParty(destination).getSigningProfile());
+    }
+
+    /**
+     * Initialises a builder for status responses with the given status codes
+     * and an explicit signing profile. Status responses are signed if the
+     * profile signs responses, using the key and algorithms configured for the
+     * relying party given as destination.
+     *
+     * @param destination The recipient of the response
+     * @param inResponseTo ID from the requesting extended responseAttribute
+     * query
+     * @param statusCodes An array of statuscodes to include in the response
+     * @param signingProfile Defines which elements of the response get signed
+     * @throws org.opensaml.xml.ConfigurationException
+     * @throws java.security.NoSuchAlgorithmException
+     */
+    public ResponseBuilder(String destination, String inResponseTo, String[] statusCodes,
+            SigningProfile signingProfile) throws ConfigurationException, NoSuchAlgorithmException {
         this.destination = destination;
         this.inResponseTo = inResponseTo;
         this.statusCodes = statusCodes;
+        this.relyingParty = RelyingPartyConfiguration.getInstance().getRelyingParty(destination);
+        this.signingProfile = signingProfile;
 
-        DefaultBootstrap.bootstrap();
+        bootstrap();
         issueInstant = DateTime.now();
     }
 
@@ -137,15 +164,13 @@ public class ResponseBuilder extends MessageBuilder {
         final Response response = buildRawResponse();
 
         //////////////////// Sign the response
-        final Credential signingCredential = StiamConfiguration.getInstance().getSignatureCredential();
-        final Signature responseSignature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
-        responseSignature.setSigningCredential(signingCredential);
-        SecurityHelper.prepareSignatureParams(responseSignature, signingCredential, null, null);
-        response.setSignature(responseSignature);
-        Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
-        Signer.signObject(responseSignature);
-
-        logger.debug("Attribute response generated!");
+        if (signingProfile.signsResponse()) {
+            final Signature responseSignature = prepareSignature(response, relyingParty);
+            Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+            Signer.signObject(responseSignature);
+        }
+
+        logger.debug("Status response generated!");
         return marshallToString(response);
     }
 
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.opensaml.xml.parse.XMLParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Holds the resources needed for serializing SAML-messages, which are
+ * expensive to create and thus shared: A single, bounded parser pool for
+ * parsing and creating documents, one TransformerFactory and per thread a
+ * Transformer and an output buffer which are reused for every message
+ * serialized by the thread.
+ *
+ * This class is a singleton.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class SerializationEngine {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(SerializationEngine.class);
+    private static final SerializationEngine instance = new SerializationEngine();
+
+    /**
+     * Encoding of the serialized messages
+     */
+    public static final String ENCODING = "UTF-8";
+
+    /**
+     * Start of the SOAP 1.1 envelope wrapping messages sent by the AA
+     */
+    public static final String SOAP_ENVELOPE_START
+            = "<soap11:Envelope xmlns:soap11=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap11:Body>";
+
+    /**
+     * End of the SOAP 1.1 envelope wrapping messages sent by the AA
+     */
+    public static final String SOAP_ENVELOPE_END = "</soap11:Body></soap11:Envelope>";
+
+    /**
+     * XML-declaration preceding the SOAP envelopes sent by the AA
+     */
+    public static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+    private static final Charset UTF8 = Charset.forName(ENCODING);
+    private static final byte[] SOAP_ENVELOPE_PREFIX = (XML_DECLARATION + SOAP_ENVELOPE_START).getBytes(UTF8);
+    private static final byte[] SOAP_ENVELOPE_SUFFIX = SOAP_ENVELOPE_END.getBytes(UTF8);
+
+    // Buffers grown beyond this size are not kept for the next message
+    private static final int MAX_RECYCLED_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final BoundedParserPool parserPool;
+    private final TransformerFactory transformerFactory;
+    private final ThreadLocal<Transformer> transformers = new ThreadLocal<>();
+    private final ThreadLocal<ByteArrayOutputStream> buffers = new ThreadLocal<>();
+
+//////////////////////////////////////// Constructors
+    /**
+     * Private constructor, sets up the shared parser pool and transformer
+     * factory.
+     */
+    private SerializationEngine() {
+        final StiamConfiguration config = StiamConfiguration.getInstance();
+        parserPool = new BoundedParserPool(config.getParserPoolSize(), config.getParserPoolWaitMillis());
+        transformerFactory = TransformerFactory.newInstance();
+        logger.debug("Serialization engine initialized using {}", transformerFactory.getClass().getName());
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * @return The one and only instance of this class. (Singleton)
+     */
+    public static SerializationEngine getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return The parser pool shared by all users of the engine, including
+     * the message decoders of the AttributeService
+     */
+    public BoundedParserPool getParserPool() {
+        return parserPool;
+    }
+
+    /**
+     * @return A new, empty document
+     * @throws XMLParserException
+     */
+    public Document newDocument() throws XMLParserException {
+        return parserPool.newDocument();
+    }
+
+    /**
+     * Serializes a DOM-node (usually a whole document) to a String, including
+     * an XML-declaration.
+     *
+     * @param node The node to serialize
+     * @return The serialized node
+     * @throws TransformerConfigurationException
+     * @throws TransformerException
+     */
+    public String serialize(Node node) throws TransformerConfigurationException, TransformerException {
+        final ByteArrayOutputStream buffer = getBuffer();
+        try {
+            getTransformer().transform(new DOMSource(node), new StreamResult(buffer));
+            return buffer.toString(ENCODING);
+        } catch (UnsupportedEncodingException ex) {
+            throw new TransformerException(ex);     // never happens, UTF-8 is always supported
+        } finally {
+            recycleBuffer(buffer);
+        }
+    }
+
+    /**
+     * Wraps a serialized message in a SOAP 1.1 envelope, preceded by an
+     * XML-declaration, and encodes it as UTF-8. The XML-declaration of the
+     * message (if present) is removed. The message is encoded directly into
+     * an array of exactly the size of the envelope, which thus can be written
+     * as it is with the corresponding Content-Length.
+     *
+     * @param message The serialized message
+     * @return The UTF-8 encoded envelope containing the message
+     */
+    public byte[] encodeSOAPEnvelope(String message) {
+        return encodeSOAPEnvelope(Collections.singletonList(message));
+    }
+
+    /**
+     * Wraps several serialized messages in one SOAP 1.1 envelope, in the
+     * given order, see encodeSOAPEnvelope(String).
+     *
+     * @param messages The serialized messages
+     * @return The UTF-8 encoded envelope containing the messages
+     */
+    public byte[] encodeSOAPEnvelope(List<String> messages) {
+        final int[] starts = new int[messages.size()];
+        int length = SOAP_ENVELOPE_PREFIX.length + SOAP_ENVELOPE_SUFFIX.length;
+        for (int i = 0; i < starts.length; i++) {
+            final String message = messages.get(i);
+            if (message.startsWith("<?xml")) {
+                starts[i] = message.indexOf("?>") + 2;
+            }
+            length += encodedLength(message, starts[i]);
+        }
+
+        final byte[] envelope = new byte[length];
+        System.arraycopy(SOAP_ENVELOPE_PREFIX, 0, envelope, 0, SOAP_ENVELOPE_PREFIX.length);
+
+        final ByteBuffer out = ByteBuffer.wrap(envelope, SOAP_ENVELOPE_PREFIX.length,
+                length - SOAP_ENVELOPE_PREFIX.length - SOAP_ENVELOPE_SUFFIX.length);
+        final CharsetEncoder encoder = UTF8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        for (int i = 0; i < starts.length; i++) {
+            final String message = messages.get(i);
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(message, starts[i], message.length()), out, true);
+            encoder.flush(out);
+        }
+
+        System.arraycopy(SOAP_ENVELOPE_SUFFIX, 0, envelope, out.position(), SOAP_ENVELOPE_SUFFIX.length);
+        return envelope;
+    }
+
+    /**
+     * @return The number of bytes needed for encoding the given String
+     * (starting at the given index) as UTF-8, with unpaired surrogates
+     * replaced by '?'
+     */
+    static int encodedLength(CharSequence s, int start) {
+        int length = 0;
+        for (int i = start; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return The transformer of the current thread, reset to its initial
+     * state
+     */
+    private Transformer getTransformer() throws TransformerConfigurationException {
+        Transformer transformer = transformers.get();
+        if (transformer == null) {
+            synchronized (transformerFactory) {     // factories are not guaranteed to be thread-safe
+                transformer = transformerFactory.newTransformer();
+            }
+            transformers.set(transformer);
+        } else {
+            transformer.reset();
+        }
+        return transformer;
+    }
+
+    /**
+     * @return The empty output buffer of the current thread
+     */
+    private ByteArrayOutputStream getBuffer() {
+        final ByteArrayOutputStream buffer = buffers.get();
+        if (buffer == null) {
+            return new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        }
+        buffers.remove();   // not available for nested use until recycled
+        return buffer;
+    }
+
+    /**
+     * Keeps an output buffer for the next message of the current thread,
+     * unless it has grown too large.
+     */
+    private void recycleBuffer(ByteArrayOutputStream buffer) {
+        if (buffer.size() <= MAX_RECYCLED_BUFFER_SIZE) {
+            buffer.reset();
+            buffers.set(buffer);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.algorithms.implementations.SignatureECDSA;
+import org.opensaml.Configuration;
+import org.opensaml.common.SignableSAMLObject;
+import org.opensaml.common.impl.SAMLObjectContentReference;
+import org.opensaml.xml.XMLObjectBuilderFactory;
+import org.opensaml.xml.security.SecurityConfiguration;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.SecurityHelper;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.opensaml.xml.signature.ContentReference;
+import org.opensaml.xml.signature.KeyInfo;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.X509Certificate;
+import org.opensaml.xml.signature.X509Data;
+import org.opensaml.xml.util.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Everything needed to prepare signatures with a given signing key and
+ * algorithms, resolved once and then reused for all messages signed by the
+ * same thread. This avoids looking up the credential, the algorithms and the
+ * KeyInfo-generator and encoding the certificate again for every signature.
+ *
+ * Contexts are confined to the thread which obtained them and must not be
+ * shared. A context is rebuilt if the credential it was created for has been
+ * replaced (e.g. after the keystore has been reloaded).
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+final class SigningContext {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(SigningContext.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final ThreadLocal<Map<String, SigningContext>> contexts = new ThreadLocal<Map<String, SigningContext>>() {
+        @Override
+        protected Map<String, SigningContext> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private final Credential credential;
+    private final String signatureAlgorithm;
+    private final String canonicalizationAlgorithm;
+    private final Integer hmacOutputLength;
+    private final String digestAlgorithm;
+    private final String encodedCertificate;
+
+    // Engines for signing canonical bytes directly, created when first needed
+    private MessageDigest digestEngine;
+    private java.security.Signature signatureEngine;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Resolves the signature parameters for the given credential and the
+     * algorithms configured for a relying party.
+     */
+    private SigningContext(Credential credential, RelyingParty relyingParty) throws SecurityException {
+        this.credential = credential;
+
+        final SecurityConfiguration securityConfig = Configuration.getGlobalSecurityConfiguration();
+        signatureAlgorithm = relyingParty.getSignatureAlgorithm() != null
+                ? relyingParty.getSignatureAlgorithm()
+                : securityConfig.getSignatureAlgorithmURI(credential);
+        if (signatureAlgorithm == null) {
+            throw new SecurityException("No signature algorithm known for keys of type '"
+                    + SecurityHelper.extractSigningKey(credential).getAlgorithm() + "'!");
+        }
+        canonicalizationAlgorithm = securityConfig.getSignatureCanonicalizationAlgorithm();
+        hmacOutputLength = SecurityHelper.isHMAC(signatureAlgorithm)
+                ? securityConfig.getSignatureHMACOutputLength() : null;
+        digestAlgorithm = relyingParty.getDigestAlgorithm();
+
+        if (credential instanceof X509Credential && ((X509Credential) credential).getEntityCertificate() != null) {
+            try {
+                encodedCertificate = Base64.encodeBytes(((X509Credential) credential).getEntityCertificate().getEncoded());
+            } catch (CertificateEncodingException ex) {
+                throw new SecurityException("Unable to encode signing certificate: " + ex.getMessage(), ex);
+            }
+        } else {
+            encodedCertificate = null;
+        }
+        logger.debug("Created signing context for {} on thread {}", relyingParty, Thread.currentThread().getName());
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Returns the context of the current thread for the signing key and the
+     * algorithms configured for the given relying party, creating it if
+     * necessary.
+     *
+     * @param relyingParty The relying party messages are signed for
+     * @return The signing context
+     * @throws IOException
+     * @throws KeyStoreException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableEntryException
+     * @throws SecurityException if no signature algorithm is known for the
+     * type of the signing key
+     */
+    static SigningContext getInstance(RelyingParty relyingParty) throws IOException, KeyStoreException,
+            NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, SecurityException {
+        final StiamConfiguration config = StiamConfiguration.getInstance();
+        final Credential credential = relyingParty.getSigningKeyAlias() != null
+                ? config.getCredential(relyingParty.getSigningKeyAlias())
+                : config.getSignatureCredential();
+
+        final String key = relyingParty.getSigningKeyAlias() + "\n" + relyingParty.getSignatureAlgorithm()
+                + "\n" + relyingParty.getDigestAlgorithm();
+        final Map<String, SigningContext> threadContexts = contexts.get();
+        SigningContext context = threadContexts.get(key);
+        if (context == null || context.credential != credential) {
+            context = new SigningContext(credential, relyingParty);
+            threadContexts.put(key, context);
+        }
+        return context;
+    }
+
+    /**
+     * Prepares the signature of a given object and attaches it to the object.
+     * The result is equivalent to the one of
+     * SecurityHelper.prepareSignatureParams() with the global security
+     * configuration.
+     *
+     * @param obj The object to be signed
+     * @return The prepared signature
+     * @throws SecurityException if the KeyInfo cannot be generated
+     */
+    Signature prepareSignature(SignableSAMLObject obj) throws SecurityException {
+        final XMLObjectBuilderFactory builderFactory = Configuration.getBuilderFactory();
+        final Signature signature = (Signature) builderFactory.getBuilder(Signature.DEFAULT_ELEMENT_NAME)
+                .buildObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(credential);
+        signature.setSignatureAlgorithm(signatureAlgorithm);
+        signature.setCanonicalizationAlgorithm(canonicalizationAlgorithm);
+        signature.setHMACOutputLength(hmacOutputLength);
+        signature.setKeyInfo(buildKeyInfo(builderFactory));
+        obj.setSignature(signature);
+
+        if (digestAlgorithm != null) {
+            for (ContentReference reference : signature.getContentReferences()) {
+                if (reference instanceof SAMLObjectContentReference) {
+                    ((SAMLObjectContentReference) reference).setDigestAlgorithm(digestAlgorithm);
+                }
+            }
+        }
+
+        return signature;
+    }
+
+    /**
+     * Tells whether signatures can be computed by this context from
+     * canonicalized bytes directly, see digest() and sign(). This requires
+     * exclusive canonicalization, a private key and a certificate.
+     *
+     * @return true if digest() and sign() can be used
+     */
+    boolean signsCanonicalBytes() {
+        return encodedCertificate != null && hmacOutputLength == null
+                && !SecurityHelper.isHMAC(signatureAlgorithm)
+                && SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS.equals(canonicalizationAlgorithm)
+                && SecurityHelper.extractSigningKey(credential) instanceof PrivateKey;
+    }
+
+    /**
+     * @return URI of the signature algorithm
+     */
+    String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * @return URI of the canonicalization algorithm
+     */
+    String getCanonicalizationAlgorithm() {
+        return canonicalizationAlgorithm;
+    }
+
+    /**
+     * @return URI of the digest algorithm, SHA-1 if none is configured (as
+     * with OpenSAML)
+     */
+    String getDigestAlgorithm() {
+        return digestAlgorithm != null ? digestAlgorithm : SignatureConstants.ALGO_ID_DIGEST_SHA1;
+    }
+
+    /**
+     * @return The Base64-encoded signing certificate, null if the credential
+     * has none
+     */
+    String getEncodedCertificate() {
+        return encodedCertificate;
+    }
+
+    /**
+     * Computes the digest of canonicalized XML.
+     *
+     * @param canonical The canonical form of the referenced element
+     * @return The digest value
+     * @throws SecurityException if the digest algorithm is not available
+     */
+    byte[] digest(CharSequence canonical) throws SecurityException {
+        if (digestEngine == null) {
+            try {
+                digestEngine = MessageDigest.getInstance(JCEMapper.translateURItoJCEID(getDigestAlgorithm()));
+            } catch (NoSuchAlgorithmException ex) {
+                throw new SecurityException("Digest algorithm not available: " + getDigestAlgorithm(), ex);
+            }
+        }
+        return digestEngine.digest(canonical.toString().getBytes(UTF8));
+    }
+
+    /**
+     * Computes the signature value of canonicalized XML (i.e. SignedInfo). The
+     * value is returned as required by XML signature, for ECDSA as the
+     * concatenation of r and s.
+     *
+     * @param canonical The canonical form of the SignedInfo
+     * @return The signature value
+     * @throws SecurityException if signing fails
+     */
+    byte[] sign(CharSequence canonical) throws SecurityException {
+        final Key key = SecurityHelper.extractSigningKey(credential);
+        try {
+            if (signatureEngine == null) {
+                signatureEngine = java.security.Signature.getInstance(JCEMapper.translateURItoJCEID(signatureAlgorithm));
+                signatureEngine.initSign((PrivateKey) key);
+            }
+            signatureEngine.update(canonical.toString().getBytes(UTF8));
+            final byte[] value = signatureEngine.sign();
+            return "EC".equals(key.getAlgorithm()) ? SignatureECDSA.convertASN1toXMLDSIG(value) : value;
+        } catch (GeneralSecurityException | IOException ex) {
+            signatureEngine = null;
+            throw new SecurityException("Unable to sign: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Builds the KeyInfo containing the (already encoded) signing
+     * certificate. Credentials without certificate fall back to the
+     * configured KeyInfo-generator.
+     */
+    private KeyInfo buildKeyInfo(XMLObjectBuilderFactory builderFactory) throws SecurityException {
+        if (encodedCertificate == null) {
+            return SecurityHelper.getKeyInfoGenerator(credential, null, null).generate(credential);
+        }
+
+        final X509Certificate certificate = (X509Certificate) builderFactory.getBuilder(X509Certificate.DEFAULT_ELEMENT_NAME)
+                .buildObject(X509Certificate.DEFAULT_ELEMENT_NAME);
+        certificate.setValue(encodedCertificate);
+        final X509Data data = (X509Data) builderFactory.getBuilder(X509Data.DEFAULT_ELEMENT_NAME)
+                .buildObject(X509Data.DEFAULT_ELEMENT_NAME);
+        data.getX509Certificates().add(certificate);
+        final KeyInfo keyInfo = (KeyInfo) builderFactory.getBuilder(KeyInfo.DEFAULT_ELEMENT_NAME)
+                .buildObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+        keyInfo.getX509Datas().add(data);
+        return keyInfo;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+/**
+ * Defines which elements of a response get signed. Every signature costs a
+ * private key operation, thus relying parties which only verify one of the
+ * two signatures should be configured accordingly.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public enum SigningProfile {
+
+    /**
+     * Nothing gets signed, only for relying parties trusting the transport.
+     */
+    NONE(false, false),
+    /**
+     * Only the assertion of an attribute response gets signed, status
+     * responses are not signed at all.
+     */
+    ASSERTION(true, false),
+    /**
+     * Only the enclosing response gets signed.
+     */
+    RESPONSE(false, true),
+    /**
+     * Assertion and response get signed.
+     */
+    BOTH(true, true);
+
+//////////////////////////////////////// Fields
+    private final boolean signAssertion;
+    private final boolean signResponse;
+
+//////////////////////////////////////// Constructors
+    private SigningProfile(boolean signAssertion, boolean signResponse) {
+        this.signAssertion = signAssertion;
+        this.signResponse = signResponse;
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * @return true if the assertion of an attribute response gets signed
+     */
+    public boolean signsAssertion() {
+        return signAssertion;
+    }
+
+    /**
+     * @return true if the (outermost) response gets signed
+     */
+    public boolean signsResponse() {
+        return signResponse;
+    }
+
+    /**
+     * Parses a profile from its (case-insensitive) name.
+     *
+     * @param name Name of the profile, e.g. "assertion"
+     * @param defaultProfile Profile returned if name is null or unknown
+     * @return The matching profile
+     */
+    public static SigningProfile fromString(String name, SigningProfile defaultProfile) {
+        if (name != null) {
+            for (SigningProfile profile : values()) {
+                if (profile.name().equalsIgnoreCase(name.trim())) {
+                    return profile;
+                }
+            }
+        }
+        return defaultProfile;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingPartyConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.util.Collection;
+import javax.xml.transform.TransformerException;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.opensaml.Configuration;
+import org.opensaml.common.IdentifierGenerator;
+import org.opensaml.common.impl.SecureRandomIdentifierGenerator;
+import org.opensaml.xml.ConfigurationException;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.parse.XMLParserException;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.signature.SignatureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class builds SAML attribute responses equivalent to the ones of
+ * AttributeResponseBuilder, but without building, marshalling and signing
+ * OpenSAML-objects. Instead, the responses are rendered from a precompiled
+ * template per destination and set of attributes, already in canonical form,
+ * which is digested and signed directly (see AttributeResponseTemplate).
+ *
+ * If the signing key or the configured algorithms do not permit this (no
+ * X.509 certificate, HMAC or another canonicalization algorithm than
+ * exclusive c14n), the response is built by AttributeResponseBuilder instead.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class TemplateAttributeResponseBuilder extends MessageBuilder {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(TemplateAttributeResponseBuilder.class);
+    private static final StiamConfiguration config = StiamConfiguration.getInstance();
+    private static IdentifierGenerator idGenerator;
+
+    private final String destination;
+    private final String inResponseTo;
+    private final String nameId;
+    private final Collection<Attribute> attributes;
+    private final SigningProfile signingProfile;
+    private final RelyingParty relyingParty;
+    private final DateTime issueInstant;
+
+//////////////////////////////////////// Constructors
+    /**
+     * Initializes a builder for attribute-responses with the given attributes.
+     * The signing profile, key and algorithms are taken from the configuration
+     * of the relying party given as destination.
+     *
+     * @param destination The recipient of the response
+     * @param inResponseTo ID from the requesting extended attribute query
+     * @param nameId NameID of the subject belonging to the attributes
+     * @param attributes The attributes to include in the response
+     * @throws ConfigurationException
+     * @throws NoSuchAlgorithmException
+     */
+    public TemplateAttributeResponseBuilder(String destination, String inResponseTo,
+            String nameId, Collection<Attribute> attributes) throws ConfigurationException, NoSuchAlgorithmException {
+        this(destination, inResponseTo, nameId, attributes,
+                RelyingPartyConfiguration.getInstance().getRelyingParty(destination).getSigningProfile());
+    }
+
+    /**
+     * Initializes a builder for attribute-responses with the given attributes
+     * and an explicit signing profile.
+     *
+     * @param destination The recipient of the response
+     * @param inResponseTo ID from the requesting extended attribute query
+     * @param nameId NameID of the subject belonging to the attributes
+     * @param attributes The attributes to include in the response
+     * @param signingProfile Defines which elements of the response get signed
+     * @throws ConfigurationException
+     * @throws NoSuchAlgorithmException
+     */
+    public TemplateAttributeResponseBuilder(String destination, String inResponseTo, String nameId,
+            Collection<Attribute> attributes, SigningProfile signingProfile) throws ConfigurationException, NoSuchAlgorithmException {
+        this.destination = destination;
+        this.inResponseTo = inResponseTo;
+        this.nameId = nameId;
+        this.attributes = attributes;
+        this.signingProfile = signingProfile;
+        this.relyingParty = RelyingPartyConfiguration.getInstance().getRelyingParty(destination);
+
+        bootstrap();
+        synchronized (TemplateAttributeResponseBuilder.class) {
+            if (idGenerator == null) {
+                idGenerator = new SecureRandomIdentifierGenerator();
+            }
+        }
+        issueInstant = DateTime.now();
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Renders the attribute response from its template.
+     *
+     * @return The attribute response, including an XML-declaration
+     * @throws ConfigurationException
+     * @throws NoSuchAlgorithmException
+     * @throws IOException
+     * @throws KeyStoreException
+     * @throws CertificateException
+     * @throws UnrecoverableEntryException
+     * @throws SecurityException
+     * @throws MarshallingException
+     * @throws SignatureException
+     * @throws XMLParserException
+     * @throws TransformerException
+     */
+    @Override
+    public String build() throws ConfigurationException, NoSuchAlgorithmException, IOException, KeyStoreException,
+            CertificateException, UnrecoverableEntryException, SecurityException, MarshallingException,
+            SignatureException, XMLParserException, TransformerException {
+        SigningContext context = null;
+        if (signingProfile != SigningProfile.NONE) {
+            context = SigningContext.getInstance(relyingParty);
+            if (!context.signsCanonicalBytes()) {
+                logger.debug("Signing parameters not supported by templates, building response with OpenSAML");
+                return new AttributeResponseBuilder(destination, inResponseTo, nameId, attributes, signingProfile).build();
+            }
+        }
+
+        logger.debug("Rendering attribute response from template...");
+        final DateTimeFormatter formatter = Configuration.getSAMLDateFormatter();
+        final String response = AttributeResponseTemplate
+                .getInstance(destination, config.getSAMLIssuer(), config.getSAMLNameIDFormat(), attributes)
+                .render(idGenerator.generateIdentifier(), idGenerator.generateIdentifier(), inResponseTo,
+                        formatter.print(issueInstant),
+                        formatter.print(issueInstant.plusMinutes(config.getSAMLAssertionValidityMinutes())),
+                        nameId, attributes, signingProfile, context);
+
+        logger.debug("Attribute response rendered: {}", response);
+        return response;
+    }
+}
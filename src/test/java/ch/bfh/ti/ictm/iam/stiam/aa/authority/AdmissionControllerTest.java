@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Testsuite for the AdmissionController
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class AdmissionControllerTest {
+
+    /**
+     * Tests that queries beyond the limit are shed after waiting and the
+     * statistics are recorded.
+     */
+    @Test
+    public void testShedAfterWait() {
+        final AdmissionController controller = new AdmissionController(2, 1, 20);
+        assertTrue(controller.admit());
+        assertTrue(controller.admit());
+        assertThat(controller.getInFlight(), is(2));
+
+        assertFalse(controller.admit());
+        assertThat(controller.getShed(), is(1L));
+        assertThat(controller.getQueued(), is(0));
+
+        controller.release();
+        assertTrue(controller.admit());
+        assertThat(controller.getAdmitted(), is(3L));
+        assertThat(controller.getPeakInFlight(), is(2));
+    }
+
+    /**
+     * Tests that a waiting query is admitted once another one is released,
+     * while queries exceeding the wait queue are shed immediately.
+     *
+     * @throws Exception if waiting fails
+     */
+    @Test
+    public void testQueue() throws Exception {
+        final AdmissionController controller = new AdmissionController(1, 1, 10000);
+        assertTrue(controller.admit());
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> waiting = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return controller.admit();
+                }
+            });
+            while (controller.getQueued() == 0) {
+                Thread.sleep(1);
+            }
+
+            final long start = System.nanoTime();
+            assertFalse(controller.admit());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+            controller.release();
+            assertTrue(waiting.get(5, TimeUnit.SECONDS));
+            assertThat(controller.getInFlight(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that further queries of a batch are admitted only within the
+     * capacity left and are released together.
+     */
+    @Test
+    public void testAdmitMore() {
+        final AdmissionController controller = new AdmissionController(4, 0, 0);
+        assertTrue(controller.admit());
+        assertTrue(controller.admitMore(2));
+        assertThat(controller.getInFlight(), is(3));
+        assertThat(controller.getAdmitted(), is(3L));
+
+        assertTrue(controller.admit());
+        assertFalse(controller.admitMore(2));
+        assertThat(controller.getShed(), is(2L));
+        assertThat(controller.getInFlight(), is(4));
+
+        controller.release(3);
+        assertThat(controller.getInFlight(), is(1));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.http.HttpServletResponse;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Testsuite for the AsyncResponse
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class AsyncResponseTest {
+
+    /**
+     * Tests that a query timing out is answered by the container, while the
+     * hook is only run once the workers complete it.
+     *
+     * @throws Exception if writing the response fails
+     */
+    @Test
+    public void testHookAfterTimeout() throws Exception {
+        final HttpServletResponse res = mock(HttpServletResponse.class);
+        when(res.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        final AsyncContext context = mock(AsyncContext.class);
+        when(context.getResponse()).thenReturn(res);
+        final AtomicInteger runs = new AtomicInteger();
+        final AsyncResponse response = new AsyncResponse(context, 1000, new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+
+        final AsyncEvent event = new AsyncEvent(context);
+        response.onTimeout(event);
+        response.onComplete(event);
+        verify(res).setStatus(503);
+        verify(context).complete();
+        assertThat(runs.get(), is(0));
+
+        response.setStatus(200);
+        response.complete();
+        verify(res, never()).setStatus(200);
+        verify(context, times(1)).complete();
+        assertThat(runs.get(), is(1));
+
+        response.complete();
+        assertThat(runs.get(), is(1));
+    }
+
+    /**
+     * Tests that a query answered by the workers is completed and the hook
+     * run once.
+     */
+    @Test
+    public void testHookAfterCompletion() {
+        final HttpServletResponse res = mock(HttpServletResponse.class);
+        final AsyncContext context = mock(AsyncContext.class);
+        when(context.getResponse()).thenReturn(res);
+        final AtomicInteger runs = new AtomicInteger();
+        final AsyncResponse response = new AsyncResponse(context, 0, new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+
+        response.setStatus(200);
+        response.complete();
+        response.onComplete(new AsyncEvent(context));
+        verify(res).setStatus(200);
+        verify(context).complete();
+        assertThat(runs.get(), is(1));
+    }
+}
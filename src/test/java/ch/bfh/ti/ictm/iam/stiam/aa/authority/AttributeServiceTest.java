@@ -5,37 +5,63 @@
  */
 package ch.bfh.ti.ictm.iam.stiam.aa.authority;
 
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.Directory;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryException;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.ldap.NameIDNotFoundException;
 import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
 import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.ExtendedAttributeQueryBuilder;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.net.URLEncoder;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.AsyncContext;
 import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.TransformerException;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import org.junit.AfterClass;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.opensaml.xml.ConfigurationException;
 import org.opensaml.xml.io.MarshallingException;
 import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.x509.X509Credential;
 import org.opensaml.xml.signature.SignatureException;
 
 /**
@@ -57,12 +83,49 @@ public class AttributeServiceTest {
     private static abstract class ServletResponseStub implements HttpServletResponse {
 
         private int statusCode = 0;
+        private int contentLength = -1;
+        private ByteArrayOutputStream content;
 
         @Override
         public int getStatus() {
             return statusCode;
         }
 
+        @Override
+        public void setContentLength(int len) {
+            this.contentLength = len;
+        }
+
+        public int getContentLength() {
+            return contentLength;
+        }
+
+        public byte[] getContent() {
+            return content == null ? new byte[0] : content.toByteArray();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (content == null) {      // mocks are not initialised by a constructor
+                content = new ByteArrayOutputStream();
+            }
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    content.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            };
+        }
+
         @Override
         public void setStatus(int sc) {
             this.statusCode = sc;
@@ -142,6 +205,39 @@ public class AttributeServiceTest {
         assertThat(res.getStatus(), is(200));
     }
 
+    /**
+     * Test doGet() on the readiness path, which reports the authority as ready
+     * once the warm-up has finished
+     *
+     * @throws Exception if the request fails
+     */
+    @Test
+    public void testAttributeServiceGETReadiness() throws Exception {
+        final AttributeService as = new AttributeService();
+
+        final HttpServletRequest req = mockEmptyRequest();
+        when(req.getServletPath()).thenReturn(StiamConfiguration.getInstance().getReadinessPath());
+        final HttpServletResponse res = mockResponse();
+        as.init();
+        as.doGet(req, res);
+        assertThat(res.getStatus(), is(AttributeService.isReady() ? 200 : 503));
+        if (StiamConfiguration.getInstance().getWarmupQueries() == 0) {
+            assertTrue(AttributeService.isReady());
+        }
+    }
+
+    /**
+     * Test that the warm-up queries are answered successfully
+     *
+     * @throws Exception if initialization fails
+     */
+    @Test
+    public void testWarmUp() throws Exception {
+        final AttributeService as = new AttributeService();
+        as.init();
+        assertThat(as.warmUp(3), is(3));
+    }
+
     /**
      * Test doPost() with a mocked request
      */
@@ -149,7 +245,7 @@ public class AttributeServiceTest {
     public void testAttributeServicePOSTAttributeRequest() {
         final AttributeService as = new AttributeService();
 
-        final HttpServletResponse res = mockResponse();
+        final ServletResponseStub res = mockResponse();
         try {
             as.init();
             as.doPost(mockAttributeRequest(), res);
@@ -157,14 +253,271 @@ public class AttributeServiceTest {
             fail("Error while testing servlet: " + ex.toString());
         }
         assertThat(res.getStatus(), is(200));
+        if (StiamConfiguration.getInstance().getBinding() == StiamConfiguration.Binding.SOAP) {
+            final byte[] content = res.getContent();
+            assertThat(res.getContentLength(), is(content.length));
+            assertTrue(new String(content, StandardCharsets.UTF_8).startsWith(
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<soap11:Envelope "));
+        }
+    }
+
+    /**
+     * Test doPost() with a query for a subject not eligible: It is rejected
+     * with the generic status, not disclosing whether the subject is known.
+     *
+     * @throws Exception if building or processing fails
+     */
+    @Test
+    public void testAttributeServicePOSTNotEligible() throws Exception {
+        assumeTrue(StiamConfiguration.getInstance().getBinding() == StiamConfiguration.Binding.SOAP);
+        assumeTrue(StiamConfiguration.getInstance().getPreAuthErrorMode() != StiamConfiguration.PreAuthErrorMode.STATIC);
+        final HttpServletRequest req = mockBatchRequest(testConfig.getProperty("EligibilityCheckerTest.NotExisting"));
+        final ServletResponseStub res = mockResponse();
+        final AttributeService as = new AttributeService();
+        as.init();
+        as.doPost(req, res);
+
+        assertThat(res.getStatus(), is(400));
+        final String content = new String(res.getContent(), StandardCharsets.UTF_8);
+        assertTrue(content.contains("urn:oasis:names:tc:SAML:2.0:status:RequestDenied"));
+        assertFalse(content.contains("urn:oasis:names:tc:SAML:2.0:status:UnknownPrincipal"));
+    }
+
+    /**
+     * Test doPost() with a batch of queries in one envelope: Each query is
+     * answered by a response of its own, all in one envelope.
+     *
+     * @throws Exception if building or processing fails
+     */
+    @Test
+    public void testAttributeServicePOSTBatch() throws Exception {
+        assumeTrue(StiamConfiguration.getInstance().getBinding() == StiamConfiguration.Binding.SOAP);
+        final HttpServletRequest req = mockBatchRequest(null, null, null);
+        final ServletResponseStub res = mockResponse();
+        final AttributeService as = new AttributeService();
+        as.init();
+        as.doPost(req, res);
+
+        assertThat(res.getStatus(), is(200));
+        final String content = new String(res.getContent(), StandardCharsets.UTF_8);
+        assertThat(res.getContentLength(), is(res.getContent().length));
+        assertThat(content.split("<saml2p:Response ", -1).length - 1, is(3));
+        assertThat(content.split("urn:oasis:names:tc:SAML:2.0:status:Success", -1).length - 1, is(3));
+    }
+
+    /**
+     * Test doPost() with a batch of queries, one of them for a subject not
+     * eligible: As this is detected before the relying party has been
+     * authenticated, the whole envelope is rejected by one status response.
+     *
+     * @throws Exception if building or processing fails
+     */
+    @Test
+    public void testAttributeServicePOSTBatchNotEligible() throws Exception {
+        assumeTrue(StiamConfiguration.getInstance().getBinding() == StiamConfiguration.Binding.SOAP);
+        assumeTrue(StiamConfiguration.getInstance().getPreAuthErrorMode() != StiamConfiguration.PreAuthErrorMode.STATIC);
+        final HttpServletRequest req = mockBatchRequest(
+                null, testConfig.getProperty("EligibilityCheckerTest.NotExisting"), null);
+        final ServletResponseStub res = mockResponse();
+        final AttributeService as = new AttributeService();
+        as.init();
+        as.doPost(req, res);
+
+        assertThat(res.getStatus(), is(400));
+        final String content = new String(res.getContent(), StandardCharsets.UTF_8);
+        assertThat(content.split("<saml2p:Response ", -1).length - 1, is(1));
+        assertTrue(content.contains("urn:oasis:names:tc:SAML:2.0:status:RequestDenied"));
+    }
+
+    /**
+     * Test doPost() with a batch of queries processed asynchronously: The
+     * responses are signed in parallel and sent in one envelope once the last
+     * one has been built.
+     *
+     * @throws Exception if building or processing fails
+     */
+    @Test
+    public void testAttributeServicePOSTBatchAsync() throws Exception {
+        assumeTrue(StiamConfiguration.getInstance().getBinding() == StiamConfiguration.Binding.SOAP);
+        final HttpServletRequest req = mockBatchRequest(null, null, null);
+        final ServletResponseStub res = mockResponse();
+        final AsyncContext context = mock(AsyncContext.class);
+        final CountDownLatch completed = new CountDownLatch(1);
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenReturn(context);
+        when(context.getResponse()).thenReturn(res);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                completed.countDown();
+                return null;
+            }
+        }).when(context).complete();
+
+        final AttributeService as = new AttributeService();
+        as.init();
+        as.doPost(req, res);
+        assertTrue(completed.await(30, TimeUnit.SECONDS));
+        as.destroy();
+
+        assertThat(res.getStatus(), is(200));
+        final String content = new String(res.getContent(), StandardCharsets.UTF_8);
+        assertThat(content.split("urn:oasis:names:tc:SAML:2.0:status:Success", -1).length - 1, is(3));
+    }
+
+    /**
+     * Test doPost() with a mocked request processed asynchronously
+     *
+     * @throws Exception if processing fails
+     */
+    @Test
+    public void testAttributeServicePOSTAttributeRequestAsync() throws Exception {
+        final AttributeService as = new AttributeService();
+
+        final ServletResponseStub res = mockResponse();
+        final HttpServletRequest req = mockAttributeRequest();
+        final AsyncContext context = mock(AsyncContext.class);
+        final CountDownLatch completed = new CountDownLatch(1);
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenReturn(context);
+        when(context.getResponse()).thenReturn(res);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                completed.countDown();
+                return null;
+            }
+        }).when(context).complete();
+
+        as.init();
+        as.doPost(req, res);
+        assertTrue(completed.await(30, TimeUnit.SECONDS));
+        as.destroy();
+
+        assertThat(res.getStatus(), is(200));
+        if (StiamConfiguration.getInstance().getBinding() == StiamConfiguration.Binding.SOAP) {
+            assertThat(res.getContentLength(), is(res.getContent().length));
+        }
+    }
+
+    /**
+     * Tests that a directory reporting an error on a thread of its own is not
+     * held while the signed status response is built: The response is sent
+     * from another thread, after the directory thread has returned.
+     *
+     * @throws Exception if processing fails
+     */
+    @Test
+    public void testAttributeServicePOSTDirectoryFailedAsync() throws Exception {
+        assumeTrue(StiamConfiguration.getInstance().useAsyncProcessing());
+        final AtomicReference<Thread> directoryThread = new AtomicReference<>();
+        final Directory directory = new Directory() {
+            @Override
+            public Map<String, String> fetchAttributes(String nameId, String[] attributeNames)
+                    throws DirectoryException {
+                throw new NameIDNotFoundException(nameId);
+            }
+
+            @Override
+            public void fetchAttributes(String nameId, String[] attributeNames, final Callback callback) {
+                final Thread thread = new Thread("directory-reader") {
+                    @Override
+                    public void run() {
+                        callback.failed(new NameIDNotFoundException("Not found"));
+                    }
+                };
+                directoryThread.set(thread);
+                thread.start();
+            }
+
+            @Override
+            public Map<String, Map<String, String>> fetchAttributes(Collection<String> nameIds,
+                    String[] attributeNames) throws DirectoryException {
+                throw new NameIDNotFoundException(nameIds.toString());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        final ServletResponseStub res = mockResponse();
+        final AtomicReference<Thread> sendingThread = new AtomicReference<>();
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                sendingThread.compareAndSet(null, Thread.currentThread());
+                return invocation.callRealMethod();
+            }
+        }).when(res).getOutputStream();
+        final HttpServletRequest req = mockAttributeRequest();
+        final AsyncContext context = mock(AsyncContext.class);
+        final CountDownLatch completed = new CountDownLatch(1);
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenReturn(context);
+        when(context.getResponse()).thenReturn(res);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                completed.countDown();
+                return null;
+            }
+        }).when(context).complete();
+
+        final AttributeService as = new AttributeService(directory);
+        as.init();
+        as.doPost(req, res);
+        assertTrue(completed.await(30, TimeUnit.SECONDS));
+        as.destroy();
+
+        assertThat(res.getStatus(), is(400));
+        assertThat(new String(res.getContent(), StandardCharsets.UTF_8),
+                containsString("urn:oasis:names:tc:SAML:2.0:status:UnknownPrincipal"));
+        assertThat(sendingThread.get(), is(not(sameInstance(directoryThread.get()))));
+        directoryThread.get().join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(directoryThread.get().isAlive());
+    }
+
+    /**
+     * Test verification of TLS client certificates
+     *
+     * @throws Exception if the certificates cannot be obtained
+     */
+    @Test
+    public void testVerifyClientCertificate() throws Exception {
+        final AttributeService as = new AttributeService();
+        final StiamConfiguration config = StiamConfiguration.getInstance();
+        final String alias = testConfig.getProperty("AttributeServiceTest.ClientCertificate");
+        final X509Certificate registered = ((X509Credential) config.getCertificate(alias)).getEntityCertificate();
+        final X509Certificate other = ((X509Credential) config.getCredential(
+                testConfig.getProperty("AttributeServiceTest.OtherClientCertificate"))).getEntityCertificate();
+
+        assertTrue(as.verifyClientCertificate(mockTLSRequest(true, registered), alias));
+        assertFalse(as.verifyClientCertificate(mockTLSRequest(true, other), alias));
+        assertFalse(as.verifyClientCertificate(mockTLSRequest(false, registered), alias));
+        assertFalse(as.verifyClientCertificate(mockTLSRequest(true, null), alias));
+        assertFalse(as.verifyClientCertificate(mockTLSRequest(true, registered), "not-existing"));
     }
 
 //////////////////////////////////////// Helpers
+    /**
+     * @return a mocked-up HttpServletRequest received over TLS (if secure)
+     * with the given client certificate (if not null)
+     */
+    private HttpServletRequest mockTLSRequest(boolean secure, X509Certificate certificate) {
+        final HttpServletRequest req = mockEmptyRequest();
+        when(req.isSecure()).thenReturn(secure);
+        if (certificate != null) {
+            when(req.getAttribute("javax.servlet.request.X509Certificate")).thenReturn(new X509Certificate[]{certificate});
+        }
+        return req;
+    }
+
     /**
      * @return a mocked-up HttpServletResponse with the ability to store status
      */
-    private HttpServletResponse mockResponse() {
-        final HttpServletResponse res = mock(ServletResponseStub.class);
+    private ServletResponseStub mockResponse() {
+        final ServletResponseStub res = mock(ServletResponseStub.class);
         try {
             when(res.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
         } catch (IOException ex) {
@@ -173,6 +526,10 @@ public class AttributeServiceTest {
 
         doCallRealMethod().when(res).setStatus(anyInt());
         doCallRealMethod().when(res).getStatus();
+        doCallRealMethod().when(res).setContentLength(anyInt());
+        doCallRealMethod().when(res).getContentLength();
+        doCallRealMethod().when(res).getContent();
+        doCallRealMethod().when(res).getOutputStream();
 
         return res;
     }
@@ -188,6 +545,30 @@ public class AttributeServiceTest {
         return req;
     }
 
+    /**
+     * @param nameIDs The subjects of the queries, null for the default one
+     * @return a mocked-up HttpServletRequest containing a SOAP envelope with
+     * a batch of SAML extended attribute queries
+     */
+    private HttpServletRequest mockBatchRequest(String... nameIDs) throws Exception {
+        final ArrayList<String[]> attributes = new ArrayList<>();
+        for (String attributeProperty : testConfig.getPropertyList("AttributeServiceTest.Attributes")) {
+            attributes.add(testConfig.getPropertyList(attributeProperty));
+        }
+        final StringBuilder envelope = new StringBuilder(
+                "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>");
+        for (String nameID : nameIDs) {
+            final ExtendedAttributeQueryBuilder builder = nameID == null ? new ExtendedAttributeQueryBuilder(attributes)
+                    : new ExtendedAttributeQueryBuilder(attributes, nameID);
+            envelope.append(builder.build().substring(38));
+        }
+        envelope.append("</S:Body></S:Envelope>");
+
+        final HttpServletRequest req = mockEmptyRequest();
+        when(req.getInputStream()).thenReturn(new MockInputStream(envelope.toString()));
+        return req;
+    }
+
     /**
      * @return a mocked-up HttpServletRequest containing a full SAML extended
      * attribute query
@@ -206,12 +587,16 @@ public class AttributeServiceTest {
         }
         try {
             final ExtendedAttributeQueryBuilder builder = new ExtendedAttributeQueryBuilder(attributes);
-            when(req.getParameter("SAMLRequest")).thenReturn(
-                    builder.buildBase64());
-            when(req.getInputStream()).thenReturn(new MockInputStream(
-                    new String("<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>"
-                            + builder.build().substring(38) + "</S:Body></S:Envelope>")) // FIXME ugly substring-hack
-            );
+            if (StiamConfiguration.getInstance().getBinding() == StiamConfiguration.Binding.HTTP_POST) {
+                when(req.getContentType()).thenReturn("application/x-www-form-urlencoded");
+                when(req.getInputStream()).thenReturn(new MockInputStream(
+                        "SAMLRequest=" + URLEncoder.encode(builder.buildBase64(), "UTF-8")));
+            } else {
+                when(req.getInputStream()).thenReturn(new MockInputStream(
+                        new String("<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>"
+                                + builder.build().substring(38) + "</S:Body></S:Envelope>")) // FIXME ugly substring-hack
+                );
+            }
         } catch (ConfigurationException | NoSuchAlgorithmException | IOException |
                 KeyStoreException | CertificateException | UnrecoverableEntryException |
                 SecurityException | MarshallingException | SignatureException |
@@ -249,7 +634,12 @@ public class AttributeServiceTest {
 
         @Override
         public void setReadListener(ReadListener readListener) {
-            throw new UnsupportedOperationException();
+            try {
+                readListener.onDataAvailable();
+                readListener.onAllDataRead();
+            } catch (IOException ex) {
+                readListener.onError(ex);
+            }
         }
     }
 }
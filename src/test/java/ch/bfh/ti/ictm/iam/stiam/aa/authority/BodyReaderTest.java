@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Testsuite for the BodyReader
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class BodyReaderTest {
+
+    /**
+     * Tests that a body delivered in several parts spanning multiple buffers
+     * is read completely.
+     *
+     * @throws Exception if reading fails
+     */
+    @Test
+    public void testRead() throws Exception {
+        final byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        final PartialInputStream in = new PartialInputStream(data, 3000);
+        final ResultCallback callback = new ResultCallback();
+
+        new BodyReader(in, data.length, callback).start(data.length, 0);
+        while (in.deliver()) {
+            // deliver the next part
+        }
+
+        assertThat(callback.status, is(200));
+        assertThat(callback.body.size(), is(data.length));
+        assertTrue(Arrays.equals(readAll(callback.body.getInputStream()), data));
+        callback.body.release();
+    }
+
+    /**
+     * Tests that bodies larger than the maximum size are rejected, whether
+     * announced or not.
+     *
+     * @throws Exception if reading fails
+     */
+    @Test
+    public void testMaxSize() throws Exception {
+        ResultCallback callback = new ResultCallback();
+        new BodyReader(new PartialInputStream(new byte[101], 101), 100, callback).start(101, 0);
+        assertThat(callback.status, is(413));
+
+        final PartialInputStream in = new PartialInputStream(new byte[101], 50);
+        callback = new ResultCallback();
+        new BodyReader(in, 100, callback).start(-1, 0);
+        while (in.deliver()) {
+            // deliver the next part
+        }
+        assertThat(callback.status, is(413));
+    }
+
+    /**
+     * Tests that bodies not received in time are rejected.
+     *
+     * @throws Exception if interrupted
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        final ResultCallback callback = new ResultCallback();
+        new BodyReader(new PartialInputStream(new byte[10], 5), 100, callback).start(10, 50);
+        assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+        assertThat(callback.status, is(408));
+    }
+
+//////////////////////////////////////// Helpers
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+//////////////////////////////////////// Inner classes
+    /**
+     * Records the outcome of reading a body.
+     */
+    private static final class ResultCallback implements BodyReader.Callback {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile int status;
+        private volatile BodyReader.Body body;
+
+        @Override
+        public void completed(BodyReader.Body body) {
+            this.body = body;
+            status = 200;
+            done.countDown();
+        }
+
+        @Override
+        public void failed(int httpStatusCode, String message) {
+            status = httpStatusCode;
+            done.countDown();
+        }
+    }
+
+    /**
+     * A stream making data available in parts, one per call of deliver(), as
+     * a slow client would.
+     */
+    private static final class PartialInputStream extends ServletInputStream {
+
+        private final byte[] data;
+        private final int partSize;
+        private int available;
+        private int position;
+        private ReadListener listener;
+
+        PartialInputStream(byte[] data, int partSize) {
+            this.data = data;
+            this.partSize = partSize;
+        }
+
+        /**
+         * Makes the next part available and notifies the listener.
+         *
+         * @return false if all data has been delivered
+         */
+        boolean deliver() throws IOException {
+            if (available >= data.length) {
+                return false;
+            }
+            available = Math.min(data.length, available + partSize);
+            listener.onDataAvailable();
+            if (available == data.length) {
+                listener.onAllDataRead();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return position == data.length;
+        }
+
+        @Override
+        public boolean isReady() {
+            return position < available;
+        }
+
+        @Override
+        public int read() {
+            return position < available ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= available) {
+                return -1;
+            }
+            final int n = Math.min(len, available - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            listener = readListener;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.ExtendedAttributeQueryBuilder;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.AttributeQuery;
+import org.opensaml.xml.schema.XSString;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.w3c.dom.Element;
+
+/**
+ * Testsuite for the EnvelopeScanner
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class EnvelopeScannerTest {
+
+    private static final String ENVELOPE_START = "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            + "<S:Header/><S:Body>";
+    private static final String ENVELOPE_END = "</S:Body></S:Envelope>";
+
+    private final EnvelopeScanner scanner = new EnvelopeScanner(4096, 8, 4);
+
+    /**
+     * Initializes OpenSAML for unmarshalling.
+     *
+     * @throws Exception if OpenSAML cannot be initialized
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    /**
+     * Tests that a signed query is extracted from its envelope and its
+     * signatures still validate.
+     *
+     * @throws Exception if building or scanning fails
+     */
+    @Test
+    public void testSignedQuery() throws Exception {
+        final TestConfiguration testConfig = new TestConfiguration();
+        final String[] attributeProperties = testConfig.getPropertyList("ExtendedAttributeQueryBuilderTest.Attributes");
+        final ArrayList<String[]> attributes = new ArrayList<>(attributeProperties.length);
+        for (String attributeProperty : attributeProperties) {
+            attributes.add(testConfig.getPropertyList(attributeProperty));
+        }
+        final String query = new ExtendedAttributeQueryBuilder(attributes).build().substring(38);
+
+        final AttributeQuery attributeQuery = unmarshall(new EnvelopeScanner(65536, 32, 32)
+                .scan(stream(ENVELOPE_START + query + ENVELOPE_END), -1));
+        final Credential credential = StiamConfiguration.getInstance().getSignatureCredential();
+        new SignatureValidator(credential).validate(attributeQuery.getSignature());
+        new SignatureValidator(credential).validate(
+                ((Assertion) attributeQuery.getExtensions().getUnknownXMLObjects().get(0)).getSignature());
+        assertThat(attributeQuery.getAttributes().size(), is(attributes.size()));
+    }
+
+    /**
+     * Tests that namespaces declared on the envelope are declared on the
+     * extracted query, also for QName-values.
+     *
+     * @throws Exception if scanning fails
+     */
+    @Test
+    public void testInheritedNamespaces() throws Exception {
+        final String envelope = "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\""
+                + " xmlns:p=\"urn:oasis:names:tc:SAML:2.0:protocol\" xmlns:a=\"urn:oasis:names:tc:SAML:2.0:assertion\""
+                + " xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"><S:Body><p:AttributeQuery ID=\"_q\" Version=\"2.0\""
+                + " IssueInstant=\"2014-11-07T16:08:54.000Z\"><a:Attribute Name=\"n\"><a:AttributeValue"
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"xs:string\">v&amp;<![CDATA[<w>]]>"
+                + "</a:AttributeValue></a:Attribute></p:AttributeQuery></S:Body></S:Envelope>";
+
+        final AttributeQuery query = unmarshall(scanner.scan(stream(envelope), envelope.length()));
+        assertThat(query.getID(), is("_q"));
+        assertThat(((XSString) query.getAttributes().get(0).getAttributeValues().get(0)).getValue(), is("v&<w>"));
+    }
+
+    /**
+     * Tests that envelopes without query yield null.
+     *
+     * @throws Exception if scanning fails
+     */
+    @Test
+    public void testNoQuery() throws Exception {
+        assertNull(scanner.scan(stream(ENVELOPE_START + "<x:Other xmlns:x=\"urn:x\"/>" + ENVELOPE_END), -1));
+    }
+
+    /**
+     * Tests that all queries of a batch are extracted, each into a document
+     * of its own, and that batches exceeding the maximum are rejected.
+     *
+     * @throws Exception if scanning fails
+     */
+    @Test
+    public void testBatch() throws Exception {
+        final String envelope = ENVELOPE_START + "<p:AttributeQuery xmlns:p=\"urn:oasis:names:tc:SAML:2.0:protocol\""
+                + " ID=\"_1\" Version=\"2.0\" IssueInstant=\"2014-11-07T16:08:54.000Z\"/>"
+                + "<x:Other xmlns:x=\"urn:x\"/>"
+                + "<p:AttributeQuery xmlns:p=\"urn:oasis:names:tc:SAML:2.0:protocol\""
+                + " ID=\"_2\" Version=\"2.0\" IssueInstant=\"2014-11-07T16:08:54.000Z\"/>" + ENVELOPE_END;
+
+        final List<Element> queries = scanner.scanAll(stream(envelope), -1, 2);
+        assertThat(queries.size(), is(2));
+        assertThat(unmarshall(queries.get(0)).getID(), is("_1"));
+        assertThat(unmarshall(queries.get(1)).getID(), is("_2"));
+        assertThat(queries.get(0).getOwnerDocument() == queries.get(1).getOwnerDocument(), is(false));
+
+        assertThat(unmarshall(scanner.scan(stream(envelope), -1)).getID(), is("_1"));
+        try {
+            scanner.scanAll(stream(envelope), -1, 1);
+            fail("EnvelopeScanException expected");
+        } catch (EnvelopeScanException ex) {
+            assertThat(ex.getHttpStatusCode(), is(413));
+        }
+    }
+
+    /**
+     * Tests that requests exceeding the limits or being malformed are
+     * rejected.
+     */
+    @Test
+    public void testRejection() {
+        final StringBuilder large = new StringBuilder(ENVELOPE_START);
+        while (large.length() < 5000) {
+            large.append("<a/>");
+        }
+        final StringBuilder deep = new StringBuilder(ENVELOPE_START);
+        for (int i = 0; i < 7; i++) {
+            deep.append("<a>");
+        }
+
+        assertRejected(ENVELOPE_START + ENVELOPE_END, 5000, 413);
+        assertRejected(large + ENVELOPE_END, -1, 413);
+        assertRejected(deep.toString(), -1, 400);
+        assertRejected(ENVELOPE_START + "<a b=\"1\" c=\"2\" d=\"3\" e=\"4\" f=\"5\"/>" + ENVELOPE_END, -1, 400);
+        assertRejected("<!DOCTYPE S:Envelope [<!ENTITY e \"e\">]>" + ENVELOPE_START + "&e;" + ENVELOPE_END, -1, 400);
+        assertRejected("<Envelope><Body/></Envelope>", -1, 400);
+        assertRejected(ENVELOPE_START + "</S:Envelope>", -1, 400);
+    }
+
+//////////////////////////////////////// Helpers
+    private ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private AttributeQuery unmarshall(Element element) throws Exception {
+        return (AttributeQuery) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+    }
+
+    private void assertRejected(String request, long contentLength, int httpStatusCode) {
+        try {
+            scanner.scan(stream(request), contentLength);
+            fail("Request not rejected: " + request);
+        } catch (EnvelopeScanException ex) {
+            assertThat(ex.getHttpStatusCode(), is(httpStatusCode));
+        }
+    }
+}
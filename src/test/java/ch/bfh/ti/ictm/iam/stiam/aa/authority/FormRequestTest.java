@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.servlet.http.HttpServletRequest;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Testsuite for the FormRequest
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class FormRequestTest {
+
+    private static final int MAX_SIZE = 64;
+
+    /**
+     * Tests that the parameters of the query string and of the body are
+     * decoded, those of the query string first.
+     *
+     * @throws Exception if the form cannot be read
+     */
+    @Test
+    public void testRead() throws Exception {
+        final HttpServletRequest req = formRequest("RelayState=a%2Bb", -1);
+        final FormRequest formRequest = FormRequest.read(req, body("SAMLRequest=PD94+bWw%3D&RelayState=c"), MAX_SIZE);
+        assertThat(formRequest.getParameter("SAMLRequest"), is("PD94 bWw="));
+        assertArrayEquals(new String[]{"a+b", "c"}, formRequest.getParameterValues("RelayState"));
+        assertThat(formRequest.getParameterMap().size(), is(2));
+        assertNull(formRequest.getParameter("SigAlg"));
+    }
+
+    /**
+     * Tests that the body of a request which is not a form is not read.
+     *
+     * @throws Exception if the request cannot be read
+     */
+    @Test
+    public void testReadNoForm() throws Exception {
+        final HttpServletRequest req = formRequest(null, -1);
+        when(req.getContentType()).thenReturn("text/xml");
+        assertThat(FormRequest.read(req, body("SAMLRequest=x"), MAX_SIZE).getParameterMap().isEmpty(), is(true));
+    }
+
+    /**
+     * Tests that forms larger than the maximum size are rejected with HTTP
+     * 413, whether their length is announced or not, and forms of the maximum
+     * size are accepted.
+     *
+     * @throws Exception if a form of the maximum size cannot be read
+     */
+    @Test
+    public void testReadTooLarge() throws Exception {
+        assertThat(FormRequest.read(formRequest(null, -1), body(form(MAX_SIZE)), MAX_SIZE).getParameter("a").length(),
+                is(MAX_SIZE - 2));
+        assertRejected(formRequest(null, MAX_SIZE + 1), form(MAX_SIZE), 413);
+        assertRejected(formRequest(null, -1), form(MAX_SIZE + 1), 413);
+    }
+
+    /**
+     * Tests that forms which are not URL-encoded properly are rejected with
+     * HTTP 400.
+     */
+    @Test
+    public void testReadMalformed() {
+        assertRejected(formRequest(null, -1), "SAMLRequest=%G0", 400);
+    }
+
+//////////////////////////////////////// Helpers
+    private static HttpServletRequest formRequest(String queryString, long contentLength) {
+        final HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getMethod()).thenReturn("POST");
+        when(req.getContentType()).thenReturn("application/x-www-form-urlencoded; charset=UTF-8");
+        when(req.getContentLengthLong()).thenReturn(contentLength);
+        when(req.getQueryString()).thenReturn(queryString);
+        return req;
+    }
+
+    private static ByteArrayInputStream body(String form) {
+        return new ByteArrayInputStream(form.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String form(int size) {
+        final char[] form = new char[size];
+        Arrays.fill(form, 'x');
+        form[0] = 'a';
+        form[1] = '=';
+        return new String(form);
+    }
+
+    private static void assertRejected(HttpServletRequest req, String form, int httpStatusCode) {
+        try {
+            FormRequest.read(req, body(form), MAX_SIZE);
+            fail("Form not rejected: " + form);
+        } catch (EnvelopeScanException ex) {
+            assertThat(ex.getHttpStatusCode(), is(httpStatusCode));
+        }
+    }
+}
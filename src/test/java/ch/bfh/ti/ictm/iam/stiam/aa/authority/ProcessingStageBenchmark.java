@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.Directory;
+import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryFactory;
+import ch.bfh.ti.ictm.iam.stiam.aa.eligibility.EligibilityChecker;
+import ch.bfh.ti.ictm.iam.stiam.aa.eligibility.EligibilityCheckerFactory;
+import ch.bfh.ti.ictm.iam.stiam.aa.test.Benchmark;
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load test comparing the throughput of a directory stage on worker threads
+ * and on virtual threads with many queries in flight at the same time. Each
+ * query checks the eligibility of the subject, fetches its attributes from the
+ * directory and then blocks for a given time, simulating the round trip to an
+ * LDAP server. Virtual threads are only measured on JVMs supporting them
+ * (Java 21 and later). Run with: mvn test -Dtest=ProcessingStageBenchmark
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class ProcessingStageBenchmark {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessingStageBenchmark.class);
+
+//////////////////////////////////////// Unit-tests and initialization
+    /**
+     * Measures batches of concurrent queries on both kinds of stages.
+     *
+     * @throws Exception if a query fails
+     */
+    @Test
+    public void benchmarkProcessingStages() throws Exception {
+        final TestConfiguration testConfig = new TestConfiguration();
+        final int warmup = Integer.parseInt(testConfig.getProperty("ProcessingStageBenchmark.WarmupIterations", "2"));
+        final int iterations = Integer.parseInt(testConfig.getProperty("ProcessingStageBenchmark.Iterations", "10"));
+        final int inFlight = Integer.parseInt(testConfig.getProperty("ProcessingStageBenchmark.InFlight", "1000"));
+        final long latencyMillis = Long.parseLong(testConfig.getProperty("ProcessingStageBenchmark.LatencyMillis", "20"));
+        final String nameId = testConfig.getProperty("DirectoryTest.NameId");
+        final String[] attributeNames = testConfig.getPropertyList("DirectoryTest.AttributeNames");
+
+        final Directory directory = DirectoryFactory.getInstance().createDirectory();
+        final EligibilityChecker eligibilityChecker = EligibilityCheckerFactory.getInstance()
+                .createEligibilityChecker();
+        final Runnable query = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    eligibilityChecker.isEligible(nameId);
+                    directory.fetchAttributes(nameId, attributeNames);
+                    Thread.sleep(latencyMillis);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+
+        final ProcessingStage workers = new ProcessingStage("benchmark", StiamConfiguration.getInstance()
+                .getDirectoryThreads(), inFlight);
+        try {
+            measure("ProcessingStage/workers", workers, query, inFlight, warmup, iterations);
+        } finally {
+            workers.shutdown();
+        }
+
+        if (ProcessingStage.isVirtualThreadSupported()) {
+            final ProcessingStage virtual = ProcessingStage.withVirtualThreads("benchmark", inFlight);
+            try {
+                measure("ProcessingStage/virtual", virtual, query, inFlight, warmup, iterations);
+            } finally {
+                virtual.shutdown();
+            }
+        } else {
+            logger.info("Virtual threads not supported by this JVM, skipping ProcessingStage/virtual");
+        }
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * Runs batches of queries, all submitted at once, and logs the throughput
+     * in queries per second.
+     */
+    private static void measure(String name, final ProcessingStage stage, final Runnable query, final int inFlight,
+            int warmup, int iterations) throws Exception {
+        final Benchmark.Result result = Benchmark.run(name + "/" + inFlight + " in flight", warmup, iterations,
+                new Benchmark.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        final CountDownLatch done = new CountDownLatch(inFlight);
+                        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+                        for (int i = 0; i < inFlight; i++) {
+                            stage.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        query.run();
+                                    } catch (RuntimeException ex) {
+                                        failure.set(ex);
+                                    } finally {
+                                        done.countDown();
+                                    }
+                                }
+                            });
+                        }
+                        assertTrue(done.await(5, TimeUnit.MINUTES));
+                        if (failure.get() != null) {
+                            throw failure.get();
+                        }
+                    }
+                });
+        logger.info("Benchmark: {} {} queries/s", name, String.format("%.1f", result.getOpsPerSecond() * inFlight));
+    }
+}
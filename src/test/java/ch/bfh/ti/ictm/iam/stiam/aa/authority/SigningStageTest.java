@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.MessageBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Testsuite for the SigningStage
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class SigningStageTest {
+
+    private final SigningStage stage = new SigningStage(1, 1);
+
+    @After
+    public void shutdown() {
+        stage.shutdown();
+    }
+
+    /**
+     * Tests building a message and the recorded statistics.
+     *
+     * @throws Exception if building fails
+     */
+    @Test
+    public void testBuild() throws Exception {
+        assertThat(stage.build(new FixedBuilder("<message/>")), is("<message/>"));
+        assertThat(stage.getCompleted(), is(1L));
+        assertThat(stage.getRejected(), is(0L));
+        assertThat(stage.getThreads(), is(1));
+        assertThat(stage.getQueueCapacity(), is(1));
+        assertTrue(stage.getMaxSignMicros() >= stage.getAverageSignMicros());
+
+        stage.resetStatistics();
+        assertThat(stage.getCompleted(), is(0L));
+    }
+
+    /**
+     * Tests that exceptions of the builder are passed to the caller.
+     *
+     * @throws Exception if interrupted
+     */
+    @Test
+    public void testFailingBuilder() throws Exception {
+        try {
+            stage.build(new FixedBuilder(null));
+            fail("ExecutionException expected");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * Tests building messages asynchronously, successfully and failing.
+     *
+     * @throws Exception if interrupted
+     */
+    @Test
+    public void testSubmit() throws Exception {
+        final CountDownLatch done = new CountDownLatch(2);
+        final Object[] results = new Object[2];
+        for (int i = 0; i < results.length; i++) {
+            final int index = i;
+            stage.submit(new FixedBuilder(i == 0 ? "<message/>" : null), new SigningStage.Callback() {
+                @Override
+                public void completed(String message) {
+                    results[index] = message;
+                    done.countDown();
+                }
+
+                @Override
+                public void failed(Exception cause) {
+                    results[index] = cause;
+                    done.countDown();
+                }
+            });
+            while (stage.getQueueLength() > 0) {
+                Thread.sleep(1);    // the queue holds one message only
+            }
+        }
+        done.await();
+
+        assertThat(results[0], is((Object) "<message/>"));
+        assertTrue(results[1] instanceof IllegalStateException);
+        assertThat(stage.getCompleted(), is(2L));
+    }
+
+    /**
+     * Tests that messages are rejected while the worker is busy and the queue
+     * is full.
+     *
+     * @throws Exception if building fails
+     */
+    @Test
+    public void testRejection() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MessageBuilder blocking = new FixedBuilder("<blocked/>") {
+            @Override
+            public String build() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.build();
+            }
+        };
+
+        final Thread[] callers = new Thread[2];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stage.build(blocking);
+                    } catch (ExecutionException | InterruptedException ex) {
+                        // not relevant for this test
+                    }
+                }
+            });
+            callers[i].start();
+            if (i == 0) {
+                started.await();    // worker is busy now...
+            }
+        }
+        while (stage.getQueueLength() < 1) {
+            Thread.sleep(1);        // ...and the queue full
+        }
+
+        try {
+            stage.build(new FixedBuilder("<rejected/>"));
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException ex) {
+            assertThat(stage.getRejected(), is(1L));
+        }
+
+        release.countDown();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        assertThat(stage.getCompleted(), is(2L));
+    }
+
+    /**
+     * Tests building a batch of messages larger than the queue: All messages
+     * are built, in order, failures are reported per message.
+     *
+     * @throws Exception if building fails
+     */
+    @Test
+    public void testBuildAll() throws Exception {
+        final List<MessageBuilder> builders = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            builders.add(new FixedBuilder(i == 5 ? null : "<message" + i + "/>"));
+        }
+
+        final List<Future<String>> results = stage.buildAll(builders);
+        assertThat(results.size(), is(10));
+        for (int i = 0; i < 10; i++) {
+            if (i == 5) {
+                try {
+                    results.get(i).get();
+                    fail("ExecutionException expected");
+                } catch (ExecutionException ex) {
+                    assertTrue(ex.getCause() instanceof IllegalStateException);
+                }
+            } else {
+                assertThat(results.get(i).get(), is("<message" + i + "/>"));
+            }
+        }
+        assertThat(stage.getCompleted(), is(10L));
+        assertThat(stage.getRejected(), is(0L));
+    }
+
+    /**
+     * A builder returning a fixed message, or failing if it is null.
+     */
+    private static class FixedBuilder extends MessageBuilder {
+
+        private final String message;
+
+        FixedBuilder(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public String build() {
+            if (message == null) {
+                throw new IllegalStateException("No message");
+            }
+            return message;
+        }
+    }
+}
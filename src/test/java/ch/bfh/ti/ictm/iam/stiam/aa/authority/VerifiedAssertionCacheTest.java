@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.authority;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.ExtendedAttributeQueryBuilder;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import org.joda.time.DateTime;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.AttributeQuery;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.security.credential.Credential;
+import org.w3c.dom.Element;
+
+/**
+ * Testsuite for the VerifiedAssertionCache
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class VerifiedAssertionCacheTest {
+//////////////////////////////////////// Fields
+
+    private Assertion assertion;
+    private Credential credential;
+    private DateTime now;
+
+//////////////////////////////////////// Unit-tests and initialization
+    /**
+     * Builds a fresh, signed assertion embedded in an extended attribute
+     * query before each test.
+     *
+     * @throws Exception if the assertion cannot be built
+     */
+    @Before
+    public void setUp() throws Exception {
+        final String query = new ExtendedAttributeQueryBuilder(new ArrayList<String[]>(0)).build();
+        final Element element = new BasicParserPool().parse(
+                new ByteArrayInputStream(query.getBytes("UTF-8"))).getDocumentElement();
+        final AttributeQuery attributeQuery = (AttributeQuery) Configuration.getUnmarshallerFactory()
+                .getUnmarshaller(element).unmarshall(element);
+
+        assertion = (Assertion) attributeQuery.getExtensions().getUnknownXMLObjects().get(0);
+        credential = StiamConfiguration.getInstance().getSignatureCredential();
+        now = DateTime.now();
+    }
+
+    /**
+     * Tests a miss followed by a hit.
+     */
+    @Test
+    public void hitAfterPut() {
+        final VerifiedAssertionCache cache = new VerifiedAssertionCache(10);
+
+        assertFalse(cache.isVerified(assertion, credential, now));
+        cache.put(assertion, credential, now);
+        assertTrue(cache.isVerified(assertion, credential, now));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getSize());
+    }
+
+    /**
+     * Tests that entries expire at NotOnOrAfter of the assertion.
+     */
+    @Test
+    public void expiry() {
+        final VerifiedAssertionCache cache = new VerifiedAssertionCache(10);
+
+        cache.put(assertion, credential, now);
+        assertFalse(cache.isVerified(assertion, credential, assertion.getConditions().getNotOnOrAfter()));
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * Tests that a modified assertion with the same signature is not
+     * accepted.
+     */
+    @Test
+    public void modifiedAssertion() {
+        final VerifiedAssertionCache cache = new VerifiedAssertionCache(10);
+
+        cache.put(assertion, credential, now);
+        assertion.getSubject().getNameID().setValue("someoneelse");
+        assertFalse(cache.isVerified(assertion, credential, now));
+    }
+
+    /**
+     * Tests that an entry is only valid for the credential used for
+     * verification.
+     */
+    @Test
+    public void otherCredential() throws Exception {
+        final VerifiedAssertionCache cache = new VerifiedAssertionCache(10);
+
+        cache.put(assertion, credential, now);
+        assertFalse(cache.isVerified(assertion,
+                StiamConfiguration.getInstance().getVerificationCredential(StiamConfiguration.getInstance().getSAMLIssuer()),
+                now));
+    }
+
+    /**
+     * Tests that a cache of size 0 never caches anything.
+     */
+    @Test
+    public void disabled() {
+        final VerifiedAssertionCache cache = new VerifiedAssertionCache(0);
+
+        cache.put(assertion, credential, now);
+        assertFalse(cache.isVerified(assertion, credential, now));
+        assertEquals(0, cache.getSize());
+    }
+}
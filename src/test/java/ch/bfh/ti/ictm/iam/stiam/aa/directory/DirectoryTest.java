@@ -6,8 +6,13 @@
 package ch.bfh.ti.ictm.iam.stiam.aa.directory;
 
 import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -73,4 +78,61 @@ public class DirectoryTest {
             fail("Caught DirectoryException while testing...");
         }
     }
+
+    /**
+     * Tests fetching the attributes of several subjects at once.
+     */
+    @Test
+    public void fetchAttributesOfSeveralSubjects() {
+        final String nameId = testConfig.getProperty("DirectoryTest.NameId");
+        final String[] attributes = testConfig.getPropertyList("DirectoryTest.AttributeNames");
+        final String[] expectedResults = testConfig.getPropertyList("DirectoryTest.AttributeValues");
+
+        try {
+            Map<String, Map<String, String>> fetchedAttributes = directory.fetchAttributes(
+                    Arrays.asList(nameId, nameId + "NotExisting"), attributes);
+            for (int i = 0; i < attributes.length; i++) {
+                assertEquals(expectedResults[i], fetchedAttributes.get(nameId).get(attributes[i]));
+            }
+        }
+        catch (DirectoryException ex) {
+            fail("Caught DirectoryException while testing...");
+        }
+    }
+
+    /**
+     * Tests fetching attributes asynchronously.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * result
+     */
+    @Test
+    public void fetchAttributesAsynchronously() throws InterruptedException {
+        final String nameId = testConfig.getProperty("DirectoryTest.NameId");
+        final String[] attributes = testConfig.getPropertyList("DirectoryTest.AttributeNames");
+        final String[] expectedResults = testConfig.getPropertyList("DirectoryTest.AttributeValues");
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Map<String, String>> result = new AtomicReference<>();
+        directory.fetchAttributes(nameId, attributes, new Directory.Callback() {
+            @Override
+            public void completed(Map<String, String> fetchedAttributes) {
+                result.set(fetchedAttributes);
+                done.countDown();
+            }
+
+            @Override
+            public void failed(DirectoryException cause) {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        if (result.get() == null) {
+            fail("Caught DirectoryException while testing...");
+        }
+        for (int i = 0; i < attributes.length; i++) {
+            assertEquals(expectedResults[i], result.get().get(attributes[i]));
+        }
+    }
 }
@@ -7,8 +7,29 @@ package ch.bfh.ti.ictm.iam.stiam.aa.directory.ldap;
 
 import ch.bfh.ti.ictm.iam.stiam.aa.directory.DirectoryException;
 import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.util.LDAPSDKUsageException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.BeforeClass;
@@ -141,6 +162,189 @@ public class LdapClientTest {
         getAttributes(nameId, attrs, expectedResults);
     }
 
+    /**
+     * Tests searching several NameIDs at once, one of them not existing.
+     */
+    @Test
+    public void ldapBulkSearchGetAttributes() {
+        if (ldapClient == null || !ldapClient.supportsBulkSearch()) {
+            return;
+        }
+
+        final String nameId = testConfig.getProperty("LdapClientTest.NameId");
+        final String notFound = testConfig.getProperty("LdapClientTest.UserNotFound.NameId");
+        final String[] attrs = testConfig.getPropertyList("LdapClientTest.Attributes");
+        final String[] expectedResults = testConfig.getPropertyList("LdapClientTest.ExpectedResults");
+
+        try {
+            final Map<String, String[]> results = ldapClient.getAttributes(Arrays.asList(nameId, notFound), attrs);
+            assertFalse(results.containsKey(notFound));
+            for (int i = 0; i < attrs.length; i++) {
+                assertEquals(expectedResults[i], results.get(nameId)[i]);
+            }
+        }
+        catch (DirectoryException e) {
+            fail("Caught unexpected DirectoryException!");
+        }
+    }
+
+    /**
+     * Tests asynchronous searches, for an existing and a not existing NameID.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * results
+     */
+    @Test
+    public void ldapAsyncGetAttributes() throws InterruptedException {
+        if (ldapClient == null) {
+            return;
+        }
+
+        final String nameId = testConfig.getProperty("LdapClientTest.NameId");
+        final String notFound = testConfig.getProperty("LdapClientTest.UserNotFound.NameId");
+        final String[] attrs = testConfig.getPropertyList("LdapClientTest.Attributes");
+        final String[] expectedResults = testConfig.getPropertyList("LdapClientTest.ExpectedResults");
+
+        final AtomicReference<Object> result = new AtomicReference<>();
+        getAttributesAsync(nameId, attrs, result);
+        assertTrue(result.get() instanceof String[]);
+        for (int i = 0; i < attrs.length; i++) {
+            assertEquals(expectedResults[i], ((String[]) result.get())[i]);
+        }
+
+        getAttributesAsync(notFound, attrs, result);
+        assertTrue(result.get() instanceof NameIDNotFoundException);
+    }
+
+    /**
+     * Tests that searches check connections out of the pool and the pool is
+     * reopened after having been closed.
+     */
+    @Test
+    public void ldapPoolStatistics() {
+        if (ldapClient == null) {
+            return;
+        }
+
+        final String nameId = testConfig.getProperty("LdapClientTest.NameId");
+        final String[] attrs = testConfig.getPropertyList("LdapClientTest.Attributes");
+        final String[] expectedResults = testConfig.getPropertyList("LdapClientTest.ExpectedResults");
+
+        ldapClient.close();
+        getAttributes(nameId, attrs, expectedResults);
+        assertEquals(1, ldapClient.getSuccessfulCheckouts());
+        assertEquals(0, ldapClient.getFailedCheckouts());
+        assertTrue(ldapClient.getAvailableConnections() > 0);
+        assertTrue(ldapClient.getAvailableConnections() <= ldapClient.getMaxConnections());
+    }
+
+    /**
+     * Tests that the pool grows beyond its initial size on demand, with more
+     * connections than the initial ones checked out at once, but not beyond
+     * its maximum size. Runs against an in-memory directory server.
+     *
+     * @throws Exception if the server cannot be started
+     */
+    @Test
+    public void ldapPoolGrowsToMaxSize() throws Exception {
+        final InMemoryDirectoryServer server = new InMemoryDirectoryServer(
+                new InMemoryDirectoryServerConfig("dc=example,dc=com"));
+        server.startListening();
+        try {
+            final LDAPConnectionPool pool = LdapClient.createPool(server.getConnection(), 1, 3);
+            try {
+                assertEquals(1, pool.getCurrentAvailableConnections());
+                final List<LDAPConnection> connections = new ArrayList<>();
+                for (int i = 0; i < 3; i++) {
+                    connections.add(pool.getConnection());
+                }
+                assertEquals(3, new HashSet<>(connections).size());
+                try {
+                    pool.getConnection();
+                    fail("No connection beyond the maximum size expected");
+                } catch (com.unboundid.ldap.sdk.LDAPException ex) {
+                    // expected
+                }
+
+                for (LDAPConnection connection : connections) {
+                    pool.releaseConnection(connection);
+                }
+                assertEquals(3, pool.getCurrentAvailableConnections());
+            } finally {
+                pool.close();
+            }
+        } finally {
+            server.shutDown(true);
+        }
+    }
+
+    /**
+     * Tests that the connection of a search failing with a runtime exception
+     * is returned to the pool as defunct, so a pool of one connection still
+     * serves the next search. Runs against an in-memory directory server.
+     *
+     * @throws Exception if the server cannot be started
+     */
+    @Test
+    public void ldapSearchReleasesConnectionOnRuntimeException() throws Exception {
+        final InMemoryDirectoryServer server = new InMemoryDirectoryServer(
+                new InMemoryDirectoryServerConfig("dc=example,dc=com"));
+        server.startListening();
+        try {
+            final LDAPConnectionPool pool = LdapClient.createPool(server.getConnection(), 1, 1);
+            try {
+                try {
+                    LdapClient.search(pool, null);
+                    fail("LDAPSDKUsageException expected");
+                } catch (LDAPSDKUsageException ex) {
+                    // expected
+                }
+                assertEquals(1, pool.getConnectionPoolStatistics().getNumConnectionsClosedDefunct());
+
+                final SearchRequest request = new SearchRequest("", SearchScope.BASE, "(objectClass=*)");
+                assertEquals(ResultCode.SUCCESS, LdapClient.search(pool, request).getResultCode());
+            } finally {
+                pool.close();
+            }
+        } finally {
+            server.shutDown(true);
+        }
+    }
+
+    /**
+     * Tests determining the attribute identifying the subject of a filter.
+     */
+    @Test
+    public void subjectAttributeOfFilter() {
+        assertEquals("uid", LdapClient.subjectAttribute("(uid=stiam-aa-nameid)"));
+        assertEquals("mail", LdapClient.subjectAttribute("(&(objectClass=person)(mail=stiam-aa-nameid))"));
+        assertNull(LdapClient.subjectAttribute("(|(uid=stiam-aa-nameid)(mail=stiam-aa-nameid))"));
+        assertNull(LdapClient.subjectAttribute("(cn=*stiam-aa-nameid*)"));
+        assertNull(LdapClient.subjectAttribute("(uid=stiam-aa-nameid"));
+    }
+
+    /**
+     * Tests that the entries of a bulk search are assigned to all NameIDs
+     * differing only in case, and to none not found.
+     */
+    @Test
+    public void assignEntriesToCaseVariants() {
+        final List<SearchResultEntry> entries = Arrays.asList(
+                new SearchResultEntry("uid=johndoe,dc=example,dc=com", new Attribute[]{
+                    new Attribute("uid", "johndoe"), new Attribute("uidNumber", "1000")}),
+                new SearchResultEntry("uid=janedoe,dc=example,dc=com", new Attribute[]{
+                    new Attribute("uid", "JaneDoe")}));
+        final Map<String, String[]> results = new HashMap<>();
+        LdapClient.assignEntries(entries, "uid", Arrays.asList("JohnDoe", "johndoe", "janedoe", "nobody"),
+                new String[]{"uidNumber"}, results);
+
+        assertEquals(3, results.size());
+        assertEquals("1000", results.get("JohnDoe")[0]);
+        assertEquals("1000", results.get("johndoe")[0]);
+        assertEquals("", results.get("janedoe")[0]);
+        assertFalse(results.containsKey("nobody"));
+    }
+
 //////////////////////////////////////// Helpers
     /**
      * Fetches attribute-values from the LDAP-directory and compares their
@@ -163,4 +367,30 @@ public class LdapClientTest {
             fail("Caught unexpected UserNotFoundException!");
         }
     }
+
+    /**
+     * Searches asynchronously and waits for the result
+     *
+     * @param nameId NameID used for query
+     * @param attrs Names of the attributes queried
+     * @param result Receives the values or the exception
+     */
+    private void getAttributesAsync(String nameId, String[] attrs, final AtomicReference<Object> result)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        ldapClient.getAttributes(nameId, attrs, new LdapClient.SearchCallback() {
+            @Override
+            public void completed(String[] values) {
+                result.set(values);
+                done.countDown();
+            }
+
+            @Override
+            public void failed(DirectoryException cause) {
+                result.set(cause);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
 }
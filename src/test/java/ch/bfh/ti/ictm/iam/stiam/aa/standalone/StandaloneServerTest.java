@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.standalone;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.authority.AttributeService;
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.saml.ExtendedAttributeQueryBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Testsuite for the StandaloneServer
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class StandaloneServerTest {
+//////////////////////////////////////// Fields
+
+    private static StandaloneServer server;
+    private static TestConfiguration testConfig;
+
+//////////////////////////////////////// Unit-tests and initialization
+    /**
+     * Starts the server on a free port.
+     *
+     * @throws Exception if the server cannot be started
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        testConfig = new TestConfiguration();
+        server = new StandaloneServer(new AttributeService(), "localhost", 0);
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop();
+    }
+
+    /**
+     * Tests that the info page is served.
+     *
+     * @throws Exception if the request fails
+     */
+    @Test
+    public void testGet() throws Exception {
+        final HttpURLConnection connection = open();
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(read(connection.getInputStream()), containsString("STIAM Attribute Authority"));
+    }
+
+    /**
+     * Tests that an attribute query is answered. Only with the SOAP binding,
+     * as the HTTP-POST binding checks the destination of the query, which names
+     * the configured port instead of the one of the test server.
+     *
+     * @throws Exception if the request fails
+     */
+    @Test
+    public void testPostAttributeQuery() throws Exception {
+        assumeTrue(StiamConfiguration.getInstance().getBinding() == StiamConfiguration.Binding.SOAP);
+        final ArrayList<String[]> attributes = new ArrayList<>();
+        for (String attributeProperty : testConfig.getPropertyList("AttributeServiceTest.Attributes")) {
+            attributes.add(testConfig.getPropertyList(attributeProperty));
+        }
+        final ExtendedAttributeQueryBuilder builder = new ExtendedAttributeQueryBuilder(attributes);
+
+        final HttpURLConnection connection = open();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "text/xml");
+        final String body = "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>"
+                + builder.build().substring(38) + "</S:Body></S:Envelope>";
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertThat(connection.getResponseCode(), is(200));
+        final String response = read(connection.getInputStream());
+        assertThat(connection.getContentLength(), is(response.getBytes(StandardCharsets.UTF_8).length));
+        assertThat(response, containsString("Response"));
+    }
+
+    /**
+     * Tests that a request which is not a query is rejected.
+     *
+     * @throws Exception if the request fails
+     */
+    @Test
+    public void testPostEmpty() throws Exception {
+        final HttpURLConnection connection = open();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "text/xml");
+        connection.getOutputStream().close();
+        assertThat(connection.getResponseCode(), is(400));
+    }
+
+    /**
+     * Tests that the servlet is mounted with support for asynchronous
+     * requests, completed on a thread of their own.
+     *
+     * @throws Exception if the request fails
+     */
+    @Test
+    public void testAsync() throws Exception {
+        final StandaloneServer asyncServer = new StandaloneServer(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse res) {
+                final AsyncContext context = req.startAsync();
+                context.start(new Runnable() {
+                    @Override
+                    public void run() {
+                        ((HttpServletResponse) context.getResponse()).setStatus(202);
+                        context.complete();
+                    }
+                });
+            }
+        }, "localhost", 0);
+        asyncServer.start();
+        try {
+            assertThat(open(asyncServer).getResponseCode(), is(202));
+        } finally {
+            asyncServer.stop();
+        }
+    }
+
+//////////////////////////////////////// Helpers
+    private static HttpURLConnection open() throws IOException {
+        return open(server);
+    }
+
+    private static HttpURLConnection open(StandaloneServer server) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/").openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimalist harness for the micro-benchmarks included with the testsuites.
+ * A task is run a number of times for warming up the JIT and then measured
+ * over a given number of iterations.
+ *
+ * The benchmarks are testsuites named *Benchmark, which are not run during a
+ * normal build (they take long and their results depend on the machine). They
+ * have to be run explicitly, e.g.: mvn test -Dtest=SigningProfileBenchmark
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public final class Benchmark {
+//////////////////////////////////////// Fields
+
+    private static final Logger logger = LoggerFactory.getLogger(Benchmark.class);
+
+//////////////////////////////////////// Inner classes
+    /**
+     * A task to be measured.
+     */
+    public interface Task {
+
+        /**
+         * Performs one iteration of the task.
+         *
+         * @throws Exception if the task fails, aborting the benchmark
+         */
+        public void run() throws Exception;
+    }
+
+    /**
+     * The result of a benchmark run.
+     */
+    public static class Result {
+
+        private final String name;
+        private final int iterations;
+        private final long nanos;
+
+        Result(String name, int iterations, long nanos) {
+            this.name = name;
+            this.iterations = iterations;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return Name of the benchmark
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Average throughput in operations per second
+         */
+        public double getOpsPerSecond() {
+            return iterations / (nanos / 1e9);
+        }
+
+        /**
+         * @return Average time per operation in microseconds
+         */
+        public double getMicrosPerOp() {
+            return nanos / 1e3 / iterations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %10.1f ops/s %10.1f us/op", name, getOpsPerSecond(), getMicrosPerOp());
+        }
+    }
+
+//////////////////////////////////////// Constructors
+    /**
+     * Not to be instantiated.
+     */
+    private Benchmark() {
+    }
+
+//////////////////////////////////////// Methods
+    /**
+     * Runs a benchmark and logs its result.
+     *
+     * @param name Name of the benchmark, used for reporting
+     * @param warmupIterations Number of unmeasured iterations run before
+     * @param iterations Number of measured iterations
+     * @param task The task to measure
+     * @return The result of the measurement
+     * @throws Exception if the task fails
+     */
+    public static Result run(String name, int warmupIterations, int iterations, Task task) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            task.run();
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        final Result result = new Result(name, iterations, System.nanoTime() - start);
+
+        logger.info("Benchmark: {}", result);
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ * Testsuite for the BufferPool
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class BufferPoolTest {
+
+    /**
+     * Tests that released buffers are reused, up to the maximum kept.
+     */
+    @Test
+    public void testReuse() {
+        final BufferPool pool = new BufferPool(16, 1);
+        final byte[] first = pool.acquire();
+        final byte[] second = pool.acquire();
+        assertThat(first.length, is(16));
+
+        pool.release(first);
+        pool.release(second);
+        assertThat(pool.getPooledCount(), is(1));
+        assertThat(pool.acquire(), is(sameInstance(first)));
+        assertThat(pool.getPooledCount(), is(0));
+    }
+
+    /**
+     * Tests that buffers of another size are not pooled and do not change
+     * the count of buffers kept.
+     */
+    @Test
+    public void testReleaseWrongSize() {
+        final BufferPool pool = new BufferPool(16, 2);
+        pool.release(new byte[8]);
+        assertThat(pool.getPooledCount(), is(0));
+
+        pool.release(pool.acquire());
+        pool.release(new byte[32]);
+        assertThat(pool.getPooledCount(), is(1));
+        assertThat(pool.acquire().length, is(16));
+        assertThat(pool.acquire().length, is(16));
+        assertThat(pool.getPooledCount(), is(0));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Testsuite for the CredentialRegistry
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class CredentialRegistryTest {
+//////////////////////////////////////// Fields
+
+    private static StiamConfiguration stiamConfig;
+    private static File keystoreCopy;
+
+//////////////////////////////////////// Unit-tests and initialization
+    /**
+     * Set up some things before running the tests...
+     *
+     * @throws IOException if the keystore cannot be copied
+     */
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        stiamConfig = StiamConfiguration.getInstance();
+        keystoreCopy = File.createTempFile("stiam-aa", ".jks");
+        Files.copy(new File(stiamConfig.getKeystoreFilePath()).toPath(), keystoreCopy.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Cleanup after testing...
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        keystoreCopy.delete();
+    }
+
+    /**
+     * Tests loading of the keystore and lookup of all kinds of credentials.
+     */
+    @Test
+    public void loadCredentials() throws IOException, KeyStoreException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableEntryException {
+        final CredentialRegistry registry = load();
+
+        assertNotNull(registry.getSignatureCredential());
+        assertNotNull(registry.getSignatureCredential().getPrivateKey());
+        assertSame(registry.getSignatureCredential(), registry.getCredential(stiamConfig.getKeystoreEntryName()));
+        assertNotNull(registry.getCertificate(stiamConfig.getKeystoreEntryName()));
+        assertNull(registry.getCertificate("not-in-keystore"));
+        assertNull(registry.getCredential("not-in-keystore"));
+    }
+
+    /**
+     * Tests that a modification of the keystore-file is detected.
+     */
+    @Test
+    public void detectModification() throws IOException, KeyStoreException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableEntryException {
+        final CredentialRegistry registry = load();
+        assertFalse(registry.isStale());
+
+        assertTrue(keystoreCopy.setLastModified(keystoreCopy.lastModified() - 60000));
+        assertTrue(registry.isStale());
+    }
+
+    /**
+     * Tests that loading fails if the signature entry does not exist.
+     */
+    @Test(expected = KeyStoreException.class)
+    public void missingSignatureEntry() throws IOException, KeyStoreException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableEntryException {
+        CredentialRegistry.load(keystoreCopy.getPath(), stiamConfig.getKeystorePassword(),
+                stiamConfig.getKeystoreEntryPassword(), "not-in-keystore");
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * @return A registry loaded from the copy of the configured keystore
+     */
+    private CredentialRegistry load() throws IOException, KeyStoreException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableEntryException {
+        return CredentialRegistry.load(keystoreCopy.getPath(), stiamConfig.getKeystorePassword(),
+                stiamConfig.getKeystoreEntryPassword(), stiamConfig.getKeystoreEntryName());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import org.slf4j.Logger;
+
+/**
+ * Testsuite for the RateLimitedLogger
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class RateLimitedLoggerTest {
+
+    /**
+     * Tests that messages beyond the limit are suppressed and reported in the
+     * next interval.
+     *
+     * @throws Exception if interrupted
+     */
+    @Test
+    public void testLimit() throws Exception {
+        final Logger logger = mock(Logger.class);
+        final RateLimitedLogger limited = new RateLimitedLogger(logger, 2, 200);
+
+        for (int i = 0; i < 5; i++) {
+            limited.error("Rejected {}", i);
+        }
+        verify(logger, times(2)).error(eq("Rejected {}"), (Object[]) anyVararg());
+        assertThat(limited.getSuppressedCount(), is(3L));
+
+        Thread.sleep(250);
+        limited.error("Rejected {}", 5);
+        verify(logger).warn(anyString(), eq(3L));
+        verify(logger, times(3)).error(eq("Rejected {}"), (Object[]) anyVararg());
+    }
+
+    /**
+     * Tests that all messages are logged without limit.
+     */
+    @Test
+    public void testUnlimited() {
+        final Logger logger = mock(Logger.class);
+        final RateLimitedLogger limited = new RateLimitedLogger(logger, 0);
+
+        for (int i = 0; i < 100; i++) {
+            limited.error("Rejected");
+        }
+        verify(logger, times(100)).error(eq("Rejected"), (Object[]) anyVararg());
+        assertThat(limited.getSuppressedCount(), is(0L));
+    }
+}
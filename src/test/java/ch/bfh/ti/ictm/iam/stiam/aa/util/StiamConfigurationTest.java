@@ -13,6 +13,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import org.junit.Assert;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -38,6 +39,7 @@ public class StiamConfigurationTest {
     private static final String DEFAULT_PROPERTYDIRECTORY_FILEPATH = CONFIG_DIR + "/property-directory.properties";
     private static final String DEFAULT_TESTCONFIGURATION_FILEPATH = CONFIG_DIR + "/aa-test.properties";
     private static final String DEFAULT_KEYSTORE_FILEPATH = CONFIG_DIR + "/aa.jks";
+    private static final String DEFAULT_RELYINGPARTIES_FILEPATH = CONFIG_DIR + "/relying-parties.properties";
 
     // SAML default settings
     private static final String DEFAULT_SAML_ISSUER = "https://aa.example.org";
@@ -48,6 +50,7 @@ public class StiamConfigurationTest {
     private static final String DEFAULT_SAML_ASSURANCELEVEL = "http://assurance.example.org/level1";
     private static final String DEFAULT_SAML_SUBJECTCONFIRMATIONMETHOD = "urn:oasis:names:tc:SAML:2.0:cm:bearer";
     private static final String DEFAULT_SAML_RETURN_POST_BINDING = "true";
+    private static final String DEFAULT_SAML_SIGNINGPROFILE = "both";
 
     // LDAP default settings
     private static final String DEFAULT_LDAP_HOST = "localhost";
@@ -56,6 +59,14 @@ public class StiamConfigurationTest {
     private static final String DEFAULT_LDAP_PASSPHRASE = "";
     private static final String DEFAULT_LDAP_BASEDN = "";
     private static final String DEFAULT_LDAP_FILTER = "(uid=%s)";
+    private static final String DEFAULT_LDAP_BULK_SEARCH_SIZE = "50";
+    private static final String DEFAULT_LDAP_POOL_INITIAL_SIZE = "2";
+    private static final String DEFAULT_LDAP_POOL_MAX_SIZE = "10";
+    private static final String DEFAULT_LDAP_POOL_MAX_WAIT_MILLIS = "5000";
+    private static final String DEFAULT_LDAP_POOL_MAX_CONNECTION_AGE_SECONDS = "1800";
+    private static final String DEFAULT_LDAP_POOL_HEALTH_CHECK_INTERVAL_SECONDS = "60";
+    private static final String DEFAULT_LDAP_SEARCH_TIME_LIMIT_SECONDS = "5";
+    private static final String DEFAULT_LDAP_RESPONSE_TIMEOUT_MILLIS = "7000";
 
     // Attribute-Service configuration
     private static final String DEFAULT_BINDING = "soap";
@@ -64,11 +75,50 @@ public class StiamConfigurationTest {
     private static final String DEFAULT_VERIFY_AUTHN_STATEMENT = "true";
     private static final String DEFAULT_VERIFY_AUTHN_SIGNATURE = "true";
     private static final String DEFAULT_VERIFY_AUTHN_TIMESPAN = "true";
+    private static final String DEFAULT_ASSERTION_CACHE_SIZE = "1000";
+    private static final String DEFAULT_SIGNING_STAGE_THREADS = "0";
+    private static final String DEFAULT_SIGNING_STAGE_QUEUE_DEPTH = "100";
+    private static final String DEFAULT_RESPONSE_ENGINE = "opensaml";
+    private static final String DEFAULT_PRE_AUTH_ERRORS = "signed";
+    private static final String DEFAULT_PRE_AUTH_ERROR_LOGS_PER_MINUTE = "60";
+    private static final String DEFAULT_MAX_REQUEST_SIZE = "131072";
+    private static final String DEFAULT_MAX_ELEMENT_DEPTH = "32";
+    private static final String DEFAULT_MAX_ATTRIBUTES_PER_ELEMENT = "32";
+    private static final String DEFAULT_PARSER_POOL_SIZE = "32";
+    private static final String DEFAULT_PARSER_POOL_WAIT_MILLIS = "1000";
+    private static final String DEFAULT_ASYNC_PROCESSING = "true";
+    private static final String DEFAULT_ASYNC_TIMEOUT_MILLIS = "30000";
+    private static final String DEFAULT_VERIFICATION_THREADS = "0";
+    private static final String DEFAULT_DIRECTORY_THREADS = "16";
+    private static final String DEFAULT_PROCESSING_QUEUE_DEPTH = "100";
+    private static final String DEFAULT_NON_BLOCKING_READ = "true";
+    private static final String DEFAULT_READ_TIMEOUT_MILLIS = "10000";
+    private static final String DEFAULT_VIRTUAL_THREADS = "false";
+    private static final String DEFAULT_VIRTUAL_THREAD_LIMIT = "2000";
+    private static final String DEFAULT_MAX_IN_FLIGHT_QUERIES = "256";
+    private static final String DEFAULT_ADMISSION_QUEUE_SIZE = "128";
+    private static final String DEFAULT_ADMISSION_WAIT_MILLIS = "100";
+    private static final String DEFAULT_RETRY_AFTER_SECONDS = "1";
+    private static final String DEFAULT_WARMUP_QUERIES = "0";
+    private static final String DEFAULT_WARMUP_ATTRIBUTES = "uid";
+    private static final String DEFAULT_READINESS_PATH = "/ready";
+    private static final String DEFAULT_MAX_BATCH_SIZE = "100";
+
+    // Standalone server configuration
+    private static final String DEFAULT_STANDALONE_HOST = "";
+    private static final String DEFAULT_STANDALONE_PORT = "8080";
+    private static final String DEFAULT_STANDALONE_ACCEPT_QUEUE_SIZE = "128";
+    private static final String DEFAULT_STANDALONE_ACCEPTORS = "1";
+    private static final String DEFAULT_STANDALONE_WORKER_THREADS = "32";
+    private static final String DEFAULT_STANDALONE_IDLE_TIMEOUT_SECONDS = "30";
+    private static final String DEFAULT_STANDALONE_MAX_CONNECTIONS = "0";
+    private static final String DEFAULT_STANDALONE_OUTPUT_BUFFER_SIZE = "32768";
 
     // Keystore configuration
     private static final String DEFAULT_KEYSTORE_PASSWORD = "secret";
     private static final String DEFAULT_KEYSTORE_ENTRY_NAME = "stiam-aa";
     private static final String DEFAULT_KEYSTORE_ENTRY_PASSWORD = "secret";
+    private static final String DEFAULT_KEYSTORE_RELOAD_INTERVAL_SECONDS = "10";
 
     // Other default settings
     private static final String DEFAULT_ELIGIBILITY_POLICY = "deny";
@@ -121,6 +171,12 @@ public class StiamConfigurationTest {
                 + DEFAULT_KEYSTORE_FILEPATH), stiamConfig.getKeystoreFilePath());
     }
 
+    @Test
+    public void tryToGetRelyingPartiesFilePath() {
+        assertEquals(testConfig.getProperty("StiamConfigurationTest.RelyingParties.FilePath", System.getProperties().getProperty("user.home") + "/"
+                + DEFAULT_RELYINGPARTIES_FILEPATH), stiamConfig.getRelyingPartiesFilePath());
+    }
+
     //////////////////// SAML-Methods
     @Test
     public void tryToGetSAMLIssuer() {
@@ -164,6 +220,22 @@ public class StiamConfigurationTest {
                 stiamConfig.getSAMLSubjectConfirmationMethod());
     }
 
+    @Test
+    public void tryToGetDefaultSigningProfile() {
+        assertEquals(testConfig.getProperty("StiamConfigurationTest.SAML.DefaultSigningProfile", DEFAULT_SAML_SIGNINGPROFILE),
+                stiamConfig.getDefaultSigningProfile().name().toLowerCase());
+    }
+
+    @Test
+    public void tryToGetSAMLSignatureAlgorithm() {
+        assertEquals(testConfig.getProperty("StiamConfigurationTest.SAML.SignatureAlgorithm"), stiamConfig.getSAMLSignatureAlgorithm());
+    }
+
+    @Test
+    public void tryToGetSAMLDigestAlgorithm() {
+        assertEquals(testConfig.getProperty("StiamConfigurationTest.SAML.DigestAlgorithm"), stiamConfig.getSAMLDigestAlgorithm());
+    }
+
     //////////////////// LDAP-Methods
     @Test
     public void tryToGetLdapHost() {
@@ -199,6 +271,54 @@ public class StiamConfigurationTest {
                 stiamConfig.getLdapFilter(testNameId));
     }
 
+    @Test
+    public void tryToGetLdapBulkSearchSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.LdapBulkSearchSize", DEFAULT_LDAP_BULK_SEARCH_SIZE)),
+                stiamConfig.getLdapBulkSearchSize());
+    }
+
+    @Test
+    public void tryToGetLdapPoolInitialSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.LdapPoolInitialSize", DEFAULT_LDAP_POOL_INITIAL_SIZE)),
+                stiamConfig.getLdapPoolInitialSize());
+    }
+
+    @Test
+    public void tryToGetLdapPoolMaxSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.LdapPoolMaxSize", DEFAULT_LDAP_POOL_MAX_SIZE)),
+                stiamConfig.getLdapPoolMaxSize());
+    }
+
+    @Test
+    public void tryToGetLdapPoolMaxWaitMillis() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.LdapPoolMaxWaitMillis", DEFAULT_LDAP_POOL_MAX_WAIT_MILLIS)),
+                stiamConfig.getLdapPoolMaxWaitMillis());
+    }
+
+    @Test
+    public void tryToGetLdapPoolMaxConnectionAgeSeconds() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.LdapPoolMaxConnectionAgeSeconds", DEFAULT_LDAP_POOL_MAX_CONNECTION_AGE_SECONDS)),
+                stiamConfig.getLdapPoolMaxConnectionAgeSeconds());
+    }
+
+    @Test
+    public void tryToGetLdapPoolHealthCheckIntervalSeconds() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.LdapPoolHealthCheckIntervalSeconds", DEFAULT_LDAP_POOL_HEALTH_CHECK_INTERVAL_SECONDS)),
+                stiamConfig.getLdapPoolHealthCheckIntervalSeconds());
+    }
+
+    @Test
+    public void tryToGetLdapSearchTimeLimitSeconds() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.LdapSearchTimeLimitSeconds", DEFAULT_LDAP_SEARCH_TIME_LIMIT_SECONDS)),
+                stiamConfig.getLdapSearchTimeLimitSeconds());
+    }
+
+    @Test
+    public void tryToGetLdapResponseTimeoutMillis() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.LdapResponseTimeoutMillis", DEFAULT_LDAP_RESPONSE_TIMEOUT_MILLIS)),
+                stiamConfig.getLdapResponseTimeoutMillis());
+    }
+
     //////////////////// Attribute-Service configuration
     @Test
     public void tryToGetBinding() {
@@ -239,6 +359,233 @@ public class StiamConfigurationTest {
                 stiamConfig.verifyAuthnTimespan());
     }
 
+    @Test
+    public void tryToGetAssertionCacheSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.AssertionCacheSize", DEFAULT_ASSERTION_CACHE_SIZE)),
+                stiamConfig.getAssertionCacheSize());
+    }
+
+    @Test
+    public void tryToGetSigningStageThreads() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.SigningThreads", DEFAULT_SIGNING_STAGE_THREADS)),
+                stiamConfig.getSigningStageThreads());
+    }
+
+    @Test
+    public void tryToGetSigningStageQueueDepth() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.SigningQueueDepth", DEFAULT_SIGNING_STAGE_QUEUE_DEPTH)),
+                stiamConfig.getSigningStageQueueDepth());
+    }
+
+    @Test
+    public void tryToGetResponseEngine() {
+        if (testConfig.getProperty("StiamConfigurationTest.ResponseEngine", DEFAULT_RESPONSE_ENGINE).equalsIgnoreCase("template")) {
+            assertEquals(stiamConfig.getResponseEngine(), StiamConfiguration.ResponseEngine.TEMPLATE);
+        } else {
+            assertEquals(stiamConfig.getResponseEngine(), StiamConfiguration.ResponseEngine.OPENSAML);
+        }
+    }
+
+    @Test
+    public void tryToGetPreAuthErrorMode() {
+        assertEquals(StiamConfiguration.PreAuthErrorMode.valueOf(testConfig.getProperty(
+                "StiamConfigurationTest.PreAuthErrors", DEFAULT_PRE_AUTH_ERRORS).toUpperCase()),
+                stiamConfig.getPreAuthErrorMode());
+    }
+
+    @Test
+    public void tryToGetPreAuthErrorLogsPerMinute() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.PreAuthErrorLogsPerMinute",
+                DEFAULT_PRE_AUTH_ERROR_LOGS_PER_MINUTE)), stiamConfig.getPreAuthErrorLogsPerMinute());
+    }
+
+    @Test
+    public void tryToGetMaxRequestSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.MaxRequestSize",
+                DEFAULT_MAX_REQUEST_SIZE)), stiamConfig.getMaxRequestSize());
+    }
+
+    @Test
+    public void tryToGetMaxElementDepth() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.MaxElementDepth",
+                DEFAULT_MAX_ELEMENT_DEPTH)), stiamConfig.getMaxElementDepth());
+    }
+
+    @Test
+    public void tryToGetMaxAttributesPerElement() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.MaxAttributesPerElement",
+                DEFAULT_MAX_ATTRIBUTES_PER_ELEMENT)), stiamConfig.getMaxAttributesPerElement());
+    }
+
+    @Test
+    public void tryToGetParserPoolSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.ParserPoolSize",
+                DEFAULT_PARSER_POOL_SIZE)), stiamConfig.getParserPoolSize());
+    }
+
+    @Test
+    public void tryToGetParserPoolWaitMillis() {
+        assertEquals(Long.parseLong(testConfig.getProperty("StiamConfigurationTest.ParserPoolWaitMillis",
+                DEFAULT_PARSER_POOL_WAIT_MILLIS)), stiamConfig.getParserPoolWaitMillis());
+    }
+
+    @Test
+    public void tryToUseAsyncProcessing() {
+        assertEquals(Boolean.parseBoolean(testConfig.getProperty("StiamConfigurationTest.AsyncProcessing",
+                DEFAULT_ASYNC_PROCESSING)), stiamConfig.useAsyncProcessing());
+    }
+
+    @Test
+    public void tryToGetAsyncTimeoutMillis() {
+        assertEquals(Long.parseLong(testConfig.getProperty("StiamConfigurationTest.AsyncTimeoutMillis",
+                DEFAULT_ASYNC_TIMEOUT_MILLIS)), stiamConfig.getAsyncTimeoutMillis());
+    }
+
+    @Test
+    public void tryToGetVerificationThreads() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.VerificationThreads",
+                DEFAULT_VERIFICATION_THREADS)), stiamConfig.getVerificationThreads());
+    }
+
+    @Test
+    public void tryToGetDirectoryThreads() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.DirectoryThreads",
+                DEFAULT_DIRECTORY_THREADS)), stiamConfig.getDirectoryThreads());
+    }
+
+    @Test
+    public void tryToGetProcessingQueueDepth() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.ProcessingQueueDepth",
+                DEFAULT_PROCESSING_QUEUE_DEPTH)), stiamConfig.getProcessingQueueDepth());
+    }
+
+    @Test
+    public void tryToGetNonBlockingRead() {
+        assertEquals(Boolean.parseBoolean(testConfig.getProperty("StiamConfigurationTest.NonBlockingRead",
+                DEFAULT_NON_BLOCKING_READ)), stiamConfig.useNonBlockingRead());
+    }
+
+    @Test
+    public void tryToGetReadTimeoutMillis() {
+        assertEquals(Long.parseLong(testConfig.getProperty("StiamConfigurationTest.ReadTimeoutMillis",
+                DEFAULT_READ_TIMEOUT_MILLIS)), stiamConfig.getReadTimeoutMillis());
+    }
+
+    @Test
+    public void tryToGetVirtualThreads() {
+        assertEquals(Boolean.parseBoolean(testConfig.getProperty("StiamConfigurationTest.VirtualThreads",
+                DEFAULT_VIRTUAL_THREADS)), stiamConfig.useVirtualThreads());
+    }
+
+    @Test
+    public void tryToGetVirtualThreadLimit() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.VirtualThreadLimit",
+                DEFAULT_VIRTUAL_THREAD_LIMIT)), stiamConfig.getVirtualThreadLimit());
+    }
+
+    @Test
+    public void tryToGetMaxInFlightQueries() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.MaxInFlightQueries",
+                DEFAULT_MAX_IN_FLIGHT_QUERIES)), stiamConfig.getMaxInFlightQueries());
+    }
+
+    @Test
+    public void tryToGetAdmissionQueueSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.AdmissionQueueSize",
+                DEFAULT_ADMISSION_QUEUE_SIZE)), stiamConfig.getAdmissionQueueSize());
+    }
+
+    @Test
+    public void tryToGetAdmissionWaitMillis() {
+        assertEquals(Long.parseLong(testConfig.getProperty("StiamConfigurationTest.AdmissionWaitMillis",
+                DEFAULT_ADMISSION_WAIT_MILLIS)), stiamConfig.getAdmissionWaitMillis());
+    }
+
+    @Test
+    public void tryToGetRetryAfterSeconds() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.RetryAfterSeconds",
+                DEFAULT_RETRY_AFTER_SECONDS)), stiamConfig.getRetryAfterSeconds());
+    }
+
+    @Test
+    public void tryToGetWarmupQueries() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.WarmupQueries",
+                DEFAULT_WARMUP_QUERIES)), stiamConfig.getWarmupQueries());
+    }
+
+    @Test
+    public void tryToGetWarmupNameID() {
+        assertEquals(testConfig.getProperty("StiamConfigurationTest.WarmupNameID",
+                stiamConfig.getSAMLNameID()), stiamConfig.getWarmupNameID());
+    }
+
+    @Test
+    public void tryToGetWarmupAttributes() {
+        assertArrayEquals(testConfig.getProperty("StiamConfigurationTest.WarmupAttributes",
+                DEFAULT_WARMUP_ATTRIBUTES).split(","), stiamConfig.getWarmupAttributes());
+    }
+
+    @Test
+    public void tryToGetReadinessPath() {
+        assertEquals(testConfig.getProperty("StiamConfigurationTest.ReadinessPath",
+                DEFAULT_READINESS_PATH), stiamConfig.getReadinessPath());
+    }
+
+    @Test
+    public void tryToGetMaxBatchSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.MaxBatchSize",
+                DEFAULT_MAX_BATCH_SIZE)), stiamConfig.getMaxBatchSize());
+    }
+
+    //////////////////// Standalone-Server configuration
+    @Test
+    public void tryToGetStandaloneHost() {
+        assertEquals(testConfig.getProperty("StiamConfigurationTest.StandaloneHost",
+                DEFAULT_STANDALONE_HOST), stiamConfig.getStandaloneHost());
+    }
+
+    @Test
+    public void tryToGetStandalonePort() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.StandalonePort",
+                DEFAULT_STANDALONE_PORT)), stiamConfig.getStandalonePort());
+    }
+
+    @Test
+    public void tryToGetStandaloneAcceptQueueSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.StandaloneAcceptQueueSize",
+                DEFAULT_STANDALONE_ACCEPT_QUEUE_SIZE)), stiamConfig.getStandaloneAcceptQueueSize());
+    }
+
+    @Test
+    public void tryToGetStandaloneAcceptors() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.StandaloneAcceptors",
+                DEFAULT_STANDALONE_ACCEPTORS)), stiamConfig.getStandaloneAcceptors());
+    }
+
+    @Test
+    public void tryToGetStandaloneWorkerThreads() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.StandaloneWorkerThreads",
+                DEFAULT_STANDALONE_WORKER_THREADS)), stiamConfig.getStandaloneWorkerThreads());
+    }
+
+    @Test
+    public void tryToGetStandaloneIdleTimeoutSeconds() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.StandaloneIdleTimeoutSeconds",
+                DEFAULT_STANDALONE_IDLE_TIMEOUT_SECONDS)), stiamConfig.getStandaloneIdleTimeoutSeconds());
+    }
+
+    @Test
+    public void tryToGetStandaloneMaxConnections() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.StandaloneMaxConnections",
+                DEFAULT_STANDALONE_MAX_CONNECTIONS)), stiamConfig.getStandaloneMaxConnections());
+    }
+
+    @Test
+    public void tryToGetStandaloneOutputBufferSize() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.StandaloneOutputBufferSize",
+                DEFAULT_STANDALONE_OUTPUT_BUFFER_SIZE)), stiamConfig.getStandaloneOutputBufferSize());
+    }
+
     //////////////////// Credential configuration
     @Test
     public void tryToGetKeystorePassword() {
@@ -258,6 +605,20 @@ public class StiamConfigurationTest {
                 stiamConfig.getKeystoreEntryPassword());
     }
 
+    @Test
+    public void tryToGetKeystoreReloadIntervalSeconds() {
+        assertEquals(Integer.parseInt(testConfig.getProperty("StiamConfigurationTest.KeystoreReloadIntervalSeconds", DEFAULT_KEYSTORE_RELOAD_INTERVAL_SECONDS)),
+                stiamConfig.getKeystoreReloadIntervalSeconds());
+    }
+
+    @Test
+    public void tryToGetCredentialRegistry() throws IOException, KeyStoreException,
+            NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException {
+        final CredentialRegistry registry = stiamConfig.getCredentialRegistry();
+        Assert.assertNotNull(registry);
+        Assert.assertSame(registry.getSignatureCredential(), stiamConfig.getSignatureCredential());
+    }
+
     @Test
     public void tryToGetCredential() throws IOException, KeyStoreException,
             NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException {
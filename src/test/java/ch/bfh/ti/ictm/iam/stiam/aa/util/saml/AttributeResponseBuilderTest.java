@@ -88,4 +88,31 @@ public class AttributeResponseBuilderTest {
             fail("Problem with the XML transformer: " + ex.toString());
         }
     }
+
+    /**
+     * Tests that the signing profiles sign the expected elements.
+     *
+     * @throws Exception if building fails
+     */
+    @Test
+    public void testSigningProfiles() throws Exception {
+        final TestConfiguration testConfig = new TestConfiguration();
+        final ArrayList<Attribute> attributes = new ArrayList<>(1);
+        attributes.add(new Attribute(testConfig.getPropertyList("AttributeResponseBuilderTest.uid")));
+
+        assertThat(countSignatures(attributes, SigningProfile.NONE), is(0));
+        assertThat(countSignatures(attributes, SigningProfile.ASSERTION), is(1));
+        assertThat(countSignatures(attributes, SigningProfile.RESPONSE), is(1));
+        assertThat(countSignatures(attributes, SigningProfile.BOTH), is(2));
+    }
+
+    /**
+     * @return The number of signatures in a response built with the given
+     * profile
+     */
+    private int countSignatures(ArrayList<Attribute> attributes, SigningProfile profile) throws Exception {
+        final String response = new AttributeResponseBuilder("http://localhost:8080/", "_unique_id_", "johndoe",
+                attributes, profile).build();
+        return response.split("<ds:Signature ", -1).length - 1;
+    }
 }
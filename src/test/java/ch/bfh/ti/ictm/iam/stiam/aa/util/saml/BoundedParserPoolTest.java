@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import java.io.StringReader;
+import javax.xml.parsers.DocumentBuilder;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.opensaml.xml.parse.XMLParserException;
+
+/**
+ * Testsuite for the BoundedParserPool
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class BoundedParserPoolTest {
+
+    /**
+     * Tests that no more than the maximum number of parsers are handed out
+     * and the statistics are recorded.
+     *
+     * @throws Exception if parsing fails
+     */
+    @Test
+    public void testBound() throws Exception {
+        final BoundedParserPool pool = new BoundedParserPool(1, 50);
+        assertThat(pool.parse(new StringReader("<a xmlns=\"urn:a\">1</a>")).getDocumentElement().getNamespaceURI(),
+                is("urn:a"));
+
+        final DocumentBuilder builder = pool.getBuilder();
+        assertThat(pool.getParsersInUse(), is(1));
+        try {
+            pool.parse(new StringReader("<a/>"));
+            fail("More parsers than allowed handed out");
+        } catch (XMLParserException ex) {
+        }
+        pool.returnBuilder(builder);
+        pool.newDocument();
+
+        assertThat(pool.getParsersInUse(), is(0));
+        assertThat(pool.getPeakParsersInUse(), is(1));
+        assertThat(pool.getAcquired(), is(3L));
+        assertThat(pool.getRejected(), is(1L));
+    }
+
+    /**
+     * Tests that documents containing a DTD are rejected.
+     */
+    @Test
+    public void testDoctype() {
+        try {
+            new BoundedParserPool(1, 50).parse(new StringReader(
+                    "<!DOCTYPE a [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><a>&e;</a>"));
+            fail("Document with DTD parsed");
+        } catch (XMLParserException ex) {
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import java.io.ByteArrayOutputStream;
+import java.security.KeyStoreException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import org.opensaml.Configuration;
+import org.opensaml.common.impl.SAMLObjectContentReference;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.opensaml.xml.signature.Signer;
+import org.w3c.dom.Document;
+
+/**
+ * Testsuite for the signature helpers of MessageBuilder
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class MessageBuilderTest {
+
+    private final TestConfiguration testConfig = new TestConfiguration();
+
+    /**
+     * Tests that the algorithm is derived from the default RSA key if none is
+     * configured.
+     *
+     * @throws Exception if signing fails
+     */
+    @Test
+    public void testDefaultAlgorithm() throws Exception {
+        final Signature signature = sign(new RelyingParty(null, SigningProfile.BOTH, null, null, null));
+        assertThat(signature.getSignatureAlgorithm(), is(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA1));
+        new SignatureValidator(StiamConfiguration.getInstance().getSignatureCredential()).validate(signature);
+    }
+
+    /**
+     * Tests that the algorithm is derived from an EC key if none is
+     * configured.
+     *
+     * @throws Exception if signing fails
+     */
+    @Test
+    public void testECKey() throws Exception {
+        final String alias = testConfig.getProperty("MessageBuilderTest.ECSigningKey");
+        final Signature signature = sign(new RelyingParty(null, SigningProfile.BOTH, alias, null, null));
+        assertThat(signature.getSignatureAlgorithm(), is(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA1));
+        new SignatureValidator(StiamConfiguration.getInstance().getCredential(alias)).validate(signature);
+    }
+
+    /**
+     * Tests signing with explicitly configured signature and digest
+     * algorithms.
+     *
+     * @throws Exception if signing fails
+     */
+    @Test
+    public void testConfiguredAlgorithms() throws Exception {
+        final String alias = testConfig.getProperty("MessageBuilderTest.ECSigningKey");
+        final Signature signature = sign(new RelyingParty(null, SigningProfile.BOTH, alias,
+                SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, SignatureConstants.ALGO_ID_DIGEST_SHA256));
+        assertThat(signature.getSignatureAlgorithm(), is(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256));
+        assertThat(((SAMLObjectContentReference) signature.getContentReferences().get(0)).getDigestAlgorithm(),
+                is(SignatureConstants.ALGO_ID_DIGEST_SHA256));
+        new SignatureValidator(StiamConfiguration.getInstance().getCredential(alias)).validate(signature);
+
+        final Signature rsaSignature = sign(new RelyingParty(null, SigningProfile.BOTH, null,
+                SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256, null));
+        assertThat(rsaSignature.getSignatureAlgorithm(), is(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256));
+        new SignatureValidator(StiamConfiguration.getInstance().getSignatureCredential()).validate(rsaSignature);
+    }
+
+    /**
+     * Tests that an unknown signing key is refused.
+     *
+     * @throws Exception if signing fails otherwise
+     */
+    @Test(expected = KeyStoreException.class)
+    public void testUnknownKey() throws Exception {
+        sign(new RelyingParty(null, SigningProfile.BOTH, "not-existing", null, null));
+    }
+
+    /**
+     * Tests that serializing the DOM created for signing yields exactly the
+     * same output as marshalling the signed response into a new document.
+     *
+     * @throws Exception if signing or serializing fails
+     */
+    @Test
+    public void testMarshallSignedDOM() throws Exception {
+        final ResponseBuilder builder = new ResponseBuilder(
+                testConfig.getProperty("StatusResponseBuilderTest.Destination"),
+                testConfig.getProperty("StatusResponseBuilderTest.InResponseTo"),
+                testConfig.getPropertyList("StatusResponseBuilderTest.StatusCodes"),
+                SigningProfile.NONE);
+        final Response response = builder.buildRawResponse();
+        final Signature signature = builder.prepareSignature(response, new RelyingParty(null, SigningProfile.BOTH, null, null, null));
+        Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+        Signer.signObject(signature);
+
+        final String serialized = builder.marshallToString(response);
+
+        final Document doc = new BasicParserPool().newDocument();
+        Configuration.getMarshallerFactory().getMarshaller(response).marshall(response, doc);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(outputStream));
+
+        assertThat(serialized, is(new String(outputStream.toByteArray())));
+    }
+
+    /**
+     * Signs a status response for the given relying party.
+     */
+    private Signature sign(RelyingParty relyingParty) throws Exception {
+        final ResponseBuilder builder = new ResponseBuilder(
+                testConfig.getProperty("StatusResponseBuilderTest.Destination"),
+                testConfig.getProperty("StatusResponseBuilderTest.InResponseTo"),
+                testConfig.getPropertyList("StatusResponseBuilderTest.StatusCodes"),
+                SigningProfile.NONE);
+        final Response response = builder.buildRawResponse();
+        final Signature signature = builder.prepareSignature(response, relyingParty);
+        Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+        Signer.signObject(signature);
+        return signature;
+    }
+}
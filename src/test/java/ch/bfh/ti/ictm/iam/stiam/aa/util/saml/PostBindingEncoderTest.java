@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import org.opensaml.xml.util.Base64;
+
+/**
+ * Testsuite for the PostBindingEncoder
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class PostBindingEncoderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Compares the encoded messages with the ones encoded by Base64 and
+     * URLEncoder, for lengths spanning several chunks and all paddings.
+     *
+     * @throws Exception if encoding fails
+     */
+    @Test
+    public void testEncode() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 9000; i++) {
+            final String message = sb.toString();
+            if (i < 20 || i % 997 < 3) {
+                final String expected = Base64.encodeBytes(message.getBytes(UTF8), Base64.DONT_BREAK_LINES);
+
+                assertThat(encode(message, UTF8, PostBindingEncoder.Escaping.HTML_ATTRIBUTE), is(expected));
+                assertThat(PostBindingEncoder.encodedLength(message, UTF8, PostBindingEncoder.Escaping.HTML_ATTRIBUTE),
+                        is((long) expected.length()));
+                assertThat(encode(message, UTF8, PostBindingEncoder.Escaping.FORM_URLENCODED),
+                        is(URLEncoder.encode(expected, "US-ASCII")));
+            }
+            sb.append(i % 7 == 0 ? 'ü' : i % 11 == 0 ? '€' : (char) ('>' + i % 60));
+        }
+    }
+
+    /**
+     * Tests encoding with another charset than UTF-8.
+     *
+     * @throws Exception if encoding fails
+     */
+    @Test
+    public void testCharset() throws Exception {
+        final Charset latin1 = Charset.forName("ISO-8859-1");
+        final String message = "<a>Grüezi €</a>";
+
+        assertThat(encode(message, latin1, PostBindingEncoder.Escaping.HTML_ATTRIBUTE),
+                is(Base64.encodeBytes(message.getBytes(latin1), Base64.DONT_BREAK_LINES)));
+        assertThat(PostBindingEncoder.encodedLength(message, latin1, PostBindingEncoder.Escaping.HTML_ATTRIBUTE),
+                is(-1L));
+    }
+
+    /**
+     * Tests escaping of HTML-attribute values.
+     */
+    @Test
+    public void testEscapeHTMLAttribute() {
+        assertThat(PostBindingEncoder.escapeHTMLAttribute("http://sp.example.org/?a=1&b=\"<'x'>\""),
+                is("http://sp.example.org/?a=1&amp;b=&quot;&lt;&#39;x&#39;&gt;&quot;"));
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * @return the message encoded by PostBindingEncoder
+     */
+    private String encode(String message, Charset charset, PostBindingEncoder.Escaping escaping) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PostBindingEncoder.encode(message, charset, escaping, out);
+        return out.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.test.Benchmark;
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import java.util.ArrayList;
+import org.junit.Test;
+
+/**
+ * Benchmark comparing the throughput of AttributeResponseBuilder and
+ * TemplateAttributeResponseBuilder on the fixtures of
+ * AttributeResponseBuilderTest. Run with: mvn test -Dtest=ResponseEngineBenchmark
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class ResponseEngineBenchmark {
+
+    /**
+     * Measures building of attribute responses by both engines for every
+     * signing profile.
+     *
+     * @throws Exception if building fails
+     */
+    @Test
+    public void benchmarkResponseEngines() throws Exception {
+        final TestConfiguration testConfig = new TestConfiguration();
+        final int warmup = Integer.parseInt(testConfig.getProperty("ResponseEngineBenchmark.WarmupIterations", "200"));
+        final int iterations = Integer.parseInt(testConfig.getProperty("ResponseEngineBenchmark.Iterations", "1000"));
+
+        final String destination = testConfig.getProperty("AttributeResponseBuilderTest.Destination");
+        final String inResponseTo = testConfig.getProperty("AttributeResponseBuilderTest.InResponseTo");
+        final String nameId = testConfig.getProperty("AttributeResponseBuilderTest.NameID");
+        final String[] attributeProperties = testConfig.getPropertyList("AttributeResponseBuilderTest.Attributes");
+        final ArrayList<Attribute> attributes = new ArrayList<>(attributeProperties.length);
+        for (String attributeProperty : attributeProperties) {
+            attributes.add(new Attribute(testConfig.getPropertyList(attributeProperty)));
+        }
+
+        for (final SigningProfile profile : SigningProfile.values()) {
+            Benchmark.run("AttributeResponseBuilder/" + profile, warmup, iterations, new Benchmark.Task() {
+                @Override
+                public void run() throws Exception {
+                    new AttributeResponseBuilder(destination, inResponseTo, nameId, attributes, profile).build();
+                }
+            });
+            Benchmark.run("TemplateAttributeResponseBuilder/" + profile, warmup, iterations, new Benchmark.Task() {
+                @Override
+                public void run() throws Exception {
+                    new TemplateAttributeResponseBuilder(destination, inResponseTo, nameId, attributes, profile).build();
+                }
+            });
+        }
+    }
+}
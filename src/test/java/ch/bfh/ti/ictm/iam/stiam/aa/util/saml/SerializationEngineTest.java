@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Testsuite for the SerializationEngine
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class SerializationEngineTest {
+
+    private final SerializationEngine engine = SerializationEngine.getInstance();
+
+    /**
+     * Tests that serialization yields the same output as a newly created
+     * transformer, also when transformer and buffer are reused.
+     *
+     * @throws Exception if serialization fails
+     */
+    @Test
+    public void testSerialize() throws Exception {
+        final Document doc = engine.newDocument();
+        final Element root = doc.createElementNS("urn:test", "t:root");
+        root.setTextContent("Grüezi & <hello>");
+        doc.appendChild(root);
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(outputStream));
+        final String expected = outputStream.toString("UTF-8");
+
+        assertThat(engine.serialize(doc), is(expected));
+        assertThat(engine.serialize(doc), is(expected));
+    }
+
+    /**
+     * Tests wrapping of messages in a SOAP envelope and encoding it.
+     *
+     * @throws Exception if UTF-8 is not supported
+     */
+    @Test
+    public void testEncodeSOAPEnvelope() throws Exception {
+        final String prefix = SerializationEngine.XML_DECLARATION + SerializationEngine.SOAP_ENVELOPE_START;
+        final String message = "<a>Grüezi \u20ac \ud83d\ude00</a>";
+        final byte[] expected = (prefix + message + SerializationEngine.SOAP_ENVELOPE_END).getBytes("UTF-8");
+
+        assertThat(engine.encodeSOAPEnvelope("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + message), is(expected));
+        assertThat(engine.encodeSOAPEnvelope(message), is(expected));
+        assertThat(engine.encodeSOAPEnvelope("<a>\ud83d</a>"),
+                is((prefix + "<a>?</a>" + SerializationEngine.SOAP_ENVELOPE_END).getBytes("UTF-8")));
+    }
+
+    /**
+     * Tests wrapping of several messages in one SOAP envelope.
+     *
+     * @throws Exception if UTF-8 is not supported
+     */
+    @Test
+    public void testEncodeSOAPEnvelopeBatch() throws Exception {
+        final String prefix = SerializationEngine.XML_DECLARATION + SerializationEngine.SOAP_ENVELOPE_START;
+        final byte[] expected = (prefix + "<a>\u20ac</a><b/><c>\ud83d\ude00</c>" + SerializationEngine.SOAP_ENVELOPE_END)
+                .getBytes("UTF-8");
+
+        assertThat(engine.encodeSOAPEnvelope(Arrays.asList("<a>\u20ac</a>",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><b/>", "<c>\ud83d\ude00</c>")), is(expected));
+        assertThat(engine.encodeSOAPEnvelope(Collections.<String>emptyList()),
+                is((prefix + SerializationEngine.SOAP_ENVELOPE_END).getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.test.Benchmark;
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import org.junit.Test;
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.opensaml.xml.signature.Signer;
+
+/**
+ * Benchmark comparing the cost of signing and verifying a response with the
+ * supported signature algorithms and key types. Run with: mvn test
+ * -Dtest=SignatureAlgorithmBenchmark
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class SignatureAlgorithmBenchmark {
+
+    private final TestConfiguration testConfig = new TestConfiguration();
+
+    /**
+     * Measures signing and verification for every algorithm.
+     *
+     * @throws Exception if signing or verification fails
+     */
+    @Test
+    public void benchmarkSignatureAlgorithms() throws Exception {
+        final String ecKey = testConfig.getProperty("SignatureAlgorithmBenchmark.ECSigningKey");
+
+        benchmark("RSA-SHA1", new RelyingParty(null, SigningProfile.RESPONSE, null,
+                SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA1, SignatureConstants.ALGO_ID_DIGEST_SHA1));
+        benchmark("RSA-SHA256", new RelyingParty(null, SigningProfile.RESPONSE, null,
+                SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256, SignatureConstants.ALGO_ID_DIGEST_SHA256));
+        benchmark("ECDSA-P256-SHA256", new RelyingParty(null, SigningProfile.RESPONSE, ecKey,
+                SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, SignatureConstants.ALGO_ID_DIGEST_SHA256));
+    }
+
+    /**
+     * Measures signing and verification for the given relying party.
+     */
+    private void benchmark(String name, final RelyingParty relyingParty) throws Exception {
+        final int warmup = Integer.parseInt(testConfig.getProperty("SignatureAlgorithmBenchmark.WarmupIterations", "200"));
+        final int iterations = Integer.parseInt(testConfig.getProperty("SignatureAlgorithmBenchmark.Iterations", "1000"));
+        final StiamConfiguration config = StiamConfiguration.getInstance();
+        final Credential verificationCredential = relyingParty.getSigningKeyAlias() != null
+                ? config.getCredential(relyingParty.getSigningKeyAlias())
+                : config.getSignatureCredential();
+
+        // The builder is created once, as its constructor bootstraps OpenSAML
+        final ResponseBuilder builder = new ResponseBuilder(
+                testConfig.getProperty("StatusResponseBuilderTest.Destination"),
+                testConfig.getProperty("StatusResponseBuilderTest.InResponseTo"),
+                testConfig.getPropertyList("StatusResponseBuilderTest.StatusCodes"),
+                SigningProfile.NONE);
+
+        Benchmark.run("sign/" + name, warmup, iterations, new Benchmark.Task() {
+            @Override
+            public void run() throws Exception {
+                sign(builder, relyingParty);
+            }
+        });
+
+        final Signature signature = sign(builder, relyingParty);
+        final SignatureValidator validator = new SignatureValidator(verificationCredential);
+        Benchmark.run("verify/" + name, warmup, iterations, new Benchmark.Task() {
+            @Override
+            public void run() throws Exception {
+                validator.validate(signature);
+            }
+        });
+    }
+
+    /**
+     * Builds and signs a status response for the given relying party.
+     */
+    private Signature sign(ResponseBuilder builder, RelyingParty relyingParty) throws Exception {
+        final Response response = builder.buildRawResponse();
+        final Signature signature = builder.prepareSignature(response, relyingParty);
+        Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+        Signer.signObject(signature);
+        return signature;
+    }
+}
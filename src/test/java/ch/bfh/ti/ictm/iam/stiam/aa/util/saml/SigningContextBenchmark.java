@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.test.Benchmark;
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import org.junit.Test;
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.security.SecurityHelper;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.Signer;
+
+/**
+ * Benchmark comparing the preparation of signatures from scratch (as done by
+ * SecurityHelper.prepareSignatureParams()) to the reuse of a SigningContext.
+ * Run with: mvn test -Dtest=SigningContextBenchmark
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class SigningContextBenchmark {
+
+    private final TestConfiguration testConfig = new TestConfiguration();
+
+    /**
+     * Measures preparing and signing responses with and without context.
+     *
+     * @throws Exception if signing fails
+     */
+    @Test
+    public void benchmarkSigningContext() throws Exception {
+        final int warmup = Integer.parseInt(testConfig.getProperty("SigningContextBenchmark.WarmupIterations", "200"));
+        final int iterations = Integer.parseInt(testConfig.getProperty("SigningContextBenchmark.Iterations", "1000"));
+        final RelyingParty relyingParty = new RelyingParty(null, SigningProfile.RESPONSE, null, null, null);
+        final ResponseBuilder builder = new ResponseBuilder(
+                testConfig.getProperty("StatusResponseBuilderTest.Destination"),
+                testConfig.getProperty("StatusResponseBuilderTest.InResponseTo"),
+                testConfig.getPropertyList("StatusResponseBuilderTest.StatusCodes"),
+                SigningProfile.NONE);
+
+        Benchmark.run("prepare/from scratch", warmup, iterations, new Benchmark.Task() {
+            @Override
+            public void run() throws Exception {
+                prepareFromScratch(builder.buildRawResponse());
+            }
+        });
+        Benchmark.run("prepare/context", warmup, iterations, new Benchmark.Task() {
+            @Override
+            public void run() throws Exception {
+                SigningContext.getInstance(relyingParty).prepareSignature(builder.buildRawResponse());
+            }
+        });
+        Benchmark.run("sign/from scratch", warmup, iterations, new Benchmark.Task() {
+            @Override
+            public void run() throws Exception {
+                final Response response = builder.buildRawResponse();
+                sign(response, prepareFromScratch(response));
+            }
+        });
+        Benchmark.run("sign/context", warmup, iterations, new Benchmark.Task() {
+            @Override
+            public void run() throws Exception {
+                final Response response = builder.buildRawResponse();
+                sign(response, SigningContext.getInstance(relyingParty).prepareSignature(response));
+            }
+        });
+    }
+
+    /**
+     * Prepares a signature the way it was done before SigningContext.
+     */
+    private Signature prepareFromScratch(Response response) throws Exception {
+        final Credential signingCredential = StiamConfiguration.getInstance().getSignatureCredential();
+        final Signature signature = (Signature) Configuration.getBuilderFactory()
+                .getBuilder(Signature.DEFAULT_ELEMENT_NAME).buildObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(signingCredential);
+        SecurityHelper.prepareSignatureParams(signature, signingCredential, null, null);
+        response.setSignature(signature);
+        return signature;
+    }
+
+    /**
+     * Marshalls and signs a response.
+     */
+    private void sign(Response response, Signature signature) throws Exception {
+        Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+        Signer.signObject(signature);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+
+/**
+ * Testsuite for the SigningContext
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class SigningContextTest {
+
+    /**
+     * Tests that contexts are reused per thread and configuration only.
+     *
+     * @throws Exception if a context cannot be created
+     */
+    @Test
+    public void testContextReuse() throws Exception {
+        DefaultBootstrap.bootstrap();
+        final RelyingParty relyingParty = new RelyingParty("https://sp1.example.org", SigningProfile.BOTH, null, null, null);
+        final SigningContext context = SigningContext.getInstance(relyingParty);
+
+        // Same key and algorithms on the same thread share the context, regardless of the issuer
+        assertSame(context, SigningContext.getInstance(relyingParty));
+        assertSame(context, SigningContext.getInstance(new RelyingParty(null, SigningProfile.RESPONSE, null, null, null)));
+
+        // Other algorithms get their own context
+        assertNotSame(context, SigningContext.getInstance(new RelyingParty(null, SigningProfile.BOTH, null,
+                "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256", null)));
+
+        // Other threads get their own context
+        final AtomicReference<SigningContext> otherContext = new AtomicReference<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    otherContext.set(SigningContext.getInstance(relyingParty));
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotSame(context, otherContext.get());
+    }
+}
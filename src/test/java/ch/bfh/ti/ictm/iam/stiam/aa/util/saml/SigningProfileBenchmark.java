@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.test.Benchmark;
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import java.util.ArrayList;
+import org.junit.Test;
+
+/**
+ * Benchmark of the throughput of AttributeResponseBuilder with the different
+ * signing profiles. Run with: mvn test -Dtest=SigningProfileBenchmark
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class SigningProfileBenchmark {
+
+    /**
+     * Measures building of attribute responses for every signing profile.
+     *
+     * @throws Exception if building fails
+     */
+    @Test
+    public void benchmarkSigningProfiles() throws Exception {
+        final TestConfiguration testConfig = new TestConfiguration();
+        final int warmup = Integer.parseInt(testConfig.getProperty("SigningProfileBenchmark.WarmupIterations", "200"));
+        final int iterations = Integer.parseInt(testConfig.getProperty("SigningProfileBenchmark.Iterations", "1000"));
+
+        final String[] attributeProperties = testConfig.getPropertyList("AttributeResponseBuilderTest.Attributes");
+        final ArrayList<Attribute> attributes = new ArrayList<>(attributeProperties.length);
+        for (String attributeProperty : attributeProperties) {
+            attributes.add(new Attribute(testConfig.getPropertyList(attributeProperty)));
+        }
+
+        for (final SigningProfile profile : SigningProfile.values()) {
+            Benchmark.run("AttributeResponseBuilder/" + profile, warmup, iterations, new Benchmark.Task() {
+                @Override
+                public void run() throws Exception {
+                    new AttributeResponseBuilder(
+                            testConfig.getProperty("AttributeResponseBuilderTest.Destination"),
+                            testConfig.getProperty("AttributeResponseBuilderTest.InResponseTo"),
+                            testConfig.getProperty("AttributeResponseBuilderTest.NameID"),
+                            attributes, profile).build();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014 Pascal Mainini, Marc Kunz
+ * Licensed under MIT license, see included file LICENSE or
+ * http://opensource.org/licenses/MIT
+ */
+package ch.bfh.ti.ictm.iam.stiam.aa.util.saml;
+
+import ch.bfh.ti.ictm.iam.stiam.aa.test.TestConfiguration;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.RelyingParty;
+import ch.bfh.ti.ictm.iam.stiam.aa.util.StiamConfiguration;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.junit.Test;
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.AttributeStatement;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.security.SAMLSignatureProfileValidator;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.opensaml.xml.validation.ValidationException;
+import org.w3c.dom.Element;
+
+/**
+ * Testsuite for the TemplateAttributeResponseBuilder, verifying that its
+ * responses are equivalent to the ones built by AttributeResponseBuilder and
+ * validate the same way.
+ *
+ * @author Pascal Mainini
+ * @author Marc Kunz
+ */
+public class TemplateAttributeResponseBuilderTest {
+
+    private final TestConfiguration testConfig = new TestConfiguration();
+
+    /**
+     * Compares the responses of both builders for every signing profile.
+     *
+     * @throws Exception if building or parsing fails
+     */
+    @Test
+    public void testConformance() throws Exception {
+        final Credential credential = StiamConfiguration.getInstance().getSignatureCredential();
+        final Collection<Attribute> attributes = getAttributes();
+        final String destination = testConfig.getProperty("AttributeResponseBuilderTest.Destination");
+        final String inResponseTo = testConfig.getProperty("AttributeResponseBuilderTest.InResponseTo");
+        final String nameId = testConfig.getProperty("AttributeResponseBuilderTest.NameID");
+
+        for (SigningProfile profile : SigningProfile.values()) {
+            final Response expected = parse(new AttributeResponseBuilder(destination, inResponseTo, nameId,
+                    attributes, profile).build());
+            final Response actual = parse(new TemplateAttributeResponseBuilder(destination, inResponseTo, nameId,
+                    attributes, profile).build());
+
+            assertThat(describe(actual), is(describe(expected)));
+            assertThat(validate(actual, credential), is(validate(expected, credential)));
+            assertThat(validate(actual, credential), is(profile.toString()));
+        }
+    }
+
+    /**
+     * Tests that values needing escaping are transferred and signed
+     * correctly.
+     *
+     * @throws Exception if building or parsing fails
+     */
+    @Test
+    public void testEscaping() throws Exception {
+        final String value = "<a href=\"x\">&amp; 'Grüezi'\ttab\r\nline</a> €";
+        final Collection<Attribute> attributes = new ArrayList<>(2);
+        attributes.add(new Attribute("na<me\"", "friendly\n& \"name\"", "format\t\r", value));
+        attributes.add(new Attribute("empty", null, null, ""));
+
+        final String response = new TemplateAttributeResponseBuilder("http://localhost:8080/?a=1&b=\"2\"",
+                "_in<&>\"", value, attributes, SigningProfile.BOTH).build();
+        final Response expected = parse(new AttributeResponseBuilder("http://localhost:8080/?a=1&b=\"2\"",
+                "_in<&>\"", value, attributes, SigningProfile.BOTH).build());
+        final Response actual = parse(response);
+
+        assertThat(describe(actual), is(describe(expected)));
+        assertThat(validate(actual, StiamConfiguration.getInstance().getSignatureCredential()), is("BOTH"));
+    }
+
+    /**
+     * Tests that values which are empty, null or surrounded by whitespace
+     * are rendered as by OpenSAML: trimmed, with empty attributes omitted
+     * (e.g. FriendlyName, or Destination if there is none) and empty elements
+     * left empty. Compares the canonical form of the responses of both
+     * builders, without IDs and timestamps.
+     *
+     * @throws Exception if building or canonicalizing fails
+     */
+    @Test
+    public void testEdgeCases() throws Exception {
+        final Collection<Attribute> attributes = new ArrayList<>(4);
+        attributes.add(new Attribute("emptyFriendlyName", "", "", "value"));
+        attributes.add(new Attribute(" padded ", " friendly ", " format ", " value "));
+        attributes.add(new Attribute("blank", "  ", "  ", "  "));
+        attributes.add(new Attribute("noValue", null, null, null));
+
+        for (String destination : new String[]{null, "", " http://localhost:8080/ "}) {
+            for (String inResponseTo : new String[]{null, "", " _in "}) {
+                for (String nameId : new String[]{null, " johndoe "}) {
+                    final String expected = canonicalize(new AttributeResponseBuilder(destination, inResponseTo,
+                            nameId, attributes, SigningProfile.NONE).build());
+                    final String actual = canonicalize(new TemplateAttributeResponseBuilder(destination,
+                            inResponseTo, nameId, attributes, SigningProfile.NONE).build());
+                    assertThat(actual, is(expected));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests signing with an EC key and explicitly configured algorithms.
+     *
+     * @throws Exception if building or parsing fails
+     */
+    @Test
+    public void testECSignature() throws Exception {
+        final String alias = testConfig.getProperty("MessageBuilderTest.ECSigningKey");
+        final SigningContext context = SigningContext.getInstance(new RelyingParty(null, SigningProfile.BOTH, alias,
+                SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, SignatureConstants.ALGO_ID_DIGEST_SHA256));
+        final Collection<Attribute> attributes = getAttributes();
+
+        final Response response = parse(AttributeResponseTemplate.getInstance("http://localhost:8080/",
+                "https://aa.example.org", null, attributes).render("_response", "_assertion", null,
+                        "2014-11-07T16:08:54.000Z", "2014-11-07T16:18:54.000Z", "johndoe", attributes,
+                        SigningProfile.BOTH, context));
+
+        assertThat(response.getSignature().getSignatureAlgorithm(), is(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256));
+        assertThat(validate(response, StiamConfiguration.getInstance().getCredential(alias)), is("BOTH"));
+    }
+
+    /**
+     * Tests that modified responses do not validate anymore.
+     *
+     * @throws Exception if building or parsing fails
+     */
+    @Test
+    public void testTampering() throws Exception {
+        final Credential credential = StiamConfiguration.getInstance().getSignatureCredential();
+        final Collection<Attribute> attributes = getAttributes();
+        final String response = new TemplateAttributeResponseBuilder("http://localhost:8080/", "_unique_id_", "johndoe",
+                attributes, SigningProfile.BOTH).build();
+
+        final Response modified = parse(response.replace(">johndoe<", ">janedoe<"));
+        try {
+            new SignatureValidator(credential).validate(modified.getAssertions().get(0).getSignature());
+            fail("Modified assertion validated");
+        } catch (ValidationException ex) {
+        }
+        try {
+            new SignatureValidator(credential).validate(modified.getSignature());
+            fail("Modified response validated");
+        } catch (ValidationException ex) {
+        }
+    }
+
+//////////////////////////////////////// Helpers
+    /**
+     * @return the attributes of the fixtures of AttributeResponseBuilderTest
+     */
+    private Collection<Attribute> getAttributes() {
+        final String[] attributeProperties = testConfig.getPropertyList("AttributeResponseBuilderTest.Attributes");
+        final ArrayList<Attribute> attributes = new ArrayList<>(attributeProperties.length);
+        for (String attributeProperty : attributeProperties) {
+            attributes.add(new Attribute(testConfig.getPropertyList(attributeProperty)));
+        }
+        return attributes;
+    }
+
+    /**
+     * @return the response parsed and unmarshalled by OpenSAML
+     */
+    private Response parse(String response) throws Exception {
+        final Element element = SerializationEngine.getInstance().getParserPool()
+                .parse(new StringReader(response)).getDocumentElement();
+        return (Response) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+    }
+
+    /**
+     * @return the response in exclusive canonical form, with IDs and
+     * timestamps blanked
+     */
+    private String canonicalize(String response) throws Exception {
+        final Element element = SerializationEngine.getInstance().getParserPool()
+                .parse(new StringReader(response)).getDocumentElement();
+        return new String(Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS)
+                .canonicalizeSubtree(element), StandardCharsets.UTF_8)
+                .replaceAll(" (ID|IssueInstant|NotBefore|NotOnOrAfter)=\"[^\"]*\"", " $1=\"\"");
+    }
+
+    /**
+     * @return a description of the content of a response, without IDs,
+     * timestamps and signatures
+     */
+    private String describe(Response response) {
+        final Assertion assertion = response.getAssertions().get(0);
+        final StringBuilder sb = new StringBuilder();
+        sb.append(response.getVersion()).append('|').append(response.getDestination())
+                .append('|').append(response.getInResponseTo())
+                .append('|').append(response.getIssuer().getValue())
+                .append('|').append(response.getStatus().getStatusCode().getValue())
+                .append('|').append(response.getStatus().getStatusCode().getStatusCode())
+                .append('|').append(response.getAssertions().size())
+                .append('|').append(assertion.getVersion())
+                .append('|').append(assertion.getIssuer().getValue())
+                .append('|').append(assertion.getSubject().getNameID().getFormat())
+                .append('|').append(assertion.getSubject().getNameID().getValue())
+                .append('|').append(assertion.getConditions().getNotOnOrAfter().getMillis()
+                        - assertion.getConditions().getNotBefore().getMillis())
+                .append('|').append(assertion.getConditions().getAudienceRestrictions().get(0)
+                        .getAudiences().get(0).getAudienceURI());
+        assertThat(assertion.getIssueInstant(), is(response.getIssueInstant()));
+        assertThat(assertion.getConditions().getNotBefore(), is(response.getIssueInstant()));
+
+        for (AttributeStatement statement : assertion.getAttributeStatements()) {
+            for (org.opensaml.saml2.core.Attribute attribute : statement.getAttributes()) {
+                sb.append("\n").append(attribute.getName()).append('|').append(attribute.getNameFormat())
+                        .append('|').append(attribute.getFriendlyName());
+                for (XMLObject value : attribute.getAttributeValues()) {
+                    sb.append('|').append(value.getSchemaType()).append('=')
+                            .append(value.getDOM().getTextContent());
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Validates the signatures of a response like a relying party would.
+     *
+     * @return the signing profile corresponding to the signed elements
+     */
+    private String validate(Response response, Credential credential) throws ValidationException {
+        final Assertion assertion = response.getAssertions().get(0);
+        for (Signature signature : new Signature[]{response.getSignature(), assertion.getSignature()}) {
+            if (signature != null) {
+                new SAMLSignatureProfileValidator().validate(signature);
+                new SignatureValidator(credential).validate(signature);
+                assertNotNull(signature.getKeyInfo());
+            }
+        }
+
+        if (response.getSignature() == null) {
+            return assertion.getSignature() == null ? "NONE" : "ASSERTION";
+        }
+        return assertion.getSignature() == null ? "RESPONSE" : "BOTH";
+    }
+}